@@ -0,0 +1,173 @@
+package wk.com.videodemo;
+
+import android.app.Activity;
+import android.graphics.Rect;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.TextureView;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.GridLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import wk.com.videodemo.player.DecoderBudgetScheduler;
+
+/**
+ * 宫格同时播放多路视频。能同时工作的硬件解码器数量有限，由DecoderBudgetScheduler按可见性和优先级分配：
+ * 滚出屏幕的暂停或释放，点中的那一格优先级最高，释放过的格子重新分到解码器时从原来的位置继续播放
+ */
+public class GridPlayerActivity extends Activity implements DecoderBudgetScheduler.Listener, GridTile.Callback {
+    private static final String TAG = "GridPlayerActivity";
+    public static final String EXTRA_SOURCES = "sources";
+
+    private static final int COLUMN_COUNT = 2;
+    // 查不到解码器实例数时的默认预算，大多数设备都能同时跑4路
+    private static final int DEFAULT_BUDGET = 4;
+    private static final int MAX_BUDGET = 8;
+    private static final int PRIORITY_NORMAL = 0;
+    private static final int PRIORITY_FOCUSED = 1;
+
+    private final List<GridTile> mTiles = new ArrayList<>();
+    private final Rect mVisibleRect = new Rect();
+    private DecoderBudgetScheduler mScheduler;
+    private int mFocusedId = -1;
+    private boolean mResumed;
+
+    @Override
+    protected void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_grid_player);
+
+        String[] sources = getIntent().getStringArrayExtra(EXTRA_SOURCES);
+        if (null == sources) {
+            sources = new String[0];
+        }
+        int budget = estimateDecoderBudget();
+        Log.d(TAG, "decoder budget " + budget + " for " + sources.length + " sources");
+        mScheduler = new DecoderBudgetScheduler(budget, this);
+
+        GridLayout grid = findViewById(R.id.grid);
+        int tileWidth = getResources().getDisplayMetrics().widthPixels / COLUMN_COUNT;
+        int tileHeight = tileWidth * 9 / 16;
+        for (int i = 0; i < sources.length; i++) {
+            TextureView view = new TextureView(this);
+            GridLayout.LayoutParams params = new GridLayout.LayoutParams();
+            params.width = tileWidth;
+            params.height = tileHeight;
+            grid.addView(view, params);
+
+            final GridTile tile = new GridTile(i, sources[i], view, this);
+            mTiles.add(tile);
+            mScheduler.addTile(i, PRIORITY_NORMAL);
+            // 点中的格子优先级最高，一定能分到解码器
+            view.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    focus(tile.getId());
+                }
+            });
+        }
+
+        findViewById(R.id.grid_scroll).getViewTreeObserver().addOnScrollChangedListener(
+                new ViewTreeObserver.OnScrollChangedListener() {
+                    @Override
+                    public void onScrollChanged() {
+                        reschedule();
+                    }
+                });
+        grid.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
+            @Override
+            public void onGlobalLayout() {
+                reschedule();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mResumed = true;
+        reschedule();
+    }
+
+    @Override
+    protected void onPause() {
+        // 退到后台时把解码器都还给系统，回来时从原来的位置继续
+        mResumed = false;
+        mScheduler.releaseAll();
+        super.onPause();
+    }
+
+    private void focus(int tileId) {
+        if (mFocusedId >= 0) {
+            mScheduler.setPriority(mFocusedId, PRIORITY_NORMAL);
+        }
+        mFocusedId = tileId;
+        mScheduler.setPriority(tileId, PRIORITY_FOCUSED);
+        reschedule();
+    }
+
+    private void reschedule() {
+        if (!mResumed) {
+            return;
+        }
+        for (GridTile tile : mTiles) {
+            View view = tile.getView();
+            boolean visible = view.isShown() && view.getLocalVisibleRect(mVisibleRect);
+            mScheduler.setVisible(tile.getId(), visible);
+            // 源文件有问题被搁置的格子，文件变了再试
+            if (visible && mScheduler.isParked(tile.getId()) && tile.hasSourceChanged()) {
+                mScheduler.resumeTile(tile.getId());
+            }
+        }
+        mScheduler.schedule();
+    }
+
+    @Override
+    public void onStateChanged(int tileId, int oldState, int newState) {
+        mTiles.get(tileId).setState(newState);
+    }
+
+    @Override
+    public void onTileFailed(GridTile tile, boolean allocation) {
+        if (!mResumed) {
+            return;
+        }
+        // 解码器不够用时预算降到当前实际占用的数量，过一会儿再慢慢恢复；视频源的问题只搁置这一格
+        mScheduler.onDecoderFailed(tile.getId(), allocation);
+        Log.w(TAG, "tile " + tile.getId() + " failed, allocation " + allocation + ", budget now "
+                + mScheduler.getBudget());
+    }
+
+    /**
+     * 根据硬件AVC解码器支持的最大实例数估算预算（6.0及以上才能查询），再留一个给系统的其它应用
+     */
+    private static int estimateDecoderBudget() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return DEFAULT_BUDGET;
+        }
+        int max = 0;
+        MediaCodecList list = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+        for (MediaCodecInfo info : list.getCodecInfos()) {
+            if (info.isEncoder() || info.getName().startsWith("OMX.google.") || info.getName().startsWith("c2.android.")) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                if (MediaFormat.MIMETYPE_VIDEO_AVC.equalsIgnoreCase(type)) {
+                    max = Math.max(max, info.getCapabilitiesForType(type).getMaxSupportedInstances());
+                }
+            }
+        }
+        if (max <= 1) {
+            return DEFAULT_BUDGET;
+        }
+        return Math.min(MAX_BUDGET, max - 1);
+    }
+}
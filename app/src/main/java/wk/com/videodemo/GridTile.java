@@ -0,0 +1,209 @@
+package wk.com.videodemo;
+
+import android.graphics.SurfaceTexture;
+import android.media.MediaPlayer;
+import android.util.Log;
+import android.view.Surface;
+import android.view.TextureView;
+
+import java.io.File;
+import java.io.IOException;
+
+import wk.com.videodemo.player.DecoderBudgetScheduler;
+
+/**
+ * 宫格播放里的一格：一个TextureView和按需创建的MediaPlayer。
+ *
+ * 由DecoderBudgetScheduler决定状态：释放时记住播放位置并release()掉player，把解码器还给系统；
+ * 重新分到解码器时新建player，prepare完成后seek回原来的位置继续播放。
+ *
+ * 出错时区分是视频源的问题（读不了、格式损坏、不支持）还是解码器不够用，前者记下文件的大小和修改时间，
+ * 文件变了才值得再试
+ */
+public class GridTile implements TextureView.SurfaceTextureListener, MediaPlayer.OnPreparedListener,
+        MediaPlayer.OnErrorListener {
+    private static final String TAG = "GridTile";
+
+    public interface Callback {
+        // 创建或者prepare解码器失败，在主线程调用。allocation为true表示申请解码器失败，false表示视频源的问题
+        void onTileFailed(GridTile tile, boolean allocation);
+    }
+
+    private final int mId;
+    private final String mPath;
+    private final TextureView mView;
+    private final Callback mCallback;
+
+    private Surface mSurface;
+    private MediaPlayer mPlayer;
+    private boolean mPrepared;
+    private int mState = DecoderBudgetScheduler.STATE_RELEASED;
+    private int mPositionMs;
+    // 视频源出错时文件的大小和修改时间，用来判断文件是否变了
+    private long mFailedLength = -1;
+    private long mFailedModified = -1;
+
+    public GridTile(int id, String path, TextureView view, Callback callback) {
+        mId = id;
+        mPath = path;
+        mView = view;
+        mCallback = callback;
+        mView.setSurfaceTextureListener(this);
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public TextureView getView() {
+        return mView;
+    }
+
+    public void setState(int state) {
+        mState = state;
+        switch (state) {
+            case DecoderBudgetScheduler.STATE_RELEASED:
+                releasePlayer();
+                break;
+            case DecoderBudgetScheduler.STATE_PAUSED:
+                if (ensurePlayer() && mPrepared && mPlayer.isPlaying()) {
+                    mPlayer.pause();
+                }
+                break;
+            case DecoderBudgetScheduler.STATE_PLAYING:
+                if (ensurePlayer() && mPrepared && !mPlayer.isPlaying()) {
+                    mPlayer.start();
+                }
+                break;
+        }
+    }
+
+    private boolean ensurePlayer() {
+        if (null != mPlayer) {
+            return true;
+        }
+        mPrepared = false;
+        mPlayer = new MediaPlayer();
+        mPlayer.setOnPreparedListener(this);
+        mPlayer.setOnErrorListener(this);
+        mPlayer.setLooping(true);
+        // 宫格里只看画面
+        mPlayer.setVolume(0, 0);
+        if (null != mSurface) {
+            mPlayer.setSurface(mSurface);
+        }
+        try {
+            mPlayer.setDataSource(mPath);
+            mPlayer.prepareAsync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail(false);
+            return false;
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+            fail(true);
+            return false;
+        }
+        return true;
+    }
+
+    private void releasePlayer() {
+        if (null == mPlayer) {
+            return;
+        }
+        if (mPrepared) {
+            mPositionMs = mPlayer.getCurrentPosition();
+        }
+        mPlayer.release();
+        mPlayer = null;
+        mPrepared = false;
+    }
+
+    private void fail(final boolean allocation) {
+        releasePlayer();
+        mState = DecoderBudgetScheduler.STATE_RELEASED;
+        if (!allocation) {
+            File file = new File(mPath);
+            mFailedLength = file.length();
+            mFailedModified = file.lastModified();
+        }
+        // 不在调度器的回调里重新调度，放到下一个消息
+        mView.post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onTileFailed(GridTile.this, allocation);
+            }
+        });
+    }
+
+    // 视频源出错以后，文件有没有变化（重新下载、录完了等）
+    public boolean hasSourceChanged() {
+        File file = new File(mPath);
+        return file.length() != mFailedLength || file.lastModified() != mFailedModified;
+    }
+
+    /**
+     * 读不了、格式损坏、不支持这几种是视频源的问题，换多少个解码器都一样；
+     * 其它的（MEDIA_ERROR_UNKNOWN配系统错误、mediaserver重启等）大多是解码器不够用
+     */
+    private static boolean isSourceError(int what, int extra) {
+        switch (extra) {
+            case MediaPlayer.MEDIA_ERROR_IO:
+            case MediaPlayer.MEDIA_ERROR_MALFORMED:
+            case MediaPlayer.MEDIA_ERROR_UNSUPPORTED:
+            case MediaPlayer.MEDIA_ERROR_TIMED_OUT:
+                return true;
+        }
+        return MediaPlayer.MEDIA_ERROR_NOT_VALID_FOR_PROGRESSIVE_PLAYBACK == what;
+    }
+
+    @Override
+    public void onPrepared(MediaPlayer mp) {
+        mPrepared = true;
+        if (mPositionMs > 0) {
+            mp.seekTo(mPositionMs);
+        }
+        if (DecoderBudgetScheduler.STATE_PLAYING == mState) {
+            mp.start();
+        }
+    }
+
+    @Override
+    public boolean onError(MediaPlayer mp, int what, int extra) {
+        Log.e(TAG, "tile " + mId + " error " + what + "/" + extra + ": " + mPath);
+        fail(!isSourceError(what, extra));
+        return true;
+    }
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surfaceTexture, int width, int height) {
+        mSurface = new Surface(surfaceTexture);
+        if (null != mPlayer) {
+            mPlayer.setSurface(mSurface);
+        }
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surfaceTexture, int width, int height) {
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surfaceTexture) {
+        if (null != mPlayer) {
+            mPlayer.setSurface(null);
+        }
+        if (null != mSurface) {
+            mSurface.release();
+            mSurface = null;
+        }
+        return true;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surfaceTexture) {
+    }
+}
@@ -7,7 +7,12 @@ import android.os.Bundle;
 import android.view.View;
 import android.widget.VideoView;
 
+import java.util.List;
+
+import wk.com.videodemo.camera2.CameraHelper;
 import wk.com.videodemo.camera2.VideoActivity;
+import wk.com.videodemo.library.LibraryEntry;
+import wk.com.videodemo.library.MediaLibrary;
 
 public class MainActivity extends Activity implements View.OnClickListener {
 
@@ -30,6 +35,14 @@ public class MainActivity extends Activity implements View.OnClickListener {
         findViewById(R.id.btn_videoview).setOnClickListener(this);
         findViewById(R.id.btn_surfaceview).setOnClickListener(this);
         findViewById(R.id.btn_textureview).setOnClickListener(this);
+        findViewById(R.id.btn_grid).setOnClickListener(this);
+
+        // 提前在后台准备好摄像头能力，进入拍摄页面时打开camera更快
+        CameraHelper.warmUp(this);
+
+        // 后台增量扫描媒体库，只解析新增和变化的视频
+        MediaLibrary library = MediaLibrary.getInstance(this);
+        library.scan(library.getRoots(VIDEO_DIR), null);
     }
 
     private void playBySystem() {
@@ -49,7 +62,29 @@ public class MainActivity extends Activity implements View.OnClickListener {
     }
 
     private void playBySurfaceView() {
-        startActivity(new Intent(this, PlayerActivity.class));
+        Intent intent = new Intent(this, PlayerActivity.class);
+        intent.putExtra(PlayerActivity.EXTRA_SOURCES, getLibrarySources());
+        startActivity(intent);
+    }
+
+    private void playByGrid() {
+        Intent intent = new Intent(this, GridPlayerActivity.class);
+        intent.putExtra(GridPlayerActivity.EXTRA_SOURCES, getLibrarySources());
+        startActivity(intent);
+    }
+
+    // 媒体库索引里的视频，新录的在前面；还没扫描过时用测试目录下的固定文件
+    private String[] getLibrarySources() {
+        List<LibraryEntry> entries = MediaLibrary.getInstance(this).getEntries();
+        if (entries.isEmpty()) {
+            return new String[]{VIDEO_DIR_0, VIDEO_DIR_1, VIDEO_DIR_2, VIDEO_DIR_3, VIDEO_DIR_4, VIDEO_DIR_5,
+                    VIDEO_DIR_6};
+        }
+        String[] sources = new String[entries.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = entries.get(i).path;
+        }
+        return sources;
     }
 
     private void playByTextureView() {
@@ -68,6 +103,9 @@ public class MainActivity extends Activity implements View.OnClickListener {
             case R.id.btn_surfaceview:
                 playBySurfaceView();
                 break;
+            case R.id.btn_grid:
+                playByGrid();
+                break;
             case R.id.btn_textureview:
                 startActivity(new Intent(this, VideoActivity.class));
 //                startActivity(new Intent(this, SurfaceActivity.class));
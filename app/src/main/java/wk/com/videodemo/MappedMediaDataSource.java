@@ -0,0 +1,58 @@
+package wk.com.videodemo;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import wk.com.videodemo.player.MappedReadAhead;
+
+/**
+ * 本地文件的MediaDataSource，读取交给MappedReadAhead：内存映射加后台预读，慢速存储卡上起播和seek不容易卡。
+ *
+ * MediaDataSource是6.0（API 23）才有的，低版本还是用setDataSource(context, uri)
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class MappedMediaDataSource extends MediaDataSource {
+    // 所有文件共用一个预读线程，多个player同时预读时不互相抢IO
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final MappedReadAhead mReader;
+
+    public MappedMediaDataSource(File file) throws IOException {
+        mReader = new MappedReadAhead(file, PREFETCH_EXECUTOR);
+    }
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        return mReader.read(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return mReader.getSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    // seek之前调用，提前预读目标位置
+    public void prefetch(long position) {
+        mReader.prefetch(position);
+    }
+
+    // 读取量、miss次数、卡顿时间等统计
+    public MappedReadAhead getReader() {
+        return mReader;
+    }
+}
@@ -3,82 +3,753 @@ package wk.com.videodemo;
 import android.content.Context;
 import android.media.MediaPlayer;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
 import android.view.SurfaceHolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class MyPlayer implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener {
+import wk.com.videodemo.mp4.Mp4Index;
+import wk.com.videodemo.mp4.Mp4IndexCache;
+import wk.com.videodemo.mp4.TrackIndex;
+import wk.com.videodemo.player.MappedReadAhead;
+import wk.com.videodemo.player.PlaybackMetrics;
+import wk.com.videodemo.player.PlaybackSession;
+
+/**
+ * 播放器：所有MediaPlayer操作都在自己的HandlerThread里执行，reset()、setDataSource()、release()这些可能等IO、
+ * 等解码器销毁的调用不会卡住主线程。
+ *
+ * 1.公开方法只是往命令队列里发一条消息，立即返回；
+ * 2.多余的命令会合并：还没执行的seek被新的seek替换，start/pause只保留最后一个，切换视频源时丢掉还没执行的旧seek，
+ *   连续next()/previous()累加成一次跳转，快速切换视频源时只有最后一个真正去prepare；
+ * 3.状态只在播放线程里修改，是一个显式的状态机（STATE_*），mState是volatile的，任何线程都可以读，
+ *   状态变化通过Listener在主线程通知。
+ *
+ * MediaPlayer在播放线程里创建，它的回调也在播放线程执行，所以传进来的PlayerPool只能给这一个MyPlayer用，
+ * release()时会一起清掉。
+ *
+ * 播放体验数据（首帧时间、prepare/seek耗时、卡顿、错误、各状态时长）按视频源汇总在getMetrics()里，所有MyPlayer共用
+ */
+public class MyPlayer implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener,
+        MediaPlayer.OnInfoListener, MediaPlayer.OnSeekCompleteListener {
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_PREPARING = 1;
+    public static final int STATE_PLAYING = 2;
+    public static final int STATE_PAUSED = 3;
+    public static final int STATE_COMPLETED = 4;
+    public static final int STATE_ERROR = 5;
+    public static final int STATE_RELEASED = 6;
+
+    private static final int MSG_PLAY = 1;
+    private static final int MSG_SET_PLAYLIST = 2;
+    private static final int MSG_ADD_ITEM = 3;
+    private static final int MSG_REMOVE_ITEM = 4;
+    private static final int MSG_SKIP_BY = 5;
+    private static final int MSG_SKIP_TO = 6;
+    private static final int MSG_PRELOAD = 7;
+    private static final int MSG_START = 8;
+    private static final int MSG_PAUSE = 9;
+    private static final int MSG_SEEK = 10;
+    private static final int MSG_SET_DISPLAY = 11;
+    private static final int MSG_RELEASE = 12;
+
+    // 最多按32个视频源分别统计
+    private static final PlaybackMetrics METRICS = new PlaybackMetrics(32, STATE_RELEASED + 1);
+
+    public interface Listener {
+        // 在主线程调用
+        void onStateChanged(int oldState, int newState);
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile Listener mListener;
+    // 只在播放线程修改
+    private volatile int mState = STATE_IDLE;
+    private volatile int mPublishedPlaylistIndex = -1;
+    private volatile MappedReadAhead mReadStats;
+
+    // 最早一个还没执行的切换视频源命令的发出时间，首帧时间从这里开始算，0表示没有
+    private final AtomicLong mRequestMs = new AtomicLong();
+    private final PlaybackSession mSession = new PlaybackSession(METRICS);
+
+    // 还没执行的next()/previous()累加的步数，发消息和取值都要拿着这个锁
+    private final Object mSkipLock = new Object();
+    private int mPendingSkip;
+
+    // 以下字段只在播放线程访问
     private MediaPlayer mPlayer;
-    private boolean hasPrepared;
+    // 准备好之后是否自动开始播放，pause()/start()会改它
+    private boolean mPlayWhenReady = true;
+    // 还在准备时收到的seek，准备好之后再执行，-1表示没有
+    private int mPendingSeekMs = -1;
 
-    private void initIfNecessary() {
-        if (null == mPlayer) {
-            mPlayer = new MediaPlayer();
-            mPlayer.setOnErrorListener(this);
-            mPlayer.setOnCompletionListener(this);
-            mPlayer.setOnPreparedListener(this);
-        }
+    // player都从池子里取，切换到预热过的视频源时不用再等prepare
+    private PlayerPool mPool;
+    private PlayerPool.Entry mEntry;
+    private SurfaceHolder mHolder;
+
+    // 播放列表：当前曲目播放时，用第二个player提前prepare下一曲，通过setNextMediaPlayer()无缝衔接
+    private Context mContext;
+    private final List<Uri> mPlaylist = new ArrayList<>();
+    private boolean mLoop;
+    private int mPlaylistIndex = -1;
+    private PlayerPool.Entry mNextEntry;
+    private int mNextIndex = -1;
+    private final NextListener mNextListener = new NextListener();
+
+    // 本地mp4/3gp文件在后台解析采样表索引，seek时对齐到关键帧。所有MyPlayer共用一个解析线程和缓存
+    private static final ExecutorService INDEX_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final Mp4IndexCache INDEX_CACHE = new Mp4IndexCache(16);
+    private volatile String mCurrentPath;
+    private volatile Mp4Index mSeekIndex;
+
+    public MyPlayer() {
+        // 没有指定池子时最多两个player：当前曲目和播放列表里预先准备的下一曲，单曲播放时只用到一个
+        this(new PlayerPool(2, 0));
+    }
+
+    public MyPlayer(PlayerPool pool) {
+        mPool = pool;
+        mThread = new HandlerThread("MyPlayer");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper(), mCommandCallback);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    // 所有MyPlayer的播放体验统计，可以在任何线程读快照
+    public static PlaybackMetrics getMetrics() {
+        return METRICS;
     }
 
     public void play(Context context, Uri dataSource) {
-        hasPrepared = false; // 开始播放前讲Flag置为不可操作
-        initIfNecessary(); // 如果是第一次播放/player已经释放了，就会重新创建、初始化
-        try {
-            mPlayer.reset(); // 如果不是第一次播放，最好调一下reset()
-            mPlayer.setDataSource(context, dataSource); // 设置曲目资源
-            mPlayer.prepareAsync(); // 异步的准备方法
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // 单曲播放，清掉播放列表。之前还没执行的切换、seek都没有意义了
+        mContext = context.getApplicationContext();
+        removeSourceCommands(true);
+        markRequest();
+        mHandler.obtainMessage(MSG_PLAY, dataSource).sendToTarget();
+    }
+
+    // 提前准备某个视频源，之后play()它时就能立即开始
+    public void preload(Context context, Uri dataSource) {
+        mContext = context.getApplicationContext();
+        mHandler.obtainMessage(MSG_PRELOAD, dataSource).sendToTarget();
+    }
+
+    /**
+     * 设置播放列表并从第一曲开始播放，loop为true时播完最后一曲会回到第一曲
+     */
+    public void setPlaylist(Context context, List<Uri> playlist, boolean loop) {
+        mContext = context.getApplicationContext();
+        removeSourceCommands(true);
+        markRequest();
+        mHandler.obtainMessage(MSG_SET_PLAYLIST, loop ? 1 : 0, 0, new ArrayList<>(playlist)).sendToTarget();
+    }
+
+    public void addItem(Uri dataSource) {
+        mHandler.obtainMessage(MSG_ADD_ITEM, dataSource).sendToTarget();
+    }
+
+    public void removeItem(int index) {
+        mHandler.obtainMessage(MSG_REMOVE_ITEM, index, 0).sendToTarget();
+    }
+
+    public void next() {
+        skipBy(1);
+    }
+
+    public void previous() {
+        skipBy(-1);
+    }
+
+    public void skipTo(int index) {
+        removeSourceCommands(false);
+        markRequest();
+        mHandler.obtainMessage(MSG_SKIP_TO, index, 0).sendToTarget();
+    }
+
+    // 播放线程里最近一次确定的曲目下标，刚发出的切换命令还没执行时是旧值
+    public int getPlaylistIndex() {
+        return mPublishedPlaylistIndex;
     }
 
     public void start() {
-        // release()会释放player、将player置空，所以这里需要判断一下
-        if (null != mPlayer && hasPrepared) {
+        mHandler.removeMessages(MSG_START);
+        mHandler.removeMessages(MSG_PAUSE);
+        mHandler.sendEmptyMessage(MSG_START);
+    }
+
+    public void pause() {
+        mHandler.removeMessages(MSG_START);
+        mHandler.removeMessages(MSG_PAUSE);
+        mHandler.sendEmptyMessage(MSG_PAUSE);
+    }
+
+    public void seekTo(int position) {
+        // 还没执行的seek直接被替换
+        mHandler.removeMessages(MSG_SEEK);
+        mHandler.obtainMessage(MSG_SEEK, position, 0).sendToTarget();
+    }
+
+    public void setDisplay(SurfaceHolder holder) {
+        mHandler.removeMessages(MSG_SET_DISPLAY);
+        mHandler.obtainMessage(MSG_SET_DISPLAY, holder).sendToTarget();
+    }
+
+    // 当前视频源的读取统计，不是自己读文件时返回null
+    public MappedReadAhead getReadStats() {
+        return mReadStats;
+    }
+
+    // 丢掉还没执行的命令，在播放线程里释放player和池子，然后结束线程。之后不能再用
+    public void release() {
+        mHandler.removeCallbacksAndMessages(null);
+        synchronized (mSkipLock) {
+            mPendingSkip = 0;
+        }
+        mHandler.sendEmptyMessage(MSG_RELEASE);
+    }
+
+    private void skipBy(int delta) {
+        markRequest();
+        synchronized (mSkipLock) {
+            mPendingSkip += delta;
+            // 已经有一条在排队的话，它执行时会把累加的步数一起取走
+            if (!mHandler.hasMessages(MSG_SKIP_BY)) {
+                mHandler.sendEmptyMessage(MSG_SKIP_BY);
+            }
+        }
+    }
+
+    private void markRequest() {
+        mRequestMs.compareAndSet(0, SystemClock.elapsedRealtime());
+    }
+
+    // 换视频源时，之前排队的跳转、seek、start/pause都是针对旧视频源的，不再执行；换整个列表时，对旧列表的增删也不再执行
+    private void removeSourceCommands(boolean newPlaylist) {
+        mHandler.removeMessages(MSG_SKIP_TO);
+        mHandler.removeMessages(MSG_SEEK);
+        synchronized (mSkipLock) {
+            mHandler.removeMessages(MSG_SKIP_BY);
+            mPendingSkip = 0;
+        }
+        if (newPlaylist) {
+            mHandler.removeMessages(MSG_PLAY);
+            mHandler.removeMessages(MSG_SET_PLAYLIST);
+            mHandler.removeMessages(MSG_ADD_ITEM);
+            mHandler.removeMessages(MSG_REMOVE_ITEM);
+            mHandler.removeMessages(MSG_START);
+            mHandler.removeMessages(MSG_PAUSE);
+        }
+    }
+
+    private final Handler.Callback mCommandCallback = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            if (STATE_RELEASED == mState) {
+                return true;
+            }
+            switch (msg.what) {
+                case MSG_PLAY:
+                    handlePlay((Uri) msg.obj);
+                    break;
+                case MSG_SET_PLAYLIST:
+                    @SuppressWarnings("unchecked")
+                    List<Uri> playlist = (List<Uri>) msg.obj;
+                    handleSetPlaylist(playlist, msg.arg1 == 1);
+                    break;
+                case MSG_ADD_ITEM:
+                    handleAddItem((Uri) msg.obj);
+                    break;
+                case MSG_REMOVE_ITEM:
+                    handleRemoveItem(msg.arg1);
+                    break;
+                case MSG_SKIP_BY:
+                    int delta;
+                    synchronized (mSkipLock) {
+                        delta = mPendingSkip;
+                        mPendingSkip = 0;
+                    }
+                    handleSkipBy(delta);
+                    break;
+                case MSG_SKIP_TO:
+                    if (msg.arg1 >= 0 && msg.arg1 < mPlaylist.size()) {
+                        playItem(msg.arg1);
+                    }
+                    break;
+                case MSG_PRELOAD:
+                    mPool.prewarm(mContext, (Uri) msg.obj);
+                    break;
+                case MSG_START:
+                    handleStart();
+                    break;
+                case MSG_PAUSE:
+                    handlePause();
+                    break;
+                case MSG_SEEK:
+                    handleSeek(msg.arg1);
+                    break;
+                case MSG_SET_DISPLAY:
+                    handleSetDisplay((SurfaceHolder) msg.obj);
+                    break;
+                case MSG_RELEASE:
+                    handleRelease();
+                    break;
+                default:
+                    return false;
+            }
+            return true;
+        }
+    };
+
+    private void handlePlay(Uri dataSource) {
+        cancelNext();
+        mPlaylist.clear();
+        setPlaylistIndex(-1);
+        mPlayWhenReady = true;
+        playInternal(mContext, dataSource);
+    }
+
+    private void handleSetPlaylist(List<Uri> playlist, boolean loop) {
+        cancelNext();
+        mPlaylist.clear();
+        mPlaylist.addAll(playlist);
+        mLoop = loop;
+        mPlayWhenReady = true;
+        if (!mPlaylist.isEmpty()) {
+            playItem(0);
+        }
+    }
+
+    private void handleAddItem(Uri dataSource) {
+        mPlaylist.add(dataSource);
+        // 之前已经是最后一曲、没有下一曲的话，现在可以准备了
+        if (null == mNextEntry && mPlaylistIndex >= 0) {
+            prepareNext();
+        }
+    }
+
+    private void handleRemoveItem(int index) {
+        if (index < 0 || index >= mPlaylist.size()) {
+            return;
+        }
+        mPlaylist.remove(index);
+        if (mPlaylist.isEmpty()) {
+            stopPlaylist();
+            return;
+        }
+
+        if (index == mPlaylistIndex) {
+            // 删掉的是正在播放的曲目，接着播放它后面那一曲（下标不变）
+            if (mPlaylistIndex >= mPlaylist.size()) {
+                if (!mLoop) {
+                    stopPlaylist();
+                    return;
+                }
+                mPlaylistIndex = 0;
+            }
+            if (mNextIndex > index) {
+                mNextIndex--;
+            }
+            playItem(mPlaylistIndex);
+            return;
+        }
+
+        if (index < mPlaylistIndex) {
+            setPlaylistIndex(mPlaylistIndex - 1);
+        }
+        if (index < mNextIndex) {
+            mNextIndex--;
+        } else if (index == mNextIndex) {
+            mNextIndex = -1;
+        }
+        // 下一曲变了的话，重新准备
+        if (mNextIndex != nextIndexOf(mPlaylistIndex)) {
+            prepareNext();
+        }
+    }
+
+    private void stopPlaylist() {
+        cancelNext();
+        recycleCurrent();
+        setPlaylistIndex(-1);
+        setState(STATE_IDLE);
+    }
+
+    // 连续的next()/previous()合并后一次跳到目标曲目，中间的曲目不会去prepare
+    private void handleSkipBy(int delta) {
+        if (0 == delta) {
+            return;
+        }
+        int index = mPlaylistIndex;
+        for (; delta > 0 && index >= 0; delta--) {
+            index = nextIndexOf(index);
+        }
+        for (; delta < 0 && index >= 0; delta++) {
+            if (index > 0) {
+                index--;
+            } else if (mLoop && !mPlaylist.isEmpty()) {
+                index = mPlaylist.size() - 1;
+            } else {
+                index = -1;
+            }
+        }
+        if (index >= 0) {
+            playItem(index);
+        }
+    }
+
+    private void handleStart() {
+        mPlayWhenReady = true;
+        if (null != mPlayer && (STATE_PAUSED == mState || STATE_COMPLETED == mState)) {
             mPlayer.start();
+            setState(STATE_PLAYING);
         }
     }
 
-    public void pause() {
-        if (null != mPlayer && hasPrepared) {
+    private void handlePause() {
+        mPlayWhenReady = false;
+        if (null != mPlayer && STATE_PLAYING == mState) {
             mPlayer.pause();
+            setState(STATE_PAUSED);
         }
     }
 
-    public void seekTo(int position) {
-        if (null != mPlayer && hasPrepared) {
-            mPlayer.seekTo(position);
+    private void handleSeek(int position) {
+        if (STATE_PREPARING == mState) {
+            // 准备好之后再seek
+            mPendingSeekMs = position;
+            return;
         }
+        if (null == mPlayer || (STATE_PLAYING != mState && STATE_PAUSED != mState && STATE_COMPLETED != mState)) {
+            return;
+        }
+        // 索引解析好了的话，对齐到不晚于目标位置的关键帧，避免落点不确定
+        Mp4Index index = mSeekIndex;
+        if (null != index && index.getPath().equals(mCurrentPath)) {
+            position = index.snapToSyncMs(position);
+            prefetchSeekTarget(index, position);
+        }
+        mSession.onSeekStarted(SystemClock.elapsedRealtime());
+        mPlayer.seekTo(position);
     }
 
-    public void setDisplay(SurfaceHolder holder) {
+    private void handleSetDisplay(SurfaceHolder holder) {
+        // 记下surface，切换player时重新绑定
+        mHolder = holder;
         if (null != mPlayer) {
             mPlayer.setDisplay(holder);
         }
     }
 
-    public void release() {
-        hasPrepared = false;
-        mPlayer.stop();
-        mPlayer.release();
-        mPlayer = null;
+    private void handleRelease() {
+        cancelNext();
+        mHolder = null;
+        recycleCurrent();
+        mPool.clear();
+        setState(STATE_RELEASED);
+        mSession.end(SystemClock.elapsedRealtime());
+        mThread.quitSafely();
+    }
+
+    private void playInternal(Context context, Uri dataSource) {
+        recycleCurrent(); // 先把当前的player还给池子，解绑surface
+        mPendingSeekMs = -1;
+
+        // 命中时拿到的是已经prepare好的player，否则池子会复用/新建一个player，设置资源后异步prepare
+        long now = SystemClock.elapsedRealtime();
+        long requestMs = mRequestMs.getAndSet(0);
+        mEntry = mPool.acquire(context, dataSource, this, this);
+        mSession.begin(dataSource.toString(), requestMs > 0 ? requestMs : now, now,
+                null != mEntry && mEntry.isPrepared() ? PlaybackSession.START_WARM : PlaybackSession.START_COLD);
+        if (null == mEntry) {
+            setState(STATE_ERROR);
+            return;
+        }
+        mPlayer = mEntry.getPlayer();
+        setPlayerListeners();
+        mReadStats = null == mEntry.getDataSource() ? null : mEntry.getDataSource().getReader();
+        loadSeekIndex(dataSource);
+        if (null != mHolder) {
+            mPlayer.setDisplay(mHolder);
+        }
+        setState(STATE_PREPARING);
+        if (mEntry.isPrepared()) {
+            onPrepared(mPlayer);
+        }
+    }
+
+    private void playItem(int index) {
+        if (null != mNextEntry && mNextIndex == index) {
+            // 要播的正好是预先准备的那一曲，直接切过去
+            promoteNext(false);
+            return;
+        }
+        setPlaylistIndex(index);
+        playInternal(mContext, mPlaylist.get(index));
+        prepareNext();
+    }
+
+    private int nextIndexOf(int index) {
+        if (index < 0 || mPlaylist.isEmpty()) {
+            return -1;
+        }
+        if (index + 1 < mPlaylist.size()) {
+            return index + 1;
+        }
+        return mLoop ? 0 : -1;
+    }
+
+    // 用第二个player准备下一曲，两个都prepare好之后通过setNextMediaPlayer()串起来
+    private void prepareNext() {
+        cancelNext();
+        int index = nextIndexOf(mPlaylistIndex);
+        if (index < 0 || index == mPlaylistIndex) {
+            return;
+        }
+        mNextIndex = index;
+        mNextEntry = mPool.acquire(mContext, mPlaylist.get(index), mNextListener, mNextListener);
+        if (null == mNextEntry) {
+            mNextIndex = -1;
+            return;
+        }
+        linkNext();
+    }
+
+    private boolean isPrepared() {
+        return STATE_PLAYING == mState || STATE_PAUSED == mState;
+    }
+
+    private void linkNext() {
+        if (null != mPlayer && isPrepared() && null != mNextEntry && mNextEntry.isPrepared()) {
+            mPlayer.setNextMediaPlayer(mNextEntry.getPlayer());
+        }
+    }
+
+    private void cancelNext() {
+        if (null != mNextEntry) {
+            if (null != mPlayer && isPrepared()) {
+                mPlayer.setNextMediaPlayer(null);
+            }
+            mPool.release(mNextEntry);
+            mNextEntry = null;
+        }
+        mNextIndex = -1;
+    }
+
+    // 把准备好的下一曲变成当前曲目。started为true表示framework已经通过setNextMediaPlayer()让它开始播放了
+    private void promoteNext(boolean started) {
+        PlayerPool.Entry next = mNextEntry;
+        mNextEntry = null;
+        recycleCurrent();
+
+        setPlaylistIndex(mNextIndex);
+        mNextIndex = -1;
+        mPendingSeekMs = -1;
+        mEntry = next;
+        mEntry.setListeners(this, this);
+        mPlayer = mEntry.getPlayer();
+        setPlayerListeners();
+        long now = SystemClock.elapsedRealtime();
+        long requestMs = mRequestMs.getAndSet(0);
+        int startType = started ? PlaybackSession.START_GAPLESS
+                : mEntry.isPrepared() ? PlaybackSession.START_WARM : PlaybackSession.START_COLD;
+        mSession.begin(mEntry.getKey(), requestMs > 0 ? requestMs : now, now, startType);
+        mReadStats = null == mEntry.getDataSource() ? null : mEntry.getDataSource().getReader();
+        loadSeekIndex(Uri.parse(mEntry.getKey()));
+        // surface同一时间只能连接一个player，上一个player还给池子时已经解绑了
+        if (null != mHolder) {
+            mPlayer.setDisplay(mHolder);
+        }
+        if (started) {
+            // 已经无缝接上了，没有prepare和首帧等待，session也不会记
+            setState(STATE_PLAYING);
+        } else {
+            setState(STATE_PREPARING);
+            if (mEntry.isPrepared()) {
+                onPrepared(mPlayer);
+            }
+        }
+        prepareNext();
+    }
+
+    // 只有本地文件才能解析索引，其它uri（网络、content://）按原来的方式seek
+    private void loadSeekIndex(Uri dataSource) {
+        mSeekIndex = null;
+        mCurrentPath = null;
+        String scheme = dataSource.getScheme();
+        if ((null != scheme && !"file".equals(scheme)) || null == dataSource.getPath()) {
+            return;
+        }
+        final File file = new File(dataSource.getPath());
+        mCurrentPath = file.getAbsolutePath();
+        INDEX_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Mp4Index index = INDEX_CACHE.get(file);
+                    // 解析期间可能已经切换到别的视频了，seek时会再按路径核对一次
+                    if (index.getPath().equals(mCurrentPath)) {
+                        mSeekIndex = index;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    // 自己读文件的话，让它先去预读目标关键帧所在的位置
+    private void prefetchSeekTarget(Mp4Index index, int positionMs) {
+        MappedMediaDataSource dataSource = null == mEntry ? null : mEntry.getDataSource();
+        TrackIndex video = index.getVideoTrack();
+        if (null == dataSource || null == video || video.getSampleCount() == 0) {
+            return;
+        }
+        int sample = video.getSyncSampleAtOrBefore(positionMs * 1000L);
+        dataSource.prefetch(video.getSampleOffset(sample));
+    }
+
+    private void setPlayerListeners() {
+        mPlayer.setOnCompletionListener(this);
+        mPlayer.setOnInfoListener(this);
+        mPlayer.setOnSeekCompleteListener(this);
+    }
+
+    private void recycleCurrent() {
+        if (null != mEntry) {
+            mPool.release(mEntry);
+            mEntry = null;
+            mPlayer = null;
+            mReadStats = null;
+        }
+    }
+
+    private void setPlaylistIndex(int index) {
+        mPlaylistIndex = index;
+        mPublishedPlaylistIndex = index;
+    }
+
+    private void setState(final int state) {
+        final int oldState = mState;
+        if (oldState == state) {
+            return;
+        }
+        mState = state;
+        mSession.onStateChanged(state, SystemClock.elapsedRealtime());
+        final Listener listener = mListener;
+        if (null != listener) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onStateChanged(oldState, state);
+                }
+            });
+        }
     }
 
     @Override
     public void onPrepared(MediaPlayer mp) {
-        hasPrepared = true; // 准备完成后回调到这里
-        start();
+        if (mp != mPlayer || STATE_PREPARING != mState) {
+            return;
+        }
+        mSession.onPrepared(SystemClock.elapsedRealtime());
+        if (mPendingSeekMs >= 0) {
+            int position = mPendingSeekMs;
+            mPendingSeekMs = -1;
+            setState(STATE_PAUSED);
+            handleSeek(position);
+        }
+        if (mPlayWhenReady) {
+            mPlayer.start();
+            setState(STATE_PLAYING);
+        } else {
+            setState(STATE_PAUSED);
+        }
+        linkNext();
     }
 
     @Override
     public void onCompletion(MediaPlayer mp) {
-        hasPrepared = false;
-        // 通知调用处，调用play()方法进行下一个曲目的播放
+        // 出错之后framework不会启动setNextMediaPlayer()设置的下一曲，不能当成无缝切换处理
+        if (mp != mPlayer || STATE_ERROR == mState) {
+            return;
+        }
+        if (null != mNextEntry && mNextEntry.isPrepared()) {
+            // 下一曲已经通过setNextMediaPlayer()开始播放了，只需要把surface交给它
+            promoteNext(true);
+        } else if (nextIndexOf(mPlaylistIndex) >= 0) {
+            handleSkipBy(1);
+        } else {
+            // 单曲播放或者列表放完了：通知调用处，调用play()方法进行下一个曲目的播放
+            setState(STATE_COMPLETED);
+        }
     }
 
     @Override
     public boolean onError(MediaPlayer mp, int what, int extra) {
-        hasPrepared = false;
+        if (mp == mPlayer) {
+            mSession.onError(what, extra);
+            setState(STATE_ERROR);
+        }
+        // 返回true，framework就不会再调用onCompletion()；停在STATE_ERROR，由调用处决定重试还是next()
+        return true;
+    }
+
+    @Override
+    public boolean onInfo(MediaPlayer mp, int what, int extra) {
+        if (mp != mPlayer) {
+            return false;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START == what) {
+            mSession.onFirstFrame(now);
+        } else if (MediaPlayer.MEDIA_INFO_BUFFERING_START == what) {
+            mSession.onBufferingStarted(now);
+        } else if (MediaPlayer.MEDIA_INFO_BUFFERING_END == what) {
+            mSession.onBufferingEnded(now);
+        }
         return false;
     }
+
+    @Override
+    public void onSeekComplete(MediaPlayer mp) {
+        if (mp == mPlayer) {
+            mSession.onSeekCompleted(SystemClock.elapsedRealtime());
+        }
+    }
+
+    // 下一曲player的回调
+    private class NextListener implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener {
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            linkNext();
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            // 下一曲准备失败，放弃预加载，轮到它时再按普通方式播放。
+            // 可能已经通过setNextMediaPlayer()串上了，先解开再释放，否则当前曲目放完时会切到已经释放的player
+            cancelNext();
+            return true;
+        }
+    }
 }
@@ -8,23 +8,55 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class PlayerActivity extends Activity {
     private static final String TAG = "PlayerActivity";
     private static final String VIDEO_DIR_0 = "/storage/sdcard0/zzzccc/videotest/video00.mp4";
+    public static final String EXTRA_SOURCES = "sources";
+
+    // 同时保留3个player，大约3路1080p视频的解码缓冲
+    private static final int POOL_MAX_PLAYERS = 3;
+    private static final long POOL_MAX_BYTES = 3L * 1920 * 1080 * 3 / 2 * 8;
+
     private MyPlayer mPlayer;
+    private PlayerPool mPool;
+    private String[] mSources;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_surfaceviewplayer);
 
+        mSources = getIntent().getStringArrayExtra(EXTRA_SOURCES);
+        if (null == mSources || mSources.length == 0) {
+            mSources = new String[]{VIDEO_DIR_0};
+        }
+
         // 播放视频
-        mPlayer = new MyPlayer();
-        mPlayer.play(this, Uri.parse(VIDEO_DIR_0));
+        mPool = new PlayerPool(POOL_MAX_PLAYERS, POOL_MAX_BYTES);
+        mPlayer = new MyPlayer(mPool);
+        // 循环播放所有视频源，播放当前曲目时会提前准备好下一曲，中间没有黑屏
+        List<Uri> playlist = new ArrayList<>();
+        for (String source : mSources) {
+            playlist.add(Uri.parse(source));
+        }
+        mPlayer.setPlaylist(this, playlist, true);
 
         // 初始化Surface，创建成功后，调用player的setDisplay()方法设置Surface
         SurfaceView surfaceView = findViewById(R.id.sv_player);
+        // 点击画面切换到下一个视频源
+        surfaceView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                // 只是发一条命令，连续点击会合并成一次跳转
+                mPlayer.next();
+                Log.d(TAG, "next, current item " + mPlayer.getPlaylistIndex() + ", state " + mPlayer.getState());
+            }
+        });
         SurfaceHolder holder = surfaceView.getHolder();
         holder.setFormat(PixelFormat.RGB_888);
         holder.addCallback(new SurfaceHolder.Callback() {
@@ -41,7 +73,16 @@ public class PlayerActivity extends Activity {
             @Override
             public void surfaceDestroyed(SurfaceHolder holder) {
                 // 界面不可见时就会销毁，比如Activity的onStop()方法
+                mPlayer.setDisplay(null);
             }
         });
     }
+
+    @Override
+    protected void onDestroy() {
+        // 池子在播放线程里使用，由player释放时一起清掉
+        mPlayer.release();
+        Log.d(TAG, "playback " + MyPlayer.getMetrics().snapshotTotal());
+        super.onDestroy();
+    }
 }
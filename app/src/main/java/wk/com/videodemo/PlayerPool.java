@@ -0,0 +1,343 @@
+package wk.com.videodemo;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 预热好的MediaPlayer池：按uri缓存已经prepare过的player，切换到"热"的视频源时可以直接start，不用再等prepare。
+ *
+ * 1.player总数（使用中 + 空闲）不超过maxPlayers，相当于解码器预算，这是硬上限：全部在使用中时acquire()返回null；
+ * 2.空闲player按估算的内存占用（视频宽 * 高 * 1.5 * 缓冲帧数）累加，超过maxBytes就按LRU淘汰；
+ * 3.需要新建player但已经满了的时候，优先复用最久没用的空闲player（reset()后重新设置资源），而不是release再new。
+ *
+ * 注意：池子不是线程安全的，player的回调会在创建它的线程里执行，所以所有方法都要在同一个线程里调用（MyPlayer的播放线程）
+ */
+public class PlayerPool {
+    private static final String TAG = "PlayerPool";
+
+    // 解码器一般会持有若干帧输出缓冲，这里按8帧粗略估算
+    private static final int FRAME_BUFFER_COUNT = 8;
+
+    private final int mMaxPlayers;
+    private final long mMaxBytes;
+
+    // accessOrder为true，遍历顺序就是从最久没用到最近使用，即LRU顺序
+    private final LinkedHashMap<String, Entry> mIdle = new LinkedHashMap<>(16, 0.75f, true);
+    private int mInUseCount;
+    private long mIdleBytes;
+
+    // 统计数据
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private int mPrepareCount;
+    private long mPrepareTotalMs;
+    private long mPrepareMaxMs;
+
+    public PlayerPool(int maxPlayers, long maxBytes) {
+        mMaxPlayers = Math.max(1, maxPlayers);
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 取出一个设置好dataSource的player。命中时player可能已经prepare完成（Entry.isPrepared()），
+     * 否则等待listener的onPrepared()回调。player数量已经到上限、又没有空闲的可以复用时返回null
+     */
+    public Entry acquire(Context context, Uri dataSource, MediaPlayer.OnPreparedListener preparedListener,
+                         MediaPlayer.OnErrorListener errorListener) {
+        String key = dataSource.toString();
+        Entry entry = mIdle.remove(key);
+        if (null != entry) {
+            mIdleBytes -= entry.mEstimatedBytes;
+            mHitCount++;
+        } else {
+            mMissCount++;
+            entry = create(context, dataSource);
+            if (null == entry) {
+                return null;
+            }
+        }
+        mInUseCount++;
+        entry.mInUse = true;
+        entry.mPreparedListener = preparedListener;
+        entry.mErrorListener = errorListener;
+        return entry;
+    }
+
+    /**
+     * 提前为某个视频源准备一个player，放到空闲队列里。已经在池子里、或者没有空余预算时直接返回
+     */
+    public void prewarm(Context context, Uri dataSource) {
+        String key = dataSource.toString();
+        if (mIdle.containsKey(key) || mInUseCount >= mMaxPlayers) {
+            return;
+        }
+        Entry entry = create(context, dataSource);
+        if (null != entry) {
+            mIdle.put(key, entry);
+            trimToBudget();
+        }
+    }
+
+    /**
+     * 把player还给池子。prepare成功的player会暂停、回到开头、解绑surface后留在池子里，下次可以直接用
+     */
+    public void release(Entry entry) {
+        if (null == entry || !entry.mInUse) {
+            return;
+        }
+        mInUseCount--;
+        entry.mInUse = false;
+        entry.mPreparedListener = null;
+        entry.mErrorListener = null;
+
+        MediaPlayer player = entry.mPlayer;
+        player.setOnCompletionListener(null);
+        player.setOnInfoListener(null);
+        player.setOnSeekCompleteListener(null);
+        player.setDisplay(null);
+        if (entry.mFailed) {
+            player.release();
+            return;
+        }
+        if (entry.mPrepared) {
+            if (player.isPlaying()) {
+                player.pause();
+            }
+            player.setNextMediaPlayer(null);
+            player.seekTo(0);
+        }
+        // 同一个视频源可能有两个player（播放列表里连续两个相同的曲目、预热之后又acquire了一个），空闲的只留一个，
+        // 否则被覆盖的那个永远不会release，它的内存也会一直算在mIdleBytes里
+        Entry idle = mIdle.get(entry.mKey);
+        if (null != idle) {
+            if (idle.mPrepared && !entry.mPrepared) {
+                player.release();
+                return;
+            }
+            mIdle.remove(entry.mKey);
+            mIdleBytes -= idle.mEstimatedBytes;
+            mEvictionCount++;
+            idle.mPlayer.release();
+        }
+        mIdle.put(entry.mKey, entry);
+        mIdleBytes += entry.mEstimatedBytes;
+        trimToBudget();
+    }
+
+    // 释放所有空闲的player，使用中的player由使用者还回来时再处理
+    public void clear() {
+        for (Entry entry : mIdle.values()) {
+            entry.mPlayer.release();
+        }
+        mIdle.clear();
+        mIdleBytes = 0;
+    }
+
+    private Entry create(Context context, Uri dataSource) {
+        MediaPlayer player;
+        if (mInUseCount + mIdle.size() >= mMaxPlayers) {
+            // 已经到了预算上限，复用最久没用的空闲player，没有空闲的就不能再创建了
+            Entry eldest = removeEldest();
+            if (null == eldest) {
+                Log.w(TAG, "no player available for " + dataSource + ", " + dumpStats());
+                return null;
+            }
+            player = eldest.mPlayer;
+            player.reset();
+        } else {
+            player = new MediaPlayer();
+        }
+
+        Entry entry = new Entry(dataSource.toString(), player);
+        player.setOnPreparedListener(entry);
+        player.setOnErrorListener(entry);
+        try {
+            File file = getLocalFile(dataSource);
+            if (null != file && MappedMediaDataSource.isSupported()) {
+                // 本地文件自己读，可以预读moov和seek目标附近的数据
+                entry.mDataSource = new MappedMediaDataSource(file);
+                player.setDataSource(entry.mDataSource);
+            } else {
+                player.setDataSource(context, dataSource);
+            }
+            entry.mPrepareStartMs = SystemClock.elapsedRealtime();
+            player.prepareAsync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            player.release();
+            if (null != entry.mDataSource) {
+                entry.mDataSource.getReader().close();
+            }
+            return null;
+        }
+        return entry;
+    }
+
+    // file://和没有scheme的uri是本地文件，其它的（网络、content://）返回null
+    private static File getLocalFile(Uri dataSource) {
+        String scheme = dataSource.getScheme();
+        if ((null != scheme && !"file".equals(scheme)) || null == dataSource.getPath()) {
+            return null;
+        }
+        return new File(dataSource.getPath());
+    }
+
+    private Entry removeEldest() {
+        Iterator<Map.Entry<String, Entry>> it = mIdle.entrySet().iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        Entry eldest = it.next().getValue();
+        it.remove();
+        mIdleBytes -= eldest.mEstimatedBytes;
+        mEvictionCount++;
+        return eldest;
+    }
+
+    // 超过数量或者内存预算时，从最久没用的开始淘汰
+    private void trimToBudget() {
+        while (!mIdle.isEmpty()
+                && (mInUseCount + mIdle.size() > mMaxPlayers || (mMaxBytes > 0 && mIdleBytes > mMaxBytes))) {
+            Entry eldest = removeEldest();
+            eldest.mPlayer.release();
+        }
+    }
+
+    private void onEntryPrepared(Entry entry) {
+        long cost = SystemClock.elapsedRealtime() - entry.mPrepareStartMs;
+        entry.mPrepareCostMs = cost;
+        mPrepareCount++;
+        mPrepareTotalMs += cost;
+        mPrepareMaxMs = Math.max(mPrepareMaxMs, cost);
+
+        long bytes = (long) entry.mPlayer.getVideoWidth() * entry.mPlayer.getVideoHeight() * 3 / 2 * FRAME_BUFFER_COUNT;
+        if (!entry.mInUse && mIdle.get(entry.mKey) == entry) {
+            mIdleBytes += bytes - entry.mEstimatedBytes;
+            entry.mEstimatedBytes = bytes;
+            trimToBudget();
+        } else {
+            entry.mEstimatedBytes = bytes;
+        }
+    }
+
+    private void onEntryFailed(Entry entry) {
+        // 空闲的player出错了，直接从池子里移除
+        if (!entry.mInUse && mIdle.get(entry.mKey) == entry) {
+            mIdle.remove(entry.mKey);
+            mIdleBytes -= entry.mEstimatedBytes;
+            entry.mPlayer.release();
+        }
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    public int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public int getPrepareCount() {
+        return mPrepareCount;
+    }
+
+    public long getAveragePrepareMs() {
+        return mPrepareCount == 0 ? 0 : mPrepareTotalMs / mPrepareCount;
+    }
+
+    public long getMaxPrepareMs() {
+        return mPrepareMaxMs;
+    }
+
+    public String dumpStats() {
+        return "hit=" + mHitCount + " miss=" + mMissCount + " evict=" + mEvictionCount
+                + " idle=" + mIdle.size() + " inUse=" + mInUseCount + " idleBytes=" + mIdleBytes
+                + " prepare(count=" + mPrepareCount + " avg=" + getAveragePrepareMs() + "ms max=" + mPrepareMaxMs + "ms)";
+    }
+
+    /**
+     * 池子里的一个player，记录它的prepare状态，并把prepare/error回调转给当前的使用者
+     */
+    public class Entry implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener {
+        private final String mKey;
+        private final MediaPlayer mPlayer;
+        private boolean mPrepared;
+        private boolean mFailed;
+        private boolean mInUse;
+        private long mPrepareStartMs;
+        private long mPrepareCostMs;
+        private long mEstimatedBytes;
+        private MediaPlayer.OnPreparedListener mPreparedListener;
+        private MediaPlayer.OnErrorListener mErrorListener;
+        // 本地文件在6.0以上用MappedMediaDataSource，其它情况为null
+        private MappedMediaDataSource mDataSource;
+
+        private Entry(String key, MediaPlayer player) {
+            mKey = key;
+            mPlayer = player;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        public MediaPlayer getPlayer() {
+            return mPlayer;
+        }
+
+        public boolean isPrepared() {
+            return mPrepared;
+        }
+
+        public long getPrepareCostMs() {
+            return mPrepareCostMs;
+        }
+
+        public MappedMediaDataSource getDataSource() {
+            return mDataSource;
+        }
+
+        // 换一个使用者接收回调，比如播放列表里预加载的下一曲变成当前曲目时
+        public void setListeners(MediaPlayer.OnPreparedListener preparedListener,
+                                 MediaPlayer.OnErrorListener errorListener) {
+            mPreparedListener = preparedListener;
+            mErrorListener = errorListener;
+        }
+
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+            mPrepared = true;
+            onEntryPrepared(this);
+            Log.d(TAG, "prepared " + mKey + " in " + mPrepareCostMs + "ms, " + dumpStats());
+            if (null != mDataSource) {
+                Log.d(TAG, "read " + mDataSource.getReader().dumpStats());
+            }
+            if (null != mPreparedListener) {
+                mPreparedListener.onPrepared(mp);
+            }
+        }
+
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            mPrepared = false;
+            mFailed = true;
+            boolean handled = null != mErrorListener && mErrorListener.onError(mp, what, extra);
+            onEntryFailed(this);
+            return handled;
+        }
+    }
+}
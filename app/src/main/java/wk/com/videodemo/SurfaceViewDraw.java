@@ -1,27 +1,80 @@
 package wk.com.videodemo;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.Display;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class SurfaceViewDraw extends SurfaceView implements SurfaceHolder.Callback,Runnable{
+import wk.com.videodemo.draw.StrokeStore;
+import wk.com.videodemo.draw.TouchSampleQueue;
+import wk.com.videodemo.stats.Histogram;
+
+
+public class SurfaceViewDraw extends SurfaceView implements SurfaceHolder.Callback, Choreographer.FrameCallback,
+        TouchSampleQueue.Consumer {
     private static final String TAG = "SurfaceViewDraw";
     private SurfaceHolder mHolder;
-    private boolean surfaceAvailable;
+    private volatile boolean surfaceAvailable;
 
-    private Canvas mCanvas;
     private Paint mPaint;
-    private Path mPath;
 
-    private Thread mDrawThread;
+    // 已经画过的笔画都光栅化到离屏图层上，每帧只把新增的线段画到图层，再把变化的区域贴到surface上，
+    // 这样每帧的开销只跟新增的线段有关，跟历史笔画的多少无关。图层只在绘制线程里访问
+    private Bitmap mLayer;
+    private Canvas mLayerCanvas;
+    private boolean mFullRedraw;
+    private final Rect mDirtyRect = new Rect();
+    private final Rect mSegmentRect = new Rect();
+    private final RectF mBounds = new RectF();
+
+    // 主线程把触摸采样点（包括MotionEvent里批量的历史点）放进无锁队列，绘制线程每帧批量取出
+    private static final int TOUCH_QUEUE_CAPACITY = 1024;
+    private static final int DRAIN_BATCH = 256;
+    private final TouchSampleQueue mTouchQueue = new TouchSampleQueue(TOUCH_QUEUE_CAPACITY);
+
+    // 笔画数据，边收点边简化。绘制线程每帧把新确定的点画到图层上，还没确定的点画成临时的尾巴，不进图层。
+    // 由绘制线程修改，导出时加锁
+    private static final float DEFAULT_SIMPLIFY_TOLERANCE = 0.75f;
+    private final StrokeStore mStrokes = new StrokeStore(DEFAULT_SIMPLIFY_TOLERANCE);
+    private int mDrawnPoints;
+    private final Path mSegments = new Path();
+    private final Path mTail = new Path();
+    private final Rect mTailRect = new Rect();
+    private final Rect mPrevTailRect = new Rect();
+
+    // 绘制线程是一个带Looper的线程，没有东西要画时阻塞在消息队列里，不会空转
+    private HandlerThread mDrawThread;
+    private Handler mDrawHandler;
+    private Choreographer mChoreographer;
+
+    // 有触摸事件改变了画面时置为true，绘制完成后清掉；mFrameScheduled保证同一时间只有一个帧回调在排队
+    private final AtomicBoolean mDirty = new AtomicBoolean();
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+
+    // 一帧的时长，根据屏幕刷新率计算
+    private long mFrameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / 60;
+    // 绘制耗时的滑动平均，超过一帧时长时就隔几个vsync再画，避免帧回调越堆越多
+    private long mAvgDrawNanos;
+    private long mDroppedFrames;
+
+    // 帧耗时直方图：从vsync到画完提交的时间，单位纳秒，桶从1ms到约130ms
+    private final Histogram mFrameTimes = Histogram.exponential(TimeUnit.MILLISECONDS.toNanos(1), 1.5, 13);
 
     public SurfaceViewDraw(Context context) {
         super(context);
@@ -37,10 +90,12 @@ public class SurfaceViewDraw extends SurfaceView implements SurfaceHolder.Callba
         mHolder = getHolder();
         mHolder.addCallback(this);
 
-        mPath = new Path();
         mPaint = new Paint();
         mPaint.setStyle(Paint.Style.STROKE);
         mPaint.setStrokeWidth(6);
+        // 一条笔画会分几帧画出来，用圆头、圆角连接，接缝处才看不出来
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeJoin(Paint.Join.ROUND);
         mPaint.setAntiAlias(true);
         mPaint.setColor(Color.RED);
 
@@ -50,72 +105,285 @@ public class SurfaceViewDraw extends SurfaceView implements SurfaceHolder.Callba
     }
 
     private void draw() {
+        if (null == mLayer) {
+            return;
+        }
+
+        boolean fullRedraw = mFullRedraw;
+        mFullRedraw = false;
+        mDirtyRect.setEmpty();
+        synchronized (mStrokes) {
+            while (mTouchQueue.drain(this, DRAIN_BATCH) == DRAIN_BATCH) {
+                // 一直取到队列为空
+            }
+
+            // 新确定的线段画到图层上
+            int count = mStrokes.getPointCount();
+            if (count < mDrawnPoints) {
+                mDrawnPoints = 0;
+            }
+            if (count > mDrawnPoints) {
+                mSegments.rewind();
+                for (int i = mDrawnPoints; i < count; i++) {
+                    if (mStrokes.isStrokeStart(i)) {
+                        // 单击也要留下一个点
+                        mSegments.moveTo(mStrokes.getX(i), mStrokes.getY(i));
+                    } else if (i == mDrawnPoints) {
+                        mSegments.moveTo(mStrokes.getX(i - 1), mStrokes.getY(i - 1));
+                    }
+                    mSegments.lineTo(mStrokes.getX(i), mStrokes.getY(i));
+                }
+                mDrawnPoints = count;
+                mLayerCanvas.drawPath(mSegments, mPaint);
+                toDirtyRect(mSegments, mSegmentRect);
+                mDirtyRect.union(mSegmentRect);
+            }
+
+            // 还没确定的点：从最后一个确定的点连到最新的触摸点
+            mTail.rewind();
+            mTailRect.setEmpty();
+            int pending = mStrokes.getPendingCount();
+            if (mStrokes.isStrokeOpen() && pending > 0) {
+                mTail.moveTo(mStrokes.getX(count - 1), mStrokes.getY(count - 1));
+                for (int i = 0; i < pending; i++) {
+                    mTail.lineTo(mStrokes.getPendingX(i), mStrokes.getPendingY(i));
+                }
+                toDirtyRect(mTail, mTailRect);
+            }
+        }
+
+        // 变化的区域：新线段 + 上一帧的尾巴（要擦掉） + 这一帧的尾巴
+        mDirtyRect.union(mPrevTailRect);
+        mDirtyRect.union(mTailRect);
+        mPrevTailRect.set(mTailRect);
+        if (fullRedraw) {
+            mDirtyRect.set(0, 0, mLayer.getWidth(), mLayer.getHeight());
+        } else if (mDirtyRect.isEmpty()) {
+            return;
+        }
+
+        Canvas canvas = null;
         try {
-            //锁定画布并返回画布对象
-            mCanvas = mHolder.lockCanvas();
-            mCanvas.drawColor(Color.WHITE);
-            mCanvas.drawPath(mPath, mPaint);
+            //只锁定变化的区域，lockCanvas可能会把区域扩大（比如第一帧是整个surface），按扩大后的区域从图层贴图
+            canvas = mHolder.lockCanvas(mDirtyRect);
+            if (null != canvas) {
+                canvas.drawBitmap(mLayer, mDirtyRect, mDirtyRect, null);
+                if (!mTail.isEmpty()) {
+                    canvas.drawPath(mTail, mPaint);
+                }
+            }
         } catch (Exception e) {
+            e.printStackTrace();
         } finally {
             //当画布内容不为空时才提交显示
-            if (mCanvas != null)
-                mHolder.unlockCanvasAndPost(mCanvas);
+            if (canvas != null)
+                mHolder.unlockCanvasAndPost(canvas);
+        }
+    }
+
+    // 路径的范围加上线宽的一半和抗锯齿的1像素
+    private void toDirtyRect(Path path, Rect out) {
+        path.computeBounds(mBounds, true);
+        mBounds.roundOut(out);
+        int inset = (int) Math.ceil(mPaint.getStrokeWidth() / 2) + 1;
+        out.inset(-inset, -inset);
+    }
+
+    // 在绘制线程里创建/重建图层，surface大小变化时保留之前画的内容
+    private void resizeLayer(int width, int height) {
+        if (width <= 0 || height <= 0 || (null != mLayer && mLayer.getWidth() == width && mLayer.getHeight() == height)) {
+            return;
+        }
+        Bitmap layer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas layerCanvas = new Canvas(layer);
+        layerCanvas.drawColor(Color.WHITE);
+        if (null != mLayer) {
+            layerCanvas.drawBitmap(mLayer, 0, 0, null);
+            mLayer.recycle();
         }
+        mLayer = layer;
+        mLayerCanvas = layerCanvas;
+        mFullRedraw = true;
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        // 在主线程中接收用户的触摸事件，记录下来。在子线程中，每隔100毫秒执行一次draw()方法，根据主线程中的触摸绘制图像
-        int x = (int) event.getX();
-        int y = (int) event.getY();
-        switch (event.getAction()) {
+        // 在主线程中接收用户的触摸事件，放进队列，然后通知绘制线程在下一个vsync时绘制。
+        // 高刷新率的触摸屏会把两次分发之间的采样点批量放在历史记录里，全部取出来才不会丢点
+        int action;
+        switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
-                Log.d(TAG, "onTouchEvent - down");
-                mPath.moveTo(x, y);
+                action = TouchSampleQueue.ACTION_DOWN;
                 break;
             case MotionEvent.ACTION_MOVE:
-                Log.d(TAG, "onTouchEvent - move");
-                mPath.lineTo(x, y);
+                action = TouchSampleQueue.ACTION_MOVE;
                 break;
             case MotionEvent.ACTION_UP:
-                Log.d(TAG, "onTouchEvent - up");
+                action = TouchSampleQueue.ACTION_UP;
                 break;
+            case MotionEvent.ACTION_CANCEL:
+                action = TouchSampleQueue.ACTION_CANCEL;
+                break;
+            default:
+                return true;
+        }
+        int historySize = event.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            mTouchQueue.offer(event.getHistoricalX(h), event.getHistoricalY(h), event.getHistoricalEventTime(h),
+                    TouchSampleQueue.ACTION_MOVE);
         }
+        mTouchQueue.offer(event.getX(), event.getY(), event.getEventTime(), action);
+        requestRender();
         return true;
     }
 
+    // 绘制线程里从队列取出的采样点，交给笔画数据做简化
+    @Override
+    public void onSample(float x, float y, long timeMs, int action) {
+        switch (action) {
+            case TouchSampleQueue.ACTION_DOWN:
+                mStrokes.beginStroke(x, y, timeMs);
+                break;
+            case TouchSampleQueue.ACTION_MOVE:
+                mStrokes.addPoint(x, y, timeMs);
+                break;
+            case TouchSampleQueue.ACTION_UP:
+                mStrokes.addPoint(x, y, timeMs);
+                mStrokes.endStroke();
+                break;
+            case TouchSampleQueue.ACTION_CANCEL:
+                mStrokes.endStroke();
+                break;
+        }
+    }
+
+    // 设置笔画简化的容差，单位像素
+    public void setSimplifyTolerance(float tolerance) {
+        synchronized (mStrokes) {
+            mStrokes.setTolerance(tolerance);
+        }
+    }
+
+    // 导出已经画好的笔画，编码后的数据很小，可以跟录像文件放在一起
+    public byte[] exportStrokes() {
+        synchronized (mStrokes) {
+            return mStrokes.encode();
+        }
+    }
+
+    // 标记画面需要重绘，可以在任意线程调用。多次调用只会触发一次绘制
+    public void requestRender() {
+        mDirty.set(true);
+        scheduleFrame(0);
+    }
+
+    private void scheduleFrame(final long delayMillis) {
+        Handler handler = mDrawHandler;
+        if (null == handler || !mFrameScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        // Choreographer只能在创建它的线程里用，所以切到绘制线程去注册帧回调
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (null != mChoreographer) {
+                    mChoreographer.postFrameCallbackDelayed(SurfaceViewDraw.this, delayMillis);
+                } else {
+                    mFrameScheduled.set(false);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFrameScheduled.set(false);
+        if (!surfaceAvailable || !mDirty.getAndSet(false)) {
+            return;
+        }
+
+        // vsync到现在已经过去了超过一帧的时间，说明中间有帧被跳过了
+        long start = System.nanoTime();
+        long jitter = start - frameTimeNanos;
+        if (jitter >= mFrameIntervalNanos) {
+            mDroppedFrames += jitter / mFrameIntervalNanos;
+        }
+
+        draw();
+
+        long end = System.nanoTime();
+        long drawNanos = end - start;
+        mAvgDrawNanos = mAvgDrawNanos == 0 ? drawNanos : (mAvgDrawNanos * 7 + drawNanos) / 8;
+        mFrameTimes.record(end - frameTimeNanos);
+
+        // 绘制期间又有新的触摸，接着画下一帧。一帧画不完的话，按平均耗时跳过几个vsync
+        if (mDirty.get()) {
+            long skipFrames = mAvgDrawNanos / mFrameIntervalNanos;
+            scheduleFrame(TimeUnit.NANOSECONDS.toMillis(skipFrames * mFrameIntervalNanos));
+        }
+    }
+
+    public Histogram getFrameTimeHistogram() {
+        return mFrameTimes;
+    }
+
+    public long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
         surfaceAvailable = true;
-        
-        // surface创建完成后，就启动子线程，循环进行绘制操作。
-        if(null == mDrawThread){
-            mDrawThread = new Thread(this);
+
+        Display display = getDisplay();
+        if (null != display && display.getRefreshRate() > 0) {
+            mFrameIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / display.getRefreshRate());
         }
+
+        // surface创建完成后，启动绘制线程，在线程里获取Choreographer
+        mDrawThread = new HandlerThread("SurfaceViewDraw");
         mDrawThread.start();
+        mDrawHandler = new Handler(mDrawThread.getLooper());
+        mDrawHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mChoreographer = Choreographer.getInstance();
+            }
+        });
+        // 先画一帧，把背景刷成白色
+        requestRender();
     }
 
     @Override
-    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+    public void surfaceChanged(SurfaceHolder holder, int format, final int width, final int height) {
+        mDrawHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                resizeLayer(width, height);
+            }
+        });
+        requestRender();
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         surfaceAvailable = false;
-    }
 
-    @Override
-    public void run() {
-        // 没隔100毫秒，执行一次draw()方法，即刷新频率为100毫秒
-        while (surfaceAvailable) {
-            draw();
-
-            // 严格一点的话应该把绘制时间算进去，这里主要演示用法，就不搞那么复杂了
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        // 这个方法返回后surface就不能再用了，所以要等绘制线程退出
+        mDrawHandler = null;
+        mDrawThread.quitSafely();
+        try {
+            mDrawThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
         }
+        mDrawThread = null;
+        mChoreographer = null;
+        // 图层保留下来，surface重新创建时（比如从后台回来）会整个贴一遍
+        mFullRedraw = true;
+        mFrameScheduled.set(false);
+        Log.d(TAG, "frame time(ns): " + mFrameTimes + ", dropped frames: " + mDroppedFrames
+                + ", dropped touch samples: " + mTouchQueue.getDroppedCount()
+                + ", points: " + mStrokes.getPointCount() + "/" + mStrokes.getRawPointCount());
     }
 }
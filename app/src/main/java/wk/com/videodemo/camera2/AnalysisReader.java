@@ -0,0 +1,106 @@
+package wk.com.videodemo.camera2;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+
+import wk.com.videodemo.analysis.Frame;
+import wk.com.videodemo.analysis.FrameAnalysisPipeline;
+
+/**
+ * 给camera会话提供一个YUV_420_888的输出surface，把每帧拷贝到FrameAnalysisPipeline的Frame里交给分析线程。
+ *
+ * Image拷贝完马上close()，ImageReader的buffer不会被分析占住，camera不会因为拿不到buffer而掉帧；
+ * 分析跟不上时由pipeline丢掉旧帧，这里只取最新的一帧
+ */
+public class AnalysisReader {
+    // 一帧在拷贝，一帧等待，一帧给camera写
+    private static final int MAX_IMAGES = 3;
+
+    private final ImageReader mReader;
+    private final FrameAnalysisPipeline mPipeline;
+    private final HandlerThread mThread;
+    private long mCopyFailedCount;
+
+    public AnalysisReader(int width, int height, FrameAnalysisPipeline pipeline) {
+        mPipeline = pipeline;
+        mThread = new HandlerThread("AnalysisReader");
+        mThread.start();
+        mReader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, MAX_IMAGES);
+        mReader.setOnImageAvailableListener(mImageListener, new Handler(mThread.getLooper()));
+        mPipeline.start();
+    }
+
+    public Surface getSurface() {
+        return mReader.getSurface();
+    }
+
+    // 在camera会话关闭之后调用
+    public void release() {
+        mThread.quitSafely();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mReader.close();
+        mPipeline.release();
+    }
+
+    public long getCopyFailedCount() {
+        return mCopyFailedCount;
+    }
+
+    private ImageReader.OnImageAvailableListener mImageListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (IllegalStateException e) {
+                // reader已经关闭
+                return;
+            }
+            if (null == image) {
+                return;
+            }
+            Frame frame = mPipeline.obtainFrame();
+            if (null == frame) {
+                // 所有帧都在分析中，这一帧直接丢掉
+                image.close();
+                return;
+            }
+            try {
+                copy(image, frame);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                mCopyFailedCount++;
+                mPipeline.recycle(frame);
+                return;
+            } finally {
+                image.close();
+            }
+            mPipeline.submit(frame);
+        }
+    };
+
+    private static void copy(Image image, Frame frame) {
+        Image.Plane[] planes = image.getPlanes();
+        frame.configure(image.getWidth(), image.getHeight(), planes[0].getRowStride(), planes[1].getRowStride(),
+                planes[1].getPixelStride(), image.getTimestamp());
+        copyPlane(planes[0].getBuffer(), frame.getY());
+        copyPlane(planes[1].getBuffer(), frame.getU());
+        copyPlane(planes[2].getBuffer(), frame.getV());
+    }
+
+    // 最后一行后面可能没有补齐的跨度，buffer会比rowStride * height短一点
+    private static void copyPlane(ByteBuffer buffer, byte[] dst) {
+        buffer.rewind();
+        buffer.get(dst, 0, Math.min(buffer.remaining(), dst.length));
+    }
+}
@@ -3,57 +3,175 @@ package wk.com.videodemo.camera2;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaRecorder;
+import android.os.Build;
 import android.os.Handler;
 import android.text.TextUtils;
+import android.util.Log;
+import android.util.Range;
 import android.util.Size;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 public class CameraHelper {
+    private static final String TAG = "CameraHelper";
+    private static final String CAPABILITIES_FILE = "camera_capabilities";
+
+    // 协商结果在进程内共享，重新打开页面时不用再查询、计算一遍
+    private static final StreamConfigNegotiator NEGOTIATOR = new StreamConfigNegotiator();
+
+    // 摄像头能力快照，进程内只查询一次，并保存到文件，下次冷启动直接读文件
+    private static CameraCapabilities sCapabilities;
+
+    private Context mContext;
     private CameraManager mManager;
     private String mBackCameraId;
 
     public CameraHelper(Context context) {
+        mContext = context.getApplicationContext();
         mManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
     }
 
-    public String getBackCameraId() {
-        if(!TextUtils.isEmpty(mBackCameraId)){
-            return mBackCameraId;
+    /**
+     * 在后台线程提前准备好摄像头能力快照，打开camera时就不用再做跨进程查询了。可以在进入拍摄页面之前调用
+     */
+    public static void warmUp(Context context) {
+        final CameraHelper helper = new CameraHelper(context);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                helper.getCapabilities();
+            }
+        }, "CameraWarmUp").start();
+    }
+
+    /**
+     * 摄像头能力快照：先看内存，再读文件，都没有时才查询CameraCharacteristics。
+     * 后台正在准备时会等它完成，不会重复查询
+     */
+    public CameraCapabilities getCapabilities() {
+        synchronized (CameraHelper.class) {
+            if (null != sCapabilities) {
+                return sCapabilities;
+            }
+            long start = System.currentTimeMillis();
+            File file = new File(mContext.getFilesDir(), CAPABILITIES_FILE);
+            CameraCapabilities capabilities = CameraCapabilities.load(file, Build.FINGERPRINT);
+            if (null == capabilities) {
+                capabilities = queryCapabilities();
+                if (null == capabilities) {
+                    return null;
+                }
+                try {
+                    capabilities.save(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                Log.d(TAG, "query capabilities cost " + (System.currentTimeMillis() - start) + "ms");
+            } else {
+                Log.d(TAG, "load capabilities cost " + (System.currentTimeMillis() - start) + "ms");
+            }
+            sCapabilities = capabilities;
+            return capabilities;
         }
+    }
 
+    private CameraCapabilities queryCapabilities() {
         try {
             String[] ids = mManager.getCameraIdList();
+            List<CameraCapabilities.Camera> cameras = new ArrayList<>(ids.length);
             for (String cameraId : ids) {
                 CameraCharacteristics characteristics = mManager.getCameraCharacteristics(cameraId);
                 Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
-                // 根据摄像头的朝向判断是否是后置摄像头
-                if (null != facing && CameraMetadata.LENS_FACING_BACK == facing) {
-                    mBackCameraId = cameraId;
-                    return cameraId;
+                Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+                Integer level = characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+                Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+                int[] previewSizes = null;
+                int[] recordSizes = null;
+                int[] jpegSizes = null;
+                int[] yuvSizes = null;
+                if (null != map) {
+                    previewSizes = toArray(map.getOutputSizes(SurfaceTexture.class));
+                    recordSizes = toArray(map.getOutputSizes(MediaRecorder.class));
+                    jpegSizes = toArray(map.getOutputSizes(ImageFormat.JPEG));
+                    yuvSizes = toArray(map.getOutputSizes(ImageFormat.YUV_420_888));
                 }
+                cameras.add(new CameraCapabilities.Camera(cameraId,
+                        null == facing ? -1 : facing,
+                        null == orientation ? -1 : orientation,
+                        null == level ? -1 : level,
+                        null == timestampSource ? CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_UNKNOWN : timestampSource,
+                        getMaxFrameRate(characteristics),
+                        previewSizes, recordSizes, jpegSizes, yuvSizes));
             }
+            return new CameraCapabilities(Build.FINGERPRINT, cameras);
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
+        return null;
+    }
+
+    public String getBackCameraId() {
+        if(!TextUtils.isEmpty(mBackCameraId)){
+            return mBackCameraId;
+        }
+
+        CameraCapabilities capabilities = getCapabilities();
+        if (null != capabilities) {
+            // 根据摄像头的朝向判断是否是后置摄像头
+            CameraCapabilities.Camera camera = capabilities.findByFacing(CameraMetadata.LENS_FACING_BACK);
+            if (null != camera) {
+                mBackCameraId = camera.id;
+                return camera.id;
+            }
+        }
         return "";
     }
 
     public int getSensorOrientation(String cameraId) {
-        try {
-            CameraCharacteristics characteristics = mManager.getCameraCharacteristics(cameraId);
-            return characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
-        return -1;
+        CameraCapabilities.Camera camera = getCamera(cameraId);
+        return null == camera ? -1 : camera.sensorOrientation;
+    }
+
+    // CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL，取不到时返回-1
+    public int getHardwareLevel(String cameraId) {
+        CameraCapabilities.Camera camera = getCamera(cameraId);
+        return null == camera ? -1 : camera.hardwareLevel;
+    }
+
+    // CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE，取不到时返回UNKNOWN
+    public int getTimestampSource(String cameraId) {
+        CameraCapabilities.Camera camera = getCamera(cameraId);
+        return null == camera ? CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_UNKNOWN : camera.timestampSource;
+    }
+
+    private CameraCapabilities.Camera getCamera(String cameraId) {
+        CameraCapabilities capabilities = getCapabilities();
+        return null == capabilities ? null : capabilities.getCamera(cameraId);
     }
 
     public Size[] getSupportSize(String cameraId, Class klass) {
+        // 常用的几种输出在快照里有，其它的才去查询
+        CameraCapabilities.Camera camera = getCamera(cameraId);
+        if (null != camera) {
+            if (SurfaceTexture.class == klass) {
+                return toSizes(camera.previewSizes);
+            } else if (MediaRecorder.class == klass) {
+                return toSizes(camera.recordSizes);
+            }
+        }
         try {
             CameraCharacteristics characteristics = mManager.getCameraCharacteristics(cameraId);
             StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
@@ -69,6 +187,87 @@ public class CameraHelper {
         return null;
     }
 
+    /**
+     * 根据摄像头支持的预览、录像size和预览控件大小，选出宽高比一致的预览size、录像size，以及码率和帧率。
+     * 结果按摄像头id缓存
+     *
+     * @param quality StreamConfigNegotiator.QUALITY_*
+     */
+    public StreamConfigNegotiator.StreamConfig getStreamConfig(String cameraId, int viewWidth, int viewHeight, int quality) {
+        CameraCapabilities.Camera camera = getCamera(cameraId);
+        if (null == camera) {
+            return null;
+        }
+        return NEGOTIATOR.negotiate(cameraId, camera.previewSizes, camera.recordSizes, viewWidth, viewHeight, quality,
+                camera.maxFrameRate);
+    }
+
+    /**
+     * 帧分析用的YUV size，宽高比和预览一致、长边不超过maxLongEdge。取不到时返回null
+     *
+     * @return {宽, 高}
+     */
+    public int[] getAnalysisSize(String cameraId, int previewWidth, int previewHeight, int maxLongEdge) {
+        CameraCapabilities.Camera camera = getCamera(cameraId);
+        if (null == camera) {
+            return null;
+        }
+        return StreamConfigNegotiator.chooseLargestSize(camera.yuvSizes, previewWidth, previewHeight, maxLongEdge);
+    }
+
+    /**
+     * 零延迟拍照用的JPEG size，宽高比和预览一致、长边不超过maxLongEdge。取不到时返回null
+     *
+     * @return {宽, 高}
+     */
+    public int[] getStillSize(String cameraId, int previewWidth, int previewHeight, int maxLongEdge) {
+        CameraCapabilities.Camera camera = getCamera(cameraId);
+        if (null == camera) {
+            return null;
+        }
+        return StreamConfigNegotiator.chooseLargestSize(camera.jpegSizes, previewWidth, previewHeight, maxLongEdge);
+    }
+
+    // 自动曝光支持的最高帧率，取不到时返回0
+    public int getMaxFrameRate(String cameraId) {
+        CameraCapabilities.Camera camera = getCamera(cameraId);
+        return null == camera ? 0 : camera.maxFrameRate;
+    }
+
+    private static int getMaxFrameRate(CameraCharacteristics characteristics) {
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        int max = 0;
+        if (null != ranges) {
+            for (Range<Integer> range : ranges) {
+                max = Math.max(max, range.getUpper());
+            }
+        }
+        return max;
+    }
+
+    private static int[] toArray(Size[] sizes) {
+        if (null == sizes) {
+            return null;
+        }
+        int[] array = new int[sizes.length * 2];
+        for (int i = 0; i < sizes.length; i++) {
+            array[i * 2] = sizes[i].getWidth();
+            array[i * 2 + 1] = sizes[i].getHeight();
+        }
+        return array;
+    }
+
+    private static Size[] toSizes(int[] array) {
+        if (null == array) {
+            return null;
+        }
+        Size[] sizes = new Size[array.length / 2];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = new Size(array[i * 2], array[i * 2 + 1]);
+        }
+        return sizes;
+    }
+
     // 注意，camera、recorder权限都是隐私权限，6.0以后需要动态权限配置
     @SuppressLint("MissingPermission")
     public void openCamera(String cameraId, CameraDevice.StateCallback callback, Handler handler) {
@@ -0,0 +1,91 @@
+package wk.com.videodemo.camera2;
+
+import android.media.MediaFormat;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+
+import wk.com.videodemo.codec.AudioEncoder;
+import wk.com.videodemo.codec.EncodePipeline;
+import wk.com.videodemo.codec.MediaMuxerSink;
+import wk.com.videodemo.codec.VideoEncoder;
+
+/**
+ * MediaCodec + MediaMuxer的录像引擎，用法和MediaRecorder一样：prepare、getSurface、start、stop。
+ *
+ * 相比MediaRecorder，编码器参数可以完全控制，录像中可以调整码率，还能拿到开始录像到第一帧写入的耗时
+ */
+public class CodecRecorder {
+    private static final String TAG = "CodecRecorder";
+    // stop()后等待编码器输出剩余数据、封装器写完的最长时间
+    private static final long STOP_TIMEOUT_MS = 2000;
+
+    private VideoEncoder mVideoEncoder;
+    private EncodePipeline<MediaFormat> mPipeline;
+
+    /**
+     * @param orientationHint   视频的旋转角度，小于0表示不设置
+     * @param persistentSurface 持久的输入surface，为null时由编码器创建
+     * @param timestampSource   camera的SENSOR_INFO_TIMESTAMP_SOURCE，音视频按采集时间对齐要用到
+     */
+    public void prepare(String path, int width, int height, int bitRate, int frameRate, int orientationHint,
+                        Surface persistentSurface, int timestampSource) throws IOException {
+        release();
+        MediaMuxerSink muxer = new MediaMuxerSink(path, orientationHint);
+        EncodePipeline<MediaFormat> pipeline = new EncodePipeline<>(muxer);
+        try {
+            mVideoEncoder = new VideoEncoder(width, height, bitRate, frameRate, persistentSurface, timestampSource);
+            pipeline.addEncoder(mVideoEncoder);
+            pipeline.addEncoder(new AudioEncoder());
+        } catch (IOException e) {
+            // 已经创建的编码器、封装器随pipeline一起释放
+            pipeline.release();
+            mVideoEncoder = null;
+            throw e;
+        }
+        mPipeline = pipeline;
+    }
+
+    public Surface getSurface() {
+        return null == mVideoEncoder ? null : mVideoEncoder.getInputSurface();
+    }
+
+    public void start() {
+        if (null != mPipeline) {
+            mPipeline.start();
+        }
+    }
+
+    public void stop() {
+        if (null == mPipeline) {
+            return;
+        }
+        mPipeline.stop();
+        if (!mPipeline.awaitFinished(STOP_TIMEOUT_MS)) {
+            Log.w(TAG, "encoder did not finish in " + STOP_TIMEOUT_MS + "ms");
+        }
+        Log.d(TAG, "first frame latency: " + mPipeline.getFirstSampleLatencyMs() + "ms");
+        release();
+    }
+
+    public void release() {
+        if (null != mPipeline) {
+            mPipeline.release();
+            mPipeline = null;
+        }
+        mVideoEncoder = null;
+    }
+
+    // 录像过程中调整码率
+    public void setVideoBitRate(int bitRate) {
+        if (null != mVideoEncoder) {
+            mVideoEncoder.setBitRate(bitRate);
+        }
+    }
+
+    // 从start()到第一帧写入文件的耗时，还没写入时返回-1
+    public long getFirstFrameLatencyMs() {
+        return null == mPipeline ? -1 : mPipeline.getFirstSampleLatencyMs();
+    }
+}
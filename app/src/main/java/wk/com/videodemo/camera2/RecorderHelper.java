@@ -2,57 +2,232 @@ package wk.com.videodemo.camera2;
 
 
 import android.content.Context;
+import android.hardware.camera2.CameraCharacteristics;
 import android.media.MediaRecorder;
+import android.os.Build;
 import android.text.TextUtils;
-import android.util.SparseIntArray;
+import android.util.Log;
 import android.view.Surface;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import wk.com.videodemo.mp4.FastStart;
 
 public class RecorderHelper {
+    private static final String TAG = "RecorderHelper";
+
+    // 录像引擎：MediaRecorder，或者MediaCodec + MediaMuxer（见CodecRecorder）
+    public static final int ENGINE_MEDIA_RECORDER = 0;
+    public static final int ENGINE_MEDIA_CODEC = 1;
+
     private Context mContext;
+    private int mEngine = ENGINE_MEDIA_RECORDER;
     private MediaRecorder mRecorder;
+    private CodecRecorder mCodecRecorder;
+    // 当前这次录像用的是不是CodecRecorder
+    private boolean mCodecActive;
+    // 6.0及以上可以用MediaCodec.createPersistentInputSurface()创建的surface作为录像输入，
+    // 这个surface不随录像结束而失效，可以一直留在camera会话里
+    private Surface mPersistentSurface;
     private String mPath;
     private boolean hasPrepared;
+    // prepare之后是否真的开始录了，没开始就释放时要删掉prepare时创建的空文件
+    private boolean mStarted;
+
+    // 默认值，configRecorder()前通过setVideoConfig()设置协商出的配置
+    private int mVideoWidth = 960;
+    private int mVideoHeight = 720;
+    private int mVideoBitRate = 800 * 800;
+    private int mVideoFrameRate = 30;
+    // camera的SENSOR_INFO_TIMESTAMP_SOURCE，MediaCodec引擎按采集时间对齐音视频时要用到
+    private int mTimestampSource = CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_UNKNOWN;
+    // 没有设置音频比特率时AAC编码器的实际码率不确定，按128kbps估算分段大小，宁可分段短一点
+    private static final int AUDIO_BIT_RATE_ESTIMATE = 128 * 1000;
+
+    // 循环录像：按时长或大小分段，只保留最新的N个分段/N字节。
+    // 8.0及以上用setNextOutputFile()无缝切换到下一个分段，编码器不停，不会丢帧；
+    // 8.0以下只能在分段录满后停止录像，由调用处重新开始
+    private boolean mLoopEnabled;
+    private long mSegmentDurationMs;
+    private long mSegmentMaxBytes;
+    private SegmentRotator mRotator;
+    private File mNextSegment;
+    private OnSegmentListener mSegmentListener;
 
-    private static final int SENSOR_DEFAULT_DEGREES = 90;
-    private static final int SENSOR_INVERSE_DEGREES = 270;
-    private static final SparseIntArray DEFAULT_ORIENTATIONS = new SparseIntArray();
-    private static final SparseIntArray INVERSE_ORIENTATIONS = new SparseIntArray();
+    // 录完的文件在后台把moov挪到文件开头，播放时不用先读文件末尾。所有RecorderHelper共用一个线程，按顺序处理
+    private static final ExecutorService POST_PROCESS_EXECUTOR = Executors.newSingleThreadExecutor();
+    private OnFileReadyListener mFileReadyListener;
 
-    static {
-        DEFAULT_ORIENTATIONS.append(Surface.ROTATION_0, 90);
-        DEFAULT_ORIENTATIONS.append(Surface.ROTATION_90, 0);
-        DEFAULT_ORIENTATIONS.append(Surface.ROTATION_180, 270);
-        DEFAULT_ORIENTATIONS.append(Surface.ROTATION_270, 180);
+    public interface OnFileReadyListener {
+        // 录完的文件处理好了，在后台线程调用
+        void onFileReady(String path);
     }
 
-    static {
-        INVERSE_ORIENTATIONS.append(Surface.ROTATION_0, 270);
-        INVERSE_ORIENTATIONS.append(Surface.ROTATION_90, 180);
-        INVERSE_ORIENTATIONS.append(Surface.ROTATION_180, 90);
-        INVERSE_ORIENTATIONS.append(Surface.ROTATION_270, 0);
+    public interface OnSegmentListener {
+        // 分段录满了，但系统不支持无缝切换，需要调用处停止后重新开始录像
+        void onSegmentLimitReached();
     }
 
     public RecorderHelper(Context context) {
         mContext = context;
     }
 
+    public void setOnFileReadyListener(OnFileReadyListener listener) {
+        mFileReadyListener = listener;
+    }
+
     private void initIfNecessary() {
         if (null == mRecorder) {
             mRecorder = new MediaRecorder();
         }
     }
 
+    /**
+     * 选择录像引擎，下次configRecorder()时生效。循环录像依赖MediaRecorder的分段功能，只能用ENGINE_MEDIA_RECORDER
+     */
+    public void setEngine(int engine) {
+        mEngine = engine;
+    }
+
+    /**
+     * 使用持久的输入surface，下次configRecorder()时生效，传null取消。surface由调用处创建和释放
+     */
+    public void setPersistentSurface(Surface surface) {
+        mPersistentSurface = surface;
+    }
+
+    private boolean useCodecEngine() {
+        return ENGINE_MEDIA_CODEC == mEngine && !mLoopEnabled;
+    }
+
     private void updatePath() {
+        if (mLoopEnabled && null != mRotator) {
+            mPath = mRotator.newSegmentFile().getAbsolutePath();
+            return;
+        }
         final File dir = mContext.getExternalFilesDir(null);
         if (null != dir) {
             mPath = dir.getAbsolutePath() + "/" + System.currentTimeMillis() + ".mp4";
         }
     }
 
+    // 录像的分辨率、码率、帧率，分辨率要和预览宽高比一致，见StreamConfigNegotiator
+    public void setVideoConfig(int width, int height, int bitRate, int frameRate) {
+        mVideoWidth = width;
+        mVideoHeight = height;
+        mVideoBitRate = bitRate;
+        mVideoFrameRate = frameRate;
+    }
+
+    public void setTimestampSource(int timestampSource) {
+        mTimestampSource = timestampSource;
+    }
+
+    // 调整码率。MediaCodec引擎在录像过程中也能生效，MediaRecorder要到下次录像
+    public void setVideoBitRate(int bitRate) {
+        mVideoBitRate = bitRate;
+        if (mCodecActive && hasPrepared) {
+            mCodecRecorder.setVideoBitRate(bitRate);
+        }
+    }
+
+    /**
+     * 开启循环录像，下次configRecorder()时生效。
+     *
+     * @param segmentDurationMs 每个分段的时长，8.0及以上按码率换算成文件大小来分段
+     * @param segmentMaxBytes   每个分段的最大字节数，和时长都设置时取较小的
+     * @param keepSegments      最多保留几个分段
+     * @param keepBytes         所有分段最多占用多少字节
+     */
+    public void setLoopRecording(long segmentDurationMs, long segmentMaxBytes, int keepSegments, long keepBytes) {
+        final File dir = mContext.getExternalFilesDir("loop");
+        if (null == dir) {
+            return;
+        }
+        if (null != mRotator) {
+            mRotator.release();
+        }
+        mLoopEnabled = true;
+        mSegmentDurationMs = segmentDurationMs;
+        mSegmentMaxBytes = segmentMaxBytes;
+        mRotator = new SegmentRotator(dir, keepSegments, keepBytes);
+    }
+
+    public void setOnSegmentListener(OnSegmentListener listener) {
+        mSegmentListener = listener;
+    }
+
+    // 每个分段的大小上限，只设置了时长时按码率估算
+    private long segmentLimitBytes() {
+        long limit = mSegmentMaxBytes;
+        if (mSegmentDurationMs > 0) {
+            long bytes = mSegmentDurationMs * (mVideoBitRate + AUDIO_BIT_RATE_ESTIMATE) / 8 / 1000;
+            limit = limit > 0 ? Math.min(limit, bytes) : bytes;
+        }
+        return limit;
+    }
+
+    private void configLoop() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // 快到上限时会收到MAX_FILESIZE_APPROACHING，这时设置下一个文件就能无缝切换
+            mRecorder.setMaxFileSize(segmentLimitBytes());
+            prepareNextSegment();
+        } else {
+            if (mSegmentDurationMs > 0) {
+                mRecorder.setMaxDuration((int) mSegmentDurationMs);
+            }
+            if (mSegmentMaxBytes > 0) {
+                mRecorder.setMaxFileSize(mSegmentMaxBytes);
+            }
+        }
+        mRecorder.setOnInfoListener(mInfoListener);
+    }
+
+    // 提前创建下一个分段文件、腾出空间，切换时只需要把文件交给MediaRecorder
+    private void prepareNextSegment() {
+        mNextSegment = mRotator.newSegmentFile();
+        mRotator.prepare(mNextSegment, segmentLimitBytes());
+    }
+
+    private MediaRecorder.OnInfoListener mInfoListener = new MediaRecorder.OnInfoListener() {
+        @Override
+        public void onInfo(MediaRecorder mr, int what, int extra) {
+            if (mr != mRecorder || !hasPrepared) {
+                return;
+            }
+            switch (what) {
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_APPROACHING:
+                    try {
+                        mRecorder.setNextOutputFile(mNextSegment);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_NEXT_OUTPUT_FILE_STARTED:
+                    // 上一个分段已经写完，交给rotator统计、按配额删除旧分段
+                    mRotator.onSegmentFinished(new File(mPath));
+                    mPath = mNextSegment.getAbsolutePath();
+                    prepareNextSegment();
+                    Log.d(TAG, "next segment started: " + mPath);
+                    break;
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED:
+                case MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED:
+                    if (null != mSegmentListener) {
+                        mSegmentListener.onSegmentLimitReached();
+                    }
+                    break;
+            }
+        }
+    };
+
     public void configRecorder(int sensorOrientation, int displayRotation) {
+        if (useCodecEngine()) {
+            configCodecRecorder(sensorOrientation, displayRotation);
+            return;
+        }
         initIfNecessary();
 
         // 设置存储路径
@@ -72,16 +247,22 @@ public class RecorderHelper {
         mRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
 
         // 设置比特率、帧率和分辨率
-        mRecorder.setVideoEncodingBitRate(800 * 800);
-        mRecorder.setVideoFrameRate(30);
-        // 这里只是展示用法，实际开发中需要根据摄像头的支持size来取
-        mRecorder.setVideoSize(960, 720);
+        mRecorder.setVideoEncodingBitRate(mVideoBitRate);
+        mRecorder.setVideoFrameRate(mVideoFrameRate);
+        mRecorder.setVideoSize(mVideoWidth, mVideoHeight);
 
         // 根据camera方向和屏幕角度，设置录制视频的角度补偿
-        if (SENSOR_DEFAULT_DEGREES == sensorOrientation) {
-            mRecorder.setOrientationHint(DEFAULT_ORIENTATIONS.get(displayRotation));
-        } else if (SENSOR_INVERSE_DEGREES == sensorOrientation) {
-            mRecorder.setOrientationHint(INVERSE_ORIENTATIONS.get(displayRotation));
+        int orientationHint = CameraGeometry.getOrientationHint(sensorOrientation, displayRotation);
+        if (orientationHint >= 0) {
+            mRecorder.setOrientationHint(orientationHint);
+        }
+
+        if (mLoopEnabled) {
+            configLoop();
+        }
+
+        if (null != mPersistentSurface && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mRecorder.setInputSurface(mPersistentSurface);
         }
 
         try {
@@ -93,31 +274,137 @@ public class RecorderHelper {
         hasPrepared = true;
     }
 
+    private void configCodecRecorder(int sensorOrientation, int displayRotation) {
+        updatePath();
+        if (TextUtils.isEmpty(mPath)) {
+            return;
+        }
+        if (null == mCodecRecorder) {
+            mCodecRecorder = new CodecRecorder();
+        }
+        try {
+            mCodecRecorder.prepare(mPath, mVideoWidth, mVideoHeight, mVideoBitRate, mVideoFrameRate,
+                    CameraGeometry.getOrientationHint(sensorOrientation, displayRotation), mPersistentSurface,
+                    mTimestampSource);
+            mCodecActive = true;
+            hasPrepared = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public void start() {
-        if (hasPrepared) {
+        if (!hasPrepared) {
+            return;
+        }
+        if (mCodecActive) {
+            mCodecRecorder.start();
+        } else {
             mRecorder.start();
         }
+        mStarted = true;
     }
 
     // 停止之后，MediaRecorder不需要置空，下次使用时需要重新配置
     public void stop() {
+        if (hasPrepared && mCodecActive) {
+            mCodecRecorder.stop();
+            mCodecActive = false;
+            hasPrepared = false;
+            mStarted = false;
+            postProcess(mPath);
+            return;
+        }
         if (hasPrepared) {
             mRecorder.stop();
             mRecorder.reset();
             hasPrepared = false;
+            mStarted = false;
+            onLoopStopped();
+            postProcess(mPath);
+        }
+    }
+
+    private void postProcess(final String path) {
+        if (TextUtils.isEmpty(path)) {
+            return;
         }
+        // 循环录像的分段随时可能被轮转删掉，不改写
+        final boolean fastStart = !mLoopEnabled;
+        final OnFileReadyListener listener = mFileReadyListener;
+        POST_PROCESS_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (fastStart) {
+                    long start = System.currentTimeMillis();
+                    try {
+                        boolean processed = FastStart.process(new File(path));
+                        Log.d(TAG, "faststart " + path + " " + processed + ", cost "
+                                + (System.currentTimeMillis() - start) + "ms");
+                    } catch (IOException e) {
+                        // 处理失败时原文件不受影响，照样可以播放
+                        e.printStackTrace();
+                    }
+                }
+                if (null != listener) {
+                    listener.onFileReady(path);
+                }
+            }
+        });
     }
 
     public void release() {
+        boolean unused = hasPrepared && !mStarted;
+        mStarted = false;
+        if (null != mCodecRecorder) {
+            mCodecRecorder.release();
+            mCodecRecorder = null;
+            if (mCodecActive) {
+                mCodecActive = false;
+                hasPrepared = false;
+            }
+        }
         if (null != mRecorder) {
+            boolean wasRecording = hasPrepared;
             mRecorder.release();
             hasPrepared = false;
             mRecorder = null;
+            if (wasRecording) {
+                onLoopStopped();
+            }
+        }
+        if (unused && !mLoopEnabled && !TextUtils.isEmpty(mPath)) {
+            new File(mPath).delete();
+        }
+    }
+
+    // 录像停止后，最后一个分段也算录完了；没用上的预创建文件删掉
+    private void onLoopStopped() {
+        if (!mLoopEnabled || null == mRotator) {
+            return;
+        }
+        if (!TextUtils.isEmpty(mPath)) {
+            mRotator.onSegmentFinished(new File(mPath));
+        }
+        if (null != mNextSegment) {
+            mRotator.discard(mNextSegment);
+            mNextSegment = null;
         }
     }
 
     public Surface getSurface() {
-        return hasPrepared ? mRecorder.getSurface() : null;
+        if (null != mPersistentSurface) {
+            return mPersistentSurface;
+        }
+        if (!hasPrepared) {
+            return null;
+        }
+        return mCodecActive ? mCodecRecorder.getSurface() : mRecorder.getSurface();
+    }
+
+    // 最近一次录像的文件路径
+    public String getPath() {
+        return mPath;
     }
 
     public boolean isRecording() {
@@ -7,9 +7,15 @@ import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.MediaCodec;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Trace;
+import android.util.Log;
+import android.util.Size;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.view.Surface;
@@ -17,10 +23,21 @@ import android.view.TextureView;
 import android.view.View;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import wk.com.videodemo.R;
+import wk.com.videodemo.analysis.Frame;
+import wk.com.videodemo.analysis.FrameAnalysisPipeline;
+import wk.com.videodemo.analysis.LumaHistogramAnalyzer;
+import wk.com.videodemo.analysis.SharpnessAnalyzer;
+import wk.com.videodemo.analysis.SnapshotAnalyzer;
+import wk.com.videodemo.stats.SpanTracer;
+import wk.com.videodemo.stats.SystraceSink;
+import wk.com.videodemo.thumbnail.ThumbnailLoader;
 
 /**
  * Camera2的操作都是基于管道的，就是发送请求、等待回应的过程，使用起来没有代码结构不如Camera那种线性调用清晰。通过下面四个回调就能说清楚使用过程：
@@ -41,6 +58,53 @@ import wk.com.videodemo.R;
  */
 public class VideoActivity extends Activity implements View.OnClickListener {
     private static final String TAG = "VideoActivity";
+    private static final int THUMBNAIL_WIDTH = 320;
+    private static final int VIDEO_QUALITY = StreamConfigNegotiator.QUALITY_MEDIUM;
+
+    // 循环录像：每段1分钟，最多保留60段、2G
+    public static final String EXTRA_LOOP_RECORDING = "loop_recording";
+    private static final long LOOP_SEGMENT_DURATION_MS = 60 * 1000;
+    private static final int LOOP_KEEP_SEGMENTS = 60;
+    private static final long LOOP_KEEP_BYTES = 2L * 1024 * 1024 * 1024;
+
+    // 用MediaCodec + MediaMuxer录像，而不是MediaRecorder
+    public static final String EXTRA_CODEC_ENGINE = "codec_engine";
+
+    // 预览和录像共用一个camera会话：录像surface提前在后台准备好并一直留在会话里，开始/停止录像只切换重复请求的输出目标，
+    // 不用重建会话，预览不会卡顿。需要6.0及以上（持久的输入surface）
+    public static final String EXTRA_PERSISTENT_SESSION = "persistent_session";
+
+    // 预览时同时输出一路小尺寸的YUV给分析线程，统计亮度和清晰度
+    public static final String EXTRA_ANALYSIS = "analysis";
+    private static final int ANALYSIS_MAX_LONG_EDGE = 640;
+    // 转正的预览快照，给叠加层、实时缩略图用
+    private static final int SNAPSHOT_MAX_LONG_EDGE = 160;
+    private static final long SNAPSHOT_INTERVAL_NS = 500L * 1000 * 1000;
+    private static final int ANALYSIS_WORKERS = 1;
+    private static final long ANALYSIS_LOG_INTERVAL_NS = 1000L * 1000 * 1000;
+
+    // 零延迟拍照：JPEG一直输出到环形缓冲，按快门直接取最近的一帧。长按连拍
+    public static final String EXTRA_ZSL = "zsl";
+    // JPEG不超过录像size（也不超过1920）时才在保证支持的"预览 + 录像 + JPEG"组合里，LIMITED设备上更大的JPEG会话可能配置失败。
+    // 录像会话最多3路输出：帧分析和零延迟拍照不能同时开，录像时优先保留零延迟拍照
+    private static final int ZSL_MAX_LONG_EDGE = 1920;
+    // 录像请求的tag，用来区分录像请求和预览请求的回调
+    private static final Object RECORD_REQUEST_TAG = "record";
+    private static final int BURST_COUNT = 5;
+
+    // 打开camera各阶段的耗时统计，进程内累计，退出页面时导出到文件
+    private static final int SPAN_SURFACE = 0;
+    private static final int SPAN_OPEN = 1;
+    private static final int SPAN_SESSION = 2;
+    private static final int SPAN_FIRST_FRAME = 3;
+    private static final int SPAN_RECORD_START = 4;
+    private static final int SPAN_RECORD_STOP = 5;
+    private static final SpanTracer TRACER = new SpanTracer(
+            new String[]{"surface", "open", "session", "first_frame", "record_start", "record_stop"}, 256);
+
+    static {
+        TRACER.setSink(new SystraceSink(TRACER));
+    }
 
     private TextureView mTextureView;
 
@@ -57,9 +121,36 @@ public class VideoActivity extends Activity implements View.OnClickListener {
     private List<Surface> mSurfaceList = new ArrayList<>();
     private CameraCaptureSession mSession;
 
-    // camera2中用到的几个回调，通过指定handler，回调方法就会在该handler所在线程被调用
+    // camera2中用到的几个回调，通过指定handler，回调方法就会在该handler所在线程被调用。
+    // mCameraDevice、mSession、mRequest、mSurfaceList只在这个线程里访问，其它线程要post过来
     private HandlerThread mBackgroundThread;
-    private Handler mBackgroundHandler;
+    private volatile Handler mBackgroundHandler;
+
+    // 共用会话模式：MediaRecorder/MediaCodec的prepare()、stop()会阻塞，放在单独的线程里
+    private boolean mPersistentMode;
+    private Surface mPersistentSurface;
+    private Surface mPreviewSurface;
+    private HandlerThread mRecorderThread;
+    private volatile Handler mRecorderHandler;
+    private volatile boolean mRecording;
+    // 点击开始录像的时间，用来统计到第一帧进入录像surface的耗时
+    private volatile long mRecordRequestNs;
+
+    // 帧分析，不开启时mAnalysisReader为null
+    private boolean mAnalysisEnabled;
+    private AnalysisReader mAnalysisReader;
+    private FrameAnalysisPipeline mAnalysisPipeline;
+    private LumaHistogramAnalyzer mLumaAnalyzer;
+    private SharpnessAnalyzer mSharpnessAnalyzer;
+    private SnapshotAnalyzer mSnapshotAnalyzer;
+    private long mLastAnalysisLogNs;
+
+    // 协商好的预览、录像配置，协商失败时为null
+    private StreamConfigNegotiator.StreamConfig mStreamConfig;
+
+    // 零延迟拍照，不开启时mZslCapture为null
+    private boolean mZslEnabled;
+    private volatile ZslCapture mZslCapture;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -69,15 +160,65 @@ public class VideoActivity extends Activity implements View.OnClickListener {
         mTextureView = findViewById(R.id.texture);
         findViewById(R.id.video_record).setOnClickListener(this);
         findViewById(R.id.video_stop).setOnClickListener(this);
+        View capture = findViewById(R.id.video_capture);
+        capture.setOnClickListener(this);
+        capture.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                if (null != mZslCapture && !mZslCapture.burst(BURST_COUNT)) {
+                    Toast.makeText(VideoActivity.this, "busy", Toast.LENGTH_SHORT).show();
+                }
+                return true;
+            }
+        });
 
         mCameraHelper = new CameraHelper(this);
         mRecorderHelper = new RecorderHelper(this);
         mTextureHelper = new TextureHelper(this);
+
+        mPersistentMode = getIntent().getBooleanExtra(EXTRA_PERSISTENT_SESSION, false)
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        // 录完的文件处理好以后再生成缩略图，打开视频列表时就不用再取帧了
+        mRecorderHelper.setOnFileReadyListener(new RecorderHelper.OnFileReadyListener() {
+            @Override
+            public void onFileReady(final String path) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ThumbnailLoader.getInstance(VideoActivity.this).prefetch(path, THUMBNAIL_WIDTH);
+                    }
+                });
+            }
+        });
+        mAnalysisEnabled = getIntent().getBooleanExtra(EXTRA_ANALYSIS, false);
+        mZslEnabled = getIntent().getBooleanExtra(EXTRA_ZSL, false);
+        if (mPersistentMode && mAnalysisEnabled && mZslEnabled) {
+            // 共用会话里一直有录像surface，再加上分析和JPEG就是4路输出，不在保证支持的组合里
+            Log.w(TAG, "analysis is disabled with zsl in persistent session");
+            mAnalysisEnabled = false;
+        }
+        capture.setVisibility(mZslEnabled ? View.VISIBLE : View.GONE);
+        if (getIntent().getBooleanExtra(EXTRA_CODEC_ENGINE, false)) {
+            mRecorderHelper.setEngine(RecorderHelper.ENGINE_MEDIA_CODEC);
+        }
+        if (getIntent().getBooleanExtra(EXTRA_LOOP_RECORDING, false)) {
+            mRecorderHelper.setLoopRecording(LOOP_SEGMENT_DURATION_MS, 0, LOOP_KEEP_SEGMENTS, LOOP_KEEP_BYTES);
+            // 8.0以下不能无缝切换分段，录满一段后重新开始录像
+            mRecorderHelper.setOnSegmentListener(new RecorderHelper.OnSegmentListener() {
+                @Override
+                public void onSegmentLimitReached() {
+                    stopRecord();
+                    startRecord();
+                }
+            });
+        }
     }
 
     @Override
     public void onResume() {
         super.onResume();
+        // 从onResume到第一帧预览画面
+        TRACER.begin(SPAN_FIRST_FRAME);
 
         // 启动后台线程，用于执行回调中的代码
         startBackgroundThread();
@@ -87,6 +228,7 @@ public class VideoActivity extends Activity implements View.OnClickListener {
             openCamera();
         } else {
             // Activity创建时，添加TextureView的监听，TextureView创建完成后就可以开启camera就行了
+            TRACER.begin(SPAN_SURFACE);
             mTextureView.setSurfaceTextureListener(mSurfaceTextureListener);
         }
     }
@@ -95,23 +237,54 @@ public class VideoActivity extends Activity implements View.OnClickListener {
     public void onPause() {
         // 关闭camera，关闭后台线程
         closeCamera();
-        stopBackgroundThread();
+        TRACER.cancel(SPAN_FIRST_FRAME);
+        exportTrace();
         super.onPause();
     }
 
+    // 导出各阶段耗时，adb pull出来分析
+    private void exportTrace() {
+        File dir = getExternalFilesDir("trace");
+        if (null == dir) {
+            return;
+        }
+        String dump = TRACER.dump();
+        Log.d(TAG, dump);
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(new File(dir, "camera_spans.csv"));
+            writer.write(dump);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (null != writer) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
     @Override
     public void onClick(View view) {
         switch (view.getId()) {
             case R.id.video_record:
-                if (!mRecorderHelper.isRecording()) {
+                if (!mRecording) {
                     startRecord();
                 }
                 break;
             case R.id.video_stop:
-                if (mRecorderHelper.isRecording()) {
+                if (mRecording) {
                     stopRecord();
                 }
                 break;
+            case R.id.video_capture:
+                if (null != mZslCapture && !mZslCapture.takePicture()) {
+                    Toast.makeText(this, "busy", Toast.LENGTH_SHORT).show();
+                }
+                break;
         }
     }
 
@@ -119,6 +292,25 @@ public class VideoActivity extends Activity implements View.OnClickListener {
         mBackgroundThread = new HandlerThread("CameraBackground");
         mBackgroundThread.start();
         mBackgroundHandler = new Handler(mBackgroundThread.getLooper());
+
+        // recorder的prepare/start/stop都可能阻塞（MediaCodec引擎stop时要等编码器排空），不能放在UI线程
+        mRecorderThread = new HandlerThread("RecorderPrepare");
+        mRecorderThread.start();
+        mRecorderHandler = new Handler(mRecorderThread.getLooper());
+    }
+
+    private void stopRecorderThread() {
+        if (null == mRecorderThread) {
+            return;
+        }
+        mRecorderThread.quitSafely();
+        try {
+            mRecorderThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mRecorderThread = null;
+        mRecorderHandler = null;
     }
 
     private void stopBackgroundThread() {
@@ -133,20 +325,36 @@ public class VideoActivity extends Activity implements View.OnClickListener {
     }
 
     private void openCamera() {
+        // 根据摄像头支持的size协商预览、录像配置，两者宽高比一致，camera不用额外缩放裁剪
+        negotiateStreamConfig();
+        createAnalysisReader();
+        createZslCapture();
+
         // 设置预览大小、方向/角度
         mTextureHelper.configPreview(mTextureView, mTextureView.getWidth(), mTextureView.getHeight());
 
         // 开启后置摄像头
+        TRACER.begin(SPAN_OPEN);
         mCameraHelper.openCamera(mCameraHelper.getBackCameraId(), new CameraDevice.StateCallback() {
             @Override
             public void onOpened(@NonNull CameraDevice cameraDevice) {
                 // 如果openCamera()方法的第三个参数指定了handler，那么下面的代码就会在该handler所在线程中执行，如果不指定就在openCamera()方法所在线程执行
+                TRACER.end(SPAN_OPEN);
                 mCameraDevice = cameraDevice;
-                startPreviewSession();
-
-                if (null != mTextureView) {
-                    mTextureHelper.configPreview(mTextureView, mTextureView.getWidth(), mTextureView.getHeight());
+                if (mPersistentMode) {
+                    preparePersistentSession();
+                } else {
+                    startPreviewSession();
                 }
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (null != mTextureView) {
+                            mTextureHelper.configPreview(mTextureView, mTextureView.getWidth(), mTextureView.getHeight());
+                        }
+                    }
+                });
             }
 
             @Override
@@ -157,14 +365,153 @@ public class VideoActivity extends Activity implements View.OnClickListener {
 
             @Override
             public void onError(@NonNull CameraDevice cameraDevice, int error) {
+                TRACER.cancel(SPAN_OPEN);
                 cameraDevice.close();
                 mCameraDevice = null;
-                finish();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        finish();
+                    }
+                });
             }
 
-        }, null);
+        }, mBackgroundHandler);
+    }
+
+    private void negotiateStreamConfig() {
+        StreamConfigNegotiator.StreamConfig config = mCameraHelper.getStreamConfig(mCameraHelper.getBackCameraId(),
+                mTextureView.getWidth(), mTextureView.getHeight(), VIDEO_QUALITY);
+        if (null == config) {
+            return;
+        }
+        Log.d(TAG, "stream config: " + config);
+        mStreamConfig = config;
+        mTextureHelper.setPreviewSize(config.previewWidth, config.previewHeight);
+        mRecorderHelper.setVideoConfig(config.videoWidth, config.videoHeight, config.bitRate, config.frameRate);
+        mRecorderHelper.setTimestampSource(mCameraHelper.getTimestampSource(mCameraHelper.getBackCameraId()));
     }
 
+    // 分析用的ImageReader，size和预览的宽高比一致。分析线程随reader一起启动
+    private void createAnalysisReader() {
+        if (!mAnalysisEnabled || null != mAnalysisReader) {
+            return;
+        }
+        Size previewSize = mTextureHelper.getPreviewSize();
+        int[] size = mCameraHelper.getAnalysisSize(mCameraHelper.getBackCameraId(),
+                null == previewSize ? 0 : previewSize.getWidth(), null == previewSize ? 0 : previewSize.getHeight(),
+                ANALYSIS_MAX_LONG_EDGE);
+        if (null == size) {
+            return;
+        }
+        Log.d(TAG, "analysis size: " + size[0] + "x" + size[1]);
+        mLumaAnalyzer = new LumaHistogramAnalyzer(4);
+        mSharpnessAnalyzer = new SharpnessAnalyzer(2);
+        mSnapshotAnalyzer = new SnapshotAnalyzer(getSnapshotRotation(), SNAPSHOT_MAX_LONG_EDGE, SNAPSHOT_INTERVAL_NS);
+        mAnalysisPipeline = new FrameAnalysisPipeline(ANALYSIS_WORKERS);
+        mAnalysisPipeline.addAnalyzer(mLumaAnalyzer);
+        mAnalysisPipeline.addAnalyzer(mSharpnessAnalyzer);
+        mAnalysisPipeline.addAnalyzer(mSnapshotAnalyzer);
+        mAnalysisPipeline.setListener(mAnalysisListener);
+        mAnalysisReader = new AnalysisReader(size[0], size[1], mAnalysisPipeline);
+    }
+
+    private void releaseAnalysisReader() {
+        if (null == mAnalysisReader) {
+            return;
+        }
+        mAnalysisReader.release();
+        Log.d(TAG, "analysis submitted " + mAnalysisPipeline.getSubmittedCount() + ", dropped "
+                + mAnalysisPipeline.getDroppedCount() + ", cost p50 " + mAnalysisPipeline.getCostHistogram().getPercentile(50)
+                + "us, p99 " + mAnalysisPipeline.getCostHistogram().getPercentile(99) + "us");
+        mAnalysisReader = null;
+        mAnalysisPipeline = null;
+        mSnapshotAnalyzer.release();
+    }
+
+    // 快照和录像用同样的角度补偿，方向和录出来的视频一致；sensor方向不是90/270时直接用sensor方向（规范里它总是90的倍数）
+    private int getSnapshotRotation() {
+        int sensorOrientation = mCameraHelper.getSensorOrientation(mCameraHelper.getBackCameraId());
+        int displayRotation = getWindowManager().getDefaultDisplay().getRotation();
+        int rotation = CameraGeometry.getOrientationHint(sensorOrientation, displayRotation);
+        if (rotation < 0) {
+            rotation = Math.max(0, sensorOrientation);
+        }
+        return rotation;
+    }
+
+    private void createZslCapture() {
+        if (!mZslEnabled || null != mZslCapture) {
+            return;
+        }
+        File dir = getExternalFilesDir("photo");
+        Size previewSize = mTextureHelper.getPreviewSize();
+        int[] size = mCameraHelper.getStillSize(mCameraHelper.getBackCameraId(),
+                null == previewSize ? 0 : previewSize.getWidth(), null == previewSize ? 0 : previewSize.getHeight(),
+                getZslMaxLongEdge());
+        if (null == dir || null == size) {
+            return;
+        }
+        Log.d(TAG, "zsl size: " + size[0] + "x" + size[1]);
+        mZslCapture = new ZslCapture(size[0], size[1], dir);
+        mZslCapture.setCallback(new ZslCapture.Callback() {
+            @Override
+            public void onPictureSaved(File file, long shutterLagMs) {
+                Log.d(TAG, "picture saved: " + file + ", shutter lag " + shutterLagMs + "ms");
+            }
+
+            @Override
+            public void onPictureFailed(File file) {
+                Log.e(TAG, "picture failed: " + file);
+            }
+        });
+    }
+
+    // JPEG的长边不超过录像size的长边
+    private int getZslMaxLongEdge() {
+        if (null == mStreamConfig) {
+            return ZSL_MAX_LONG_EDGE;
+        }
+        return Math.min(ZSL_MAX_LONG_EDGE, Math.max(mStreamConfig.videoWidth, mStreamConfig.videoHeight));
+    }
+
+    private void releaseZslCapture() {
+        if (null != mZslCapture) {
+            mZslCapture.release();
+            mZslCapture = null;
+        }
+    }
+
+    private void addZslSurface() {
+        if (null != mZslCapture) {
+            mRequest.addTarget(mZslCapture.getSurface());
+            mSurfaceList.add(mZslCapture.getSurface());
+        }
+    }
+
+    private void addAnalysisSurface() {
+        if (null != mAnalysisReader) {
+            mRequest.addTarget(mAnalysisReader.getSurface());
+            mSurfaceList.add(mAnalysisReader.getSurface());
+        }
+    }
+
+    // 在分析线程调用，大约每秒打印一次
+    private FrameAnalysisPipeline.Listener mAnalysisListener = new FrameAnalysisPipeline.Listener() {
+        @Override
+        public void onFrameAnalyzed(Frame frame, long costNs) {
+            long now = System.nanoTime();
+            if (now - mLastAnalysisLogNs < ANALYSIS_LOG_INTERVAL_NS) {
+                return;
+            }
+            mLastAnalysisLogNs = now;
+            Log.d(TAG, "analysis luma " + mLumaAnalyzer.getMean() + ", dark " + mLumaAnalyzer.getDarkRatio()
+                    + ", bright " + mLumaAnalyzer.getBrightRatio() + ", sharpness " + mSharpnessAnalyzer.getScore()
+                    + ", snapshot " + mSnapshotAnalyzer.getWidth() + "x" + mSnapshotAnalyzer.getHeight()
+                    + ", cost " + costNs / 1000 + "us");
+        }
+    };
+
     private void addTextureViewSurface() {
         // 获取TextureView中的surface，添加到request中、添加到surfaceList中
         Surface previewSurface = mTextureHelper.getSurface(mTextureView);
@@ -186,13 +533,33 @@ public class VideoActivity extends Activity implements View.OnClickListener {
     }
 
     private void closeCamera() {
-        // 关闭camera预览，关闭MediaRecorder
-        closePreviewSession();
-        if (null != mCameraDevice) {
-            mCameraDevice.close();
-            mCameraDevice = null;
-        }
+        // 先等recorder线程的prepare/stop执行完，它们post到camera线程的会话操作都排在关闭之前
+        stopRecorderThread();
+        // 在camera线程里关闭camera预览和camera，再等camera线程退出，之后才能释放recorder和各个surface
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closePreviewSession();
+                if (null != mCameraDevice) {
+                    mCameraDevice.close();
+                    mCameraDevice = null;
+                }
+            }
+        });
+        stopBackgroundThread();
+        mRecording = false;
         mRecorderHelper.release();
+        if (null != mPersistentSurface) {
+            mPersistentSurface.release();
+            mPersistentSurface = null;
+        }
+        if (null != mPreviewSurface) {
+            mPreviewSurface.release();
+            mPreviewSurface = null;
+        }
+        // camera关闭后不会再往reader里写
+        releaseAnalysisReader();
+        releaseZslCapture();
     }
 
     private void startPreviewSession() {
@@ -208,16 +575,22 @@ public class VideoActivity extends Activity implements View.OnClickListener {
             mSurfaceList.clear();
             mRequest = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             addTextureViewSurface();
+            addAnalysisSurface();
+            addZslSurface();
 
             // 启动会话
             // 参数1：camera捕捉到的画面分别输出到surfaceList的各个surface中;
             // 参数2：会话状态监听;
             // 参数3：监听器中的方法会在指定的线程里调用，通过一个handler对象来指定线程;
+            TRACER.begin(SPAN_SESSION);
             mCameraDevice.createCaptureSession(mSurfaceList, new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(@NonNull CameraCaptureSession session) {
+                    TRACER.end(SPAN_SESSION);
                     mSession = session;
                     updatePreview();
+                    // 录像结束后重新进入预览
+                    TRACER.end(SPAN_RECORD_STOP);
                 }
 
                 @Override
@@ -246,8 +619,14 @@ public class VideoActivity extends Activity implements View.OnClickListener {
             // 创建录像会话请求
             mSurfaceList.clear();
             mRequest = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            mRequest.setTag(RECORD_REQUEST_TAG);
             addTextureViewSurface();
             addRecorderSurface();
+            // 预览 + 录像 + 分析 + JPEG是4路输出，不在保证支持的组合里，开了零延迟拍照时录像期间不做分析
+            if (null == mZslCapture) {
+                addAnalysisSurface();
+            }
+            addZslSurface();
 
             // 启动会话。可以看出跟上面的"预览session"是一样的，只是surfaceList多加了一个
             mCameraDevice.createCaptureSession(mSurfaceList, new CameraCaptureSession.StateCallback() {
@@ -256,7 +635,12 @@ public class VideoActivity extends Activity implements View.OnClickListener {
                     mSession = session;
                     updatePreview();
 
-                    runOnUiThread(new Runnable() {
+                    // 页面已经退出时recorder线程为null，recorder也已经释放
+                    Handler recorderHandler = mRecorderHandler;
+                    if (null == recorderHandler) {
+                        return;
+                    }
+                    recorderHandler.post(new Runnable() {
                         @Override
                         public void run() {
                             mRecorderHelper.start();
@@ -266,7 +650,26 @@ public class VideoActivity extends Activity implements View.OnClickListener {
 
                 @Override
                 public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
-                    Toast.makeText(VideoActivity.this, "Failed", Toast.LENGTH_SHORT).show();
+                    // 录像会话起不来，释放准备好的recorder，回到预览，不要留着一个没有画面的页面
+                    Log.e(TAG, "record session configure failed");
+                    mRecording = false;
+                    mRecordRequestNs = 0;
+                    Handler recorderHandler = mRecorderHandler;
+                    if (null != recorderHandler) {
+                        recorderHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                mRecorderHelper.release();
+                            }
+                        });
+                    }
+                    startPreviewSession();
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Toast.makeText(VideoActivity.this, "Failed", Toast.LENGTH_SHORT).show();
+                        }
+                    });
                 }
             }, mBackgroundHandler);
 
@@ -284,9 +687,11 @@ public class VideoActivity extends Activity implements View.OnClickListener {
             mRequest.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
 
             // 这个接口是预览。作用是把camera捕捉到的画面输出到surfaceList中的各个surface上，每隔一定时间重复一次
-            mSession.setRepeatingRequest(mRequest.build(), null, mBackgroundHandler);
+            mSession.setRepeatingRequest(mRequest.build(),
+                    mRecordRequestNs > 0 || null != mZslCapture ? mCaptureCallback : null, mBackgroundHandler);
 
             // 这个接口是拍照。由于拍照需要获得图像数据，所以这里需要实现CaptureCallback，在回调里获得图像数据
+            // 零延迟拍照不单独发拍照请求，JPEG一直在重复请求里输出，见ZslCapture
 //            mSession.capture(CaptureRequest request, CaptureCallback listener, Handler handler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
@@ -306,24 +711,221 @@ public class VideoActivity extends Activity implements View.OnClickListener {
     }
 
     private void startRecord() {
-        // 设置Recorder配置，启动录像会话
-        int sensorOrientation = mCameraHelper.getSensorOrientation(mCameraHelper.getBackCameraId());
-        int displayRotation = getWindowManager().getDefaultDisplay().getRotation();
-        mRecorderHelper.configRecorder(sensorOrientation, displayRotation);
+        mRecordRequestNs = System.nanoTime();
+        if (mPersistentMode) {
+            startPersistentRecord();
+            return;
+        }
 
-        startRecordSession();
+        // 在recorder线程设置Recorder配置，再到camera线程启动录像会话
+        mRecording = true;
+        final int sensorOrientation = mCameraHelper.getSensorOrientation(mCameraHelper.getBackCameraId());
+        final int displayRotation = getWindowManager().getDefaultDisplay().getRotation();
+        mRecorderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Trace.beginSection("configRecorder");
+                mRecorderHelper.configRecorder(sensorOrientation, displayRotation);
+                Trace.endSection();
+                mBackgroundHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startRecordSession();
+                    }
+                });
+            }
+        });
     }
 
     private void stopRecord() {
-        // 关闭录像会话，停止录像，重新进入预览
-        mRecorderHelper.stop();
-        startPreviewSession();
+        mRecordRequestNs = 0;
+        TRACER.begin(SPAN_RECORD_STOP);
+        if (mPersistentMode) {
+            stopPersistentRecord();
+            return;
+        }
+
+        // 在recorder线程停止录像，停完再到camera线程重新进入预览
+        mRecording = false;
+        mRecorderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRecorderHelper.stop();
+                mBackgroundHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startPreviewSession();
+                    }
+                });
+            }
+        });
+    }
+
+    // 在后台准备好recorder，再创建同时包含预览surface和录像surface的会话，之后一直用这个会话
+    private void preparePersistentSession() {
+        if (null == mPersistentSurface) {
+            mPersistentSurface = MediaCodec.createPersistentInputSurface();
+            mRecorderHelper.setPersistentSurface(mPersistentSurface);
+        }
+        final int sensorOrientation = mCameraHelper.getSensorOrientation(mCameraHelper.getBackCameraId());
+        final int displayRotation = getWindowManager().getDefaultDisplay().getRotation();
+        mRecorderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // 持久surface要先连上编码器，会话才能用它
+                Trace.beginSection("configRecorder");
+                mRecorderHelper.configRecorder(sensorOrientation, displayRotation);
+                Trace.endSection();
+                mBackgroundHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        createPersistentSession();
+                    }
+                });
+            }
+        });
+    }
+
+    private void createPersistentSession() {
+        if (null == mCameraDevice || !mTextureView.isAvailable() || null == mPersistentSurface) {
+            return;
+        }
+        try {
+            closePreviewSession();
+            if (null == mPreviewSurface) {
+                mPreviewSurface = mTextureHelper.getSurface(mTextureView);
+            }
+            mSurfaceList.clear();
+            mSurfaceList.add(mPreviewSurface);
+            mSurfaceList.add(mPersistentSurface);
+            if (null != mAnalysisReader) {
+                mSurfaceList.add(mAnalysisReader.getSurface());
+            }
+            if (null != mZslCapture) {
+                mSurfaceList.add(mZslCapture.getSurface());
+            }
+            TRACER.begin(SPAN_SESSION);
+            mCameraDevice.createCaptureSession(mSurfaceList, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    TRACER.end(SPAN_SESSION);
+                    mSession = session;
+                    switchRepeatingRequest(mRecording);
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    Log.e(TAG, "persistent session configure failed");
+                }
+            }, mBackgroundHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 只切换重复请求：录像时输出到预览和录像surface，否则只输出到预览surface。在camera线程调用
+    private void switchRepeatingRequest(boolean record) {
+        if (null == mCameraDevice || null == mSession) {
+            return;
+        }
+        try {
+            mRequest = mCameraDevice.createCaptureRequest(record ? CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_PREVIEW);
+            mRequest.addTarget(mPreviewSurface);
+            if (record) {
+                mRequest.setTag(RECORD_REQUEST_TAG);
+                mRequest.addTarget(mPersistentSurface);
+            }
+            if (null != mAnalysisReader) {
+                mRequest.addTarget(mAnalysisReader.getSurface());
+            }
+            if (null != mZslCapture) {
+                mRequest.addTarget(mZslCapture.getSurface());
+            }
+            updatePreview();
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        } catch (IllegalStateException e) {
+            // 会话已经关闭
+            e.printStackTrace();
+        }
     }
 
+    private void startPersistentRecord() {
+        mRecording = true;
+        mRecorderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // recorder在上次停止后已经准备好了，这里只需要start，再到camera线程把录像surface加进重复请求
+                mRecorderHelper.start();
+                mBackgroundHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        switchRepeatingRequest(true);
+                    }
+                });
+            }
+        });
+    }
+
+    private void stopPersistentRecord() {
+        mRecording = false;
+        final int sensorOrientation = mCameraHelper.getSensorOrientation(mCameraHelper.getBackCameraId());
+        final int displayRotation = getWindowManager().getDefaultDisplay().getRotation();
+        // 先在camera线程停止往录像surface输出，再到recorder线程停止recorder
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                switchRepeatingRequest(false);
+                // 页面已经退出时recorder线程为null，recorder由closeCamera()释放
+                Handler recorderHandler = mRecorderHandler;
+                if (null == recorderHandler) {
+                    return;
+                }
+                recorderHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mRecorderHelper.stop();
+                        TRACER.end(SPAN_RECORD_STOP);
+                        // 马上为下一次录像准备好
+                        Trace.beginSection("configRecorder");
+                        mRecorderHelper.configRecorder(sensorOrientation, displayRotation);
+                        Trace.endSection();
+                    }
+                });
+            }
+        });
+    }
+
+    // 统计从点击开始录像到第一帧输出到录像surface的耗时；给零延迟拍照提供sensor时间戳
+    private CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                     long timestamp, long frameNumber) {
+            ZslCapture zslCapture = mZslCapture;
+            if (null != zslCapture) {
+                zslCapture.onCaptureStarted(timestamp);
+            }
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            // 开了零延迟拍照时预览请求也有这个回调，只统计录像请求
+            long requestNs = mRecordRequestNs;
+            if (requestNs > 0 && RECORD_REQUEST_TAG == request.getTag()) {
+                mRecordRequestNs = 0;
+                long now = System.nanoTime();
+                TRACER.record(SPAN_RECORD_START, requestNs, now);
+                Log.d(TAG, "record tap to first frame: " + (now - requestNs) / 1000000 + "ms");
+            }
+        }
+    };
+
     // TextureView状态监听
     private TextureView.SurfaceTextureListener mSurfaceTextureListener = new TextureView.SurfaceTextureListener() {
         @Override
         public void onSurfaceTextureAvailable(SurfaceTexture surfaceTexture, int width, int height) {
+            TRACER.end(SPAN_SURFACE);
             openCamera();
         }
 
@@ -339,6 +941,8 @@ public class VideoActivity extends Activity implements View.OnClickListener {
 
         @Override
         public void onSurfaceTextureUpdated(SurfaceTexture surfaceTexture) {
+            // 只有第一帧会结束这个阶段，之后的调用直接忽略
+            TRACER.end(SPAN_FIRST_FRAME);
         }
     };
 }
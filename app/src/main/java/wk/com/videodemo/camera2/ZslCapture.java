@@ -0,0 +1,232 @@
+package wk.com.videodemo.camera2;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import wk.com.videodemo.stats.Histogram;
+
+/**
+ * 零延迟拍照：JPEG的ImageReader一直在重复请求里，最近几帧留在TimestampRing里，按快门时直接取时间最接近的一帧，
+ * 不用再发一次拍照请求、等对焦曝光和出图。
+ *
+ * JPEG数据在Image的direct buffer里，写文件时用FileChannel直接写这个buffer，不拷贝到Java堆上，写完才close()这个Image。
+ * 写文件在单独的线程，排队中的照片有上限，满了时快门返回false，不会无限占用ImageReader的buffer
+ */
+public class ZslCapture {
+    private static final String TAG = "ZslCapture";
+    // 环形缓冲里保留的帧数
+    private static final int RING_SIZE = 3;
+    // 排队写文件的照片上限
+    private static final int MAX_PENDING_WRITES = 4;
+
+    public interface Callback {
+        // 在写文件的线程调用，shutterLagMs是按快门到这一帧曝光的时间差，负数表示这一帧比快门早
+        void onPictureSaved(File file, long shutterLagMs);
+
+        void onPictureFailed(File file);
+    }
+
+    private final ImageReader mReader;
+    private final TimestampRing<Image> mRing = new TimestampRing<>(RING_SIZE);
+    private final HandlerThread mReaderThread;
+    private final HandlerThread mWriterThread;
+    private final Handler mWriterHandler;
+    private final AtomicInteger mPendingWrites = new AtomicInteger();
+    private final List<Image> mEvicted = new ArrayList<>(RING_SIZE);
+    private final File mDir;
+    private volatile Callback mCallback;
+
+    // 最近一帧开始曝光时的sensor时间戳和System.nanoTime()，用来把按快门的时间换算成sensor时间
+    private long mLastSensorNs;
+    private long mLastHostNs;
+    private int mBurstRemaining;
+    private int mSequence;
+    private volatile boolean mReleased;
+
+    // 按快门到照片写完的耗时，单位毫秒
+    private final Histogram mSaveLatencyMs = Histogram.exponential(10, 1.5, 16);
+
+    public ZslCapture(int width, int height, File dir) {
+        mDir = dir;
+        mReaderThread = new HandlerThread("ZslReader");
+        mReaderThread.start();
+        mWriterThread = new HandlerThread("JpegWriter");
+        mWriterThread.start();
+        mWriterHandler = new Handler(mWriterThread.getLooper());
+        // 环形缓冲、排队写文件、正在交付的各占一部分
+        mReader = ImageReader.newInstance(width, height, ImageFormat.JPEG, RING_SIZE + MAX_PENDING_WRITES + 1);
+        mReader.setOnImageAvailableListener(mImageListener, new Handler(mReaderThread.getLooper()));
+    }
+
+    public Surface getSurface() {
+        return mReader.getSurface();
+    }
+
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * 在CaptureCallback.onCaptureStarted()里调用，记录sensor时钟和System.nanoTime()的对应关系。
+     * sensor时间戳的时基跟设备有关，不能直接和System.nanoTime()比较
+     */
+    public synchronized void onCaptureStarted(long sensorTimestampNs) {
+        mLastSensorNs = sensorTimestampNs;
+        mLastHostNs = System.nanoTime();
+    }
+
+    /**
+     * 拍一张，从环形缓冲里取最接近现在的一帧。缓冲为空或者排队的照片太多时返回false
+     */
+    public boolean takePicture() {
+        return capture(1);
+    }
+
+    /**
+     * 连拍：第一张从环形缓冲里取，之后到达的count - 1帧直接写文件，写文件排满时跳过这一帧
+     */
+    public boolean burst(int count) {
+        return capture(count);
+    }
+
+    private boolean capture(int count) {
+        long pressNs = System.nanoTime();
+        if (mReleased || mPendingWrites.get() >= MAX_PENDING_WRITES) {
+            return false;
+        }
+        Image image;
+        synchronized (this) {
+            long target = 0 == mLastHostNs ? Long.MAX_VALUE : mLastSensorNs + (pressNs - mLastHostNs);
+            image = mRing.takeNearest(target, mEvicted);
+            for (Image evicted : mEvicted) {
+                evicted.close();
+            }
+            mEvicted.clear();
+            if (null == image) {
+                return false;
+            }
+            mBurstRemaining = count - 1;
+            long lagMs = 0 == mLastHostNs ? 0 : (image.getTimestamp() - target) / 1000000;
+            write(image, pressNs, lagMs);
+        }
+        return true;
+    }
+
+    // 在写文件的线程用FileChannel写出Image的direct buffer，写完再close()
+    private void write(final Image image, final long pressNs, final long shutterLagMs) {
+        mPendingWrites.incrementAndGet();
+        final File file = new File(mDir, System.currentTimeMillis() + "_" + (mSequence++) + ".jpg");
+        mWriterHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                FileChannel channel = null;
+                try {
+                    ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                    channel = new FileOutputStream(file).getChannel();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    success = true;
+                } catch (IOException | IllegalStateException e) {
+                    e.printStackTrace();
+                } finally {
+                    if (null != channel) {
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    image.close();
+                    mPendingWrites.decrementAndGet();
+                }
+                Callback callback = mCallback;
+                if (success) {
+                    mSaveLatencyMs.record((System.nanoTime() - pressNs) / 1000000);
+                    if (null != callback) {
+                        callback.onPictureSaved(file, shutterLagMs);
+                    }
+                } else {
+                    file.delete();
+                    if (null != callback) {
+                        callback.onPictureFailed(file);
+                    }
+                }
+            }
+        });
+    }
+
+    private ImageReader.OnImageAvailableListener mImageListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image;
+            try {
+                // 每一帧都要，不能跳过
+                image = reader.acquireNextImage();
+            } catch (IllegalStateException e) {
+                // reader已经关闭，或者buffer都被占用了
+                e.printStackTrace();
+                return;
+            }
+            if (null == image) {
+                return;
+            }
+            synchronized (ZslCapture.this) {
+                if (mReleased) {
+                    image.close();
+                    return;
+                }
+                if (mBurstRemaining > 0) {
+                    mBurstRemaining--;
+                    if (mPendingWrites.get() < MAX_PENDING_WRITES) {
+                        long now = System.nanoTime();
+                        write(image, now, 0);
+                        return;
+                    }
+                    Log.w(TAG, "burst frame skipped, writer is behind");
+                }
+                Image evicted = mRing.add(image, image.getTimestamp());
+                if (null != evicted) {
+                    evicted.close();
+                }
+            }
+        }
+    };
+
+    // 在camera会话关闭之后调用，等排队的照片写完再关闭ImageReader
+    public void release() {
+        synchronized (this) {
+            mReleased = true;
+            Image image;
+            while (null != (image = mRing.poll())) {
+                image.close();
+            }
+        }
+        mReaderThread.quitSafely();
+        mWriterThread.quitSafely();
+        try {
+            mReaderThread.join();
+            mWriterThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        mReader.close();
+        Log.d(TAG, "save latency p50 " + mSaveLatencyMs.getPercentile(50) + "ms, p99 "
+                + mSaveLatencyMs.getPercentile(99) + "ms");
+    }
+}
@@ -0,0 +1,149 @@
+package wk.com.videodemo.codec;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+import android.os.Build;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AAC音频编码器，麦克风数据由AudioRecord读取。
+ *
+ * AudioRecord.read()会阻塞，不能放在MediaCodec的回调线程里，所以回调只把空闲的输入buffer下标放进队列，
+ * 由单独的采集线程取出来填数据。
+ *
+ * 时间戳 = 第一个采样的采集时间 + 已读取的采样数换算的时长，保证均匀。第一个采样的采集时间在System.nanoTime()的时钟上：
+ * 7.0及以上用AudioRecord.getTimestamp()（某一帧的采集时间），取不到时用第一次read()返回的时间减去读到的时长，
+ * 后者会晚一点（多了AudioRecord内部的缓冲延迟），但不会受编码器延迟的影响
+ */
+public class AudioEncoder extends CodecEncoder {
+    public static final int SAMPLE_RATE = 44100;
+    public static final int BIT_RATE = 128 * 1000;
+    private static final int CHANNEL_COUNT = 1;
+    private static final int BYTES_PER_FRAME = 2 * CHANNEL_COUNT;
+    private static final int POLL_TIMEOUT_MS = 100;
+
+    private final AudioRecord mAudioRecord;
+    private final LinkedBlockingQueue<Integer> mFreeInputs = new LinkedBlockingQueue<>();
+    private Thread mCaptureThread;
+    private volatile boolean mEndOfStream;
+
+    @SuppressLint("MissingPermission")
+    public AudioEncoder() throws IOException {
+        super(createFormat(), "AudioEncoder");
+        int minBuffer = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        mAudioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT, Math.max(minBuffer, 0) * 2);
+        if (AudioRecord.STATE_INITIALIZED != mAudioRecord.getState()) {
+            mAudioRecord.release();
+            super.release();
+            throw new IOException("AudioRecord init failed");
+        }
+    }
+
+    private static MediaFormat createFormat() {
+        MediaFormat format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, SAMPLE_RATE, CHANNEL_COUNT);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
+        return format;
+    }
+
+    @Override
+    public void start() {
+        mAudioRecord.startRecording();
+        super.start();
+        mCaptureThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                capture();
+            }
+        }, "AudioCapture");
+        mCaptureThread.start();
+    }
+
+    @Override
+    protected void onInputBufferAvailable(int index) {
+        mFreeInputs.offer(index);
+    }
+
+    private void capture() {
+        long frames = 0;
+        // 第0帧的采集时间，-1表示还没读到数据
+        long baseUs = -1;
+        try {
+            while (!isReleased()) {
+                Integer index = mFreeInputs.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (null == index) {
+                    continue;
+                }
+                if (mEndOfStream) {
+                    long ptsUs = Math.max(0, baseUs) + frames * 1000000 / SAMPLE_RATE;
+                    mCodec.queueInputBuffer(index, 0, 0, ptsUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                    return;
+                }
+                ByteBuffer buffer = mCodec.getInputBuffer(index);
+                int read = null == buffer ? 0 : mAudioRecord.read(buffer, buffer.remaining());
+                if (read < 0) {
+                    read = 0;
+                }
+                int readFrames = read / BYTES_PER_FRAME;
+                if (baseUs < 0 && readFrames > 0) {
+                    baseUs = getCaptureBaseUs(readFrames);
+                }
+                long ptsUs = Math.max(0, baseUs) + frames * 1000000 / SAMPLE_RATE;
+                frames += readFrames;
+                mCodec.queueInputBuffer(index, 0, read, ptsUs, 0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            // 编码器已经释放
+            e.printStackTrace();
+        }
+    }
+
+    // 第0帧的采集时间，单位微秒，System.nanoTime()的时钟。刚读完第一批数据（readFrames帧）时调用
+    private long getCaptureBaseUs(int readFrames) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            AudioTimestamp timestamp = new AudioTimestamp();
+            if (AudioRecord.SUCCESS == mAudioRecord.getTimestamp(timestamp, AudioTimestamp.TIMEBASE_MONOTONIC)) {
+                return timestamp.nanoTime / 1000 - timestamp.framePosition * 1000000 / SAMPLE_RATE;
+            }
+        }
+        return System.nanoTime() / 1000 - (long) readFrames * 1000000 / SAMPLE_RATE;
+    }
+
+    @Override
+    public void signalEndOfStream() {
+        mEndOfStream = true;
+    }
+
+    @Override
+    public void release() {
+        mEndOfStream = true;
+        super.release();
+        if (null != mCaptureThread) {
+            try {
+                mCaptureThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            mCaptureThread = null;
+        }
+        try {
+            mAudioRecord.stop();
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+        mAudioRecord.release();
+    }
+}
@@ -0,0 +1,125 @@
+package wk.com.videodemo.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * 基于MediaCodec异步回调的编码器。输出buffer直接交给OutputListener，releaseOutput()时才还给MediaCodec。
+ *
+ * 6.0及以上回调在自己的HandlerThread里；6.0以下MediaCodec.setCallback()不能指定线程，回调在创建编码器的线程的Looper里
+ */
+public abstract class CodecEncoder implements MediaEncoder<MediaFormat> {
+    protected final MediaCodec mCodec;
+    private final HandlerThread mThread;
+    private OutputListener<MediaFormat> mListener;
+    private volatile boolean mReleased;
+
+    protected CodecEncoder(MediaFormat format, String name) throws IOException {
+        mCodec = MediaCodec.createEncoderByType(format.getString(MediaFormat.KEY_MIME));
+        mThread = new HandlerThread(name);
+        mThread.start();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mCodec.setCallback(mCallback, new Handler(mThread.getLooper()));
+        } else {
+            mCodec.setCallback(mCallback);
+        }
+        try {
+            mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            mCodec.release();
+            mThread.quitSafely();
+            throw new IOException("configure encoder failed: " + format, e);
+        }
+    }
+
+    @Override
+    public void setOutputListener(OutputListener<MediaFormat> listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void start() {
+        mCodec.start();
+    }
+
+    @Override
+    public void releaseOutput(int index) {
+        if (mReleased) {
+            return;
+        }
+        try {
+            mCodec.releaseOutputBuffer(index, false);
+        } catch (IllegalStateException e) {
+            // 编码器已经停止，buffer随之失效
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mReleased) {
+            return;
+        }
+        mReleased = true;
+        try {
+            mCodec.stop();
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+        mCodec.release();
+        mThread.quitSafely();
+    }
+
+    protected boolean isReleased() {
+        return mReleased;
+    }
+
+    /**
+     * 把输出的时间戳换算到System.nanoTime()的时钟，见MediaEncoder.OutputListener.onOutput()。
+     * 输入时间戳已经是这个时钟的编码器不用覆盖
+     */
+    protected long toMonotonicUs(long ptsUs) {
+        return ptsUs;
+    }
+
+    // 有空闲的输入buffer，surface输入的编码器用不到
+    protected void onInputBufferAvailable(int index) {
+    }
+
+    private MediaCodec.Callback mCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            CodecEncoder.this.onInputBufferAvailable(index);
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            if (null == mListener) {
+                codec.releaseOutputBuffer(index, false);
+                return;
+            }
+            mListener.onOutput(CodecEncoder.this, index, codec.getOutputBuffer(index), info.offset, info.size,
+                    toMonotonicUs(info.presentationTimeUs), info.flags);
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            if (null != mListener) {
+                mListener.onError(CodecEncoder.this, e);
+            }
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+            if (null != mListener) {
+                mListener.onFormatChanged(CodecEncoder.this, format);
+            }
+        }
+    };
+}
@@ -0,0 +1,49 @@
+package wk.com.videodemo.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 用MediaMuxer封装成mp4。调用都来自EncodePipeline，已经加了锁，BufferInfo可以复用
+ */
+public class MediaMuxerSink implements MuxerSink<MediaFormat> {
+    private final MediaMuxer mMuxer;
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+    public MediaMuxerSink(String path, int orientationHint) throws IOException {
+        mMuxer = new MediaMuxer(path, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        if (orientationHint >= 0) {
+            mMuxer.setOrientationHint(orientationHint);
+        }
+    }
+
+    @Override
+    public int addTrack(MediaFormat format) {
+        return mMuxer.addTrack(format);
+    }
+
+    @Override
+    public void start() {
+        mMuxer.start();
+    }
+
+    @Override
+    public void writeSample(int track, ByteBuffer data, int offset, int size, long ptsUs, int flags) {
+        mInfo.set(offset, size, ptsUs, flags);
+        mMuxer.writeSampleData(track, data, mInfo);
+    }
+
+    @Override
+    public void stop() {
+        mMuxer.stop();
+    }
+
+    @Override
+    public void release() {
+        mMuxer.release();
+    }
+}
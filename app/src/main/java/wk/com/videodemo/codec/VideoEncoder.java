@@ -0,0 +1,102 @@
+package wk.com.videodemo.codec;
+
+import android.hardware.camera2.CameraCharacteristics;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.view.Surface;
+
+import java.io.IOException;
+
+/**
+ * H.264视频编码器，输入是surface，camera直接往里面输出画面。
+ *
+ * 输出的时间戳就是camera的SENSOR_TIMESTAMP，时钟由SENSOR_INFO_TIMESTAMP_SOURCE决定：
+ * REALTIME是elapsedRealtimeNanos()（包括休眠时间），要换算到System.nanoTime()；
+ * UNKNOWN的时钟没有规定，实际上就是CLOCK_MONOTONIC，和System.nanoTime()一致，不用换算
+ */
+public class VideoEncoder extends CodecEncoder {
+    private static final int I_FRAME_INTERVAL = 1;
+
+    private final Surface mInputSurface;
+    private final boolean mPersistent;
+    private final boolean mRealtimeTimestamp;
+
+    /**
+     * @param persistentSurface MediaCodec.createPersistentInputSurface()创建的surface（6.0及以上），
+     *                          编码器释放时不会释放它；为null时由编码器自己创建输入surface
+     * @param timestampSource   camera的CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE，取不到时传UNKNOWN
+     */
+    public VideoEncoder(int width, int height, int bitRate, int frameRate, Surface persistentSurface,
+                        int timestampSource) throws IOException {
+        super(createFormat(width, height, bitRate, frameRate), "VideoEncoder");
+        mRealtimeTimestamp = CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME == timestampSource;
+        mPersistent = null != persistentSurface && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        if (mPersistent) {
+            mCodec.setInputSurface(persistentSurface);
+            mInputSurface = persistentSurface;
+        } else {
+            mInputSurface = mCodec.createInputSurface();
+        }
+    }
+
+    private static MediaFormat createFormat(int width, int height, int bitRate, int frameRate) {
+        MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+        return format;
+    }
+
+    // 在configure之后、start之前创建，camera会话用它作为录像的输出
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    protected long toMonotonicUs(long ptsUs) {
+        if (!mRealtimeTimestamp) {
+            return ptsUs;
+        }
+        // 两个时钟的差值在休眠后会变大，每帧重新算，录像过程中设备不会休眠，差值基本不变
+        return ptsUs + (System.nanoTime() - SystemClock.elapsedRealtimeNanos()) / 1000;
+    }
+
+    // 录像过程中调整码率，下一个GOP左右生效
+    public void setBitRate(int bitRate) {
+        if (isReleased()) {
+            return;
+        }
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        try {
+            mCodec.setParameters(params);
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void signalEndOfStream() {
+        if (isReleased()) {
+            return;
+        }
+        try {
+            mCodec.signalEndOfInputStream();
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        if (!mPersistent) {
+            mInputSurface.release();
+        }
+    }
+}
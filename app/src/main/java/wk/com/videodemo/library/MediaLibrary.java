@@ -0,0 +1,121 @@
+package wk.com.videodemo.library;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 媒体库：录像目录和测试视频目录下所有视频的列表。
+ *
+ * 索引保存在files/media_library里，打开列表时直接用索引，不用逐个解析视频；
+ * 后台重新扫描时只解析新增和变化的文件，扫描完成后保存索引并在主线程回调
+ */
+public class MediaLibrary {
+    private static final String TAG = "MediaLibrary";
+    private static final String INDEX_FILE = "media_library";
+
+    private static MediaLibrary sInstance;
+
+    private final Context mContext;
+    private final File mIndexFile;
+    private final Handler mWorkHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LibraryScanner mScanner;
+
+    // 只在工作线程赋值
+    private volatile LibraryIndex mIndex;
+
+    public interface Callback {
+        // 在主线程调用
+        void onScanFinished(List<LibraryEntry> entries);
+    }
+
+    public static synchronized MediaLibrary getInstance(Context context) {
+        if (null == sInstance) {
+            sInstance = new MediaLibrary(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MediaLibrary(Context context) {
+        mContext = context;
+        mIndexFile = new File(context.getFilesDir(), INDEX_FILE);
+        HandlerThread thread = new HandlerThread("MediaLibrary");
+        thread.start();
+        mWorkHandler = new Handler(thread.getLooper());
+        // 解析视频主要是IO等待，线程可以比核数多一点
+        mScanner = new LibraryScanner(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * RecorderHelper的录像目录（循环录像在它的子目录里），加上调用者指定的目录
+     */
+    public List<File> getRoots(String... extraDirs) {
+        List<File> roots = new ArrayList<>();
+        File recordDir = mContext.getExternalFilesDir(null);
+        if (null != recordDir) {
+            roots.add(recordDir);
+        }
+        for (String dir : extraDirs) {
+            roots.add(new File(dir));
+        }
+        return roots;
+    }
+
+    /**
+     * 上次扫描的结果，没有加载过时同步读索引文件。解析失败的文件不包含在内
+     */
+    public List<LibraryEntry> getEntries() {
+        LibraryIndex index = mIndex;
+        if (null == index) {
+            index = LibraryIndex.load(mIndexFile);
+            mIndex = index;
+        }
+        List<LibraryEntry> entries = new ArrayList<>(index.size());
+        for (LibraryEntry entry : index.getEntries()) {
+            if (null != entry.info) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    public void scan(final List<File> roots, final Callback callback) {
+        mWorkHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                LibraryIndex previous = mIndex;
+                if (null == previous) {
+                    previous = LibraryIndex.load(mIndexFile);
+                }
+                LibraryScanner.Result result = mScanner.scan(roots, previous);
+                Log.d(TAG, "scan " + result);
+                mIndex = result.index;
+                // 有文件重新解析或者被删除时才需要重写索引
+                if (result.probed > 0 || result.failed > 0 || result.index.size() != previous.size()) {
+                    try {
+                        result.index.save(mIndexFile);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (null != callback) {
+                    final List<LibraryEntry> entries = getEntries();
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onScanFinished(entries);
+                        }
+                    });
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,37 @@
+package wk.com.videodemo.stats;
+
+import android.os.Trace;
+
+/**
+ * 把SpanTracer的阶段输出到systrace/Perfetto。
+ *
+ * 阶段的开始和结束常常不在同一个线程（比如openCamera()和onOpened()），而Trace.beginSection()/endSection()
+ * 必须在同一个线程成对调用，异步的section要到10.0才有公开接口，所以这里在开始和结束时各打一个很短的标记section，
+ * 在trace里按名字就能找到两端，具体耗时看SpanTracer的导出。section名字提前拼好，回调时不分配内存
+ */
+public class SystraceSink implements SpanTracer.Sink {
+    private final String[] mBeginNames;
+    private final String[] mEndNames;
+
+    public SystraceSink(SpanTracer tracer) {
+        int count = tracer.getSpanCount();
+        mBeginNames = new String[count];
+        mEndNames = new String[count];
+        for (int i = 0; i < count; i++) {
+            mBeginNames[i] = tracer.getName(i) + ":begin";
+            mEndNames[i] = tracer.getName(i) + ":end";
+        }
+    }
+
+    @Override
+    public void onBegin(int span) {
+        Trace.beginSection(mBeginNames[span]);
+        Trace.endSection();
+    }
+
+    @Override
+    public void onEnd(int span, long durationNs) {
+        Trace.beginSection(mEndNames[span]);
+        Trace.endSection();
+    }
+}
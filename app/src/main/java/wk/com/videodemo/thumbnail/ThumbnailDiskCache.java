@@ -0,0 +1,122 @@
+package wk.com.videodemo.thumbnail;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 缩略图的磁盘缓存：一个key对应一个jpg文件，文件名是key的md5。
+ * 命中时更新文件的修改时间，总大小超过上限时按修改时间从旧到新删除，相当于LRU。
+ * 可以在多个后台线程里同时调用
+ */
+public class ThumbnailDiskCache {
+    private static final int JPEG_QUALITY = 85;
+
+    private final File mDir;
+    private final long mMaxBytes;
+    private final Object mTrimLock = new Object();
+
+    public ThumbnailDiskCache(File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+        if (!mDir.exists()) {
+            mDir.mkdirs();
+        }
+    }
+
+    public Bitmap get(String key) {
+        File file = fileFor(key);
+        if (!file.exists()) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+        if (null != bitmap) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return bitmap;
+    }
+
+    public void put(String key, Bitmap bitmap) {
+        // 先写临时文件再改名，写到一半被杀掉也不会留下损坏的缓存
+        File file = fileFor(key);
+        File tmp = new File(mDir, file.getName() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+        } finally {
+            if (null != out) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        trim();
+    }
+
+    private void trim() {
+        synchronized (mTrimLock) {
+            File[] files = mDir.listFiles();
+            if (null == files) {
+                return;
+            }
+            long total = 0;
+            for (File f : files) {
+                total += f.length();
+            }
+            if (total <= mMaxBytes) {
+                return;
+            }
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    long ta = a.lastModified();
+                    long tb = b.lastModified();
+                    return ta < tb ? -1 : (ta == tb ? 0 : 1);
+                }
+            });
+            for (int i = 0; i < files.length && total > mMaxBytes; i++) {
+                long length = files[i].length();
+                if (files[i].delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(mDir, md5(key) + ".jpg");
+    }
+
+    private static String md5(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // UTF-8和MD5所有设备都支持，不会走到这里
+            return String.valueOf(key.hashCode());
+        }
+    }
+}
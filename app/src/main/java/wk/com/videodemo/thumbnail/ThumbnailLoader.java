@@ -0,0 +1,201 @@
+package wk.com.videodemo.thumbnail;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 视频缩略图服务：内存LRU（按字节算大小） + 磁盘缓存，都没有时在后台线程池里用MediaMetadataRetriever取帧。
+ *
+ * 内存缓存的key是路径和目标宽度，命中时不碰文件系统，列表绑定时主线程上没有IO；磁盘缓存的key还带上修改时间和文件大小，
+ * 在后台任务里取，视频文件被覆盖后磁盘缓存自动失效，内存里的旧图由prefetch()丢掉（覆盖文件的一般是刚录完的视频）。
+ * 同一个key正在取帧时，新的请求直接挂到已有任务上；某个任务的请求全部取消后，还没开始的任务也会被取消。
+ *
+ * load()/cancel()需要在主线程调用，回调也在主线程
+ */
+public class ThumbnailLoader {
+    private static final String TAG = "ThumbnailLoader";
+
+    private static final long DISK_CACHE_BYTES = 32 * 1024 * 1024;
+    private static final int MAX_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static ThumbnailLoader sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ThumbnailDiskCache mDiskCache;
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // 正在进行中的任务，只在主线程访问
+    private final HashMap<String, Job> mJobs = new HashMap<>();
+
+    public interface Callback {
+        void onThumbnail(String path, Bitmap bitmap);
+    }
+
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (null == sInstance) {
+            // 内存缓存默认用应用可用内存的1/8
+            int memoryBytes = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+            sInstance = new ThumbnailLoader(memoryBytes, new File(context.getCacheDir(), "thumbnails"), DISK_CACHE_BYTES);
+        }
+        return sInstance;
+    }
+
+    public ThumbnailLoader(int memoryBytes, File diskDir, long diskBytes) {
+        mMemoryCache = new LruCache<String, Bitmap>(memoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        mDiskCache = new ThumbnailDiskCache(diskDir, diskBytes);
+        mExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 加载缩略图。内存命中时直接回调并返回null，否则返回一个可以取消的请求
+     */
+    public Request load(String path, int width, Callback callback) {
+        String key = memoryKey(path, width);
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (null != bitmap) {
+            if (null != callback) {
+                callback.onThumbnail(path, bitmap);
+            }
+            return null;
+        }
+
+        Job job = mJobs.get(key);
+        if (null == job) {
+            job = new Job(key, path, width);
+            mJobs.put(key, job);
+            job.mFuture = mExecutor.submit(job);
+        }
+        Request request = new Request(job, callback);
+        job.mRequests.add(request);
+        return request;
+    }
+
+    // 提前生成缩略图，比如刚录完的视频。文件可能覆盖了同名的旧视频，先丢掉内存里的旧图
+    public void prefetch(String path, int width) {
+        mMemoryCache.remove(memoryKey(path, width));
+        load(path, width, null);
+    }
+
+    private static String memoryKey(String path, int width) {
+        return path + "|" + width;
+    }
+
+    private Bitmap extract(String path, int width) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(path);
+            // 取第一个关键帧附近的画面，不需要精确到某一帧，这样最快
+            Bitmap frame = retriever.getFrameAtTime(0, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            if (null == frame || frame.getWidth() <= width) {
+                return frame;
+            }
+            int height = Math.max(1, frame.getHeight() * width / frame.getWidth());
+            Bitmap scaled = Bitmap.createScaledBitmap(frame, width, height, true);
+            if (scaled != frame) {
+                frame.recycle();
+            }
+            return scaled;
+        } catch (RuntimeException e) {
+            // 文件不存在、格式不支持时，setDataSource会抛IllegalArgumentException
+            Log.w(TAG, "extract failed: " + path, e);
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    private void finish(Job job, Bitmap bitmap) {
+        if (mJobs.get(job.mKey) == job) {
+            mJobs.remove(job.mKey);
+        }
+        for (Request request : job.mRequests) {
+            if (!request.mCancelled && null != request.mCallback) {
+                request.mCallback.onThumbnail(job.mPath, bitmap);
+            }
+        }
+        job.mRequests.clear();
+    }
+
+    public class Request {
+        private final Job mJob;
+        private final Callback mCallback;
+        private boolean mCancelled;
+
+        private Request(Job job, Callback callback) {
+            mJob = job;
+            mCallback = callback;
+        }
+
+        // 比如列表项滑出屏幕，不再需要这张图了
+        public void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            mJob.mRequests.remove(this);
+            if (mJob.mRequests.isEmpty() && mJobs.get(mJob.mKey) == mJob) {
+                mJobs.remove(mJob.mKey);
+                mJob.mFuture.cancel(false);
+            }
+        }
+    }
+
+    private class Job implements Runnable {
+        private final String mKey;
+        private final String mPath;
+        private final int mWidth;
+        private final List<Request> mRequests = new ArrayList<>();
+        private Future<?> mFuture;
+
+        private Job(String key, String path, int width) {
+            mKey = key;
+            mPath = path;
+            mWidth = width;
+        }
+
+        @Override
+        public void run() {
+            File file = new File(mPath);
+            String diskKey = mPath + "|" + file.lastModified() + "|" + file.length() + "|" + mWidth;
+            Bitmap bitmap = mDiskCache.get(diskKey);
+            if (null == bitmap) {
+                bitmap = extract(mPath, mWidth);
+                if (null != bitmap) {
+                    mDiskCache.put(diskKey, bitmap);
+                }
+            }
+            if (null != bitmap) {
+                mMemoryCache.put(mKey, bitmap);
+            }
+
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finish(Job.this, result);
+                }
+            });
+        }
+    }
+}
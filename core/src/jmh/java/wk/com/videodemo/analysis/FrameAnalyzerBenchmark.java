@@ -0,0 +1,77 @@
+package wk.com.videodemo.analysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对一帧合成的YUV数据做亮度直方图、清晰度分析，以及取帧、提交、回收的开销。
+ * 640x480是分析流的默认大小，行跨度按常见的64字节对齐
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameAnalyzerBenchmark {
+    @Param({"640x480", "1280x720"})
+    public String size;
+
+    private Frame mFrame;
+    private final LumaHistogramAnalyzer mLuma = new LumaHistogramAnalyzer(4);
+    private final LumaHistogramAnalyzer mLumaFull = new LumaHistogramAnalyzer(1);
+    private final SharpnessAnalyzer mSharpness = new SharpnessAnalyzer(2);
+    private FrameAnalysisPipeline mPipeline;
+
+    @Setup
+    public void setUp() {
+        String[] parts = size.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        int stride = (width + 63) / 64 * 64;
+        mFrame = new Frame();
+        mFrame.configure(width, height, stride, stride, 2, 0);
+        Random random = new Random(1);
+        byte[] y = mFrame.getY();
+        for (int row = 0; row < height; row++) {
+            for (int x = 0; x < width; x++) {
+                // 渐变加噪声，接近真实画面的分布
+                y[row * stride + x] = (byte) ((x + row) * 255 / (width + height) + random.nextInt(16));
+            }
+        }
+        // 不启动工作线程，只衡量生产者一侧的开销
+        mPipeline = new FrameAnalysisPipeline(1);
+    }
+
+    @Benchmark
+    public float lumaHistogram() {
+        mLuma.analyze(mFrame);
+        return mLuma.getMean();
+    }
+
+    @Benchmark
+    public float lumaHistogramFull() {
+        mLumaFull.analyze(mFrame);
+        return mLumaFull.getMean();
+    }
+
+    @Benchmark
+    public double sharpness() {
+        mSharpness.analyze(mFrame);
+        return mSharpness.getScore();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Frame obtainSubmit() {
+        Frame frame = mPipeline.obtainFrame();
+        mPipeline.submit(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,102 @@
+package wk.com.videodemo.analysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一帧YUV转ARGB的耗时：原尺寸、缩小到长边320（缩略图）、输出到direct buffer，以及4个线程分段转换。
+ * 960x720是录像的常见大小，旋转90度对应竖屏时后置摄像头的sensor方向
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvConverterBenchmark {
+    @Param({"960x720", "1920x1080"})
+    public String size;
+
+    @Param({"0", "90"})
+    public int rotation;
+
+    private Frame mFrame;
+    private ByteBuffer mY;
+    private ByteBuffer mU;
+    private ByteBuffer mV;
+    private YuvConverter mConverter;
+    private YuvConverter mParallelConverter;
+    private int[] mFull;
+    private int[] mFullSize;
+    private int[] mThumbnail;
+    private int[] mThumbnailSize;
+    private ByteBuffer mFullBuffer;
+
+    @Setup
+    public void setUp() {
+        String[] parts = size.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        int stride = (width + 63) / 64 * 64;
+        mFrame = new Frame();
+        mFrame.configure(width, height, stride, stride, 2, 0);
+        Random random = new Random(1);
+        random.nextBytes(mFrame.getY());
+        random.nextBytes(mFrame.getU());
+        random.nextBytes(mFrame.getV());
+        // 和Image.Plane一样的direct buffer
+        mY = ByteBuffer.allocateDirect(mFrame.getY().length);
+        mY.put(mFrame.getY());
+        mU = ByteBuffer.allocateDirect(mFrame.getU().length);
+        mU.put(mFrame.getU());
+        mV = ByteBuffer.allocateDirect(mFrame.getV().length);
+        mV.put(mFrame.getV());
+
+        mConverter = new YuvConverter(1);
+        mParallelConverter = new YuvConverter(4);
+        mFullSize = YuvConverter.getOutputSize(width, height, rotation, 0);
+        mFull = new int[mFullSize[0] * mFullSize[1]];
+        mThumbnailSize = YuvConverter.getOutputSize(width, height, rotation, 320);
+        mThumbnail = new int[mThumbnailSize[0] * mThumbnailSize[1]];
+        mFullBuffer = ByteBuffer.allocateDirect(mFull.length * 4).order(ByteOrder.nativeOrder());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mParallelConverter.release();
+    }
+
+    @Benchmark
+    public int[] fullSize() {
+        mConverter.convert(mFrame, rotation, mFull, mFullSize[0], mFullSize[1]);
+        return mFull;
+    }
+
+    @Benchmark
+    public int[] thumbnail() {
+        mConverter.convert(mFrame, rotation, mThumbnail, mThumbnailSize[0], mThumbnailSize[1]);
+        return mThumbnail;
+    }
+
+    @Benchmark
+    public ByteBuffer planesToBuffer() {
+        mConverter.convert(mY, mU, mV, mFrame.getWidth(), mFrame.getHeight(), mFrame.getYRowStride(),
+                mFrame.getUvRowStride(), mFrame.getUvPixelStride(), rotation, mFullBuffer, mFullSize[0], mFullSize[1]);
+        return mFullBuffer;
+    }
+
+    @Benchmark
+    public int[] fullSizeParallel() {
+        mParallelConverter.convert(mFrame, rotation, mFull, mFullSize[0], mFullSize[1]);
+        return mFull;
+    }
+}
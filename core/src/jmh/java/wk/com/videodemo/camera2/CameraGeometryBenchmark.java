@@ -0,0 +1,34 @@
+package wk.com.videodemo.camera2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 预览变换和角度补偿的计算，每次TextureView大小变化、旋转屏幕都会调用
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CameraGeometryBenchmark {
+    private final float[] mValues = new float[9];
+    private int mRotation;
+
+    @Benchmark
+    public float[] previewTransform() {
+        mRotation = (mRotation + 1) & 3;
+        CameraGeometry.getPreviewTransform(2160, 1080, 1920, 1080, mRotation, mValues);
+        return mValues;
+    }
+
+    @Benchmark
+    public int orientationHint() {
+        mRotation = (mRotation + 1) & 3;
+        return CameraGeometry.getOrientationHint(90, mRotation);
+    }
+}
@@ -0,0 +1,32 @@
+package wk.com.videodemo.camera2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用一台常见手机后摄的size列表做协商，不经过缓存
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StreamConfigNegotiatorBenchmark {
+    private final int[] mPreviewSizes = {
+            4032, 3024, 4000, 3000, 3840, 2160, 3264, 2448, 2592, 1944, 2048, 1536, 1920, 1440, 1920, 1080,
+            1600, 1200, 1440, 1080, 1280, 960, 1280, 720, 1024, 768, 960, 720, 800, 600, 720, 480,
+            640, 480, 352, 288, 320, 240, 176, 144};
+    private final int[] mRecordSizes = {
+            3840, 2160, 1920, 1080, 1440, 1080, 1280, 960, 1280, 720, 960, 720, 720, 480, 640, 480,
+            352, 288, 320, 240, 176, 144};
+
+    @Benchmark
+    public StreamConfigNegotiator.StreamConfig compute() {
+        return StreamConfigNegotiator.compute(mPreviewSizes, mRecordSizes, 1080, 2160,
+                StreamConfigNegotiator.QUALITY_HIGH, 30);
+    }
+}
@@ -0,0 +1,96 @@
+package wk.com.videodemo.codec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用假的编码器和封装器衡量管线每个输出buffer的开销（时间戳换算、写入、归还）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EncodePipelineBenchmark {
+    private final ByteBuffer mData = ByteBuffer.allocateDirect(64 * 1024);
+    private final FakeEncoder mVideo = new FakeEncoder();
+    private final FakeEncoder mAudio = new FakeEncoder();
+    private EncodePipeline<String> mPipeline;
+    private long mPtsUs;
+
+    @Setup
+    public void setUp() {
+        mPipeline = new EncodePipeline<>(new NullMuxer());
+        mPipeline.addEncoder(mVideo);
+        mPipeline.addEncoder(mAudio);
+        mPipeline.start();
+        mPtsUs = System.nanoTime() / 1000;
+        mPipeline.onFormatChanged(mVideo, "video/avc");
+        mPipeline.onFormatChanged(mAudio, "audio/mp4a-latm");
+    }
+
+    @Benchmark
+    public long output() {
+        mPtsUs += 33333;
+        mPipeline.onOutput(mVideo, 0, mData, 0, 20000, mPtsUs, 0);
+        return mVideo.released;
+    }
+
+    private static class FakeEncoder implements MediaEncoder<String> {
+        long released;
+
+        @Override
+        public void setOutputListener(OutputListener<String> listener) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void signalEndOfStream() {
+        }
+
+        @Override
+        public void releaseOutput(int index) {
+            released++;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    private static class NullMuxer implements MuxerSink<String> {
+        private int mTracks;
+        private long mBytes;
+
+        @Override
+        public int addTrack(String format) {
+            return mTracks++;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void writeSample(int track, ByteBuffer data, int offset, int size, long ptsUs, int flags) {
+            mBytes += size;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package wk.com.videodemo.draw;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一条1000个点的曲线笔画：边收边简化的耗时，以及简化后编码的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StrokeStoreBenchmark {
+    private static final int POINTS = 1000;
+
+    private final float[] mXs = new float[POINTS];
+    private final float[] mYs = new float[POINTS];
+    private final StrokeStore mStore = new StrokeStore(0.75f);
+    private StrokeStore mFilled;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < POINTS; i++) {
+            double t = i / 50.0;
+            mXs[i] = (float) (500 + 300 * Math.sin(t) + i * 0.3);
+            mYs[i] = (float) (800 + 200 * Math.cos(t * 1.7));
+        }
+        mFilled = new StrokeStore(0.75f);
+        addStroke(mFilled);
+    }
+
+    private void addStroke(StrokeStore store) {
+        store.beginStroke(mXs[0], mYs[0], 0);
+        for (int i = 1; i < POINTS; i++) {
+            store.addPoint(mXs[i], mYs[i], i * 8);
+        }
+        store.endStroke();
+    }
+
+    @Benchmark
+    public int addPoints() {
+        mStore.clear();
+        addStroke(mStore);
+        return mStore.getPointCount();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return mFilled.encode();
+    }
+}
@@ -0,0 +1,40 @@
+package wk.com.videodemo.draw;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单线程下写入、取出一批触摸点，衡量队列本身的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TouchSampleQueueBenchmark {
+    private static final int BATCH = 64;
+
+    private final TouchSampleQueue mQueue = new TouchSampleQueue(1024);
+    private float mSum;
+    private final TouchSampleQueue.Consumer mConsumer = new TouchSampleQueue.Consumer() {
+        @Override
+        public void onSample(float x, float y, long timeMs, int action) {
+            mSum += x + y;
+        }
+    };
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public float offerDrain() {
+        for (int i = 0; i < BATCH; i++) {
+            mQueue.offer(i, i, i, TouchSampleQueue.ACTION_MOVE);
+        }
+        mQueue.drain(mConsumer, BATCH);
+        return mSum;
+    }
+}
@@ -0,0 +1,58 @@
+package wk.com.videodemo.mp4;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解析moov建索引的耗时（打开视频、第一次seek前要做），以及建好索引后按时间找关键帧的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Mp4IndexReaderBenchmark {
+    // 10秒、5分钟的30fps视频
+    @Param({"300", "9000"})
+    public int videoFrames;
+
+    private File mFile;
+    private Mp4Index mIndex;
+    private int mDurationMs;
+    private int mPosition;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("bench", ".mp4");
+        SyntheticMp4.writeRecording(mFile, videoFrames);
+        mIndex = Mp4IndexReader.read(mFile);
+        mDurationMs = (int) (mIndex.getVideoTrack().getDurationUs() / 1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public Mp4Index read() throws IOException {
+        return Mp4IndexReader.read(mFile);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int snapToSync() {
+        mPosition = (mPosition + 7919) % mDurationMs;
+        return mIndex.snapToSyncMs(mPosition);
+    }
+}
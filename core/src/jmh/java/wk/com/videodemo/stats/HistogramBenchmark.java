@@ -0,0 +1,39 @@
+package wk.com.videodemo.stats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每帧都会调用的统计：直方图记录一个值、SpanTracer记录一个阶段
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HistogramBenchmark {
+    private final Histogram mHistogram = Histogram.exponential(100, 1.5, 30);
+    private final SpanTracer mTracer = new SpanTracer(new String[]{"frame"}, 256);
+    private long mValue;
+
+    @Benchmark
+    public void record() {
+        mValue = (mValue * 6364136223846793005L + 1442695040888963407L);
+        mHistogram.record((mValue >>> 40) & 0xFFFFF);
+    }
+
+    @Benchmark
+    public void span() {
+        mTracer.begin(0);
+        mTracer.end(0);
+    }
+
+    @Benchmark
+    public long percentile() {
+        return mHistogram.getPercentile(99);
+    }
+}
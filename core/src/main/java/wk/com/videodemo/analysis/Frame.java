@@ -0,0 +1,77 @@
+package wk.com.videodemo.analysis;
+
+/**
+ * 一帧YUV 4:2:0数据，平面用byte[]保存，从FramePool里取出来重复使用。
+ *
+ * 行跨度（rowStride）、UV的像素跨度（pixelStride）和Image.Plane的含义一样：
+ * 像素(x, y)的亮度在y[y * yRowStride + x]，色度在u/v[(y / 2) * uvRowStride + (x / 2) * uvPixelStride]
+ */
+public class Frame {
+    private int mWidth;
+    private int mHeight;
+    private long mTimestampNs;
+
+    private byte[] mY = new byte[0];
+    private byte[] mU = new byte[0];
+    private byte[] mV = new byte[0];
+    private int mYRowStride;
+    private int mUvRowStride;
+    private int mUvPixelStride;
+
+    /**
+     * 设置这一帧的尺寸和跨度，平面不够大时重新分配，够大时直接复用
+     */
+    public void configure(int width, int height, int yRowStride, int uvRowStride, int uvPixelStride, long timestampNs) {
+        mWidth = width;
+        mHeight = height;
+        mYRowStride = yRowStride;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+        mTimestampNs = timestampNs;
+        int ySize = yRowStride * height;
+        int uvSize = uvRowStride * ((height + 1) / 2);
+        if (mY.length < ySize) {
+            mY = new byte[ySize];
+        }
+        if (mU.length < uvSize) {
+            mU = new byte[uvSize];
+            mV = new byte[uvSize];
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    public byte[] getY() {
+        return mY;
+    }
+
+    public byte[] getU() {
+        return mU;
+    }
+
+    public byte[] getV() {
+        return mV;
+    }
+
+    public int getYRowStride() {
+        return mYRowStride;
+    }
+
+    public int getUvRowStride() {
+        return mUvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return mUvPixelStride;
+    }
+}
@@ -0,0 +1,185 @@
+package wk.com.videodemo.analysis;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import wk.com.videodemo.stats.Histogram;
+
+/**
+ * 帧分析管线：生产者（camera）从这里取空闲的Frame、填好数据后submit()，工作线程取出来依次交给各个分析器。
+ *
+ * 背压策略是"只保留最新"：待分析的位置只有一个，新帧到来时还没被取走的旧帧直接丢弃回收；
+ * 池子里没有空闲Frame时，obtainFrame()会把待分析的旧帧拿来复用。所以生产者永远不会等待，分析再慢也不会卡住camera，
+ * 只是分析的帧率降低
+ */
+public class FrameAnalysisPipeline {
+    public interface Listener {
+        // 在工作线程调用，frame在返回后会被回收
+        void onFrameAnalyzed(Frame frame, long costNs);
+    }
+
+    private final FramePool mPool;
+    private final List<FrameAnalyzer> mAnalyzers = new CopyOnWriteArrayList<>();
+    private final Thread[] mWorkers;
+    private final Object mLock = new Object();
+    private final Histogram mCostUs = Histogram.exponential(100, 1.5, 24);
+    private volatile Listener mListener;
+
+    // 等待分析的最新帧
+    private Frame mLatest;
+    private boolean mRunning;
+    private long mSubmittedCount;
+    private long mDroppedCount;
+
+    /**
+     * @param workerCount 工作线程数，池子大小是workerCount + 2：每个工作线程一帧、一帧待分析、一帧正在填数据
+     */
+    public FrameAnalysisPipeline(int workerCount) {
+        mPool = new FramePool(workerCount + 2);
+        mWorkers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "FrameAnalysis-" + i);
+        }
+    }
+
+    public void addAnalyzer(FrameAnalyzer analyzer) {
+        mAnalyzers.add(analyzer);
+    }
+
+    public void removeAnalyzer(FrameAnalyzer analyzer) {
+        mAnalyzers.remove(analyzer);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public void start() {
+        synchronized (mLock) {
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+        }
+        for (Thread worker : mWorkers) {
+            worker.start();
+        }
+    }
+
+    // 停止工作线程，等正在进行的分析结束。停止后不能再start()
+    public void release() {
+        synchronized (mLock) {
+            mRunning = false;
+            if (null != mLatest) {
+                mPool.release(mLatest);
+                mLatest = null;
+            }
+            mLock.notifyAll();
+        }
+        for (Thread worker : mWorkers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 取一个空闲的Frame来填数据，池子空了时复用还没被分析的旧帧。都没有时（所有帧都在分析中）返回null，这一帧只能丢掉
+     */
+    public Frame obtainFrame() {
+        Frame frame = mPool.acquire();
+        if (null != frame) {
+            return frame;
+        }
+        synchronized (mLock) {
+            frame = mLatest;
+            mLatest = null;
+            if (null != frame) {
+                mDroppedCount++;
+            }
+        }
+        return frame;
+    }
+
+    // 生产者不需要这一帧了（比如拷贝数据失败），还回池子
+    public void recycle(Frame frame) {
+        mPool.release(frame);
+    }
+
+    public void submit(Frame frame) {
+        synchronized (mLock) {
+            mSubmittedCount++;
+            if (!mRunning) {
+                mPool.release(frame);
+                return;
+            }
+            if (null != mLatest) {
+                mPool.release(mLatest);
+                mDroppedCount++;
+            }
+            mLatest = frame;
+            mLock.notify();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Frame frame;
+            synchronized (mLock) {
+                while (mRunning && null == mLatest) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!mRunning) {
+                    return;
+                }
+                frame = mLatest;
+                mLatest = null;
+            }
+            long start = System.nanoTime();
+            try {
+                for (FrameAnalyzer analyzer : mAnalyzers) {
+                    analyzer.analyze(frame);
+                }
+                long cost = System.nanoTime() - start;
+                mCostUs.record(cost / 1000);
+                Listener listener = mListener;
+                if (null != listener) {
+                    listener.onFrameAnalyzed(frame, cost);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                mPool.release(frame);
+            }
+        }
+    }
+
+    public long getSubmittedCount() {
+        synchronized (mLock) {
+            return mSubmittedCount;
+        }
+    }
+
+    // 因为分析跟不上而丢掉的帧数
+    public long getDroppedCount() {
+        synchronized (mLock) {
+            return mDroppedCount;
+        }
+    }
+
+    // 每帧分析耗时，单位微秒
+    public Histogram getCostHistogram() {
+        return mCostUs;
+    }
+}
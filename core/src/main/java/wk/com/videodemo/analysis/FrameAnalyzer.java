@@ -0,0 +1,9 @@
+package wk.com.videodemo.analysis;
+
+/**
+ * 帧分析器。多个工作线程可能同时调用analyze()，实现里要么只用局部变量，要么自己加锁；
+ * frame在analyze()返回后会被回收复用，不要保存引用
+ */
+public interface FrameAnalyzer {
+    void analyze(Frame frame);
+}
@@ -0,0 +1,36 @@
+package wk.com.videodemo.analysis;
+
+import java.util.ArrayDeque;
+
+/**
+ * 固定数量的Frame，用完还回来，平面数组一直复用，分析过程中不分配内存
+ */
+public class FramePool {
+    private final ArrayDeque<Frame> mFree;
+    private final int mSize;
+
+    public FramePool(int size) {
+        mSize = size;
+        mFree = new ArrayDeque<>(size);
+        for (int i = 0; i < size; i++) {
+            mFree.add(new Frame());
+        }
+    }
+
+    // 没有空闲的时返回null
+    public synchronized Frame acquire() {
+        return mFree.pollFirst();
+    }
+
+    public synchronized void release(Frame frame) {
+        mFree.addFirst(frame);
+    }
+
+    public synchronized int getFreeCount() {
+        return mFree.size();
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+}
@@ -0,0 +1,99 @@
+package wk.com.videodemo.analysis;
+
+import java.util.Arrays;
+
+/**
+ * 亮度直方图：每隔step个像素采样一次，统计256级亮度分布、平均亮度，以及过暗、过曝像素的比例，可以用来判断曝光。
+ *
+ * 亮度和YuvConverter一样按全范围（JFIF，0~255）理解。直方图用两个数组轮换，分析时不分配内存
+ */
+public class LumaHistogramAnalyzer implements FrameAnalyzer {
+    // 全范围下接近黑电平、白电平的像素（两端各约4%）算过暗/过曝
+    private static final int DARK_THRESHOLD = 10;
+    private static final int BRIGHT_THRESHOLD = 245;
+
+    private final int mStep;
+    // 最近一次的结果
+    private int[] mHistogram = new int[256];
+    // 下一次分析用的数组，被某个工作线程拿走时为null
+    private int[] mScratch = new int[256];
+    private int mSampleCount;
+    private float mMean;
+    private long mTimestampNs;
+
+    public LumaHistogramAnalyzer(int step) {
+        mStep = Math.max(1, step);
+    }
+
+    @Override
+    public void analyze(Frame frame) {
+        int[] histogram;
+        synchronized (this) {
+            histogram = mScratch;
+            mScratch = null;
+        }
+        if (null == histogram) {
+            // 多个工作线程同时分析时才会走到这里
+            histogram = new int[256];
+        } else {
+            Arrays.fill(histogram, 0);
+        }
+        byte[] y = frame.getY();
+        int stride = frame.getYRowStride();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int step = mStep;
+        long sum = 0;
+        int count = 0;
+        for (int row = 0; row < height; row += step) {
+            int index = row * stride;
+            int end = index + width;
+            for (; index < end; index += step) {
+                int luma = y[index] & 0xFF;
+                histogram[luma]++;
+                sum += luma;
+                count++;
+            }
+        }
+        synchronized (this) {
+            mScratch = mHistogram;
+            mHistogram = histogram;
+            mSampleCount = count;
+            mMean = count == 0 ? 0 : (float) sum / count;
+            mTimestampNs = frame.getTimestampNs();
+        }
+    }
+
+    // 最近一次分析的直方图，out长度为256
+    public synchronized void getHistogram(int[] out) {
+        System.arraycopy(mHistogram, 0, out, 0, 256);
+    }
+
+    public synchronized float getMean() {
+        return mMean;
+    }
+
+    public synchronized float getDarkRatio() {
+        return ratio(0, DARK_THRESHOLD);
+    }
+
+    public synchronized float getBrightRatio() {
+        return ratio(BRIGHT_THRESHOLD + 1, 256);
+    }
+
+    public synchronized long getTimestampNs() {
+        return mTimestampNs;
+    }
+
+    // [from, to)
+    private float ratio(int from, int to) {
+        if (mSampleCount == 0) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            count += mHistogram[i];
+        }
+        return (float) count / mSampleCount;
+    }
+}
@@ -0,0 +1,61 @@
+package wk.com.videodemo.analysis;
+
+/**
+ * 清晰度评分：画面中心区域亮度的拉普拉斯算子（4c - 上下左右）的方差，越大越清晰，可以用来判断是否对上焦、是否糊了。
+ * 分数只在同一场景里比较有意义
+ */
+public class SharpnessAnalyzer implements FrameAnalyzer {
+    private final int mStep;
+    private volatile double mScore;
+    private volatile long mTimestampNs;
+
+    /**
+     * @param step 每隔step个像素计算一次，越大越快
+     */
+    public SharpnessAnalyzer(int step) {
+        mStep = Math.max(1, step);
+    }
+
+    @Override
+    public void analyze(Frame frame) {
+        byte[] y = frame.getY();
+        int stride = frame.getYRowStride();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        // 只算中间一半的区域，对焦一般在中间
+        int left = Math.max(1, width / 4);
+        int right = Math.min(width - 1, width * 3 / 4);
+        int top = Math.max(1, height / 4);
+        int bottom = Math.min(height - 1, height * 3 / 4);
+        int step = mStep;
+
+        long sum = 0;
+        long sumSquares = 0;
+        int count = 0;
+        for (int row = top; row < bottom; row += step) {
+            int base = row * stride;
+            for (int x = left; x < right; x += step) {
+                int i = base + x;
+                int laplacian = 4 * (y[i] & 0xFF) - (y[i - 1] & 0xFF) - (y[i + 1] & 0xFF)
+                        - (y[i - stride] & 0xFF) - (y[i + stride] & 0xFF);
+                sum += laplacian;
+                sumSquares += laplacian * laplacian;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        double mean = (double) sum / count;
+        mScore = (double) sumSquares / count - mean * mean;
+        mTimestampNs = frame.getTimestampNs();
+    }
+
+    public double getScore() {
+        return mScore;
+    }
+
+    public long getTimestampNs() {
+        return mTimestampNs;
+    }
+}
@@ -0,0 +1,115 @@
+package wk.com.videodemo.analysis;
+
+/**
+ * 把分析帧转成转正、缩小的ARGB快照，给叠加层、实时缩略图用。
+ *
+ * 旋转角度一般是CameraGeometry.getOrientationHint(CameraHelper.getSensorOrientation(), 屏幕角度)，
+ * 和录像的角度补偿一致，快照和录出来的视频方向相同。转换用YuvConverter，下标表按参数缓存，
+ * 每隔intervalNs最多转一帧；多个工作线程同时分析时，正在转换的话直接跳过这一帧，不排队等
+ */
+public class SnapshotAnalyzer implements FrameAnalyzer {
+    private final YuvConverter mConverter = new YuvConverter(1);
+    private final int mMaxLongEdge;
+    private final long mIntervalNs;
+    private volatile int mRotation;
+
+    // 转换中的帧，只有拿到mConverting的线程会访问
+    private int[] mPixels = new int[0];
+    private boolean mConverting;
+    // 最新的快照，mLock保护
+    private final Object mLock = new Object();
+    private int[] mSnapshot = new int[0];
+    private int mWidth;
+    private int mHeight;
+    private long mTimestampNs = -1;
+
+    /**
+     * @param rotation    顺时针0/90/180/270
+     * @param maxLongEdge 快照长边不超过这个值
+     * @param intervalNs  两次快照的最小间隔，按帧的时间戳算
+     */
+    public SnapshotAnalyzer(int rotation, int maxLongEdge, long intervalNs) {
+        setRotation(rotation);
+        mMaxLongEdge = maxLongEdge;
+        mIntervalNs = intervalNs;
+    }
+
+    // 屏幕旋转时更新，下一帧生效
+    public void setRotation(int rotation) {
+        if (0 != rotation && 90 != rotation && 180 != rotation && 270 != rotation) {
+            throw new IllegalArgumentException("rotation must be 0/90/180/270: " + rotation);
+        }
+        mRotation = rotation;
+    }
+
+    @Override
+    public void analyze(Frame frame) {
+        synchronized (mLock) {
+            if (mConverting || (mTimestampNs >= 0 && frame.getTimestampNs() - mTimestampNs < mIntervalNs)) {
+                return;
+            }
+            mConverting = true;
+        }
+        int rotation = mRotation;
+        int[] size = YuvConverter.getOutputSize(frame.getWidth(), frame.getHeight(), rotation, mMaxLongEdge);
+        int[] pixels = null;
+        try {
+            if (mPixels.length < size[0] * size[1]) {
+                mPixels = new int[size[0] * size[1]];
+            }
+            mConverter.convert(frame, rotation, mPixels, size[0], size[1]);
+            pixels = mPixels;
+        } finally {
+            synchronized (mLock) {
+                if (null != pixels) {
+                    // 转换用的数组和快照交换，不用拷贝
+                    mPixels = mSnapshot;
+                    mSnapshot = pixels;
+                    mWidth = size[0];
+                    mHeight = size[1];
+                    mTimestampNs = frame.getTimestampNs();
+                }
+                mConverting = false;
+            }
+        }
+    }
+
+    /**
+     * 拷贝最新的快照，格式和Bitmap.setPixels()一样，行跨度等于宽度
+     *
+     * @return {宽, 高}，还没有快照或者out不够大时返回null
+     */
+    public int[] copySnapshot(int[] out) {
+        synchronized (mLock) {
+            int count = mWidth * mHeight;
+            if (0 == count || out.length < count) {
+                return null;
+            }
+            System.arraycopy(mSnapshot, 0, out, 0, count);
+            return new int[]{mWidth, mHeight};
+        }
+    }
+
+    public int getWidth() {
+        synchronized (mLock) {
+            return mWidth;
+        }
+    }
+
+    public int getHeight() {
+        synchronized (mLock) {
+            return mHeight;
+        }
+    }
+
+    // 最新快照的帧时间戳，还没有快照时返回-1
+    public long getTimestampNs() {
+        synchronized (mLock) {
+            return mTimestampNs;
+        }
+    }
+
+    public void release() {
+        mConverter.release();
+    }
+}
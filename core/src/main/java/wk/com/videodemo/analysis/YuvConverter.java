@@ -0,0 +1,389 @@
+package wk.com.videodemo.analysis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * YUV_420_888转ARGB，同时做缩放和旋转，用来从camera的帧生成缩略图、叠加层或者给分析用的RGB数据。
+ *
+ * 1.输入可以是Frame里的byte[]平面，也可以直接是Image.Plane的direct buffer（不用先拷贝），行跨度、UV像素跨度都按实际值处理，
+ *   NV21/NV12（pixelStride为2）和I420（pixelStride为1）都可以；
+ * 2.输出写进调用者提供的int[]（Bitmap.setPixels()的格式）或者ByteBuffer（按内存顺序R、G、B、A，
+ *   Bitmap.copyPixelsFromBuffer()的格式），不分配内存；
+ * 3.缩放用最近邻采样，旋转（顺时针0/90/180/270，一般传CameraHelper.getSensorOrientation()）和缩放合并成每行、每列的下标表，
+ *   内循环只有查表和颜色换算，旋转不额外花时间。下标表按参数缓存，参数不变时不重新计算；
+ * 4.颜色按BT.601全范围（JFIF，camera的YUV输出一般是这个）换算，亮度直接用0~255，不按16~235拉伸，系数预先算成查找表；
+ *   LumaHistogramAnalyzer的过暗、过曝阈值也按全范围；
+ * 5.threadCount大于1时按输出行分成几段，由常驻的工作线程和调用线程一起转换。
+ *
+ * 不是线程安全的，同一个converter一次只能转换一帧。不用时调用release()结束工作线程
+ */
+public class YuvConverter {
+    // 色度分量对R、G、B的贡献，下标是U或V的值
+    private static final int[] R_V = new int[256];
+    private static final int[] G_U = new int[256];
+    private static final int[] G_V = new int[256];
+    private static final int[] B_U = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i - 128;
+            R_V[i] = Math.round(1.402f * c);
+            G_U[i] = Math.round(-0.344136f * c);
+            G_V[i] = Math.round(-0.714136f * c);
+            B_U[i] = Math.round(1.772f * c);
+        }
+    }
+
+    // 每一段的工作线程，第0段由调用线程自己做
+    private final Thread[] mWorkers;
+    private final Object mLock = new Object();
+    private int mGeneration;
+    private int mPending;
+    private boolean mReleased;
+
+    // 当前这一帧的输入，byte[]和ByteBuffer只有一组不为null
+    private byte[] mYArray;
+    private byte[] mUArray;
+    private byte[] mVArray;
+    private ByteBuffer mYBuffer;
+    private ByteBuffer mUBuffer;
+    private ByteBuffer mVBuffer;
+    // 当前这一帧的输出，只有一个不为null
+    private int[] mOutArray;
+    private ByteBuffer mOutBuffer;
+    private boolean mOutLittleEndian;
+    private int mOutWidth;
+    private int mOutHeight;
+
+    // 下标表：输出(x, y)的亮度在yRow[y] + yCol[x]，色度在uvRow[y] + uvCol[x]
+    private int[] mYRow = new int[0];
+    private int[] mYCol = new int[0];
+    private int[] mUvRow = new int[0];
+    private int[] mUvCol = new int[0];
+    // 生成下标表用的参数
+    private int mTableWidth = -1;
+    private int mTableHeight;
+    private int mTableYRowStride;
+    private int mTableUvRowStride;
+    private int mTableUvPixelStride;
+    private int mTableRotation;
+    private int mTableOutWidth;
+    private int mTableOutHeight;
+
+    /**
+     * @param threadCount 参与转换的线程数（包括调用线程），1表示只在调用线程转换
+     */
+    public YuvConverter(int threadCount) {
+        mWorkers = new Thread[Math.max(0, threadCount - 1)];
+        for (int i = 0; i < mWorkers.length; i++) {
+            final int band = i + 1;
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work(band);
+                }
+            }, "YuvConverter-" + band);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * 缩放、旋转后的输出大小：长边不超过maxLongEdge、保持宽高比，旋转90/270时宽高对调
+     *
+     * @return {宽, 高}
+     */
+    public static int[] getOutputSize(int width, int height, int rotation, int maxLongEdge) {
+        int longEdge = Math.max(width, height);
+        if (maxLongEdge > 0 && longEdge > maxLongEdge) {
+            width = Math.max(1, (int) ((long) width * maxLongEdge / longEdge));
+            height = Math.max(1, (int) ((long) height * maxLongEdge / longEdge));
+        }
+        if (90 == rotation || 270 == rotation) {
+            return new int[]{height, width};
+        }
+        return new int[]{width, height};
+    }
+
+    public void convert(Frame frame, int rotation, int[] out, int outWidth, int outHeight) {
+        checkOutput(out.length, outWidth, outHeight);
+        setArrayInput(frame);
+        mOutArray = out;
+        run(frame.getWidth(), frame.getHeight(), frame.getYRowStride(), frame.getUvRowStride(), frame.getUvPixelStride(),
+                rotation, outWidth, outHeight);
+    }
+
+    public void convert(Frame frame, int rotation, ByteBuffer out, int outWidth, int outHeight) {
+        checkOutput(out.capacity() / 4, outWidth, outHeight);
+        setArrayInput(frame);
+        setBufferOutput(out);
+        run(frame.getWidth(), frame.getHeight(), frame.getYRowStride(), frame.getUvRowStride(), frame.getUvPixelStride(),
+                rotation, outWidth, outHeight);
+    }
+
+    /**
+     * 直接从Image的三个平面转换，参数对应Image.Plane的getBuffer()、getRowStride()、getPixelStride()
+     */
+    public void convert(ByteBuffer y, ByteBuffer u, ByteBuffer v, int width, int height, int yRowStride,
+                        int uvRowStride, int uvPixelStride, int rotation, int[] out, int outWidth, int outHeight) {
+        checkOutput(out.length, outWidth, outHeight);
+        setBufferInput(y, u, v);
+        mOutArray = out;
+        run(width, height, yRowStride, uvRowStride, uvPixelStride, rotation, outWidth, outHeight);
+    }
+
+    public void convert(ByteBuffer y, ByteBuffer u, ByteBuffer v, int width, int height, int yRowStride,
+                        int uvRowStride, int uvPixelStride, int rotation, ByteBuffer out, int outWidth, int outHeight) {
+        checkOutput(out.capacity() / 4, outWidth, outHeight);
+        setBufferInput(y, u, v);
+        setBufferOutput(out);
+        run(width, height, yRowStride, uvRowStride, uvPixelStride, rotation, outWidth, outHeight);
+    }
+
+    // 结束工作线程，之后只能在调用线程里转换
+    public void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            mLock.notifyAll();
+        }
+    }
+
+    private static void checkOutput(int capacity, int outWidth, int outHeight) {
+        if (outWidth <= 0 || outHeight <= 0 || capacity < outWidth * outHeight) {
+            throw new IllegalArgumentException("output too small for " + outWidth + "x" + outHeight);
+        }
+    }
+
+    private void setArrayInput(Frame frame) {
+        mYArray = frame.getY();
+        mUArray = frame.getU();
+        mVArray = frame.getV();
+        mYBuffer = null;
+        mUBuffer = null;
+        mVBuffer = null;
+    }
+
+    private void setBufferInput(ByteBuffer y, ByteBuffer u, ByteBuffer v) {
+        mYBuffer = y;
+        mUBuffer = u;
+        mVBuffer = v;
+        mYArray = null;
+        mUArray = null;
+        mVArray = null;
+    }
+
+    private void setBufferOutput(ByteBuffer out) {
+        mOutBuffer = out;
+        mOutLittleEndian = out.order() == ByteOrder.LITTLE_ENDIAN;
+        mOutArray = null;
+    }
+
+    private void run(int width, int height, int yRowStride, int uvRowStride, int uvPixelStride, int rotation,
+                     int outWidth, int outHeight) {
+        if (0 != rotation && 90 != rotation && 180 != rotation && 270 != rotation) {
+            throw new IllegalArgumentException("rotation must be 0/90/180/270: " + rotation);
+        }
+        prepareTables(width, height, yRowStride, uvRowStride, uvPixelStride, rotation, outWidth, outHeight);
+        mOutWidth = outWidth;
+        mOutHeight = outHeight;
+        try {
+            int bands = mWorkers.length + 1;
+            synchronized (mLock) {
+                if (mReleased || bands == 1 || outHeight < bands) {
+                    bands = 1;
+                } else {
+                    mPending = mWorkers.length;
+                    mGeneration++;
+                    mLock.notifyAll();
+                }
+            }
+            convertRows(0, bandEnd(0, bands));
+            if (bands > 1) {
+                // 工作线程还在读输入、写输出，被中断也要等它们做完
+                boolean interrupted = false;
+                synchronized (mLock) {
+                    while (mPending > 0) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } finally {
+            // 不持有调用者的数据
+            mYArray = null;
+            mUArray = null;
+            mVArray = null;
+            mYBuffer = null;
+            mUBuffer = null;
+            mVBuffer = null;
+            mOutArray = null;
+            mOutBuffer = null;
+        }
+    }
+
+    private int bandEnd(int band, int bands) {
+        return (int) ((long) mOutHeight * (band + 1) / bands);
+    }
+
+    private void work(int band) {
+        int seen = 0;
+        while (true) {
+            synchronized (mLock) {
+                while (!mReleased && seen == mGeneration) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                // 已经分配的任务还是要做完，否则调用线程会一直等
+                if (seen == mGeneration) {
+                    return;
+                }
+                seen = mGeneration;
+            }
+            int bands = mWorkers.length + 1;
+            try {
+                convertRows(bandEnd(band - 1, bands), bandEnd(band, bands));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                synchronized (mLock) {
+                    mPending--;
+                    mLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * 按输出的每个像素算出它在源图里的位置，拆成只和输出行有关、只和输出列有关的两部分
+     */
+    private void prepareTables(int width, int height, int yRowStride, int uvRowStride, int uvPixelStride, int rotation,
+                               int outWidth, int outHeight) {
+        if (width == mTableWidth && height == mTableHeight && yRowStride == mTableYRowStride
+                && uvRowStride == mTableUvRowStride && uvPixelStride == mTableUvPixelStride
+                && rotation == mTableRotation && outWidth == mTableOutWidth && outHeight == mTableOutHeight) {
+            return;
+        }
+        if (mYRow.length < outHeight) {
+            mYRow = new int[outHeight];
+            mUvRow = new int[outHeight];
+        }
+        if (mYCol.length < outWidth) {
+            mYCol = new int[outWidth];
+            mUvCol = new int[outWidth];
+        }
+        boolean swap = 90 == rotation || 270 == rotation;
+        // 旋转后源图的宽对应输出的哪一边
+        int spanX = swap ? outHeight : outWidth;
+        int spanY = swap ? outWidth : outHeight;
+        for (int row = 0; row < outHeight; row++) {
+            if (swap) {
+                // 输出的一行对应源图的一列
+                int sx = sourceCoordinate(270 == rotation ? outHeight - 1 - row : row, spanX, width);
+                mYRow[row] = sx;
+                mUvRow[row] = (sx >> 1) * uvPixelStride;
+            } else {
+                int sy = sourceCoordinate(180 == rotation ? outHeight - 1 - row : row, spanY, height);
+                mYRow[row] = sy * yRowStride;
+                mUvRow[row] = (sy >> 1) * uvRowStride;
+            }
+        }
+        for (int col = 0; col < outWidth; col++) {
+            if (swap) {
+                // 输出的一列对应源图的一行
+                int sy = sourceCoordinate(90 == rotation ? outWidth - 1 - col : col, spanY, height);
+                mYCol[col] = sy * yRowStride;
+                mUvCol[col] = (sy >> 1) * uvRowStride;
+            } else {
+                int sx = sourceCoordinate(180 == rotation ? outWidth - 1 - col : col, spanX, width);
+                mYCol[col] = sx;
+                mUvCol[col] = (sx >> 1) * uvPixelStride;
+            }
+        }
+        mTableWidth = width;
+        mTableHeight = height;
+        mTableYRowStride = yRowStride;
+        mTableUvRowStride = uvRowStride;
+        mTableUvPixelStride = uvPixelStride;
+        mTableRotation = rotation;
+        mTableOutWidth = outWidth;
+        mTableOutHeight = outHeight;
+    }
+
+    // 输出的第i个像素（一共span个）在源图对应的坐标，取像素中心
+    private static int sourceCoordinate(int i, int span, int size) {
+        return (int) Math.min(size - 1, ((2L * i + 1) * size) / (2L * span));
+    }
+
+    private void convertRows(int startRow, int endRow) {
+        if (null != mYArray) {
+            convertArrayRows(startRow, endRow);
+        } else {
+            convertBufferRows(startRow, endRow);
+        }
+    }
+
+    private void convertArrayRows(int startRow, int endRow) {
+        byte[] yPlane = mYArray;
+        byte[] uPlane = mUArray;
+        byte[] vPlane = mVArray;
+        int[] yCol = mYCol;
+        int[] uvCol = mUvCol;
+        int outWidth = mOutWidth;
+        for (int row = startRow; row < endRow; row++) {
+            int yBase = mYRow[row];
+            int uvBase = mUvRow[row];
+            int o = row * outWidth;
+            for (int col = 0; col < outWidth; col++, o++) {
+                int uv = uvBase + uvCol[col];
+                write(o, yPlane[yBase + yCol[col]] & 0xFF, uPlane[uv] & 0xFF, vPlane[uv] & 0xFF);
+            }
+        }
+    }
+
+    private void convertBufferRows(int startRow, int endRow) {
+        ByteBuffer yPlane = mYBuffer;
+        ByteBuffer uPlane = mUBuffer;
+        ByteBuffer vPlane = mVBuffer;
+        int[] yCol = mYCol;
+        int[] uvCol = mUvCol;
+        int outWidth = mOutWidth;
+        for (int row = startRow; row < endRow; row++) {
+            int yBase = mYRow[row];
+            int uvBase = mUvRow[row];
+            int o = row * outWidth;
+            for (int col = 0; col < outWidth; col++, o++) {
+                int uv = uvBase + uvCol[col];
+                write(o, yPlane.get(yBase + yCol[col]) & 0xFF, uPlane.get(uv) & 0xFF, vPlane.get(uv) & 0xFF);
+            }
+        }
+    }
+
+    private void write(int index, int y, int u, int v) {
+        int r = clamp(y + R_V[v]);
+        int g = clamp(y + G_U[u] + G_V[v]);
+        int b = clamp(y + B_U[u]);
+        int[] outArray = mOutArray;
+        if (null != outArray) {
+            outArray[index] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        } else if (mOutLittleEndian) {
+            // 内存里的顺序是R、G、B、A
+            mOutBuffer.putInt(index << 2, 0xFF000000 | (b << 16) | (g << 8) | r);
+        } else {
+            mOutBuffer.putInt(index << 2, (r << 24) | (g << 16) | (b << 8) | 0xFF);
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,187 @@
+package wk.com.videodemo.camera2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 所有摄像头的能力快照：id、朝向、传感器方向、硬件级别、时间戳的时钟、最高帧率和各种输出的size。
+ *
+ * 查询CameraCharacteristics是跨进程调用，打开camera前要查好几次，这里查一次后保存在内存和文件里，
+ * 文件带着系统指纹（Build.FINGERPRINT），系统升级后自动失效重新查询。
+ * size都用[w0, h0, w1, h1, ...]这样的int数组表示，和StreamConfigNegotiator一致
+ */
+public class CameraCapabilities {
+    private static final int MAGIC = 0x43415032; // "CAP2"
+
+    private final String mFingerprint;
+    private final List<Camera> mCameras;
+
+    public CameraCapabilities(String fingerprint, List<Camera> cameras) {
+        mFingerprint = fingerprint;
+        mCameras = Collections.unmodifiableList(new ArrayList<>(cameras));
+    }
+
+    public String getFingerprint() {
+        return mFingerprint;
+    }
+
+    public List<Camera> getCameras() {
+        return mCameras;
+    }
+
+    public Camera getCamera(String id) {
+        for (Camera camera : mCameras) {
+            if (camera.id.equals(id)) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    // 第一个指定朝向的摄像头，没有时返回null
+    public Camera findByFacing(int facing) {
+        for (Camera camera : mCameras) {
+            if (camera.facing == facing) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(mFingerprint);
+            out.writeInt(mCameras.size());
+            for (Camera camera : mCameras) {
+                out.writeUTF(camera.id);
+                out.writeInt(camera.facing);
+                out.writeInt(camera.sensorOrientation);
+                out.writeInt(camera.hardwareLevel);
+                out.writeInt(camera.timestampSource);
+                out.writeInt(camera.maxFrameRate);
+                writeSizes(out, camera.previewSizes);
+                writeSizes(out, camera.recordSizes);
+                writeSizes(out, camera.jpegSizes);
+                writeSizes(out, camera.yuvSizes);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename failed: " + file);
+        }
+    }
+
+    /**
+     * 文件不存在、损坏或者指纹不一致时返回null
+     */
+    public static CameraCapabilities load(File file, String fingerprint) {
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || !in.readUTF().equals(fingerprint)) {
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0 || count > 64) {
+                return null;
+            }
+            List<Camera> cameras = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                int facing = in.readInt();
+                int sensorOrientation = in.readInt();
+                int hardwareLevel = in.readInt();
+                int timestampSource = in.readInt();
+                int maxFrameRate = in.readInt();
+                cameras.add(new Camera(id, facing, sensorOrientation, hardwareLevel, timestampSource, maxFrameRate,
+                        readSizes(in), readSizes(in), readSizes(in), readSizes(in)));
+            }
+            return new CameraCapabilities(fingerprint, cameras);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static void writeSizes(DataOutputStream out, int[] sizes) throws IOException {
+        if (null == sizes) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(sizes.length);
+        for (int v : sizes) {
+            out.writeInt(v);
+        }
+    }
+
+    private static int[] readSizes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > 4096) {
+            throw new IOException("bad size count: " + length);
+        }
+        int[] sizes = new int[length];
+        for (int i = 0; i < length; i++) {
+            sizes[i] = in.readInt();
+        }
+        return sizes;
+    }
+
+    public static class Camera {
+        public final String id;
+        // CameraCharacteristics.LENS_FACING的值，取不到时为-1
+        public final int facing;
+        public final int sensorOrientation;
+        // CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL的值
+        public final int hardwareLevel;
+        // CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE的值，取不到时为0（UNKNOWN）
+        public final int timestampSource;
+        public final int maxFrameRate;
+        // SurfaceTexture、MediaRecorder、JPEG、YUV_420_888支持的size，取不到时为null
+        public final int[] previewSizes;
+        public final int[] recordSizes;
+        public final int[] jpegSizes;
+        public final int[] yuvSizes;
+
+        public Camera(String id, int facing, int sensorOrientation, int hardwareLevel, int timestampSource,
+                      int maxFrameRate, int[] previewSizes, int[] recordSizes, int[] jpegSizes, int[] yuvSizes) {
+            this.id = id;
+            this.facing = facing;
+            this.sensorOrientation = sensorOrientation;
+            this.hardwareLevel = hardwareLevel;
+            this.timestampSource = timestampSource;
+            this.maxFrameRate = maxFrameRate;
+            this.previewSizes = previewSizes;
+            this.recordSizes = recordSizes;
+            this.jpegSizes = jpegSizes;
+            this.yuvSizes = yuvSizes;
+        }
+    }
+}
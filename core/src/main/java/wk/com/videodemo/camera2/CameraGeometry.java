@@ -0,0 +1,105 @@
+package wk.com.videodemo.camera2;
+
+/**
+ * 跟摄像头方向、屏幕角度有关的计算，不依赖Android的类，可以在JVM上测试和跑benchmark。
+ *
+ * 屏幕角度用Surface.ROTATION_*的值：0、1、2、3分别对应0°、90°、180°、270°
+ */
+public class CameraGeometry {
+    public static final int ROTATION_0 = 0;
+    public static final int ROTATION_90 = 1;
+    public static final int ROTATION_180 = 2;
+    public static final int ROTATION_270 = 3;
+
+    private static final int SENSOR_DEFAULT_DEGREES = 90;
+    private static final int SENSOR_INVERSE_DEGREES = 270;
+    // 下标是屏幕角度
+    private static final int[] DEFAULT_ORIENTATIONS = {90, 0, 270, 180};
+    private static final int[] INVERSE_ORIENTATIONS = {270, 180, 90, 0};
+
+    private CameraGeometry() {
+    }
+
+    /**
+     * 根据camera方向和屏幕角度，算出录制视频的角度补偿。sensor方向不是90/270时返回-1
+     */
+    public static int getOrientationHint(int sensorOrientation, int displayRotation) {
+        if (displayRotation < ROTATION_0 || displayRotation > ROTATION_270) {
+            return -1;
+        }
+        if (SENSOR_DEFAULT_DEGREES == sensorOrientation) {
+            return DEFAULT_ORIENTATIONS[displayRotation];
+        } else if (SENSOR_INVERSE_DEGREES == sensorOrientation) {
+            return INVERSE_ORIENTATIONS[displayRotation];
+        }
+        return -1;
+    }
+
+    /**
+     * 预览画面在TextureView上的变换矩阵，横屏时把传感器方向的画面转正并铺满控件，其它角度不做变换。
+     *
+     * 等价于Matrix.setRectToRect(view, buffer, FILL)、postScale(scale)、postRotate(90 * (rotation - 2))，
+     * 返回值按Matrix.setValues()的顺序排列，长度为9
+     */
+    public static float[] getPreviewTransform(int viewWidth, int viewHeight, int previewWidth, int previewHeight,
+                                              int displayRotation) {
+        float[] values = new float[9];
+        getPreviewTransform(viewWidth, viewHeight, previewWidth, previewHeight, displayRotation, values);
+        return values;
+    }
+
+    // 结果写进out，不分配内存
+    public static void getPreviewTransform(int viewWidth, int viewHeight, int previewWidth, int previewHeight,
+                                           int displayRotation, float[] out) {
+        out[0] = 1;
+        out[1] = 0;
+        out[2] = 0;
+        out[3] = 0;
+        out[4] = 1;
+        out[5] = 0;
+        out[6] = 0;
+        out[7] = 0;
+        out[8] = 1;
+        if ((ROTATION_90 != displayRotation && ROTATION_270 != displayRotation)
+                || viewWidth <= 0 || viewHeight <= 0 || previewWidth <= 0 || previewHeight <= 0) {
+            return;
+        }
+        float centerX = viewWidth / 2f;
+        float centerY = viewHeight / 2f;
+
+        // 预览buffer是传感器方向的，宽高对调后居中放在控件上
+        float bufferWidth = previewHeight;
+        float bufferHeight = previewWidth;
+        float a = bufferWidth / viewWidth;
+        float e = bufferHeight / viewHeight;
+        float c = centerX - bufferWidth / 2f;
+        float f = centerY - bufferHeight / 2f;
+        float b = 0;
+        float d = 0;
+
+        // 以中心为原点放大，铺满控件
+        float scale = Math.max((float) viewHeight / previewHeight, (float) viewWidth / previewWidth);
+        a *= scale;
+        b *= scale;
+        c = scale * c + centerX * (1 - scale);
+        d *= scale;
+        e *= scale;
+        f = scale * f + centerY * (1 - scale);
+
+        // 以中心为原点旋转±90°
+        float sin = ROTATION_90 == displayRotation ? -1 : 1;
+        float ra = -sin * d;
+        float rb = -sin * e;
+        float rc = -sin * f + centerX + sin * centerY;
+        float rd = sin * a;
+        float re = sin * b;
+        float rf = sin * c + centerY - sin * centerX;
+
+        out[0] = ra;
+        out[1] = rb;
+        out[2] = rc;
+        out[3] = rd;
+        out[4] = re;
+        out[5] = rf;
+    }
+}
@@ -0,0 +1,137 @@
+package wk.com.videodemo.camera2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 循环录像的分段管理：记录已经录完的分段，超过保留个数或总大小时从最旧的开始删除。
+ *
+ * 下一个分段文件会提前创建好，并且先按它的预估大小腾出空间，切换分段时不用再做这些事。
+ * 所有文件操作都在一个后台线程里按顺序执行，内部状态也只在这个线程里访问，所以不需要加锁
+ */
+public class SegmentRotator {
+    private final File mDir;
+    private final int mKeepSegments;
+    private final long mKeepBytes;
+
+    private final ArrayDeque<File> mSegments = new ArrayDeque<>();
+    private long mTotalBytes;
+    private long mLastName;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * keepSegments、keepBytes小于等于0表示不限制
+     */
+    public SegmentRotator(File dir, int keepSegments, long keepBytes) {
+        mDir = dir;
+        mKeepSegments = keepSegments;
+        mKeepBytes = keepBytes;
+
+        // 之前录的分段也算在配额里，按文件名（时间戳）排序
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!mDir.exists()) {
+                    mDir.mkdirs();
+                }
+                File[] files = mDir.listFiles();
+                if (null == files) {
+                    return;
+                }
+                Arrays.sort(files, new Comparator<File>() {
+                    @Override
+                    public int compare(File a, File b) {
+                        return a.getName().compareTo(b.getName());
+                    }
+                });
+                for (File file : files) {
+                    if (file.isFile() && file.length() > 0) {
+                        mSegments.addLast(file);
+                        mTotalBytes += file.length();
+                    } else if (file.isFile()) {
+                        // 上次没用上的预创建文件
+                        file.delete();
+                    }
+                }
+                trim(0);
+            }
+        });
+    }
+
+    public File getDir() {
+        return mDir;
+    }
+
+    // 新分段的文件名，用时间戳命名，保证递增
+    public synchronized File newSegmentFile() {
+        long name = Math.max(System.currentTimeMillis(), mLastName + 1);
+        mLastName = name;
+        return new File(mDir, name + ".mp4");
+    }
+
+    /**
+     * 在后台提前创建下一个分段文件，并按预估大小删掉旧分段腾出空间
+     */
+    public void prepare(final File next, final long expectedBytes) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                trim(expectedBytes);
+                try {
+                    next.createNewFile();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    // 一个分段录完了，加入记录，超出配额时删除最旧的
+    public void onSegmentFinished(final File segment) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long length = segment.length();
+                if (length == 0) {
+                    segment.delete();
+                    return;
+                }
+                mSegments.addLast(segment);
+                mTotalBytes += length;
+                trim(0);
+            }
+        });
+    }
+
+    // 删除预先创建但没有用上的空文件
+    public void discard(final File segment) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (segment.length() == 0) {
+                    segment.delete();
+                }
+            }
+        });
+    }
+
+    public void release() {
+        mExecutor.shutdown();
+    }
+
+    private void trim(long reserveBytes) {
+        int reserveSegments = reserveBytes > 0 ? 1 : 0;
+        while (!mSegments.isEmpty()
+                && ((mKeepSegments > 0 && mSegments.size() + reserveSegments > mKeepSegments)
+                || (mKeepBytes > 0 && mTotalBytes + reserveBytes > mKeepBytes))) {
+            File oldest = mSegments.removeFirst();
+            mTotalBytes -= oldest.length();
+            oldest.delete();
+        }
+    }
+}
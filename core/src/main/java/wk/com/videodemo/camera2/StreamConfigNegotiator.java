@@ -0,0 +1,195 @@
+package wk.com.videodemo.camera2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 根据摄像头支持的预览size（SurfaceTexture）、录像size（MediaRecorder）、预览控件大小和画质目标，
+ * 选出宽高比一致的预览、录像size，以及对应的码率和帧率。
+ *
+ * 预览和录像宽高比不一致时，camera要对其中一路做裁剪缩放，既耗电又可能掉帧，所以这里保证两者宽高比相同，
+ * 能用同一个size时就用同一个。
+ *
+ * size都用[w0, h0, w1, h1, ...]这样的int数组表示，不依赖Android的类。结果按摄像头id、控件大小和画质缓存
+ */
+public class StreamConfigNegotiator {
+    public static final int QUALITY_LOW = 0;
+    public static final int QUALITY_MEDIUM = 1;
+    public static final int QUALITY_HIGH = 2;
+
+    // 各画质对应的录像长边上限
+    private static final int[] QUALITY_LONG_EDGE = {640, 1280, 1920};
+    // 各画质的每像素比特数（H.264在30fps下的经验值），分辨率越高压缩效率越好，取值越小
+    private static final float[] QUALITY_BITS_PER_PIXEL = {0.15f, 0.12f, 0.1f};
+    private static final int MIN_BIT_RATE = 500 * 1000;
+    private static final int MAX_BIT_RATE = 20 * 1000 * 1000;
+    private static final int DEFAULT_FRAME_RATE = 30;
+    private static final float ASPECT_TOLERANCE = 0.01f;
+
+    private final Map<String, StreamConfig> mCache = new HashMap<>();
+
+    /**
+     * @param previewSizes 支持的预览size，[w0, h0, w1, h1, ...]
+     * @param recordSizes  支持的录像size
+     * @param viewWidth    预览控件的宽，横竖屏都可以，只比较长边和短边
+     * @param maxFrameRate 摄像头支持的最大帧率，不知道时传0
+     * @return 没有宽高比一致的组合时返回null
+     */
+    public synchronized StreamConfig negotiate(String cameraId, int[] previewSizes, int[] recordSizes,
+                                               int viewWidth, int viewHeight, int quality, int maxFrameRate) {
+        String key = cameraId + "|" + viewWidth + "x" + viewHeight + "|" + quality;
+        StreamConfig config = mCache.get(key);
+        if (null == config) {
+            config = compute(previewSizes, recordSizes, viewWidth, viewHeight, quality, maxFrameRate);
+            if (null != config) {
+                mCache.put(key, config);
+            }
+        }
+        return config;
+    }
+
+    public synchronized void clear() {
+        mCache.clear();
+    }
+
+    static StreamConfig compute(int[] previewSizes, int[] recordSizes, int viewWidth, int viewHeight,
+                                int quality, int maxFrameRate) {
+        if (null == previewSizes || null == recordSizes) {
+            return null;
+        }
+        quality = Math.max(QUALITY_LOW, Math.min(QUALITY_HIGH, quality));
+        int maxLongEdge = QUALITY_LONG_EDGE[quality];
+        int viewLong = Math.max(viewWidth, viewHeight);
+        int viewShort = Math.min(viewWidth, viewHeight);
+        float viewAspect = viewShort > 0 ? (float) viewLong / viewShort : 0;
+
+        // 在不超过画质上限、并且有同宽高比预览size的录像size里，选像素多、宽高比又接近控件的
+        int bestRecord = -1;
+        int bestPreview = -1;
+        double bestScore = -1;
+        for (int r = 0; r + 1 < recordSizes.length; r += 2) {
+            int w = recordSizes[r];
+            int h = recordSizes[r + 1];
+            if (Math.max(w, h) > maxLongEdge) {
+                continue;
+            }
+            int preview = choosePreview(previewSizes, w, h, viewLong, viewShort);
+            if (preview < 0) {
+                continue;
+            }
+            double score = (double) w * h;
+            if (viewAspect > 0) {
+                float aspect = (float) Math.max(w, h) / Math.min(w, h);
+                score *= 1 - Math.min(0.5, Math.abs(aspect - viewAspect) / viewAspect);
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestRecord = r;
+                bestPreview = preview;
+            }
+        }
+        if (bestRecord < 0) {
+            return null;
+        }
+
+        int videoWidth = recordSizes[bestRecord];
+        int videoHeight = recordSizes[bestRecord + 1];
+        int frameRate = maxFrameRate > 0 ? Math.min(DEFAULT_FRAME_RATE, maxFrameRate) : DEFAULT_FRAME_RATE;
+        long bitRate = (long) (videoWidth * videoHeight * frameRate * QUALITY_BITS_PER_PIXEL[quality]);
+        bitRate = Math.max(MIN_BIT_RATE, Math.min(MAX_BIT_RATE, bitRate));
+        return new StreamConfig(previewSizes[bestPreview], previewSizes[bestPreview + 1],
+                videoWidth, videoHeight, (int) bitRate, frameRate);
+    }
+
+    // 同宽高比的预览size：有和录像一样大的就用它；否则用能盖住控件的最小size；都盖不住就用最大的
+    private static int choosePreview(int[] previewSizes, int recordWidth, int recordHeight, int viewLong, int viewShort) {
+        int covering = -1;
+        long coveringPixels = Long.MAX_VALUE;
+        int largest = -1;
+        long largestPixels = 0;
+        for (int p = 0; p + 1 < previewSizes.length; p += 2) {
+            int w = previewSizes[p];
+            int h = previewSizes[p + 1];
+            if (!sameAspect(w, h, recordWidth, recordHeight)) {
+                continue;
+            }
+            if (w == recordWidth && h == recordHeight) {
+                return p;
+            }
+            if (Math.max(w, h) > Math.max(recordWidth, recordHeight)) {
+                // 预览比录像还大没有意义
+                continue;
+            }
+            long pixels = (long) w * h;
+            if (Math.max(w, h) >= viewLong && Math.min(w, h) >= viewShort && pixels < coveringPixels) {
+                covering = p;
+                coveringPixels = pixels;
+            }
+            if (pixels > largestPixels) {
+                largest = p;
+                largestPixels = pixels;
+            }
+        }
+        return covering >= 0 ? covering : largest;
+    }
+
+    /**
+     * 选宽高比和预览一致、长边不超过maxLongEdge的最大size，用于分析用的YUV、零延迟拍照的JPEG这类附加输出。
+     * 没有同宽高比的就不管宽高比，都没有时返回null
+     *
+     * @return {宽, 高}
+     */
+    public static int[] chooseLargestSize(int[] sizes, int aspectWidth, int aspectHeight, int maxLongEdge) {
+        if (null == sizes) {
+            return null;
+        }
+        int best = -1;
+        int bestAny = -1;
+        for (int p = 0; p + 1 < sizes.length; p += 2) {
+            int w = sizes[p];
+            int h = sizes[p + 1];
+            if (Math.max(w, h) > maxLongEdge) {
+                continue;
+            }
+            if (bestAny < 0 || (long) w * h > (long) sizes[bestAny] * sizes[bestAny + 1]) {
+                bestAny = p;
+            }
+            if (aspectWidth > 0 && aspectHeight > 0 && sameAspect(w, h, aspectWidth, aspectHeight)
+                    && (best < 0 || (long) w * h > (long) sizes[best] * sizes[best + 1])) {
+                best = p;
+            }
+        }
+        if (best < 0) {
+            best = bestAny;
+        }
+        return best < 0 ? null : new int[]{sizes[best], sizes[best + 1]};
+    }
+
+    private static boolean sameAspect(int w1, int h1, int w2, int h2) {
+        return Math.abs((float) w1 / h1 - (float) w2 / h2) <= ASPECT_TOLERANCE;
+    }
+
+    public static class StreamConfig {
+        public final int previewWidth;
+        public final int previewHeight;
+        public final int videoWidth;
+        public final int videoHeight;
+        public final int bitRate;
+        public final int frameRate;
+
+        public StreamConfig(int previewWidth, int previewHeight, int videoWidth, int videoHeight, int bitRate, int frameRate) {
+            this.previewWidth = previewWidth;
+            this.previewHeight = previewHeight;
+            this.videoWidth = videoWidth;
+            this.videoHeight = videoHeight;
+            this.bitRate = bitRate;
+            this.frameRate = frameRate;
+        }
+
+        @Override
+        public String toString() {
+            return "preview=" + previewWidth + "x" + previewHeight + " video=" + videoWidth + "x" + videoHeight
+                    + " bitRate=" + bitRate + " frameRate=" + frameRate;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package wk.com.videodemo.camera2;
+
+import java.util.List;
+
+/**
+ * 按时间戳保存最近几帧的环形缓冲，零延迟拍照用：一直保留最近的capacity帧，按快门时取时间最接近的那一帧。
+ *
+ * 满了以后add()会把最旧的一帧挤出来还给调用者，由调用者释放（比如Image.close()），这里不持有任何释放逻辑
+ */
+public class TimestampRing<T> {
+    private final Object[] mItems;
+    private final long[] mTimestamps;
+    // 最旧一帧的位置
+    private int mHead;
+    private int mSize;
+
+    public TimestampRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mItems = new Object[capacity];
+        mTimestamps = new long[capacity];
+    }
+
+    /**
+     * 放入一帧，时间戳要递增。满了时返回被挤掉的最旧一帧，否则返回null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T add(T item, long timestampNs) {
+        T evicted = null;
+        if (mSize == mItems.length) {
+            evicted = (T) mItems[mHead];
+            mItems[mHead] = null;
+            mHead = (mHead + 1) % mItems.length;
+            mSize--;
+        }
+        int tail = (mHead + mSize) % mItems.length;
+        mItems[tail] = item;
+        mTimestamps[tail] = timestampNs;
+        mSize++;
+        return evicted;
+    }
+
+    /**
+     * 取出时间戳最接近timestampNs的一帧，比它旧的帧一起移出，放进evicted里由调用者释放（evicted可以为null，表示不要）。
+     * 比它新的帧留着，连拍时还能用。空的时候返回null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T takeNearest(long timestampNs, List<T> evicted) {
+        if (0 == mSize) {
+            return null;
+        }
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < mSize; i++) {
+            long distance = Math.abs(mTimestamps[(mHead + i) % mItems.length] - timestampNs);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        for (int i = 0; i < best; i++) {
+            T old = (T) mItems[mHead];
+            mItems[mHead] = null;
+            mHead = (mHead + 1) % mItems.length;
+            mSize--;
+            if (null != evicted) {
+                evicted.add(old);
+            }
+        }
+        T item = (T) mItems[mHead];
+        mItems[mHead] = null;
+        mHead = (mHead + 1) % mItems.length;
+        mSize--;
+        return item;
+    }
+
+    // 取出最新的一帧，空的时候返回null
+    @SuppressWarnings("unchecked")
+    public synchronized T takeLatest() {
+        if (0 == mSize) {
+            return null;
+        }
+        int tail = (mHead + mSize - 1) % mItems.length;
+        T item = (T) mItems[tail];
+        mItems[tail] = null;
+        mSize--;
+        return item;
+    }
+
+    // 取出最旧的一帧，清空时用
+    @SuppressWarnings("unchecked")
+    public synchronized T poll() {
+        if (0 == mSize) {
+            return null;
+        }
+        T item = (T) mItems[mHead];
+        mItems[mHead] = null;
+        mHead = (mHead + 1) % mItems.length;
+        mSize--;
+        return item;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int capacity() {
+        return mItems.length;
+    }
+}
@@ -0,0 +1,240 @@
+package wk.com.videodemo.codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把若干个编码器的输出写进同一个封装器。
+ *
+ * 封装器要等所有轨道的格式都确定后才能开始，在这之前先到的数据不拷贝，只记下编码器的buffer下标，
+ * 等封装器开始后再按顺序写入、归还。积压的数量受编码器自己的输出buffer个数限制，不会无限增长，
+ * 也不丢帧：丢掉的可能正好是第一个关键帧，后面的数据就都解不出来了。
+ *
+ * 时间戳要求所有编码器都换算到同一个单调时钟（System.nanoTime() / 1000，Android上是CLOCK_MONOTONIC），
+ * 表示采集的时刻，见MediaEncoder。这里只减去同一个起点（start()的时刻），各轨道之间的相对关系保持不变，
+ * 音画同步取决于采集时间而不是编码器的延迟；另外保证每个轨道单调递增。
+ *
+ * 编码器的回调可能在不同线程，方法都加了锁
+ */
+public class EncodePipeline<F> implements MediaEncoder.OutputListener<F> {
+    private final MuxerSink<F> mMuxer;
+    private final List<MediaEncoder<F>> mEncoders = new ArrayList<>();
+    private final List<Track> mTracks = new ArrayList<>();
+    private final ArrayDeque<Pending> mPending = new ArrayDeque<>();
+
+    private boolean mMuxerStarted;
+    private boolean mFinished;
+    private Exception mError;
+    private long mStartNs;
+    private long mFirstSampleNs;
+
+    public EncodePipeline(MuxerSink<F> muxer) {
+        mMuxer = muxer;
+    }
+
+    public synchronized void addEncoder(MediaEncoder<F> encoder) {
+        mEncoders.add(encoder);
+        mTracks.add(new Track());
+        encoder.setOutputListener(this);
+    }
+
+    public void start() {
+        List<MediaEncoder<F>> encoders;
+        synchronized (this) {
+            mStartNs = System.nanoTime();
+            encoders = new ArrayList<>(mEncoders);
+        }
+        for (MediaEncoder<F> encoder : encoders) {
+            encoder.start();
+        }
+    }
+
+    // 通知所有编码器结束输入，所有轨道都输出结束标记后封装器会停止，用awaitFinished()等待
+    public void stop() {
+        List<MediaEncoder<F>> encoders;
+        synchronized (this) {
+            encoders = new ArrayList<>(mEncoders);
+        }
+        for (MediaEncoder<F> encoder : encoders) {
+            encoder.signalEndOfStream();
+        }
+    }
+
+    /**
+     * @return 在超时前结束（包括出错结束）返回true
+     */
+    public synchronized boolean awaitFinished(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!mFinished) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                return false;
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return mFinished;
+            }
+        }
+        return true;
+    }
+
+    public void release() {
+        List<MediaEncoder<F>> encoders;
+        synchronized (this) {
+            encoders = new ArrayList<>(mEncoders);
+            mEncoders.clear();
+            if (!mFinished) {
+                finish();
+            }
+        }
+        for (MediaEncoder<F> encoder : encoders) {
+            encoder.release();
+        }
+    }
+
+    public synchronized boolean isFinished() {
+        return mFinished;
+    }
+
+    public synchronized Exception getError() {
+        return mError;
+    }
+
+    // 从start()到第一帧写入封装器的耗时，还没写入时返回-1
+    public synchronized long getFirstSampleLatencyMs() {
+        return mFirstSampleNs == 0 ? -1 : (mFirstSampleNs - mStartNs) / 1000000;
+    }
+
+    @Override
+    public synchronized void onFormatChanged(MediaEncoder<F> encoder, F format) {
+        Track track = trackOf(encoder);
+        if (null == track || mMuxerStarted || mFinished) {
+            return;
+        }
+        track.muxerTrack = mMuxer.addTrack(format);
+        for (Track t : mTracks) {
+            if (t.muxerTrack < 0) {
+                return;
+            }
+        }
+        mMuxer.start();
+        mMuxerStarted = true;
+        while (!mPending.isEmpty()) {
+            Pending p = mPending.removeFirst();
+            write(p.encoder, p.index, p.data, p.offset, p.size, p.ptsUs, p.flags);
+        }
+    }
+
+    @Override
+    public synchronized void onOutput(MediaEncoder<F> encoder, int index, ByteBuffer data, int offset, int size,
+                                      long ptsUs, int flags) {
+        Track track = trackOf(encoder);
+        if (null == track || mFinished) {
+            encoder.releaseOutput(index);
+            return;
+        }
+        // 编码配置数据已经包含在格式里了
+        if ((flags & MediaEncoder.FLAG_CODEC_CONFIG) != 0) {
+            encoder.releaseOutput(index);
+            return;
+        }
+        if (mMuxerStarted) {
+            write(encoder, index, data, offset, size, ptsUs, flags);
+            return;
+        }
+        mPending.addLast(new Pending(encoder, index, data, offset, size, ptsUs, flags));
+    }
+
+    @Override
+    public synchronized void onError(MediaEncoder<F> encoder, Exception e) {
+        if (null == mError) {
+            mError = e;
+        }
+        finish();
+    }
+
+    private void write(MediaEncoder<F> encoder, int index, ByteBuffer data, int offset, int size, long ptsUs, int flags) {
+        Track track = trackOf(encoder);
+        try {
+            if (size > 0 && !track.ended) {
+                // start()之前采集的帧（比如已经在编码器里的第一帧）记为0，不能丢
+                long pts = Math.max(0, ptsUs - mStartNs / 1000);
+                if (pts <= track.lastPtsUs) {
+                    pts = track.lastPtsUs + 1;
+                }
+                track.lastPtsUs = pts;
+                mMuxer.writeSample(track.muxerTrack, data, offset, size, pts, flags & ~MediaEncoder.FLAG_END_OF_STREAM);
+                if (mFirstSampleNs == 0) {
+                    mFirstSampleNs = System.nanoTime();
+                }
+            }
+        } finally {
+            encoder.releaseOutput(index);
+        }
+        if ((flags & MediaEncoder.FLAG_END_OF_STREAM) != 0) {
+            track.ended = true;
+            for (Track t : mTracks) {
+                if (!t.ended) {
+                    return;
+                }
+            }
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (mFinished) {
+            return;
+        }
+        mFinished = true;
+        for (Pending p : mPending) {
+            p.encoder.releaseOutput(p.index);
+        }
+        mPending.clear();
+        try {
+            if (mMuxerStarted) {
+                mMuxer.stop();
+            }
+        } catch (RuntimeException e) {
+            // 一帧都没写进去时MediaMuxer.stop()会抛异常
+            e.printStackTrace();
+        }
+        mMuxer.release();
+        notifyAll();
+    }
+
+    private Track trackOf(MediaEncoder<F> encoder) {
+        int i = mEncoders.indexOf(encoder);
+        return i < 0 ? null : mTracks.get(i);
+    }
+
+    private static class Track {
+        int muxerTrack = -1;
+        long lastPtsUs = -1;
+        boolean ended;
+    }
+
+    private class Pending {
+        final MediaEncoder<F> encoder;
+        final int index;
+        final ByteBuffer data;
+        final int offset;
+        final int size;
+        final long ptsUs;
+        final int flags;
+
+        Pending(MediaEncoder<F> encoder, int index, ByteBuffer data, int offset, int size, long ptsUs, int flags) {
+            this.encoder = encoder;
+            this.index = index;
+            this.data = data;
+            this.offset = offset;
+            this.size = size;
+            this.ptsUs = ptsUs;
+            this.flags = flags;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package wk.com.videodemo.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码器阶段：编码好的数据通过OutputListener交出去，用完后调用releaseOutput()还给编码器，中间不拷贝。
+ *
+ * F是编码格式的类型，Android上是MediaFormat；接口本身不依赖Android，JVM上可以用假的编码器测试整个管线
+ */
+public interface MediaEncoder<F> {
+    // 和MediaCodec.BUFFER_FLAG_*的取值一致
+    int FLAG_KEY_FRAME = 1;
+    int FLAG_CODEC_CONFIG = 2;
+    int FLAG_END_OF_STREAM = 4;
+
+    void setOutputListener(OutputListener<F> listener);
+
+    void start();
+
+    // 不再有输入，编码器输出完剩下的数据后会给出一个带FLAG_END_OF_STREAM的输出
+    void signalEndOfStream();
+
+    void releaseOutput(int index);
+
+    void release();
+
+    interface OutputListener<F> {
+        void onFormatChanged(MediaEncoder<F> encoder, F format);
+
+        /**
+         * data在releaseOutput(index)之前一直有效。ptsUs是这一帧的采集时间，单位微秒，
+         * 所有编码器都要用同一个单调时钟（System.nanoTime() / 1000），EncodePipeline靠它对齐各轨道
+         */
+        void onOutput(MediaEncoder<F> encoder, int index, ByteBuffer data, int offset, int size, long ptsUs, int flags);
+
+        void onError(MediaEncoder<F> encoder, Exception e);
+    }
+}
@@ -0,0 +1,18 @@
+package wk.com.videodemo.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 封装阶段，Android上是MediaMuxer。所有轨道都addTrack()之后才能start()，start()之后才能写数据
+ */
+public interface MuxerSink<F> {
+    int addTrack(F format);
+
+    void start();
+
+    void writeSample(int track, ByteBuffer data, int offset, int size, long ptsUs, int flags);
+
+    void stop();
+
+    void release();
+}
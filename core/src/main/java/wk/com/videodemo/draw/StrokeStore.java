@@ -0,0 +1,329 @@
+package wk.com.videodemo.draw;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 笔画数据：所有点的坐标和时间存在可增长的float[]/long[]里，每条笔画只记录起始点的下标，不为每个点创建对象。
+ *
+ * 点是边收边简化的：每条笔画保留一个"锚点"（上一个保留下来的点）和它之后还没确定的原始点窗口，
+ * 新点到来时，如果窗口里有点到"锚点-新点"线段的距离超过容差，就把窗口里最后一个点保留下来作为新的锚点，
+ * 相当于在线版的Ramer-Douglas-Peucker。窗口有上限，每个点的处理开销是常数。
+ * 还没确定的原始点通过getPending*()取出，绘制时可以画成临时的尾巴，保证笔迹跟手。
+ *
+ * 编码格式（encode/decode）：坐标按1/8像素量化，除第一个点外都存和前一个点的差值，用zigzag + varint编码。
+ *
+ * 不是线程安全的
+ */
+public class StrokeStore {
+    private static final int MAGIC = 0x53544B31; // "STK1"
+    private static final float QUANTIZE_SCALE = 8f;
+    private static final int MAX_WINDOW = 32;
+
+    private float mTolerance;
+
+    private float[] mXs = new float[256];
+    private float[] mYs = new float[256];
+    private long[] mTimes = new long[256];
+    private int mPointCount;
+
+    private int[] mStrokeStarts = new int[16];
+    private int mStrokeCount;
+    private boolean mStrokeOpen;
+
+    // 当前笔画还没确定是否保留的原始点
+    private final float[] mWindowX = new float[MAX_WINDOW];
+    private final float[] mWindowY = new float[MAX_WINDOW];
+    private final long[] mWindowT = new long[MAX_WINDOW];
+    private int mWindowCount;
+
+    private long mRawPointCount;
+
+    public StrokeStore(float tolerance) {
+        mTolerance = tolerance;
+    }
+
+    // 简化的容差，单位像素，0表示不简化
+    public void setTolerance(float tolerance) {
+        mTolerance = tolerance;
+    }
+
+    public float getTolerance() {
+        return mTolerance;
+    }
+
+    public void beginStroke(float x, float y, long timeMs) {
+        if (mStrokeOpen) {
+            endStroke();
+        }
+        if (mStrokeCount == mStrokeStarts.length) {
+            mStrokeStarts = Arrays.copyOf(mStrokeStarts, mStrokeCount * 2);
+        }
+        mStrokeStarts[mStrokeCount++] = mPointCount;
+        mStrokeOpen = true;
+        mWindowCount = 0;
+        mRawPointCount++;
+        commit(x, y, timeMs);
+    }
+
+    public void addPoint(float x, float y, long timeMs) {
+        if (!mStrokeOpen) {
+            beginStroke(x, y, timeMs);
+            return;
+        }
+        mRawPointCount++;
+        // 跟上一个点完全重合的点没有意义
+        float lastX = mWindowCount > 0 ? mWindowX[mWindowCount - 1] : mXs[mPointCount - 1];
+        float lastY = mWindowCount > 0 ? mWindowY[mWindowCount - 1] : mYs[mPointCount - 1];
+        if (lastX == x && lastY == y) {
+            return;
+        }
+
+        if (mWindowCount > 0 && !windowFits(x, y)) {
+            commitWindowTail();
+        }
+        mWindowX[mWindowCount] = x;
+        mWindowY[mWindowCount] = y;
+        mWindowT[mWindowCount] = timeMs;
+        mWindowCount++;
+        if (mWindowCount == MAX_WINDOW) {
+            commitWindowTail();
+        }
+    }
+
+    public void endStroke() {
+        if (!mStrokeOpen) {
+            return;
+        }
+        if (mWindowCount > 0) {
+            commitWindowTail();
+        }
+        mStrokeOpen = false;
+    }
+
+    public void clear() {
+        mPointCount = 0;
+        mStrokeCount = 0;
+        mStrokeOpen = false;
+        mWindowCount = 0;
+        mRawPointCount = 0;
+    }
+
+    // 窗口里的点到"锚点-新点"线段的距离是否都在容差内
+    private boolean windowFits(float x, float y) {
+        float ax = mXs[mPointCount - 1];
+        float ay = mYs[mPointCount - 1];
+        float tolerance2 = mTolerance * mTolerance;
+        for (int i = 0; i < mWindowCount; i++) {
+            if (distanceToSegment2(mWindowX[i], mWindowY[i], ax, ay, x, y) > tolerance2) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 保留窗口里最后一个点，作为新的锚点
+    private void commitWindowTail() {
+        int last = mWindowCount - 1;
+        commit(mWindowX[last], mWindowY[last], mWindowT[last]);
+        mWindowCount = 0;
+    }
+
+    private void commit(float x, float y, long timeMs) {
+        if (mPointCount == mXs.length) {
+            int capacity = mPointCount * 2;
+            mXs = Arrays.copyOf(mXs, capacity);
+            mYs = Arrays.copyOf(mYs, capacity);
+            mTimes = Arrays.copyOf(mTimes, capacity);
+        }
+        mXs[mPointCount] = x;
+        mYs[mPointCount] = y;
+        mTimes[mPointCount] = timeMs;
+        mPointCount++;
+    }
+
+    private static float distanceToSegment2(float px, float py, float ax, float ay, float bx, float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float len2 = dx * dx + dy * dy;
+        float t = len2 == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / len2;
+        t = Math.max(0, Math.min(1, t));
+        float ex = ax + t * dx - px;
+        float ey = ay + t * dy - py;
+        return ex * ex + ey * ey;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    public float getX(int point) {
+        return mXs[point];
+    }
+
+    public float getY(int point) {
+        return mYs[point];
+    }
+
+    public long getTime(int point) {
+        return mTimes[point];
+    }
+
+    public int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    public int getStrokeStart(int stroke) {
+        return mStrokeStarts[stroke];
+    }
+
+    // 笔画最后一个点的下一个位置
+    public int getStrokeEnd(int stroke) {
+        return stroke + 1 < mStrokeCount ? mStrokeStarts[stroke + 1] : mPointCount;
+    }
+
+    public boolean isStrokeStart(int point) {
+        return Arrays.binarySearch(mStrokeStarts, 0, mStrokeCount, point) >= 0;
+    }
+
+    public boolean isStrokeOpen() {
+        return mStrokeOpen;
+    }
+
+    public int getPendingCount() {
+        return mWindowCount;
+    }
+
+    public float getPendingX(int i) {
+        return mWindowX[i];
+    }
+
+    public float getPendingY(int i) {
+        return mWindowY[i];
+    }
+
+    // 收到的原始点数，和getPointCount()比较可以看出简化的效果
+    public long getRawPointCount() {
+        return mRawPointCount;
+    }
+
+    /**
+     * 编码已经确定的点（还没结束的笔画中没确定的点不包括在内）
+     */
+    public void encode(OutputStream out) throws IOException {
+        writeInt(out, MAGIC);
+        writeVarLong(out, mStrokeCount);
+        long prevTime = 0;
+        for (int s = 0; s < mStrokeCount; s++) {
+            int start = getStrokeStart(s);
+            int end = getStrokeEnd(s);
+            writeVarLong(out, end - start);
+            int prevX = 0;
+            int prevY = 0;
+            for (int i = start; i < end; i++) {
+                int qx = Math.round(mXs[i] * QUANTIZE_SCALE);
+                int qy = Math.round(mYs[i] * QUANTIZE_SCALE);
+                writeVarLong(out, zigzag(qx - prevX));
+                writeVarLong(out, zigzag(qy - prevY));
+                writeVarLong(out, zigzag(mTimes[i] - prevTime));
+                prevX = qx;
+                prevY = qy;
+                prevTime = mTimes[i];
+            }
+        }
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(mPointCount * 4 + 16);
+        try {
+            encode(out);
+        } catch (IOException e) {
+            // ByteArrayOutputStream不会抛异常
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static StrokeStore decode(InputStream in, float tolerance) throws IOException {
+        if (readInt(in) != MAGIC) {
+            throw new IOException("not a stroke file");
+        }
+        StrokeStore store = new StrokeStore(tolerance);
+        long strokeCount = readVarLong(in);
+        long prevTime = 0;
+        for (long s = 0; s < strokeCount; s++) {
+            long pointCount = readVarLong(in);
+            int prevX = 0;
+            int prevY = 0;
+            for (long i = 0; i < pointCount; i++) {
+                prevX += (int) unzigzag(readVarLong(in));
+                prevY += (int) unzigzag(readVarLong(in));
+                prevTime += unzigzag(readVarLong(in));
+                float x = prevX / QUANTIZE_SCALE;
+                float y = prevY / QUANTIZE_SCALE;
+                if (i == 0) {
+                    store.beginStroke(x, y, prevTime);
+                } else {
+                    // 已经简化过了，直接保留
+                    store.commit(x, y, prevTime);
+                }
+            }
+            store.mStrokeOpen = false;
+        }
+        store.mRawPointCount = store.mPointCount;
+        return store;
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void writeVarLong(OutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("unexpected end of stroke data");
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+
+    private static void writeInt(OutputStream out, int v) throws IOException {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("unexpected end of stroke data");
+            }
+            v = (v << 8) | b;
+        }
+        return v;
+    }
+}
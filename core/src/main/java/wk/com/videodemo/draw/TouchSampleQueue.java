@@ -0,0 +1,99 @@
+package wk.com.videodemo.draw;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 主线程（生产者）和绘制线程（消费者）之间传递触摸采样点的环形队列，单生产者、单消费者、无锁。
+ *
+ * 每个采样点是(x, y, 时间, 动作)，分别存在几个基本类型数组里，入队出队都不分配对象。
+ * 生产者只写mTail、消费者只写mHead，通过lazySet发布；双方各自缓存对方的下标，生产者只在看起来满了时、消费者只在缓存的点不够取时才去读对方的最新值。
+ * 队列满了时新的采样点会被丢弃并计数
+ */
+public class TouchSampleQueue {
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_MOVE = 1;
+    public static final int ACTION_UP = 2;
+    public static final int ACTION_CANCEL = 3;
+
+    public interface Consumer {
+        void onSample(float x, float y, long timeMs, int action);
+    }
+
+    private final int mCapacity;
+    private final int mMask;
+    private final float[] mX;
+    private final float[] mY;
+    private final long[] mTime;
+    private final int[] mAction;
+
+    // 下一个要写的位置，只有生产者修改
+    private final AtomicLong mTail = new AtomicLong();
+    // 下一个要读的位置，只有消费者修改
+    private final AtomicLong mHead = new AtomicLong();
+    // 生产者缓存的mHead、消费者缓存的mTail
+    private long mCachedHead;
+    private long mCachedTail;
+    private volatile long mDroppedCount;
+
+    // capacity会向上取整到2的幂，方便用位运算取下标
+    public TouchSampleQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mCapacity = size;
+        mMask = size - 1;
+        mX = new float[size];
+        mY = new float[size];
+        mTime = new long[size];
+        mAction = new int[size];
+    }
+
+    // 生产者线程调用
+    public boolean offer(float x, float y, long timeMs, int action) {
+        long tail = mTail.get();
+        if (tail - mCachedHead >= mCapacity) {
+            mCachedHead = mHead.get();
+            if (tail - mCachedHead >= mCapacity) {
+                mDroppedCount++;
+                return false;
+            }
+        }
+        int i = (int) (tail & mMask);
+        mX[i] = x;
+        mY[i] = y;
+        mTime[i] = timeMs;
+        mAction[i] = action;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * 消费者线程调用，最多取出max个采样点交给consumer，返回实际取出的个数
+     */
+    public int drain(Consumer consumer, int max) {
+        long head = mHead.get();
+        // 缓存的部分不够max个时才去读最新的mTail，否则新写入的点要等下一次drain才能取到
+        if (mCachedTail - head < max) {
+            mCachedTail = mTail.get();
+        }
+        int count = (int) Math.min(max, mCachedTail - head);
+        for (int n = 0; n < count; n++) {
+            int i = (int) ((head + n) & mMask);
+            consumer.onSample(mX[i], mY[i], mTime[i], mAction[i]);
+        }
+        if (count > 0) {
+            mHead.lazySet(head + count);
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+}
@@ -0,0 +1,25 @@
+package wk.com.videodemo.library;
+
+import wk.com.videodemo.mp4.Mp4Info;
+
+/**
+ * 媒体库里的一个文件。length和lastModified用来判断文件有没有变，没变时直接用上次解析的info
+ */
+public class LibraryEntry {
+    public final String path;
+    public final long length;
+    public final long lastModified;
+    // 解析失败（文件损坏、还在写）时为null，文件不变就不再重试
+    public final Mp4Info info;
+
+    public LibraryEntry(String path, long length, long lastModified, Mp4Info info) {
+        this.path = path;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.info = info;
+    }
+
+    public boolean isUpToDate(long length, long lastModified) {
+        return this.length == length && this.lastModified == lastModified;
+    }
+}
@@ -0,0 +1,180 @@
+package wk.com.videodemo.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import wk.com.videodemo.mp4.Mp4Info;
+
+/**
+ * 媒体库索引：所有扫描到的文件和解析结果，保存在一个紧凑的二进制文件里，打开媒体库时直接读文件，不用再逐个解析视频。
+ *
+ * 文件格式按目录分组，目录路径只写一次，每个文件只写文件名；编码格式是4个字符，存成int
+ */
+public class LibraryIndex {
+    private static final int MAGIC = 0x4C494231; // "LIB1"
+    private static final int MAX_ENTRIES = 100000;
+
+    private final Map<String, LibraryEntry> mEntries;
+
+    public LibraryIndex() {
+        mEntries = new HashMap<>();
+    }
+
+    public LibraryIndex(List<LibraryEntry> entries) {
+        mEntries = new HashMap<>(entries.size() * 2);
+        for (LibraryEntry entry : entries) {
+            mEntries.put(entry.path, entry);
+        }
+    }
+
+    public LibraryEntry get(String path) {
+        return mEntries.get(path);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    // 按修改时间倒序，新录的在前面
+    public List<LibraryEntry> getEntries() {
+        List<LibraryEntry> entries = new ArrayList<>(mEntries.values());
+        Collections.sort(entries, new Comparator<LibraryEntry>() {
+            @Override
+            public int compare(LibraryEntry a, LibraryEntry b) {
+                return a.lastModified == b.lastModified ? a.path.compareTo(b.path)
+                        : (a.lastModified > b.lastModified ? -1 : 1);
+            }
+        });
+        return entries;
+    }
+
+    public void save(File file) throws IOException {
+        Map<String, List<LibraryEntry>> byDir = new HashMap<>();
+        for (LibraryEntry entry : mEntries.values()) {
+            File f = new File(entry.path);
+            String dir = f.getParent();
+            List<LibraryEntry> list = byDir.get(dir);
+            if (null == list) {
+                list = new ArrayList<>();
+                byDir.put(dir, list);
+            }
+            list.add(entry);
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(byDir.size());
+            for (Map.Entry<String, List<LibraryEntry>> group : byDir.entrySet()) {
+                out.writeUTF(null == group.getKey() ? "" : group.getKey());
+                out.writeInt(group.getValue().size());
+                for (LibraryEntry entry : group.getValue()) {
+                    out.writeUTF(new File(entry.path).getName());
+                    out.writeLong(entry.length);
+                    out.writeLong(entry.lastModified);
+                    Mp4Info info = entry.info;
+                    out.writeBoolean(null != info);
+                    if (null != info) {
+                        out.writeLong(info.durationUs);
+                        out.writeInt(info.width);
+                        out.writeInt(info.height);
+                        out.writeShort(info.rotation);
+                        out.writeInt(codecToInt(info.videoCodec));
+                        out.writeInt(codecToInt(info.audioCodec));
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename failed: " + file);
+        }
+    }
+
+    /**
+     * 文件不存在或者损坏时返回空的索引
+     */
+    public static LibraryIndex load(File file) {
+        if (!file.isFile()) {
+            return new LibraryIndex();
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                return new LibraryIndex();
+            }
+            int dirCount = in.readInt();
+            if (dirCount < 0 || dirCount > MAX_ENTRIES) {
+                return new LibraryIndex();
+            }
+            List<LibraryEntry> entries = new ArrayList<>();
+            for (int d = 0; d < dirCount; d++) {
+                String dir = in.readUTF();
+                int count = in.readInt();
+                if (count < 0 || entries.size() + count > MAX_ENTRIES) {
+                    return new LibraryIndex();
+                }
+                for (int i = 0; i < count; i++) {
+                    String path = new File(dir, in.readUTF()).getPath();
+                    long length = in.readLong();
+                    long lastModified = in.readLong();
+                    Mp4Info info = null;
+                    if (in.readBoolean()) {
+                        long durationUs = in.readLong();
+                        int width = in.readInt();
+                        int height = in.readInt();
+                        int rotation = in.readShort();
+                        String videoCodec = intToCodec(in.readInt());
+                        String audioCodec = intToCodec(in.readInt());
+                        info = new Mp4Info(durationUs, width, height, rotation, videoCodec, audioCodec);
+                    }
+                    entries.add(new LibraryEntry(path, length, lastModified, info));
+                }
+            }
+            return new LibraryIndex(entries);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new LibraryIndex();
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // 编码格式都是4个ASCII字符，null存成0
+    private static int codecToInt(String codec) {
+        if (null == codec || codec.length() != 4) {
+            return 0;
+        }
+        return (codec.charAt(0) << 24) | (codec.charAt(1) << 16) | (codec.charAt(2) << 8) | codec.charAt(3);
+    }
+
+    private static String intToCodec(int value) {
+        if (0 == value) {
+            return null;
+        }
+        return new String(new char[]{(char) ((value >>> 24) & 0xFF), (char) ((value >>> 16) & 0xFF),
+                (char) ((value >>> 8) & 0xFF), (char) (value & 0xFF)});
+    }
+}
@@ -0,0 +1,193 @@
+package wk.com.videodemo.library;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import wk.com.videodemo.mp4.Mp4Info;
+import wk.com.videodemo.mp4.Mp4InfoReader;
+
+/**
+ * 用fork/join并行扫描几个目录下的视频，生成LibraryIndex。
+ *
+ * 每个子目录是一个任务，同一个目录里文件多时再按数量拆分，解析视频是读moov的IO，多个线程同时读能把等待时间叠起来。
+ * 传入上一次的索引时，大小和修改时间都没变的文件直接沿用上次的结果，只解析新增和变化的文件；已经删除的文件自然不在新索引里
+ */
+public class LibraryScanner {
+    private static final String[] EXTENSIONS = {".mp4", ".3gp", ".m4v", ".mov"};
+    // 一个任务最多解析这么多文件，多了就拆成两半
+    private static final int FILES_PER_TASK = 8;
+    private static final int MAX_DEPTH = 8;
+
+    private final ForkJoinPool mPool;
+
+    public LibraryScanner(int parallelism) {
+        mPool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    public static class Result {
+        public final LibraryIndex index;
+        // 重新解析的、沿用上次结果的、解析失败的文件数
+        public final int probed;
+        public final int reused;
+        public final int failed;
+        public final long costMs;
+
+        Result(LibraryIndex index, int probed, int reused, int failed, long costMs) {
+            this.index = index;
+            this.probed = probed;
+            this.reused = reused;
+            this.failed = failed;
+            this.costMs = costMs;
+        }
+
+        @Override
+        public String toString() {
+            return "entries=" + index.size() + " probed=" + probed + " reused=" + reused + " failed=" + failed
+                    + " cost=" + costMs + "ms";
+        }
+    }
+
+    /**
+     * 阻塞直到扫描完成，不要在主线程调用
+     *
+     * @param previous 上一次的索引，没有时传null
+     */
+    public Result scan(List<File> roots, LibraryIndex previous) {
+        long start = System.currentTimeMillis();
+        Counters counters = new Counters(null == previous ? new LibraryIndex() : previous);
+        List<LibraryEntry> entries = new ArrayList<>();
+        for (File root : roots) {
+            if (null != root && root.isDirectory()) {
+                entries.addAll(mPool.invoke(new DirectoryTask(root, 0, counters)));
+            }
+        }
+        return new Result(new LibraryIndex(entries), counters.probed.get(), counters.reused.get(),
+                counters.failed.get(), System.currentTimeMillis() - start);
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    static boolean isMediaFile(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        for (String extension : EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Counters {
+        final LibraryIndex previous;
+        final AtomicInteger probed = new AtomicInteger();
+        final AtomicInteger reused = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        Counters(LibraryIndex previous) {
+            this.previous = previous;
+        }
+    }
+
+    private static class DirectoryTask extends RecursiveTask<List<LibraryEntry>> {
+        private static final long serialVersionUID = 1L;
+
+        private final File mDir;
+        private final int mDepth;
+        private final Counters mCounters;
+
+        DirectoryTask(File dir, int depth, Counters counters) {
+            mDir = dir;
+            mDepth = depth;
+            mCounters = counters;
+        }
+
+        @Override
+        protected List<LibraryEntry> compute() {
+            File[] children = mDir.listFiles();
+            List<LibraryEntry> entries = new ArrayList<>();
+            if (null == children) {
+                return entries;
+            }
+            List<RecursiveTask<List<LibraryEntry>>> tasks = new ArrayList<>();
+            List<File> files = new ArrayList<>();
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    if (mDepth < MAX_DEPTH && !child.getName().startsWith(".")) {
+                        tasks.add(new DirectoryTask(child, mDepth + 1, mCounters));
+                    }
+                } else if (isMediaFile(child.getName())) {
+                    files.add(child);
+                }
+            }
+            if (!files.isEmpty()) {
+                tasks.add(new FileTask(files.toArray(new File[files.size()]), 0, files.size(), mCounters));
+            }
+            for (RecursiveTask<List<LibraryEntry>> task : invokeAll(tasks)) {
+                entries.addAll(task.join());
+            }
+            return entries;
+        }
+    }
+
+    private static class FileTask extends RecursiveTask<List<LibraryEntry>> {
+        private static final long serialVersionUID = 1L;
+
+        private final File[] mFiles;
+        private final int mFrom;
+        private final int mTo;
+        private final Counters mCounters;
+
+        FileTask(File[] files, int from, int to, Counters counters) {
+            mFiles = files;
+            mFrom = from;
+            mTo = to;
+            mCounters = counters;
+        }
+
+        @Override
+        protected List<LibraryEntry> compute() {
+            if (mTo - mFrom > FILES_PER_TASK) {
+                int middle = (mFrom + mTo) >>> 1;
+                FileTask left = new FileTask(mFiles, mFrom, middle, mCounters);
+                FileTask right = new FileTask(mFiles, middle, mTo, mCounters);
+                left.fork();
+                List<LibraryEntry> entries = right.compute();
+                entries.addAll(0, left.join());
+                return entries;
+            }
+            List<LibraryEntry> entries = new ArrayList<>(mTo - mFrom);
+            for (int i = mFrom; i < mTo; i++) {
+                entries.add(scanFile(mFiles[i]));
+            }
+            return entries;
+        }
+
+        private LibraryEntry scanFile(File file) {
+            String path = file.getAbsolutePath();
+            long length = file.length();
+            long lastModified = file.lastModified();
+            LibraryEntry old = mCounters.previous.get(path);
+            if (null != old && old.isUpToDate(length, lastModified)) {
+                mCounters.reused.incrementAndGet();
+                return old;
+            }
+            Mp4Info info = null;
+            try {
+                info = Mp4InfoReader.read(file);
+                mCounters.probed.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                // 损坏或者还没写完的文件，记下来，文件不变就不再重试
+                mCounters.failed.incrementAndGet();
+            }
+            return new LibraryEntry(path, length, lastModified, info);
+        }
+    }
+}
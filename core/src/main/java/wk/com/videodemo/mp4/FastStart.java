@@ -0,0 +1,318 @@
+package wk.com.videodemo.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_CO64;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MDIA;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MINF;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MOOV;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_STBL;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_STCO;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_TRAK;
+import static wk.com.videodemo.mp4.Mp4IndexReader.fourcc;
+import static wk.com.videodemo.mp4.Mp4IndexReader.readFully;
+
+/**
+ * 把moov挪到mdat前面（faststart），播放器读完文件开头就能开始播放，不用先跳到文件末尾去读moov。
+ *
+ * 只有moov会读进内存（它的大小和采样数成正比，一般几百K），mdat等其它box用FileChannel.transferTo()直接拷贝，
+ * 不经过Java堆，几个G的文件也只占用moov大小的内存。moov挪到前面以后，所有chunk偏移都要加上moov的大小，
+ * 有偏移超过4G时stco升级成co64，moov会跟着变大，偏移再重新算一遍。
+ *
+ * 先写临时文件，刷到磁盘后再rename覆盖原文件，中途崩溃时原文件不受影响
+ */
+public class FastStart {
+    private static final int TYPE_MDAT = fourcc("mdat");
+    private static final int TYPE_FTYP = fourcc("ftyp");
+    private static final String TEMP_SUFFIX = ".faststart.tmp";
+
+    /**
+     * @return 处理了返回true；已经是faststart、或者不是mp4时返回false
+     */
+    public static boolean process(File file) throws IOException {
+        File tmp = new File(file.getPath() + TEMP_SUFFIX);
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            List<long[]> boxes = readTopLevelBoxes(channel, channel.size());
+            int moovIndex = -1;
+            int firstMdat = -1;
+            for (int i = 0; i < boxes.size(); i++) {
+                int type = (int) boxes.get(i)[2];
+                if (TYPE_MOOV == type && moovIndex < 0) {
+                    moovIndex = i;
+                } else if (TYPE_MDAT == type && firstMdat < 0) {
+                    firstMdat = i;
+                }
+            }
+            if (moovIndex < 0 || firstMdat < 0 || moovIndex < firstMdat) {
+                return false;
+            }
+            long[] moovBox = boxes.get(moovIndex);
+            if (moovBox[1] > Integer.MAX_VALUE / 2) {
+                throw new IOException("moov too large: " + moovBox[1]);
+            }
+            ByteBuffer moov = ByteBuffer.allocate((int) moovBox[1]);
+            readFully(channel, moov, moovBox[0]);
+            moov.flip();
+
+            // 新的顺序：mdat之前的box（ftyp等）、moov、其余的box按原来的顺序
+            List<long[]> order = new ArrayList<>(boxes.size());
+            order.addAll(boxes.subList(0, firstMdat));
+            order.add(moovBox);
+            for (int i = firstMdat; i < boxes.size(); i++) {
+                if (i != moovIndex) {
+                    order.add(boxes.get(i));
+                }
+            }
+
+            ByteBuffer newMoov = relocate(moov, order, moovBox);
+
+            RandomAccessFile outFile = new RandomAccessFile(tmp, "rw");
+            try {
+                outFile.setLength(0);
+                FileChannel out = outFile.getChannel();
+                long position = 0;
+                for (long[] box : order) {
+                    if (box == moovBox) {
+                        while (newMoov.hasRemaining()) {
+                            position += out.write(newMoov, position);
+                        }
+                    } else {
+                        transferFully(channel, box[0], box[1], out, position);
+                        position += box[1];
+                    }
+                }
+                out.force(true);
+            } finally {
+                outFile.close();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            in.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename failed: " + file);
+        }
+        return true;
+    }
+
+    /**
+     * 按新的顶层box顺序改写moov，chunk偏移换算到新位置。
+     * 先按不升级算一遍，偏移放不进32位时把所有stco升级成co64再算
+     *
+     * @param order   新文件里的顶层box顺序，每个是{原偏移, 大小, 类型}
+     * @param moovBox order里代表moov的那一项，它的大小按改写后的算
+     */
+    static ByteBuffer relocate(ByteBuffer moov, List<long[]> order, long[] moovBox) throws IOException {
+        boolean upgrade = false;
+        for (int pass = 0; pass < 2; pass++) {
+            long newMoovSize = rewrittenSize(moov, 0, moov.limit(), upgrade);
+            long[] newStarts = newStarts(order, moovBox, newMoovSize);
+            ByteBuffer out = ByteBuffer.allocate((int) newMoovSize);
+            if (rewrite(moov, 0, moov.limit(), out, upgrade, order, newStarts)) {
+                // chunk偏移是按newMoovSize算的，实际写出的大小不一样的话偏移全都错了
+                if (out.position() != newMoovSize) {
+                    throw new IOException("rewritten moov is " + out.position() + " bytes, expected " + newMoovSize);
+                }
+                out.flip();
+                return out;
+            }
+            upgrade = true;
+        }
+        throw new IOException("chunk offset overflow");
+    }
+
+    // 顶层box列表，每个是{偏移, 大小, 类型}
+    private static List<long[]> readTopLevelBoxes(FileChannel channel, long length) throws IOException {
+        List<long[]> boxes = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= length) {
+            header.clear();
+            header.limit((int) Math.min(16, length - position));
+            readFully(channel, header, position);
+            header.flip();
+            long size = header.getInt() & 0xFFFFFFFFL;
+            int type = header.getInt();
+            if (boxes.isEmpty() && type != TYPE_FTYP) {
+                // 不是mp4，不处理
+                return boxes;
+            }
+            if (size == 1) {
+                if (header.remaining() < 8) {
+                    throw new IOException("truncated box header at " + position);
+                }
+                size = header.getLong();
+            } else if (size == 0) {
+                size = length - position;
+            }
+            if (size < 8 || position + size > length) {
+                throw new IOException("bad box size " + size + " at " + position);
+            }
+            boxes.add(new long[]{position, size, type});
+            position += size;
+        }
+        return boxes;
+    }
+
+    // 每个box在新文件里的起始位置，和order一一对应
+    private static long[] newStarts(List<long[]> order, long[] moovBox, long newMoovSize) {
+        long[] starts = new long[order.size()];
+        long position = 0;
+        for (int i = 0; i < order.size(); i++) {
+            starts[i] = position;
+            position += order.get(i) == moovBox ? newMoovSize : order.get(i)[1];
+        }
+        return starts;
+    }
+
+    // 原文件里的偏移换算到新文件里，找不到所在的box时返回-1
+    private static long mapOffset(long offset, List<long[]> order, long[] newStarts) {
+        for (int i = 0; i < order.size(); i++) {
+            long[] box = order.get(i);
+            if (offset >= box[0] && offset < box[0] + box[1]) {
+                return newStarts[i] + (offset - box[0]);
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isContainer(int type) {
+        return type == TYPE_MOOV || type == TYPE_TRAK || type == TYPE_MDIA || type == TYPE_MINF || type == TYPE_STBL;
+    }
+
+    private static long boxSize(ByteBuffer buf, int box) {
+        long size = buf.getInt(box) & 0xFFFFFFFFL;
+        if (size == 1) {
+            size = buf.getLong(box + 8);
+        } else if (size == 0) {
+            size = buf.limit() - box;
+        }
+        return size;
+    }
+
+    private static int headerSize(ByteBuffer buf, int box) {
+        return buf.getInt(box) == 1 ? 16 : 8;
+    }
+
+    // [start, end)范围内的box改写以后的总大小，stco/co64按rewrite()写出的格式重新算：8字节的头，升级时表项从4字节变成8字节
+    private static long rewrittenSize(ByteBuffer buf, int start, int end, boolean upgrade) throws IOException {
+        long total = 0;
+        int p = start;
+        while (p + 8 <= end) {
+            long size = boxSize(buf, p);
+            if (size < 8 || p + size > end) {
+                throw new IOException("bad box size " + size + " at " + p);
+            }
+            int type = buf.getInt(p + 4);
+            int header = headerSize(buf, p);
+            if (isContainer(type)) {
+                total += header + rewrittenSize(buf, p + header, (int) (p + size), upgrade);
+            } else if (type == TYPE_STCO || type == TYPE_CO64) {
+                boolean wide = type == TYPE_CO64 || upgrade;
+                total += 8 + 8 + (long) chunkOffsetCount(buf, p, (int) size, header, type) * (wide ? 8 : 4);
+            } else {
+                total += size;
+            }
+            p += (int) size;
+        }
+        return total;
+    }
+
+    /**
+     * 把[start, end)范围内的box写到out里，容器box重新计算大小，stco/co64的偏移换算到新位置。
+     * 不升级时遇到放不进32位的偏移返回false
+     */
+    private static boolean rewrite(ByteBuffer buf, int start, int end, ByteBuffer out, boolean upgrade,
+                                   List<long[]> order, long[] newStarts) throws IOException {
+        int p = start;
+        while (p + 8 <= end) {
+            int size = (int) boxSize(buf, p);
+            int type = buf.getInt(p + 4);
+            int header = headerSize(buf, p);
+            if (isContainer(type)) {
+                int sizeAt = out.position();
+                out.putInt(0);
+                out.putInt(type);
+                if (header == 16) {
+                    out.putLong(0);
+                }
+                if (!rewrite(buf, p + header, p + size, out, upgrade, order, newStarts)) {
+                    return false;
+                }
+                long newSize = out.position() - sizeAt;
+                if (header == 16) {
+                    out.putInt(sizeAt, 1);
+                    out.putLong(sizeAt + 8, newSize);
+                } else {
+                    out.putInt(sizeAt, (int) newSize);
+                }
+            } else if (type == TYPE_STCO || type == TYPE_CO64) {
+                boolean wide = type == TYPE_CO64 || upgrade;
+                int payload = p + header;
+                int count = chunkOffsetCount(buf, p, size, header, type);
+                out.putInt(8 + 8 + count * (wide ? 8 : 4));
+                out.putInt(wide ? TYPE_CO64 : TYPE_STCO);
+                // version/flags和entry_count
+                out.putInt(buf.getInt(payload));
+                out.putInt(count);
+                for (int i = 0; i < count; i++) {
+                    long offset = type == TYPE_CO64 ? buf.getLong(payload + 8 + i * 8)
+                            : buf.getInt(payload + 8 + i * 4) & 0xFFFFFFFFL;
+                    long mapped = mapOffset(offset, order, newStarts);
+                    if (mapped < 0) {
+                        throw new IOException("chunk offset " + offset + " outside of any box");
+                    }
+                    if (wide) {
+                        out.putLong(mapped);
+                    } else if (mapped > 0xFFFFFFFFL) {
+                        return false;
+                    } else {
+                        out.putInt((int) mapped);
+                    }
+                }
+            } else {
+                ByteBuffer slice = buf.duplicate();
+                slice.limit(p + size);
+                slice.position(p);
+                out.put(slice);
+            }
+            p += size;
+        }
+        return true;
+    }
+
+    // stco/co64的entry_count，检查表没有超出box
+    private static int chunkOffsetCount(ByteBuffer buf, int box, int size, int header, int type) throws IOException {
+        int count = buf.getInt(box + header + 4);
+        int entrySize = type == TYPE_CO64 ? 8 : 4;
+        if (count < 0 || header + 8 + (long) count * entrySize > size) {
+            throw new IOException("bad chunk offset count " + count);
+        }
+        return count;
+    }
+
+    static void transferFully(FileChannel in, long position, long count, FileChannel out, long outPosition)
+            throws IOException {
+        // transferTo()不保证一次传完，数据写在out的当前位置
+        out.position(outPosition);
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out);
+            if (transferred <= 0) {
+                throw new IOException("transfer stalled at " + position);
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+}
@@ -0,0 +1,838 @@
+package wk.com.videodemo.mp4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_CTTS;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_EDTS;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_ELST;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_HDLR;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MDHD;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MDIA;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MINF;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MOOV;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MVHD;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_STBL;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_TRAK;
+import static wk.com.videodemo.mp4.Mp4IndexReader.boxEnd;
+import static wk.com.videodemo.mp4.Mp4IndexReader.findChild;
+import static wk.com.videodemo.mp4.Mp4IndexReader.findTopLevelBox;
+import static wk.com.videodemo.mp4.Mp4IndexReader.fourcc;
+import static wk.com.videodemo.mp4.Mp4IndexReader.fourccToString;
+import static wk.com.videodemo.mp4.Mp4IndexReader.payloadStart;
+
+/**
+ * 不解码的剪辑：按关键帧裁剪、拼接多个录像文件。
+ *
+ * 采样数据原样拷贝（FileChannel.transferTo()，不经过Java堆），只重建采样表（stts/ctts/stss/stsz/stsc/stco），
+ * 所以几个小时的素材也只要几秒，内存只和采样数有关，和文件大小无关。
+ *
+ * 1.裁剪的起点对齐到起点之前最近的视频关键帧，音频从这个时间开始；终点按显示时间算，显示时间在终点之后的采样都不要；
+ * 2.拼接要求各个文件的track一一对应：类型、timescale和编码参数（stsd）完全一样，否则抛出IOException，
+ *   同一台设备、同样配置录出来的文件都满足这个条件。每个片段的各个track从同一个时间开始：
+ *   上一个片段里短的track拉长最后一个采样补齐到最长的track，音视频不会随着片段数累积错位；
+ * 3.输出的moov在mdat前面（faststart），数据按源文件里的顺序写出，保留音视频交错；
+ * 4.源文件里的编辑列表（edts）不保留，重新生成：media_time是第一个采样的ctts偏移，有B帧时第一帧也从0开始显示；
+ *   开头没有采样的track用空白编辑补齐。ctts保留源文件的version，version 1的负偏移不会被当成很大的无符号数。
+ *
+ * 先写临时文件再rename，失败时不会留下不完整的输出
+ */
+public class Mp4Editor {
+    static final int TYPE_TKHD = fourcc("tkhd");
+    static final int TYPE_STSD = fourcc("stsd");
+    private static final int TYPE_FTYP = fourcc("ftyp");
+    private static final int TYPE_MDAT = fourcc("mdat");
+
+    /**
+     * 一个片段：源文件的[startUs, endUs)，endUs传Long.MAX_VALUE表示到结尾
+     */
+    public static class Segment {
+        public final File file;
+        public final long startUs;
+        public final long endUs;
+
+        public Segment(File file, long startUs, long endUs) {
+            this.file = file;
+            this.startUs = startUs;
+            this.endUs = endUs;
+        }
+    }
+
+    public static void trim(File src, long startUs, long endUs, File dst) throws IOException {
+        export(Collections.singletonList(new Segment(src, startUs, endUs)), dst);
+    }
+
+    public static void concat(List<File> sources, File dst) throws IOException {
+        List<Segment> segments = new ArrayList<>(sources.size());
+        for (File file : sources) {
+            segments.add(new Segment(file, 0, Long.MAX_VALUE));
+        }
+        export(segments, dst);
+    }
+
+    /**
+     * 按顺序把各个片段拼成一个文件
+     */
+    public static void export(List<Segment> segments, File dst) throws IOException {
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("no segment");
+        }
+        List<Source> sources = new ArrayList<>(segments.size());
+        File tmp = new File(dst.getPath() + ".tmp");
+        try {
+            for (Segment segment : segments) {
+                Source source = Source.open(segment.file);
+                sources.add(source);
+                if (sources.size() > 1) {
+                    checkCompatible(sources.get(0), source);
+                }
+            }
+            Source first = sources.get(0);
+            int trackCount = first.tracks.size();
+            OutTrack[] tracks = new OutTrack[trackCount];
+            for (int t = 0; t < trackCount; t++) {
+                tracks[t] = new OutTrack(first.tracks.get(t));
+            }
+
+            // 选出每个片段要的采样，按源文件里的位置切成chunk
+            List<OutChunk> chunks = new ArrayList<>();
+            for (int s = 0; s < sources.size(); s++) {
+                List<OutChunk> sourceChunks = new ArrayList<>();
+                select(sources.get(s), s, segments.get(s), tracks, sourceChunks);
+                // 按源文件里的位置排序，保留原来的音视频交错
+                Collections.sort(sourceChunks, CHUNK_ORDER);
+                chunks.addAll(sourceChunks);
+                if (s < sources.size() - 1) {
+                    alignTrackEnds(tracks);
+                }
+            }
+
+            long mdatPayload = 0;
+            for (OutChunk chunk : chunks) {
+                mdatPayload += chunk.length;
+            }
+            ByteBuffer ftyp = first.ftyp;
+            int mdatHeader = mdatPayload + 8 > 0xFFFFFFFFL ? 16 : 8;
+            // 先按stco算moov大小，偏移放不下时改用co64
+            boolean wide = false;
+            byte[] moov = buildMoov(first, tracks, false);
+            long dataStart = ftyp.remaining() + moov.length + mdatHeader;
+            if (dataStart + mdatPayload > 0xFFFFFFFFL) {
+                wide = true;
+                moov = buildMoov(first, tracks, true);
+                dataStart = ftyp.remaining() + moov.length + mdatHeader;
+            }
+            assignOffsets(chunks, tracks, dataStart);
+            // 偏移已经确定，重新生成一遍，moov的大小不变
+            moov = buildMoov(first, tracks, wide);
+
+            RandomAccessFile outFile = new RandomAccessFile(tmp, "rw");
+            try {
+                outFile.setLength(0);
+                FileChannel out = outFile.getChannel();
+                write(out, ftyp.duplicate());
+                write(out, ByteBuffer.wrap(moov));
+                ByteBuffer header = ByteBuffer.allocate(mdatHeader);
+                if (mdatHeader == 16) {
+                    header.putInt(1);
+                    header.putInt(TYPE_MDAT);
+                    header.putLong(mdatPayload + 16);
+                } else {
+                    header.putInt((int) (mdatPayload + 8));
+                    header.putInt(TYPE_MDAT);
+                }
+                header.flip();
+                write(out, header);
+                for (OutChunk chunk : chunks) {
+                    FastStart.transferFully(sources.get(chunk.source).channel, chunk.sourceOffset, chunk.length,
+                            out, out.position());
+                }
+                out.force(true);
+            } finally {
+                outFile.close();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            for (Source source : sources) {
+                source.close();
+            }
+        }
+        if (!tmp.renameTo(dst)) {
+            tmp.delete();
+            throw new IOException("rename failed: " + dst);
+        }
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void checkCompatible(Source first, Source other) throws IOException {
+        if (first.tracks.size() != other.tracks.size()) {
+            throw new IOException("track count mismatch: " + other.file);
+        }
+        for (int t = 0; t < first.tracks.size(); t++) {
+            SourceTrack a = first.tracks.get(t);
+            SourceTrack b = other.tracks.get(t);
+            if (!a.index.getHandlerType().equals(b.index.getHandlerType())
+                    || a.index.getTimescale() != b.index.getTimescale()
+                    || !slice(first.moov, a.stsd).equals(slice(other.moov, b.stsd))) {
+                throw new IOException("track " + t + " is not compatible: " + other.file);
+            }
+        }
+    }
+
+    /**
+     * 选出片段里的采样追加到各个输出track，连续存放的采样合成一个chunk
+     */
+    private static void select(Source source, int sourceIndex, Segment segment, OutTrack[] tracks,
+                               List<OutChunk> chunks) {
+        // 起点对齐到视频关键帧，没有视频时直接用startUs
+        long startUs = Math.max(0, segment.startUs);
+        for (SourceTrack track : source.tracks) {
+            if (track.index.isVideo()) {
+                startUs = track.index.getSyncTimeAtOrBeforeUs(startUs);
+                break;
+            }
+        }
+        for (int t = 0; t < tracks.length; t++) {
+            SourceTrack track = source.tracks.get(t);
+            TrackIndex index = track.index;
+            OutTrack out = tracks[t];
+            int count = index.getSampleCount();
+            int from;
+            if (index.isVideo()) {
+                from = 0 == count ? 0 : index.getSyncSampleAtOrBefore(startUs);
+            } else {
+                from = firstSampleAtOrAfter(index, startUs);
+            }
+            int to = lastSampleBefore(index, from, segment.endUs);
+            out.cttsVersion = Math.max(out.cttsVersion, track.cttsVersion);
+            OutChunk chunk = null;
+            long nextOffset = -1;
+            for (int i = from; i <= to; i++) {
+                long offset = index.getSampleOffset(i);
+                int size = index.getSampleSize(i);
+                if (null == chunk || offset != nextOffset) {
+                    chunk = new OutChunk(sourceIndex, t, offset);
+                    chunks.add(chunk);
+                    out.chunkSamples.add(0);
+                }
+                chunk.length += size;
+                out.chunkSamples.set(out.chunkSamples.size() - 1, out.chunkSamples.get(out.chunkSamples.size() - 1) + 1);
+                nextOffset = offset + size;
+
+                out.sizes.add(size);
+                out.deltas.add(index.getSampleDelta(i));
+                out.duration += index.getSampleDelta(i);
+                if (null != out.compositionOffsets) {
+                    out.compositionOffsets.add(null == track.compositionOffsets ? 0 : track.compositionOffsets[i]);
+                }
+                if (index.isSyncSample(i)) {
+                    // stss里的采样号从1开始
+                    out.syncSamples.add(out.sizes.size());
+                }
+            }
+        }
+    }
+
+    /**
+     * 显示时间在endUs之前的最后一个采样，解码顺序在它前面的采样都要保留（B帧要参考它们）。
+     * 关键帧之后的采样不会显示在它前面，遇到显示时间不在范围内的关键帧就可以停了
+     */
+    private static int lastSampleBefore(TrackIndex index, int from, long endUs) {
+        int last = from - 1;
+        for (int i = from; i < index.getSampleCount(); i++) {
+            if (index.getPresentationTimeUs(i) < endUs) {
+                last = i;
+            } else if (index.isSyncSample(i)) {
+                break;
+            }
+        }
+        return last;
+    }
+
+    // 没有帧重排的track（音频）里显示时间不小于timeUs的第一个采样
+    private static int firstSampleAtOrAfter(TrackIndex index, long timeUs) {
+        int low = 0;
+        int high = index.getSampleCount();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (index.getPresentationTimeUs(middle) < timeUs) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 让下一个片段的各个track从同一个时间开始：以最长的track的结尾为准，其它track拉长最后一个采样的时长，
+     * 还没有采样的track加长开头的空白编辑
+     */
+    private static void alignTrackEnds(OutTrack[] tracks) {
+        long endUs = 0;
+        for (OutTrack track : tracks) {
+            endUs = Math.max(endUs, track.endUs());
+        }
+        for (OutTrack track : tracks) {
+            long gapUs = endUs - track.endUs();
+            long timescale = track.source.index.getTimescale();
+            if (gapUs <= 0 || timescale <= 0) {
+                continue;
+            }
+            int last = track.deltas.size() - 1;
+            if (last < 0) {
+                track.emptyUs += gapUs;
+                continue;
+            }
+            long gap = gapUs * timescale / 1000000;
+            track.deltas.set(last, (int) (track.deltas.get(last) + gap));
+            track.duration += gap;
+        }
+    }
+
+    // 按写出的顺序给每个chunk分配在新文件里的偏移
+    private static void assignOffsets(List<OutChunk> chunks, OutTrack[] tracks, long dataStart) {
+        for (OutTrack track : tracks) {
+            track.chunkOffsets = new long[track.chunkSamples.size()];
+        }
+        int[] next = new int[tracks.length];
+        long position = dataStart;
+        // 同一个track的chunk在列表里的先后和它在track里的先后是一致的
+        for (OutChunk chunk : chunks) {
+            tracks[chunk.track].chunkOffsets[next[chunk.track]++] = position;
+            position += chunk.length;
+        }
+    }
+
+    private static byte[] buildMoov(Source first, OutTrack[] tracks, boolean wide) throws IOException {
+        long movieTimescale = first.movieTimescale;
+        long movieDuration = 0;
+        for (OutTrack track : tracks) {
+            movieDuration = Math.max(movieDuration, track.presentationDuration(movieTimescale));
+        }
+
+        BoxWriter moov = new BoxWriter();
+        moov.begin(TYPE_MOOV);
+        ByteBuffer buf = first.moov;
+        int moovEnd = buf.limit();
+        for (int p = payloadStart(buf, 0); p + 8 <= moovEnd; p = boxEnd(buf, p)) {
+            int type = buf.getInt(p + 4);
+            if (type == TYPE_MVHD) {
+                moov.copyWithDuration(buf, p, movieDuration, 16, 24);
+            } else if (type == TYPE_TRAK) {
+                OutTrack track = findTrack(tracks, p);
+                if (null != track) {
+                    writeTrak(moov, buf, track, movieTimescale, wide);
+                }
+            } else {
+                // udta等原样保留
+                moov.copy(buf, p);
+            }
+        }
+        moov.end();
+        return moov.toByteArray();
+    }
+
+    private static OutTrack findTrack(OutTrack[] tracks, int trak) {
+        for (OutTrack track : tracks) {
+            if (track.source.trak == trak) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    private static void writeTrak(BoxWriter out, ByteBuffer buf, OutTrack track, long movieTimescale, boolean wide)
+            throws IOException {
+        SourceTrack source = track.source;
+        long movieDuration = track.presentationDuration(movieTimescale);
+        out.begin(TYPE_TRAK);
+        int trakEnd = boxEnd(buf, source.trak);
+        for (int p = payloadStart(buf, source.trak); p + 8 <= trakEnd; p = boxEnd(buf, p)) {
+            int type = buf.getInt(p + 4);
+            if (type == TYPE_TKHD) {
+                // tkhd：version 0时duration在payload的20字节处，version 1时在28字节处
+                out.copyWithDuration(buf, p, movieDuration, 20, 28);
+                writeEdts(out, track, movieTimescale);
+            } else if (type == TYPE_MDIA) {
+                writeMdia(out, buf, p, track, wide);
+            } else if (type != TYPE_EDTS) {
+                out.copy(buf, p);
+            }
+        }
+        out.end();
+    }
+
+    /**
+     * 编辑列表：开头没有采样时先是一段空白编辑（media_time为-1），然后从第一个采样的显示时间开始播放整个track
+     */
+    private static void writeEdts(BoxWriter out, OutTrack track, long movieTimescale) throws IOException {
+        long empty = track.emptyUs * movieTimescale / 1000000;
+        long duration = track.presentationDuration(movieTimescale) - empty;
+        long mediaTime = track.mediaTime();
+        boolean wide = empty > 0xFFFFFFFFL || duration > 0xFFFFFFFFL || mediaTime > Integer.MAX_VALUE;
+        out.begin(TYPE_EDTS);
+        out.beginFull(TYPE_ELST, wide ? 1 : 0);
+        out.putInt(empty > 0 ? 2 : 1);
+        if (empty > 0) {
+            putEdit(out, wide, empty, -1);
+        }
+        putEdit(out, wide, duration, mediaTime);
+        out.end();
+        out.end();
+    }
+
+    private static void putEdit(BoxWriter out, boolean wide, long duration, long mediaTime) throws IOException {
+        if (wide) {
+            out.putLong(duration);
+            out.putLong(mediaTime);
+        } else {
+            out.putInt((int) duration);
+            out.putInt((int) mediaTime);
+        }
+        // media_rate 1.0
+        out.putInt(0x00010000);
+    }
+
+    private static void writeMdia(BoxWriter out, ByteBuffer buf, int mdia, OutTrack track, boolean wide)
+            throws IOException {
+        out.begin(TYPE_MDIA);
+        int mdiaEnd = boxEnd(buf, mdia);
+        for (int p = payloadStart(buf, mdia); p + 8 <= mdiaEnd; p = boxEnd(buf, p)) {
+            int type = buf.getInt(p + 4);
+            if (type == TYPE_MDHD) {
+                out.copyWithDuration(buf, p, track.duration, 16, 24);
+            } else if (type == TYPE_MINF) {
+                out.begin(TYPE_MINF);
+                int minfEnd = boxEnd(buf, p);
+                for (int c = payloadStart(buf, p); c + 8 <= minfEnd; c = boxEnd(buf, c)) {
+                    if (buf.getInt(c + 4) == TYPE_STBL) {
+                        writeStbl(out, buf, track, wide);
+                    } else {
+                        out.copy(buf, c);
+                    }
+                }
+                out.end();
+            } else {
+                out.copy(buf, p);
+            }
+        }
+        out.end();
+    }
+
+    private static void writeStbl(BoxWriter out, ByteBuffer buf, OutTrack track, boolean wide) throws IOException {
+        int count = track.sizes.size();
+        out.begin(TYPE_STBL);
+        out.copy(buf, track.source.stsd);
+
+        // stts：时长按游程合并
+        out.beginFull(Mp4IndexReader.TYPE_STTS);
+        int runs = 0;
+        for (int i = 0; i < count; i++) {
+            if (0 == i || track.deltas.get(i) != track.deltas.get(i - 1)) {
+                runs++;
+            }
+        }
+        out.putInt(runs);
+        for (int i = 0; i < count; ) {
+            int delta = track.deltas.get(i);
+            int j = i;
+            while (j < count && track.deltas.get(j) == delta) {
+                j++;
+            }
+            out.putInt(j - i);
+            out.putInt(delta);
+            i = j;
+        }
+        out.end();
+
+        if (null != track.compositionOffsets) {
+            out.beginFull(TYPE_CTTS, track.cttsVersion);
+            IntList offsets = track.compositionOffsets;
+            int cttsRuns = 0;
+            for (int i = 0; i < count; i++) {
+                if (0 == i || offsets.get(i) != offsets.get(i - 1)) {
+                    cttsRuns++;
+                }
+            }
+            out.putInt(cttsRuns);
+            for (int i = 0; i < count; ) {
+                int offset = offsets.get(i);
+                int j = i;
+                while (j < count && offsets.get(j) == offset) {
+                    j++;
+                }
+                out.putInt(j - i);
+                out.putInt(offset);
+                i = j;
+            }
+            out.end();
+        }
+
+        if (track.source.index.hasSyncTable()) {
+            out.beginFull(Mp4IndexReader.TYPE_STSS);
+            out.putInt(track.syncSamples.size());
+            for (int i = 0; i < track.syncSamples.size(); i++) {
+                out.putInt(track.syncSamples.get(i));
+            }
+            out.end();
+        }
+
+        // stsz：所有采样一样大时只写一个值
+        out.beginFull(Mp4IndexReader.TYPE_STSZ);
+        boolean constant = count > 0;
+        for (int i = 1; i < count && constant; i++) {
+            constant = track.sizes.get(i) == track.sizes.get(0);
+        }
+        out.putInt(constant ? track.sizes.get(0) : 0);
+        out.putInt(count);
+        if (!constant) {
+            for (int i = 0; i < count; i++) {
+                out.putInt(track.sizes.get(i));
+            }
+        }
+        out.end();
+
+        // stsc：每个chunk的采样数按游程合并
+        IntList chunkSamples = track.chunkSamples;
+        out.beginFull(Mp4IndexReader.TYPE_STSC);
+        int stscRuns = 0;
+        for (int i = 0; i < chunkSamples.size(); i++) {
+            if (0 == i || chunkSamples.get(i) != chunkSamples.get(i - 1)) {
+                stscRuns++;
+            }
+        }
+        out.putInt(stscRuns);
+        for (int i = 0; i < chunkSamples.size(); i++) {
+            if (0 == i || chunkSamples.get(i) != chunkSamples.get(i - 1)) {
+                out.putInt(i + 1);
+                out.putInt(chunkSamples.get(i));
+                out.putInt(1);
+            }
+        }
+        out.end();
+
+        out.beginFull(wide ? Mp4IndexReader.TYPE_CO64 : Mp4IndexReader.TYPE_STCO);
+        out.putInt(chunkSamples.size());
+        for (int i = 0; i < chunkSamples.size(); i++) {
+            long offset = null == track.chunkOffsets ? 0 : track.chunkOffsets[i];
+            if (wide) {
+                out.putLong(offset);
+            } else {
+                out.putInt((int) offset);
+            }
+        }
+        out.end();
+        out.end();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int box) throws IOException {
+        ByteBuffer slice = buf.duplicate();
+        slice.limit(boxEnd(buf, box));
+        slice.position(box);
+        return slice.slice();
+    }
+
+    private static final Comparator<OutChunk> CHUNK_ORDER = new Comparator<OutChunk>() {
+        @Override
+        public int compare(OutChunk a, OutChunk b) {
+            return a.sourceOffset < b.sourceOffset ? -1 : (a.sourceOffset == b.sourceOffset ? 0 : 1);
+        }
+    };
+
+    /**
+     * 一个打开的源文件：moov读进内存，各个track的采样表，以及stsd等需要原样拷贝的box的位置
+     */
+    private static class Source {
+        final File file;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        final ByteBuffer ftyp;
+        final ByteBuffer moov;
+        final long movieTimescale;
+        final List<SourceTrack> tracks = new ArrayList<>();
+
+        private Source(File file, RandomAccessFile raf, ByteBuffer ftyp, ByteBuffer moov) throws IOException {
+            this.file = file;
+            this.raf = raf;
+            this.channel = raf.getChannel();
+            this.ftyp = ftyp;
+            this.moov = moov;
+            int moovEnd = moov.limit();
+            int start = payloadStart(moov, 0);
+            int mvhd = findChild(moov, start, moovEnd, TYPE_MVHD);
+            if (mvhd < 0) {
+                throw new IOException("mvhd not found in " + file);
+            }
+            int p = payloadStart(moov, mvhd);
+            movieTimescale = moov.getInt(p + ((moov.get(p) & 0xFF) == 1 ? 20 : 12)) & 0xFFFFFFFFL;
+            for (int trak = findChild(moov, start, moovEnd, TYPE_TRAK); trak >= 0;
+                 trak = findChild(moov, boxEnd(moov, trak), moovEnd, TYPE_TRAK)) {
+                SourceTrack track = SourceTrack.read(moov, trak, movieTimescale);
+                if (null != track) {
+                    tracks.add(track);
+                }
+            }
+        }
+
+        static Source open(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                long length = channel.size();
+                long[] ftypBox = findTopLevelBox(channel, length, TYPE_FTYP);
+                long[] moovBox = findTopLevelBox(channel, length, TYPE_MOOV);
+                if (null == ftypBox || null == moovBox) {
+                    throw new IOException("not an mp4 file: " + file);
+                }
+                if (moovBox[1] > Integer.MAX_VALUE / 2 || ftypBox[1] > 4096) {
+                    throw new IOException("box too large in " + file);
+                }
+                ByteBuffer ftyp = ByteBuffer.allocate((int) ftypBox[1]);
+                Mp4IndexReader.readFully(channel, ftyp, ftypBox[0]);
+                ftyp.flip();
+                ByteBuffer moov = ByteBuffer.allocate((int) moovBox[1]);
+                Mp4IndexReader.readFully(channel, moov, moovBox[0]);
+                moov.flip();
+                return new Source(file, raf, ftyp, moov);
+            } catch (IOException | RuntimeException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static class SourceTrack {
+        final int trak;
+        final int stsd;
+        final TrackIndex index;
+        // ctts展开后每个采样的显示时间偏移，没有ctts时为null
+        final int[] compositionOffsets;
+        // version 1的偏移是有符号的
+        final int cttsVersion;
+
+        SourceTrack(int trak, int stsd, TrackIndex index, int[] compositionOffsets, int cttsVersion) {
+            this.trak = trak;
+            this.stsd = stsd;
+            this.index = index;
+            this.compositionOffsets = compositionOffsets;
+            this.cttsVersion = cttsVersion;
+        }
+
+        static SourceTrack read(ByteBuffer buf, int trak, long movieTimescale) throws IOException {
+            TrackIndex index = Mp4IndexReader.readTrack(buf, trak, movieTimescale);
+            if (null == index) {
+                return null;
+            }
+            int mdia = findChild(buf, payloadStart(buf, trak), boxEnd(buf, trak), TYPE_MDIA);
+            int minf = findChild(buf, payloadStart(buf, mdia), boxEnd(buf, mdia), TYPE_MINF);
+            int stbl = findChild(buf, payloadStart(buf, minf), boxEnd(buf, minf), TYPE_STBL);
+            int stblStart = payloadStart(buf, stbl);
+            int stblEnd = boxEnd(buf, stbl);
+            int stsd = findChild(buf, stblStart, stblEnd, TYPE_STSD);
+            if (stsd < 0 || findChild(buf, payloadStart(buf, mdia), boxEnd(buf, mdia), TYPE_HDLR) < 0) {
+                throw new IOException("stsd not found in track " + fourccToString(buf.getInt(trak + 4)));
+            }
+            int[] compositionOffsets = null;
+            int cttsVersion = 0;
+            int ctts = findChild(buf, stblStart, stblEnd, TYPE_CTTS);
+            if (ctts >= 0) {
+                cttsVersion = buf.get(payloadStart(buf, ctts)) & 0xFF;
+                compositionOffsets = new int[index.getSampleCount()];
+                int p = payloadStart(buf, ctts) + 4;
+                int entries = buf.getInt(p);
+                if (entries < 0 || (long) entries * 8 > boxEnd(buf, ctts) - (p + 4)) {
+                    throw new IOException("bad ctts entry count " + entries);
+                }
+                int sample = 0;
+                for (int i = 0; i < entries && sample < compositionOffsets.length; i++) {
+                    int runCount = buf.getInt(p + 4 + i * 8);
+                    int offset = buf.getInt(p + 8 + i * 8);
+                    int end = (int) Math.min(compositionOffsets.length, (long) sample + runCount);
+                    Arrays.fill(compositionOffsets, sample, end, offset);
+                    sample = end;
+                }
+            }
+            return new SourceTrack(trak, stsd, index, compositionOffsets, cttsVersion);
+        }
+    }
+
+    // 输出的一个track，采样表从各个片段累加起来
+    private static class OutTrack {
+        final SourceTrack source;
+        final IntList sizes = new IntList();
+        final IntList deltas = new IntList();
+        final IntList syncSamples = new IntList();
+        final IntList chunkSamples = new IntList();
+        final IntList compositionOffsets;
+        long[] chunkOffsets;
+        long duration;
+        int cttsVersion;
+        // 开头的空白，拼接时前面的片段里没有这个track的采样
+        long emptyUs;
+
+        OutTrack(SourceTrack source) {
+            this.source = source;
+            this.compositionOffsets = null == source.compositionOffsets ? null : new IntList();
+        }
+
+        long endUs() {
+            long timescale = source.index.getTimescale();
+            return emptyUs + (timescale > 0 ? duration * 1000000 / timescale : 0);
+        }
+
+        // 第一个采样的显示时间，也就是编辑列表的media_time
+        long mediaTime() {
+            if (null == compositionOffsets || compositionOffsets.size() == 0) {
+                return 0;
+            }
+            return Math.max(0, compositionOffsets.get(0));
+        }
+
+        // 编辑列表里的播放时长（包括开头的空白），单位是movie的timescale
+        long presentationDuration(long movieTimescale) {
+            long timescale = source.index.getTimescale();
+            long media = timescale > 0 ? Math.max(0, duration - mediaTime()) * movieTimescale / timescale : 0;
+            return emptyUs * movieTimescale / 1000000 + media;
+        }
+    }
+
+    // 输出的一个chunk：源文件里一段连续的采样数据
+    private static class OutChunk {
+        final int source;
+        final int track;
+        final long sourceOffset;
+        long length;
+
+        OutChunk(int source, int track, long sourceOffset) {
+            this.source = source;
+            this.track = track;
+            this.sourceOffset = sourceOffset;
+        }
+    }
+
+    private static class IntList {
+        private int[] mValues = new int[64];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int get(int index) {
+            return mValues[index];
+        }
+
+        void set(int index, int value) {
+            mValues[index] = value;
+        }
+
+        int size() {
+            return mSize;
+        }
+    }
+
+    /**
+     * 在内存里拼moov，begin()/end()之间的内容是一个box，box大小和duration在toByteArray()里统一回填
+     */
+    private static class BoxWriter {
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        private final DataOutputStream mOut = new DataOutputStream(mBytes);
+        // 还没end()的box的起点
+        private final List<Integer> mOpen = new ArrayList<>();
+        // 已经end()的box：{起点, 大小}
+        private final List<int[]> mSizes = new ArrayList<>();
+        // 要改写duration的box：{payload起点, duration, version 0的偏移, version 1的偏移}
+        private final List<long[]> mDurations = new ArrayList<>();
+
+        void begin(int type) throws IOException {
+            mOpen.add(mOut.size());
+            mOut.writeInt(0);
+            mOut.writeInt(type);
+        }
+
+        // full box：多了version/flags，flags都是0
+        void beginFull(int type) throws IOException {
+            beginFull(type, 0);
+        }
+
+        void beginFull(int type, int version) throws IOException {
+            begin(type);
+            mOut.writeInt(version << 24);
+        }
+
+        void end() {
+            int start = mOpen.remove(mOpen.size() - 1);
+            mSizes.add(new int[]{start, mOut.size() - start});
+        }
+
+        void putInt(int value) throws IOException {
+            mOut.writeInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            mOut.writeLong(value);
+        }
+
+        // 原样拷贝一个box
+        void copy(ByteBuffer buf, int box) throws IOException {
+            int end = boxEnd(buf, box);
+            for (int i = box; i < end; i++) {
+                mOut.write(buf.get(i));
+            }
+        }
+
+        /**
+         * 拷贝mvhd/tkhd/mdhd这类box并改写duration：version 0时是payload里v0Offset处的32位值，version 1时是v1Offset处的64位值
+         */
+        void copyWithDuration(ByteBuffer buf, int box, long duration, int v0Offset, int v1Offset) throws IOException {
+            mDurations.add(new long[]{mOut.size() + payloadStart(buf, box) - box, duration, v0Offset, v1Offset});
+            copy(buf, box);
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = mBytes.toByteArray();
+            ByteBuffer out = ByteBuffer.wrap(bytes);
+            for (int[] size : mSizes) {
+                out.putInt(size[0], size[1]);
+            }
+            for (long[] patch : mDurations) {
+                int payload = (int) patch[0];
+                if (1 == (bytes[payload] & 0xFF)) {
+                    out.putLong(payload + (int) patch[3], patch[1]);
+                } else {
+                    out.putInt(payload + (int) patch[2], (int) Math.min(0xFFFFFFFFL, patch[1]));
+                }
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package wk.com.videodemo.mp4;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一个mp4/3gp文件的索引：各个track的采样表，以及moov在文件里的位置
+ */
+public class Mp4Index {
+    private final String mPath;
+    private final long mFileLength;
+    private final long mLastModified;
+    private final long mMoovOffset;
+    private final long mMoovSize;
+    private final List<TrackIndex> mTracks;
+
+    Mp4Index(String path, long fileLength, long lastModified, long moovOffset, long moovSize, List<TrackIndex> tracks) {
+        mPath = path;
+        mFileLength = fileLength;
+        mLastModified = lastModified;
+        mMoovOffset = moovOffset;
+        mMoovSize = moovSize;
+        mTracks = Collections.unmodifiableList(tracks);
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public long getFileLength() {
+        return mFileLength;
+    }
+
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    public long getMoovOffset() {
+        return mMoovOffset;
+    }
+
+    public long getMoovSize() {
+        return mMoovSize;
+    }
+
+    public List<TrackIndex> getTracks() {
+        return mTracks;
+    }
+
+    // 第一个视频track，没有的话返回null
+    public TrackIndex getVideoTrack() {
+        for (TrackIndex track : mTracks) {
+            if (track.isVideo()) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 把seek位置对齐到不晚于它的关键帧，单位毫秒。用的是关键帧的显示时间（解码时间 + ctts - elst的media_time），
+     * 有B帧时它比解码时间晚，按解码时间对齐的话落点在关键帧前面，播放器会退回到更早的关键帧。
+     * 向上取整也是同样的原因
+     */
+    public int snapToSyncMs(int positionMs) {
+        TrackIndex video = getVideoTrack();
+        if (null == video || video.getSampleCount() == 0) {
+            return positionMs;
+        }
+        long syncUs = video.getSyncTimeAtOrBeforeUs(positionMs * 1000L);
+        return (int) ((syncUs + 999) / 1000);
+    }
+}
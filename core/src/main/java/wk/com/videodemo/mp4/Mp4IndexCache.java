@@ -0,0 +1,39 @@
+package wk.com.videodemo.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按文件路径缓存索引，文件长度或修改时间变了就重新解析。线程安全
+ */
+public class Mp4IndexCache {
+    private final LinkedHashMap<String, Mp4Index> mCache;
+
+    public Mp4IndexCache(final int maxEntries) {
+        mCache = new LinkedHashMap<String, Mp4Index>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Mp4Index> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public Mp4Index get(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        synchronized (mCache) {
+            Mp4Index index = mCache.get(path);
+            if (null != index && index.getFileLength() == file.length() && index.getLastModified() == file.lastModified()) {
+                return index;
+            }
+        }
+
+        // 解析放在锁外面，不影响其它文件的查询
+        Mp4Index index = Mp4IndexReader.read(file);
+        synchronized (mCache) {
+            mCache.put(path, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,378 @@
+package wk.com.videodemo.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式解析mp4/3gp文件的box结构，生成采样表索引。
+ *
+ * 顶层box只读box头（8或16字节）跳着走，找到moov后把moov这一段内存映射进来解析，
+ * mdat不会被读取，所以几个G的文件也只需要moov大小的内存
+ */
+public class Mp4IndexReader {
+    static final int TYPE_MOOV = fourcc("moov");
+    static final int TYPE_MVHD = fourcc("mvhd");
+    static final int TYPE_TRAK = fourcc("trak");
+    static final int TYPE_EDTS = fourcc("edts");
+    static final int TYPE_ELST = fourcc("elst");
+    static final int TYPE_MDIA = fourcc("mdia");
+    static final int TYPE_MDHD = fourcc("mdhd");
+    static final int TYPE_HDLR = fourcc("hdlr");
+    static final int TYPE_MINF = fourcc("minf");
+    static final int TYPE_STBL = fourcc("stbl");
+    static final int TYPE_STTS = fourcc("stts");
+    static final int TYPE_CTTS = fourcc("ctts");
+    static final int TYPE_STSS = fourcc("stss");
+    static final int TYPE_STSZ = fourcc("stsz");
+    static final int TYPE_STSC = fourcc("stsc");
+    static final int TYPE_STCO = fourcc("stco");
+    static final int TYPE_CO64 = fourcc("co64");
+
+    public static Mp4Index read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+
+            long[] moovBox = findTopLevelBox(channel, length, TYPE_MOOV);
+            if (null == moovBox) {
+                throw new IOException("moov not found in " + file);
+            }
+            long moovOffset = moovBox[0];
+            long moovSize = moovBox[1];
+
+            MappedByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY, moovOffset, moovSize);
+            List<TrackIndex> tracks = new ArrayList<>();
+            int start = payloadStart(moov, 0);
+            int mvhd = findChild(moov, start, (int) moovSize, TYPE_MVHD);
+            long movieTimescale = mvhd < 0 ? 0 : readTimescale(moov, mvhd);
+            for (int trak = findChild(moov, start, (int) moovSize, TYPE_TRAK); trak >= 0;
+                 trak = findChild(moov, boxEnd(moov, trak), (int) moovSize, TYPE_TRAK)) {
+                TrackIndex track = readTrack(moov, trak, movieTimescale);
+                if (null != track) {
+                    tracks.add(track);
+                }
+            }
+            return new Mp4Index(file.getAbsolutePath(), length, file.lastModified(), moovOffset, moovSize, tracks);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * moov box在文件里的位置，只读顶层box的头部
+     *
+     * @return {偏移, 大小}，找不到返回null
+     */
+    public static long[] findMoov(FileChannel channel) throws IOException {
+        return findTopLevelBox(channel, channel.size(), TYPE_MOOV);
+    }
+
+    /**
+     * 顶层box只读头部（8或16字节）跳着找，不读mdat等大box的内容
+     *
+     * @return {偏移, 大小}，找不到返回null
+     */
+    static long[] findTopLevelBox(FileChannel channel, long length, int boxType) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= length) {
+            header.clear();
+            header.limit((int) Math.min(16, length - position));
+            readFully(channel, header, position);
+            header.flip();
+            long size = header.getInt() & 0xFFFFFFFFL;
+            int type = header.getInt();
+            int headerSize = 8;
+            if (size == 1) {
+                if (header.remaining() < 8) {
+                    throw new IOException("truncated box header at " + position);
+                }
+                size = header.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = length - position;
+            }
+            if (size < headerSize || position + size > length) {
+                throw new IOException("bad box size " + size + " at " + position);
+            }
+            if (type == boxType) {
+                return new long[]{position, size};
+            }
+            position += size;
+        }
+        return null;
+    }
+
+    /**
+     * @param movieTimescale mvhd里的timescale，编辑列表里的时长用的是它
+     */
+    static TrackIndex readTrack(ByteBuffer buf, int trak, long movieTimescale) throws IOException {
+        int mdia = findChild(buf, payloadStart(buf, trak), boxEnd(buf, trak), TYPE_MDIA);
+        if (mdia < 0) {
+            return null;
+        }
+        int mdiaStart = payloadStart(buf, mdia);
+        int mdiaEnd = boxEnd(buf, mdia);
+        int mdhd = findChild(buf, mdiaStart, mdiaEnd, TYPE_MDHD);
+        int hdlr = findChild(buf, mdiaStart, mdiaEnd, TYPE_HDLR);
+        int minf = findChild(buf, mdiaStart, mdiaEnd, TYPE_MINF);
+        if (mdhd < 0 || hdlr < 0 || minf < 0) {
+            return null;
+        }
+        int stbl = findChild(buf, payloadStart(buf, minf), boxEnd(buf, minf), TYPE_STBL);
+        if (stbl < 0) {
+            return null;
+        }
+
+        // mdhd：version 0时各字段是32位，version 1时时间字段是64位
+        int p = payloadStart(buf, mdhd);
+        int version = buf.get(p) & 0xFF;
+        long timescale = readTimescale(buf, mdhd);
+        long duration;
+        if (version == 1) {
+            duration = buf.getLong(p + 4 + 20);
+        } else {
+            duration = buf.getInt(p + 4 + 12) & 0xFFFFFFFFL;
+        }
+
+        // hdlr：version/flags(4) + pre_defined(4) + handler_type(4)
+        String handlerType = fourccToString(buf.getInt(payloadStart(buf, hdlr) + 8));
+
+        int stblStart = payloadStart(buf, stbl);
+        int stblEnd = boxEnd(buf, stbl);
+        int stts = findChild(buf, stblStart, stblEnd, TYPE_STTS);
+        int ctts = findChild(buf, stblStart, stblEnd, TYPE_CTTS);
+        int stss = findChild(buf, stblStart, stblEnd, TYPE_STSS);
+        int stsz = findChild(buf, stblStart, stblEnd, TYPE_STSZ);
+        int stsc = findChild(buf, stblStart, stblEnd, TYPE_STSC);
+        int stco = findChild(buf, stblStart, stblEnd, TYPE_STCO);
+        int co64 = findChild(buf, stblStart, stblEnd, TYPE_CO64);
+        if (stts < 0 || stsz < 0 || stsc < 0 || (stco < 0 && co64 < 0)) {
+            // 比如stz2这种少见的格式，不支持
+            return null;
+        }
+
+        // stts：(sample_count, sample_delta)
+        p = payloadStart(buf, stts) + 4;
+        int count = checkCount(buf, p, stts, 8);
+        int[] timeRunCounts = new int[count];
+        int[] timeRunDeltas = new int[count];
+        long timeSampleCount = 0;
+        for (int i = 0; i < count; i++) {
+            timeRunCounts[i] = buf.getInt(p + 4 + i * 8);
+            timeRunDeltas[i] = buf.getInt(p + 8 + i * 8);
+            if (timeRunCounts[i] < 0) {
+                throw new IOException("bad stts sample count " + timeRunCounts[i]);
+            }
+            timeSampleCount += timeRunCounts[i];
+        }
+
+        // ctts：(sample_count, sample_offset)，version 1的偏移是有符号的，version 0按规范是无符号的，
+        // 但实际的值不会超过2^31，都按有符号读
+        int[] compositionRunCounts = null;
+        int[] compositionRunOffsets = null;
+        if (ctts >= 0) {
+            p = payloadStart(buf, ctts) + 4;
+            count = checkCount(buf, p, ctts, 8);
+            compositionRunCounts = new int[count];
+            compositionRunOffsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                compositionRunCounts[i] = buf.getInt(p + 4 + i * 8);
+                compositionRunOffsets[i] = buf.getInt(p + 8 + i * 8);
+            }
+        }
+
+        // elst：开头的空白编辑（media_time为-1）推迟整个track，第一段正常编辑的media_time是从哪个时间开始显示，
+        // 只处理这两种，其它的编辑（中间跳过、变速）MediaRecorder和MediaMuxer都不会生成
+        long editEmptyDuration = 0;
+        long editMediaTime = 0;
+        int edts = findChild(buf, payloadStart(buf, trak), boxEnd(buf, trak), TYPE_EDTS);
+        int elst = edts < 0 ? -1 : findChild(buf, payloadStart(buf, edts), boxEnd(buf, edts), TYPE_ELST);
+        if (elst >= 0) {
+            p = payloadStart(buf, elst);
+            boolean wide = (buf.get(p) & 0xFF) == 1;
+            int entrySize = wide ? 20 : 12;
+            count = checkCount(buf, p + 4, elst, entrySize);
+            long emptyDuration = 0;
+            for (int i = 0; i < count; i++) {
+                int e = p + 8 + i * entrySize;
+                long segmentDuration = wide ? buf.getLong(e) : buf.getInt(e) & 0xFFFFFFFFL;
+                long mediaTime = wide ? buf.getLong(e + 8) : buf.getInt(e + 4);
+                if (mediaTime == -1) {
+                    emptyDuration += segmentDuration;
+                } else {
+                    editMediaTime = mediaTime;
+                    break;
+                }
+            }
+            if (movieTimescale > 0) {
+                editEmptyDuration = emptyDuration * timescale / movieTimescale;
+            }
+        }
+
+        // stss：关键帧的采样号，从1开始
+        int[] syncSamples = null;
+        if (stss >= 0) {
+            p = payloadStart(buf, stss) + 4;
+            count = checkCount(buf, p, stss, 4);
+            syncSamples = new int[count];
+            for (int i = 0; i < count; i++) {
+                syncSamples[i] = buf.getInt(p + 4 + i * 4) - 1;
+            }
+        }
+
+        // stsz：sample_size不为0时所有采样一样大，没有后面的表
+        p = payloadStart(buf, stsz) + 4;
+        int constantSize = buf.getInt(p);
+        int sampleCount = buf.getInt(p + 4);
+        int[] sampleSizes = null;
+        if (sampleCount < 0 || (constantSize == 0 && (long) sampleCount * 4 > boxEnd(buf, stsz) - (p + 8))) {
+            throw new IOException("bad stsz sample count " + sampleCount);
+        }
+        if (constantSize == 0) {
+            sampleSizes = new int[sampleCount];
+            for (int i = 0; i < sampleCount; i++) {
+                sampleSizes[i] = buf.getInt(p + 8 + i * 4);
+            }
+        }
+
+        // stsc：(first_chunk, samples_per_chunk, sample_description_index)，chunk号从1开始
+        p = payloadStart(buf, stsc) + 4;
+        count = checkCount(buf, p, stsc, 12);
+        int[] firstChunk = new int[count];
+        int[] samplesPerChunk = new int[count];
+        for (int i = 0; i < count; i++) {
+            firstChunk[i] = buf.getInt(p + 4 + i * 12) - 1;
+            samplesPerChunk[i] = buf.getInt(p + 8 + i * 12);
+        }
+
+        // stco/co64：chunk偏移，大于4G的文件用co64
+        long[] chunkOffsets;
+        if (co64 >= 0) {
+            p = payloadStart(buf, co64) + 4;
+            count = checkCount(buf, p, co64, 8);
+            chunkOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                chunkOffsets[i] = buf.getLong(p + 4 + i * 8);
+            }
+        } else {
+            p = payloadStart(buf, stco) + 4;
+            count = checkCount(buf, p, stco, 4);
+            chunkOffsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                chunkOffsets[i] = buf.getInt(p + 4 + i * 4) & 0xFFFFFFFFL;
+            }
+        }
+
+        checkTables(sampleCount, timeSampleCount, syncSamples, firstChunk, samplesPerChunk, chunkOffsets.length);
+        return new TrackIndex(handlerType, timescale, duration, timeRunCounts, timeRunDeltas,
+                compositionRunCounts, compositionRunOffsets, editEmptyDuration, editMediaTime, syncSamples,
+                constantSize, sampleSizes, sampleCount, firstChunk, samplesPerChunk, chunkOffsets);
+    }
+
+    // mvhd和mdhd的timescale：version 0时在payload的12字节处，version 1时创建、修改时间是64位的，在20字节处
+    static long readTimescale(ByteBuffer buf, int box) {
+        int p = payloadStart(buf, box);
+        return buf.getInt(p + ((buf.get(p) & 0xFF) == 1 ? 20 : 12)) & 0xFFFFFFFFL;
+    }
+
+    // 各个表之间要对得上，否则TrackIndex里查表会越界或者除0，损坏的文件在这里就当成读取失败
+    private static void checkTables(int sampleCount, long timeSampleCount, int[] syncSamples,
+                                    int[] firstChunk, int[] samplesPerChunk, int chunkCount) throws IOException {
+        if (timeSampleCount != sampleCount) {
+            throw new IOException("stts has " + timeSampleCount + " samples, stsz has " + sampleCount);
+        }
+        if (null != syncSamples) {
+            int previous = -1;
+            for (int sample : syncSamples) {
+                // 二分查找要求关键帧表是递增的
+                if (sample < 0 || sample >= sampleCount || sample <= previous) {
+                    throw new IOException("bad stss sample " + (sample + 1));
+                }
+                previous = sample;
+            }
+        }
+        if (sampleCount > 0 && (firstChunk.length == 0 || firstChunk[0] != 0)) {
+            throw new IOException("stsc does not start at chunk 1");
+        }
+        long covered = 0;
+        for (int i = 0; i < firstChunk.length; i++) {
+            int nextFirstChunk = i + 1 < firstChunk.length ? firstChunk[i + 1] : chunkCount;
+            // 相邻两项first_chunk相同时前一项不包含任何chunk，有的muxer会这样写，不算错
+            if (firstChunk[i] >= chunkCount || nextFirstChunk < firstChunk[i]) {
+                throw new IOException("bad stsc first chunk " + (firstChunk[i] + 1) + ", " + chunkCount + " chunks");
+            }
+            if (samplesPerChunk[i] <= 0) {
+                throw new IOException("bad stsc samples per chunk " + samplesPerChunk[i]);
+            }
+            covered += (long) (nextFirstChunk - firstChunk[i]) * samplesPerChunk[i];
+        }
+        if (covered < sampleCount) {
+            throw new IOException("chunks hold " + covered + " samples, stsz has " + sampleCount);
+        }
+    }
+
+    // 读取entry_count，并检查表的长度没有超出box，避免损坏的文件导致分配超大数组
+    private static int checkCount(ByteBuffer buf, int p, int box, int entrySize) throws IOException {
+        int count = buf.getInt(p);
+        if (count < 0 || (long) count * entrySize > boxEnd(buf, box) - (p + 4)) {
+            throw new IOException("bad entry count " + count + " in " + fourccToString(buf.getInt(box + 4)));
+        }
+        return count;
+    }
+
+    // 在[start, end)范围内找指定类型的子box，返回box起始位置，找不到返回-1
+    static int findChild(ByteBuffer buf, int start, int end, int type) throws IOException {
+        int p = start;
+        while (p + 8 <= end) {
+            if (buf.getInt(p + 4) == type) {
+                return p;
+            }
+            p = boxEnd(buf, p);
+        }
+        return -1;
+    }
+
+    static int boxEnd(ByteBuffer buf, int box) throws IOException {
+        long size = buf.getInt(box) & 0xFFFFFFFFL;
+        if (size == 1) {
+            size = buf.getLong(box + 8);
+        } else if (size == 0) {
+            size = buf.limit() - box;
+        }
+        if (size < 8 || box + size > buf.limit()) {
+            throw new IOException("bad box size " + size + " at " + box);
+        }
+        return (int) (box + size);
+    }
+
+    static int payloadStart(ByteBuffer buf, int box) {
+        return box + ((buf.getInt(box) == 1) ? 16 : 8);
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+
+    static int fourcc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    static String fourccToString(int type) {
+        return new String(new char[]{(char) ((type >>> 24) & 0xFF), (char) ((type >>> 16) & 0xFF),
+                (char) ((type >>> 8) & 0xFF), (char) (type & 0xFF)});
+    }
+}
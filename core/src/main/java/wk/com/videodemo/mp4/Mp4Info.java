@@ -0,0 +1,31 @@
+package wk.com.videodemo.mp4;
+
+/**
+ * 媒体库列表需要的基本信息：时长、显示尺寸、旋转角度、编码格式
+ */
+public class Mp4Info {
+    public final long durationUs;
+    // tkhd里的显示尺寸，没有视频轨时为0
+    public final int width;
+    public final int height;
+    // 播放时需要顺时针旋转的角度：0、90、180、270
+    public final int rotation;
+    // stsd第一个采样描述的类型，比如avc1、hvc1、mp4a，没有这个轨时为null
+    public final String videoCodec;
+    public final String audioCodec;
+
+    public Mp4Info(long durationUs, int width, int height, int rotation, String videoCodec, String audioCodec) {
+        this.durationUs = durationUs;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.videoCodec = videoCodec;
+        this.audioCodec = audioCodec;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + " rotation=" + rotation + " duration=" + durationUs / 1000 + "ms video="
+                + videoCodec + " audio=" + audioCodec;
+    }
+}
@@ -0,0 +1,150 @@
+package wk.com.videodemo.mp4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_HDLR;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MDIA;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MINF;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MOOV;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_STBL;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_TRAK;
+import static wk.com.videodemo.mp4.Mp4IndexReader.boxEnd;
+import static wk.com.videodemo.mp4.Mp4IndexReader.findChild;
+import static wk.com.videodemo.mp4.Mp4IndexReader.findTopLevelBox;
+import static wk.com.videodemo.mp4.Mp4IndexReader.fourcc;
+import static wk.com.videodemo.mp4.Mp4IndexReader.fourccToString;
+import static wk.com.videodemo.mp4.Mp4IndexReader.payloadStart;
+
+/**
+ * 只读mvhd、tkhd、hdlr、stsd几个小box，取出Mp4Info，不解析采样表，比Mp4IndexReader.read()轻得多，适合扫描媒体库
+ */
+public class Mp4InfoReader {
+    static final int TYPE_MVHD = fourcc("mvhd");
+    static final int TYPE_TKHD = fourcc("tkhd");
+    static final int TYPE_STSD = fourcc("stsd");
+
+    // tkhd矩阵里的16.16定点数1和-1
+    private static final int FIXED_ONE = 0x00010000;
+    private static final int FIXED_MINUS_ONE = 0xFFFF0000;
+
+    public static Mp4Info read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            long[] moovBox = findTopLevelBox(channel, length, TYPE_MOOV);
+            if (null == moovBox) {
+                throw new IOException("moov not found in " + file);
+            }
+            if (moovBox[1] > Integer.MAX_VALUE) {
+                throw new IOException("moov too large: " + moovBox[1]);
+            }
+            ByteBuffer moov = channel.map(FileChannel.MapMode.READ_ONLY, moovBox[0], moovBox[1]);
+            int moovEnd = (int) moovBox[1];
+            int start = payloadStart(moov, 0);
+
+            long durationUs = 0;
+            int mvhd = findChild(moov, start, moovEnd, TYPE_MVHD);
+            if (mvhd >= 0) {
+                durationUs = readMvhdDurationUs(moov, mvhd);
+            }
+
+            int width = 0;
+            int height = 0;
+            int rotation = 0;
+            String videoCodec = null;
+            String audioCodec = null;
+            for (int trak = findChild(moov, start, moovEnd, TYPE_TRAK); trak >= 0;
+                 trak = findChild(moov, boxEnd(moov, trak), moovEnd, TYPE_TRAK)) {
+                int trakStart = payloadStart(moov, trak);
+                int trakEnd = boxEnd(moov, trak);
+                int mdia = findChild(moov, trakStart, trakEnd, TYPE_MDIA);
+                if (mdia < 0) {
+                    continue;
+                }
+                int mdiaStart = payloadStart(moov, mdia);
+                int mdiaEnd = boxEnd(moov, mdia);
+                int hdlr = findChild(moov, mdiaStart, mdiaEnd, TYPE_HDLR);
+                if (hdlr < 0) {
+                    continue;
+                }
+                String handlerType = fourccToString(moov.getInt(payloadStart(moov, hdlr) + 8));
+                if (TrackIndex.HANDLER_VIDEO.equals(handlerType) && null == videoCodec) {
+                    videoCodec = readCodec(moov, mdiaStart, mdiaEnd);
+                    int tkhd = findChild(moov, trakStart, trakEnd, TYPE_TKHD);
+                    if (tkhd >= 0) {
+                        int p = payloadStart(moov, tkhd);
+                        // version 0时矩阵前面有40字节，version 1时时间字段是64位，有52字节
+                        int matrix = p + ((moov.get(p) & 0xFF) == 1 ? 52 : 40);
+                        rotation = readRotation(moov, matrix);
+                        // 矩阵9个int后面是16.16定点的宽高
+                        width = moov.getInt(matrix + 36) >>> 16;
+                        height = moov.getInt(matrix + 40) >>> 16;
+                    }
+                } else if (TrackIndex.HANDLER_AUDIO.equals(handlerType) && null == audioCodec) {
+                    audioCodec = readCodec(moov, mdiaStart, mdiaEnd);
+                }
+            }
+            return new Mp4Info(durationUs, width, height, rotation, videoCodec, audioCodec);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long readMvhdDurationUs(ByteBuffer buf, int mvhd) {
+        int p = payloadStart(buf, mvhd);
+        long timescale;
+        long duration;
+        if ((buf.get(p) & 0xFF) == 1) {
+            timescale = buf.getInt(p + 4 + 16) & 0xFFFFFFFFL;
+            duration = buf.getLong(p + 4 + 20);
+        } else {
+            timescale = buf.getInt(p + 4 + 8) & 0xFFFFFFFFL;
+            duration = buf.getInt(p + 4 + 12) & 0xFFFFFFFFL;
+        }
+        return timescale == 0 ? 0 : duration * 1000000 / timescale;
+    }
+
+    // stsd：version/flags(4) + entry_count(4)，然后是第一个采样描述box，它的类型就是编码格式
+    private static String readCodec(ByteBuffer buf, int mdiaStart, int mdiaEnd) throws IOException {
+        int minf = findChild(buf, mdiaStart, mdiaEnd, TYPE_MINF);
+        if (minf < 0) {
+            return null;
+        }
+        int stbl = findChild(buf, payloadStart(buf, minf), boxEnd(buf, minf), TYPE_STBL);
+        if (stbl < 0) {
+            return null;
+        }
+        int stsd = findChild(buf, payloadStart(buf, stbl), boxEnd(buf, stbl), TYPE_STSD);
+        if (stsd < 0) {
+            return null;
+        }
+        int entry = payloadStart(buf, stsd) + 8;
+        if (entry + 8 > boxEnd(buf, stsd) || buf.getInt(payloadStart(buf, stsd) + 4) <= 0) {
+            return null;
+        }
+        return fourccToString(buf.getInt(entry + 4));
+    }
+
+    // 矩阵{a, b, u, c, d, v, x, y, w}，只认90°的整数倍旋转
+    private static int readRotation(ByteBuffer buf, int matrix) {
+        int a = buf.getInt(matrix);
+        int b = buf.getInt(matrix + 4);
+        int c = buf.getInt(matrix + 12);
+        int d = buf.getInt(matrix + 16);
+        if (a == 0 && d == 0) {
+            if (b == FIXED_ONE && c == FIXED_MINUS_ONE) {
+                return 90;
+            } else if (b == FIXED_MINUS_ONE && c == FIXED_ONE) {
+                return 270;
+            }
+        } else if (a == FIXED_MINUS_ONE && d == FIXED_MINUS_ONE && b == 0 && c == 0) {
+            return 180;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,268 @@
+package wk.com.videodemo.mp4;
+
+import java.util.Arrays;
+
+/**
+ * 一个track的采样表索引，数据直接来自stbl里的各个box，全部用基本类型数组保存：
+ *
+ * stts：时长表，按(count, delta)游程保存，另外预先算好每个游程的起始采样号和起始时间，方便二分查找
+ * ctts：显示时间偏移，也按游程保存，没有B帧的track没有这个box
+ * elst：编辑列表里的空白时长和第一段的media_time，和ctts一起把解码时间换算成播放器用的显示时间
+ * stss：关键帧（同步采样）表，没有这个box时表示所有采样都是关键帧
+ * stsz：每个采样的大小，所有采样一样大时只保存一个值
+ * stsc/stco/co64：采样到chunk的映射，以及每个chunk在文件里的偏移
+ *
+ * 采样号从0开始（box里是从1开始的，解析时已经减掉了）
+ */
+public class TrackIndex {
+    public static final String HANDLER_VIDEO = "vide";
+    public static final String HANDLER_AUDIO = "soun";
+
+    private final String mHandlerType;
+    private final long mTimescale;
+    private final long mDuration;
+
+    // stts
+    private final int[] mTimeRunCounts;
+    private final int[] mTimeRunDeltas;
+    private final int[] mTimeRunFirstSample;
+    private final long[] mTimeRunStartTime;
+    private final int mSampleCount;
+
+    // ctts，null表示显示时间偏移都是0
+    private final int[] mCompositionRunOffsets;
+    private final int[] mCompositionRunFirstSample;
+
+    // 显示时间 = 解码时间 + ctts偏移 + mPresentationShift，mPresentationShift = elst空白时长 - media_time
+    private final long mPresentationShift;
+
+    // stss，null表示全是关键帧。mSyncTimes是关键帧的显示时间
+    private final int[] mSyncSamples;
+    private final long[] mSyncTimes;
+
+    // stsz
+    private final int mConstantSampleSize;
+    private final int[] mSampleSizes;
+
+    // stsc + stco/co64
+    private final int[] mChunkRunFirstChunk;
+    private final int[] mChunkRunSamplesPerChunk;
+    private final int[] mChunkRunFirstSample;
+    private final long[] mChunkOffsets;
+
+    TrackIndex(String handlerType, long timescale, long duration,
+               int[] timeRunCounts, int[] timeRunDeltas,
+               int[] compositionRunCounts, int[] compositionRunOffsets,
+               long editEmptyDuration, long editMediaTime,
+               int[] syncSamples,
+               int constantSampleSize, int[] sampleSizes, int sampleCount,
+               int[] chunkRunFirstChunk, int[] chunkRunSamplesPerChunk,
+               long[] chunkOffsets) {
+        mHandlerType = handlerType;
+        mTimescale = timescale;
+        mDuration = duration;
+        mTimeRunCounts = timeRunCounts;
+        mTimeRunDeltas = timeRunDeltas;
+        mConstantSampleSize = constantSampleSize;
+        mSampleSizes = sampleSizes;
+        mChunkRunFirstChunk = chunkRunFirstChunk;
+        mChunkRunSamplesPerChunk = chunkRunSamplesPerChunk;
+        mChunkOffsets = chunkOffsets;
+
+        // 预先算好每个时长游程的起始采样号、起始时间
+        int runs = timeRunCounts.length;
+        mTimeRunFirstSample = new int[runs];
+        mTimeRunStartTime = new long[runs];
+        int sample = 0;
+        long time = 0;
+        for (int i = 0; i < runs; i++) {
+            mTimeRunFirstSample[i] = sample;
+            mTimeRunStartTime[i] = time;
+            sample += timeRunCounts[i];
+            time += (long) timeRunCounts[i] * timeRunDeltas[i];
+        }
+        mSampleCount = sampleCount;
+
+        if (null != compositionRunCounts) {
+            mCompositionRunOffsets = compositionRunOffsets;
+            mCompositionRunFirstSample = new int[compositionRunCounts.length];
+            sample = 0;
+            for (int i = 0; i < compositionRunCounts.length; i++) {
+                mCompositionRunFirstSample[i] = sample;
+                sample += compositionRunCounts[i];
+            }
+        } else {
+            mCompositionRunOffsets = null;
+            mCompositionRunFirstSample = null;
+        }
+        mPresentationShift = editEmptyDuration - editMediaTime;
+
+        // 每个chunk游程的起始采样号
+        mChunkRunFirstSample = new int[chunkRunFirstChunk.length];
+        int first = 0;
+        for (int i = 0; i < chunkRunFirstChunk.length; i++) {
+            mChunkRunFirstSample[i] = first;
+            int nextFirstChunk = i + 1 < chunkRunFirstChunk.length ? chunkRunFirstChunk[i + 1] : chunkOffsets.length;
+            first += (nextFirstChunk - chunkRunFirstChunk[i]) * chunkRunSamplesPerChunk[i];
+        }
+
+        mSyncSamples = syncSamples;
+        if (null != syncSamples) {
+            mSyncTimes = new long[syncSamples.length];
+            for (int i = 0; i < syncSamples.length; i++) {
+                mSyncTimes[i] = getPresentationTime(syncSamples[i]);
+            }
+        } else {
+            mSyncTimes = null;
+        }
+    }
+
+    public String getHandlerType() {
+        return mHandlerType;
+    }
+
+    public boolean isVideo() {
+        return HANDLER_VIDEO.equals(mHandlerType);
+    }
+
+    public long getTimescale() {
+        return mTimescale;
+    }
+
+    public long getDurationUs() {
+        return toUs(mDuration);
+    }
+
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    public int getSyncSampleCount() {
+        return null == mSyncSamples ? mSampleCount : mSyncSamples.length;
+    }
+
+    // 采样的解码时间，单位是track的timescale
+    public long getSampleTime(int sample) {
+        int run = Arrays.binarySearch(mTimeRunFirstSample, sample);
+        if (run < 0) {
+            run = -run - 2;
+        }
+        return mTimeRunStartTime[run] + (long) (sample - mTimeRunFirstSample[run]) * mTimeRunDeltas[run];
+    }
+
+    public long getSampleTimeUs(int sample) {
+        return toUs(getSampleTime(sample));
+    }
+
+    // 采样的显示时间偏移（ctts），单位是track的timescale
+    public int getCompositionOffset(int sample) {
+        if (null == mCompositionRunFirstSample || mCompositionRunFirstSample.length == 0) {
+            return 0;
+        }
+        int run = Arrays.binarySearch(mCompositionRunFirstSample, sample);
+        if (run < 0) {
+            run = -run - 2;
+        }
+        return run < 0 ? 0 : mCompositionRunOffsets[run];
+    }
+
+    /**
+     * 采样的显示时间，单位是track的timescale：解码时间加上ctts偏移，再按编辑列表平移，和播放器seek用的时间一致
+     */
+    public long getPresentationTime(int sample) {
+        return getSampleTime(sample) + getCompositionOffset(sample) + mPresentationShift;
+    }
+
+    public long getPresentationTimeUs(int sample) {
+        return toUs(getPresentationTime(sample));
+    }
+
+    // 采样的时长，单位是track的timescale
+    int getSampleDelta(int sample) {
+        int run = Arrays.binarySearch(mTimeRunFirstSample, sample);
+        if (run < 0) {
+            run = -run - 2;
+        }
+        return mTimeRunDeltas[run];
+    }
+
+    public int getSampleSize(int sample) {
+        return null == mSampleSizes ? mConstantSampleSize : mSampleSizes[sample];
+    }
+
+    // 采样在文件里的偏移：先找到所在chunk，再加上chunk里前面几个采样的大小
+    public long getSampleOffset(int sample) {
+        int run = Arrays.binarySearch(mChunkRunFirstSample, sample);
+        if (run < 0) {
+            run = -run - 2;
+        }
+        int perChunk = mChunkRunSamplesPerChunk[run];
+        int indexInRun = sample - mChunkRunFirstSample[run];
+        int chunk = mChunkRunFirstChunk[run] + indexInRun / perChunk;
+        long offset = mChunkOffsets[chunk];
+        for (int s = sample - indexInRun % perChunk; s < sample; s++) {
+            offset += getSampleSize(s);
+        }
+        return offset;
+    }
+
+    // 有没有stss，没有时所有采样都是关键帧
+    boolean hasSyncTable() {
+        return null != mSyncSamples;
+    }
+
+    public boolean isSyncSample(int sample) {
+        return null == mSyncSamples || Arrays.binarySearch(mSyncSamples, sample) >= 0;
+    }
+
+    /**
+     * 显示时间小于等于timeUs的最后一个关键帧，O(log n)。timeUs在第一个关键帧之前时返回第一个关键帧
+     */
+    public int getSyncSampleAtOrBefore(long timeUs) {
+        if (mSampleCount == 0) {
+            return -1;
+        }
+        long time = fromUs(timeUs);
+        if (null == mSyncSamples) {
+            // 全是关键帧（音频等），不会有帧重排，ctts可以忽略，直接在时长表上找
+            time -= mPresentationShift;
+            int run = Arrays.binarySearch(mTimeRunStartTime, time);
+            if (run < 0) {
+                run = Math.max(0, -run - 2);
+            }
+            long delta = mTimeRunDeltas[run];
+            int index = delta == 0 ? 0 : (int) Math.min((time - mTimeRunStartTime[run]) / delta, mTimeRunCounts[run] - 1);
+            return mTimeRunFirstSample[run] + Math.max(0, index);
+        }
+        if (mSyncSamples.length == 0) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(mSyncTimes, time);
+        if (i < 0) {
+            i = Math.max(0, -i - 2);
+        }
+        return mSyncSamples[i];
+    }
+
+    // 显示时间小于等于timeUs的最后一个关键帧的显示时间
+    public long getSyncTimeAtOrBeforeUs(long timeUs) {
+        int sample = getSyncSampleAtOrBefore(timeUs);
+        return sample < 0 ? 0 : Math.max(0, getPresentationTimeUs(sample));
+    }
+
+    public int getChunkCount() {
+        return mChunkOffsets.length;
+    }
+
+    public long getChunkOffset(int chunk) {
+        return mChunkOffsets[chunk];
+    }
+
+    private long toUs(long time) {
+        return mTimescale == 0 ? 0 : time * 1000000L / mTimescale;
+    }
+
+    private long fromUs(long timeUs) {
+        return timeUs * mTimescale / 1000000L;
+    }
+}
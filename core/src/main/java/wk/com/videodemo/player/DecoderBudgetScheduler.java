@@ -0,0 +1,251 @@
+package wk.com.videodemo.player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 多路同时播放时，决定哪些画面可以占用解码器。硬件解码器的实例数是有限的，各个设备还不一样，
+ * 超过以后新建解码器会直接失败，所以这里按预算分配：
+ *
+ * 1.所有画面排序：可见的在前，同样可见的按优先级，再按最近一次占用解码器的先后（已经在播的尽量不动，避免来回切换）；
+ * 2.前budget个占用解码器：可见的播放，不可见的暂停（解码器留着，滚回来时马上能继续）；
+ * 3.其余的释放解码器，由使用者记住播放位置，下次分到解码器时从这个位置恢复。
+ *
+ * 某一路失败时调用onDecoderFailed()，分两种情况：
+ * 1.申请解码器失败（解码器不够用）：预算降到其它路实际占用的数量；预算不是永久降低，每隔recoverIntervalMs在schedule()时加1，
+ *   一直到初始值，再失败就再降。没有其它路占用解码器时失败说明不是数量的问题，按第2种处理；
+ * 2.视频源本身有问题（文件损坏、格式不支持等）：预算不变，这一路搁置，不再参与分配，
+ *   否则它排在前面时每次schedule()都会重新申请、失败一次。源文件变了以后调用resumeTile()恢复。
+ *
+ * 不是线程安全的，所有方法都要在同一个线程（一般是主线程）里调用
+ */
+public class DecoderBudgetScheduler {
+    public static final int STATE_RELEASED = 0;
+    public static final int STATE_PAUSED = 1;
+    public static final int STATE_PLAYING = 2;
+
+    // 预算降低以后，每隔多久恢复一个
+    private static final long DEFAULT_RECOVER_INTERVAL_MS = 30 * 1000;
+
+    public interface Listener {
+        // 状态变化时回调，使用者据此创建/暂停/释放解码器
+        void onStateChanged(int tileId, int oldState, int newState);
+    }
+
+    private final List<Tile> mTiles = new ArrayList<>();
+    private final List<Tile> mRanked = new ArrayList<>();
+    private final Listener mListener;
+    private final int mMaxBudget;
+    private final long mRecoverIntervalMs;
+    private int mBudget;
+    private long mSequence;
+    private int mFailureCount;
+    // 最近一次降低或者恢复预算的时间
+    private long mBudgetChangedMs;
+
+    public DecoderBudgetScheduler(int budget, Listener listener) {
+        this(budget, DEFAULT_RECOVER_INTERVAL_MS, listener);
+    }
+
+    public DecoderBudgetScheduler(int budget, long recoverIntervalMs, Listener listener) {
+        mMaxBudget = Math.max(1, budget);
+        mBudget = mMaxBudget;
+        mRecoverIntervalMs = recoverIntervalMs;
+        mListener = listener;
+    }
+
+    public void addTile(int tileId, int priority) {
+        if (null != find(tileId)) {
+            return;
+        }
+        mTiles.add(new Tile(tileId, priority));
+    }
+
+    public void removeTile(int tileId) {
+        Tile tile = find(tileId);
+        if (null == tile) {
+            return;
+        }
+        mTiles.remove(tile);
+        setState(tile, STATE_RELEASED);
+    }
+
+    public void setVisible(int tileId, boolean visible) {
+        Tile tile = find(tileId);
+        if (null != tile) {
+            tile.visible = visible;
+        }
+    }
+
+    public void setPriority(int tileId, int priority) {
+        Tile tile = find(tileId);
+        if (null != tile) {
+            tile.priority = priority;
+        }
+    }
+
+    /**
+     * 某一路创建或者启动解码器失败：先把它释放，再重新分配。
+     *
+     * @param allocation true表示申请解码器失败，预算降到其它路实际占用的数量；false表示视频源的问题，这一路搁置
+     */
+    public void onDecoderFailed(int tileId, boolean allocation) {
+        Tile tile = find(tileId);
+        if (null == tile) {
+            return;
+        }
+        mFailureCount++;
+        setState(tile, STATE_RELEASED);
+        int holding = getHoldingCount();
+        if (allocation && holding > 0) {
+            mBudget = Math.min(mBudget, holding);
+            mBudgetChangedMs = now();
+        } else {
+            tile.parked = true;
+        }
+        schedule();
+    }
+
+    // 搁置的一路重新参与分配，比如它的源文件变了
+    public void resumeTile(int tileId) {
+        Tile tile = find(tileId);
+        if (null != tile) {
+            tile.parked = false;
+        }
+    }
+
+    public boolean isParked(int tileId) {
+        Tile tile = find(tileId);
+        return null != tile && tile.parked;
+    }
+
+    /**
+     * 按当前的可见性和优先级重新分配，先释放和暂停，再启动，保证任何时刻占用的解码器都不超过预算
+     */
+    public void schedule() {
+        if (mBudget < mMaxBudget && now() - mBudgetChangedMs >= mRecoverIntervalMs) {
+            mBudget++;
+            mBudgetChangedMs = now();
+        }
+        mRanked.clear();
+        for (Tile tile : mTiles) {
+            if (tile.parked) {
+                setState(tile, STATE_RELEASED);
+            } else {
+                mRanked.add(tile);
+            }
+        }
+        Collections.sort(mRanked, RANK);
+        int size = mRanked.size();
+        for (int i = size - 1; i >= 0; i--) {
+            Tile tile = mRanked.get(i);
+            if (i >= mBudget) {
+                setState(tile, STATE_RELEASED);
+            } else if (!tile.visible) {
+                setState(tile, STATE_PAUSED);
+            }
+        }
+        for (int i = 0; i < Math.min(mBudget, size); i++) {
+            Tile tile = mRanked.get(i);
+            if (tile.visible) {
+                setState(tile, STATE_PLAYING);
+            }
+        }
+    }
+
+    // 全部释放，比如页面退到后台时。之后再调用schedule()会重新分配
+    public void releaseAll() {
+        for (Tile tile : mTiles) {
+            setState(tile, STATE_RELEASED);
+        }
+    }
+
+    private void setState(Tile tile, int state) {
+        if (tile.state == state) {
+            return;
+        }
+        int old = tile.state;
+        tile.state = state;
+        if (STATE_RELEASED == old) {
+            tile.acquiredSequence = ++mSequence;
+        }
+        if (null != mListener) {
+            mListener.onStateChanged(tile.id, old, state);
+        }
+    }
+
+    public int getState(int tileId) {
+        Tile tile = find(tileId);
+        return null == tile ? STATE_RELEASED : tile.state;
+    }
+
+    public int getBudget() {
+        return mBudget;
+    }
+
+    // 当前占用解码器（播放或者暂停）的数量
+    public int getHoldingCount() {
+        int count = 0;
+        for (Tile tile : mTiles) {
+            if (STATE_RELEASED != tile.state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getFailureCount() {
+        return mFailureCount;
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private Tile find(int tileId) {
+        for (Tile tile : mTiles) {
+            if (tile.id == tileId) {
+                return tile;
+            }
+        }
+        return null;
+    }
+
+    private static final Comparator<Tile> RANK = new Comparator<Tile>() {
+        @Override
+        public int compare(Tile a, Tile b) {
+            if (a.visible != b.visible) {
+                return a.visible ? -1 : 1;
+            }
+            if (a.priority != b.priority) {
+                return a.priority > b.priority ? -1 : 1;
+            }
+            // 已经占着解码器的优先，越早拿到的越优先，避免同优先级的几路轮流抢
+            boolean aHolding = STATE_RELEASED != a.state;
+            boolean bHolding = STATE_RELEASED != b.state;
+            if (aHolding != bHolding) {
+                return aHolding ? -1 : 1;
+            }
+            if (aHolding && a.acquiredSequence != b.acquiredSequence) {
+                return a.acquiredSequence < b.acquiredSequence ? -1 : 1;
+            }
+            return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+        }
+    };
+
+    private static class Tile {
+        final int id;
+        int priority;
+        boolean visible;
+        int state = STATE_RELEASED;
+        long acquiredSequence;
+        boolean parked;
+
+        Tile(int id, int priority) {
+            this.id = id;
+            this.priority = priority;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package wk.com.videodemo.player;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+import wk.com.videodemo.mp4.Mp4IndexReader;
+import wk.com.videodemo.stats.Histogram;
+
+/**
+ * 内存映射 + 预读的文件读取，给播放器的MediaDataSource用。
+ *
+ * 慢速存储卡上，解析器每次读都可能碰到缺页，在读线程里同步等IO，表现就是起播慢、seek后卡一下。
+ * 这里把文件映射进内存，在后台线程提前把后面要读的页面摸一遍（触发缺页、让数据进page cache），读线程真正读的时候就是内存拷贝：
+ *
+ * 1.打开时先预读moov，解析器第一件事就是读它，moov在文件末尾时尤其有用；
+ * 2.顺序读时，读到预读窗口的后半段就接着预读下一个窗口，窗口从MIN_WINDOW开始翻倍，最大MAX_WINDOW；
+ *   如果读的时候预读还没跟上（miss），说明存储比预期慢，窗口也翻倍；
+ * 3.跳到窗口外（seek）时窗口回到MIN_WINDOW，从新位置重新开始。知道seek目标的话可以调用prefetch()提前开始。
+ *
+ * 读取量、miss次数、卡顿时间（miss的读耗时之和）都有统计，可以按实际的存储调整窗口大小。
+ * 文件按REGION_SIZE分段映射，超过2GB的文件也可以读。同时最多映射MAX_MAPPED_REGIONS段，新映射一段时丢掉最久没用的一段
+ * （顺序读时就是读线程后面的），32位设备上几个G的文件也不会把地址空间占满。
+ * 丢掉的段等GC回收时才解除映射，不主动unmap：读线程可能还在从它拷贝数据。close()之后不能再读
+ */
+public class MappedReadAhead {
+    // 要比MAX_WINDOW大，一次预读最多跨两段
+    private static final long REGION_SIZE = 16 * 1024 * 1024;
+    // 读线程所在的段、预读的下一段、moov所在的段，再留一段余量
+    static final int MAX_MAPPED_REGIONS = 4;
+    private static final int PAGE_SIZE = 4096;
+    public static final int MIN_WINDOW = 256 * 1024;
+    public static final int MAX_WINDOW = 8 * 1024 * 1024;
+    // 预读时每摸完这么多字节更新一次进度，读线程可以用上已经就绪的部分
+    private static final int PROGRESS_STEP = 64 * 1024;
+
+    private final String mPath;
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mSize;
+    private final MappedByteBuffer[] mRegions;
+    // 每一段最后一次用到的时间（mUseClock），淘汰最小的
+    private final long[] mRegionUse;
+    private long mUseClock;
+    private int mMappedCount;
+    private final Executor mExecutor;
+
+    private final Object mLock = new Object();
+    // 当前顺序流：[mStreamStart, mScheduledEnd)已经安排了预读，[mStreamStart, mResidentEnd)已经预读完
+    private long mStreamStart;
+    private long mScheduledEnd;
+    private volatile long mResidentEnd;
+    private int mWindow = MIN_WINDOW;
+    // 顺序流每重新开始一次加一，旧的预读任务发现变了就提前结束
+    private volatile int mGeneration;
+    // moov的位置和是否预读完
+    private long mMoovStart = -1;
+    private long mMoovEnd = -1;
+    private volatile boolean mMoovResident;
+    private volatile boolean mClosed;
+
+    // 统计数据
+    private final Histogram mReadUs = Histogram.exponential(10, 2, 20);
+    private long mReadCount;
+    private long mBytesRead;
+    private long mMissCount;
+    private long mStallNs;
+    private long mPrefetchedBytes;
+    private int mStreamCount;
+
+    /**
+     * @param executor 执行预读的线程，同一个executor可以给多个文件共用，最好是单线程的，避免多个预读同时抢IO
+     */
+    public MappedReadAhead(File file, Executor executor) throws IOException {
+        mPath = file.getAbsolutePath();
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+        mExecutor = executor;
+        try {
+            mSize = mChannel.size();
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+        mRegions = new MappedByteBuffer[(int) ((mSize + REGION_SIZE - 1) / REGION_SIZE)];
+        mRegionUse = new long[mRegions.length];
+        try {
+            long[] moov = Mp4IndexReader.findMoov(mChannel);
+            if (null != moov) {
+                mMoovStart = moov[0];
+                mMoovEnd = moov[0] + moov[1];
+            }
+        } catch (IOException e) {
+            // 不是mp4（比如webm），没有moov可以预读，照常读就行
+            mMoovStart = -1;
+            mMoovEnd = -1;
+        }
+        if (mMoovStart >= 0) {
+            final long moovStart = mMoovStart;
+            final long moovEnd = mMoovEnd;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (touch(moovStart, moovEnd, -1)) {
+                        mMoovResident = true;
+                    }
+                }
+            });
+        }
+        // 从头开始的顺序流，ftyp和mdat的开头都在这里
+        synchronized (mLock) {
+            restart(0);
+        }
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * 从position读最多size字节到buffer
+     *
+     * @return 实际读到的字节数，position到了文件末尾时返回-1
+     */
+    public int read(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (mClosed) {
+            throw new IOException("closed: " + mPath);
+        }
+        if (position >= mSize) {
+            return -1;
+        }
+        if (size <= 0) {
+            return 0;
+        }
+        size = (int) Math.min(size, mSize - position);
+        long end = position + size;
+        boolean hit;
+        synchronized (mLock) {
+            hit = isResident(position, end);
+            // moov另外预读，读它不影响顺序流
+            if (position < mMoovStart || end > mMoovEnd) {
+                if (position < mStreamStart - mWindow || position > mScheduledEnd) {
+                    // 跳到了窗口外
+                    restart(position);
+                } else if (!hit) {
+                    // 预读没跟上
+                    mWindow = Math.min(MAX_WINDOW, mWindow * 2);
+                }
+                advance(end);
+            }
+        }
+
+        long start = System.nanoTime();
+        int copied = 0;
+        while (copied < size) {
+            long p = position + copied;
+            ByteBuffer region = region((int) (p / REGION_SIZE)).duplicate();
+            int inRegion = (int) (p % REGION_SIZE);
+            int count = Math.min(size - copied, region.limit() - inRegion);
+            region.position(inRegion);
+            region.get(buffer, offset + copied, count);
+            copied += count;
+        }
+        long cost = System.nanoTime() - start;
+
+        mReadUs.record(cost / 1000);
+        synchronized (mLock) {
+            mReadCount++;
+            mBytesRead += copied;
+            if (!hit) {
+                mMissCount++;
+                mStallNs += cost;
+            }
+        }
+        return copied;
+    }
+
+    /**
+     * 提前预读position开始的一个窗口，比如seek时已经知道目标关键帧在文件里的位置
+     */
+    public void prefetch(long position) {
+        if (mClosed || position < 0 || position >= mSize) {
+            return;
+        }
+        synchronized (mLock) {
+            if (position >= mStreamStart && position < mScheduledEnd) {
+                return;
+            }
+            restart(position);
+        }
+    }
+
+    public void close() {
+        mClosed = true;
+        synchronized (mLock) {
+            mGeneration++;
+        }
+        try {
+            mFile.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isResident(long start, long end) {
+        if (mMoovResident && start >= mMoovStart && end <= mMoovEnd) {
+            return true;
+        }
+        return start >= mStreamStart && end <= mResidentEnd;
+    }
+
+    // 在position开始一个新的顺序流
+    private void restart(long position) {
+        mGeneration++;
+        mStreamStart = position;
+        mScheduledEnd = position;
+        mResidentEnd = position;
+        mWindow = MIN_WINDOW;
+        mStreamCount++;
+        schedule();
+    }
+
+    // 读到了窗口的后半段，接着预读下一个窗口
+    private void advance(long readEnd) {
+        if (readEnd + mWindow / 2 >= mScheduledEnd && mScheduledEnd < mSize) {
+            if (mScheduledEnd > mStreamStart) {
+                mWindow = Math.min(MAX_WINDOW, mWindow * 2);
+            }
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        final long start = mScheduledEnd;
+        final long end = Math.min(mSize, start + mWindow);
+        if (end <= start) {
+            return;
+        }
+        mScheduledEnd = end;
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                touch(start, end, generation);
+            }
+        });
+    }
+
+    /**
+     * 在预读线程里把[start, end)的每一页读一个字节。generation不是-1时，顺序流变了就提前结束
+     *
+     * @return 是否完整地摸完了
+     */
+    private boolean touch(long start, long end, int generation) {
+        try {
+            long p = start - start % PAGE_SIZE;
+            long nextProgress = start + PROGRESS_STEP;
+            while (p < end) {
+                if (mClosed || (generation >= 0 && generation != mGeneration)) {
+                    return false;
+                }
+                MappedByteBuffer region = region((int) (p / REGION_SIZE));
+                region.get((int) (p % REGION_SIZE));
+                p += PAGE_SIZE;
+                if (generation >= 0 && (p >= nextProgress || p >= end)) {
+                    publish(Math.min(p, end), generation);
+                    nextProgress = p + PROGRESS_STEP;
+                }
+            }
+            synchronized (mLock) {
+                mPrefetchedBytes += end - start;
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void publish(long residentEnd, int generation) {
+        synchronized (mLock) {
+            if (generation == mGeneration && residentEnd > mResidentEnd) {
+                mResidentEnd = residentEnd;
+            }
+        }
+    }
+
+    private MappedByteBuffer region(int index) throws IOException {
+        synchronized (mRegions) {
+            MappedByteBuffer region = mRegions[index];
+            if (null == region) {
+                if (mMappedCount >= MAX_MAPPED_REGIONS) {
+                    evictLeastRecentlyUsed();
+                }
+                long start = index * REGION_SIZE;
+                region = mChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, mSize - start));
+                mRegions[index] = region;
+                mMappedCount++;
+            }
+            mRegionUse[index] = ++mUseClock;
+            return region;
+        }
+    }
+
+    private void evictLeastRecentlyUsed() {
+        int oldest = -1;
+        for (int i = 0; i < mRegions.length; i++) {
+            if (null != mRegions[i] && (oldest < 0 || mRegionUse[i] < mRegionUse[oldest])) {
+                oldest = i;
+            }
+        }
+        if (oldest >= 0) {
+            mRegions[oldest] = null;
+            mMappedCount--;
+        }
+    }
+
+    // 当前映射着的段数
+    int getMappedRegionCount() {
+        synchronized (mRegions) {
+            return mMappedCount;
+        }
+    }
+
+    public long getReadCount() {
+        synchronized (mLock) {
+            return mReadCount;
+        }
+    }
+
+    public long getBytesRead() {
+        synchronized (mLock) {
+            return mBytesRead;
+        }
+    }
+
+    // 读的时候数据还没预读好的次数
+    public long getMissCount() {
+        synchronized (mLock) {
+            return mMissCount;
+        }
+    }
+
+    // miss的读一共花的时间，单位毫秒
+    public long getStallMs() {
+        synchronized (mLock) {
+            return mStallNs / 1000000;
+        }
+    }
+
+    public long getPrefetchedBytes() {
+        synchronized (mLock) {
+            return mPrefetchedBytes;
+        }
+    }
+
+    public int getWindow() {
+        synchronized (mLock) {
+            return mWindow;
+        }
+    }
+
+    // 每次读的耗时，单位微秒
+    public Histogram getReadHistogram() {
+        return mReadUs;
+    }
+
+    public String dumpStats() {
+        synchronized (mLock) {
+            return "reads=" + mReadCount + " bytes=" + mBytesRead + " miss=" + mMissCount
+                    + " stall=" + mStallNs / 1000000 + "ms prefetched=" + mPrefetchedBytes
+                    + " streams=" + mStreamCount + " window=" + mWindow / 1024 + "KB"
+                    + " p99=" + mReadUs.getPercentile(99) + "us";
+        }
+    }
+}
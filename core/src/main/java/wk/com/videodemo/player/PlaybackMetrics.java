@@ -0,0 +1,322 @@
+package wk.com.videodemo.player;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import wk.com.videodemo.stats.Histogram;
+
+/**
+ * 播放体验（QoE）统计，按视频源汇总：首帧时间、prepare耗时、seek耗时、卡顿（缓冲）次数和时长、错误码、各状态的停留时间。
+ * 播放器池命中的热启动没有prepare，首帧时间单独统计，不拉低冷启动的数据；无缝切换到下一个视频不算播放请求，只计数。
+ *
+ * 每个视频源的数据都是固定大小的：耗时用桶数固定的Histogram，错误码最多记MAX_ERROR_CODES种，其余的算在other里；
+ * 视频源最多保留maxSources个，按LRU淘汰，淘汰前的数据仍然计入总计。
+ *
+ * 写入由PlaybackSession在播放线程调用。snapshot()可以在任何线程调用，只是拷贝一些数字，开销很小，
+ * 可以定时轮询；getUpdateCount()没变时说明没有新数据，可以跳过这次上报
+ */
+public class PlaybackMetrics {
+    public static final String TOTAL = "*";
+    public static final int MAX_ERROR_CODES = 8;
+
+    // 单位毫秒，10ms开始按1.5倍增长，最后一个桶大约22s
+    private static final long HISTOGRAM_FIRST_MS = 10;
+    private static final double HISTOGRAM_FACTOR = 1.5;
+    private static final int HISTOGRAM_BUCKETS = 20;
+
+    private final int mMaxSources;
+    private final int mStateCount;
+    // accessOrder为true，遍历顺序就是LRU顺序
+    private final LinkedHashMap<String, SourceStats> mSources = new LinkedHashMap<>(16, 0.75f, true);
+    private final SourceStats mTotal;
+    private long mUpdateCount;
+
+    /**
+     * @param stateCount 播放器状态的个数，状态用0 ~ stateCount - 1表示
+     */
+    public PlaybackMetrics(int maxSources, int stateCount) {
+        mMaxSources = Math.max(1, maxSources);
+        mStateCount = stateCount;
+        mTotal = new SourceStats(TOTAL, stateCount);
+    }
+
+    public int getStateCount() {
+        return mStateCount;
+    }
+
+    synchronized void recordPlay(String source, int startType) {
+        stats(source).addPlay(startType);
+        mTotal.addPlay(startType);
+        mUpdateCount++;
+    }
+
+    synchronized void recordFirstFrame(String source, long ms, boolean warm) {
+        SourceStats stats = stats(source);
+        (warm ? stats.warmFirstFrameMs : stats.firstFrameMs).record(ms);
+        (warm ? mTotal.warmFirstFrameMs : mTotal.firstFrameMs).record(ms);
+        mUpdateCount++;
+    }
+
+    synchronized void recordPrepare(String source, long ms) {
+        stats(source).prepareMs.record(ms);
+        mTotal.prepareMs.record(ms);
+        mUpdateCount++;
+    }
+
+    synchronized void recordSeek(String source, long ms) {
+        stats(source).seekMs.record(ms);
+        mTotal.seekMs.record(ms);
+        mUpdateCount++;
+    }
+
+    synchronized void recordBuffering(String source, long ms) {
+        stats(source).bufferingMs.record(ms);
+        mTotal.bufferingMs.record(ms);
+        mUpdateCount++;
+    }
+
+    synchronized void recordError(String source, int what, int extra) {
+        stats(source).addError(what, extra);
+        mTotal.addError(what, extra);
+        mUpdateCount++;
+    }
+
+    synchronized void recordStateTime(String source, int state, long ms) {
+        if (state < 0 || state >= mStateCount || ms <= 0) {
+            return;
+        }
+        stats(source).stateMs[state] += ms;
+        mTotal.stateMs[state] += ms;
+        mUpdateCount++;
+    }
+
+    // 每次有新数据都会加一
+    public synchronized long getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * 所有视频源的快照，最近用过的在后面
+     */
+    public synchronized List<Snapshot> snapshot() {
+        List<Snapshot> snapshots = new ArrayList<>(mSources.size());
+        for (SourceStats stats : mSources.values()) {
+            snapshots.add(new Snapshot(stats));
+        }
+        return snapshots;
+    }
+
+    // 某个视频源的快照，没有数据时返回null
+    public synchronized Snapshot snapshot(String source) {
+        // get()会改变LRU顺序，这里只是读，遍历查找
+        for (SourceStats stats : mSources.values()) {
+            if (stats.source.equals(source)) {
+                return new Snapshot(stats);
+            }
+        }
+        return null;
+    }
+
+    // 所有视频源的总计，包括已经被淘汰的
+    public synchronized Snapshot snapshotTotal() {
+        return new Snapshot(mTotal);
+    }
+
+    public synchronized void reset() {
+        mSources.clear();
+        mTotal.reset();
+        mUpdateCount++;
+    }
+
+    private SourceStats stats(String source) {
+        SourceStats stats = mSources.get(source);
+        if (null == stats) {
+            stats = new SourceStats(source, mStateCount);
+            mSources.put(source, stats);
+            Iterator<Map.Entry<String, SourceStats>> it = mSources.entrySet().iterator();
+            while (mSources.size() > mMaxSources && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        return stats;
+    }
+
+    private static Histogram newHistogram() {
+        return Histogram.exponential(HISTOGRAM_FIRST_MS, HISTOGRAM_FACTOR, HISTOGRAM_BUCKETS);
+    }
+
+    private static class SourceStats {
+        final String source;
+        final Histogram firstFrameMs = newHistogram();
+        final Histogram warmFirstFrameMs = newHistogram();
+        final Histogram prepareMs = newHistogram();
+        final Histogram seekMs = newHistogram();
+        final Histogram bufferingMs = newHistogram();
+        final long[] stateMs;
+        // 错误码：what在高32位，extra在低32位
+        final long[] errorCodes = new long[MAX_ERROR_CODES];
+        final int[] errorCounts = new int[MAX_ERROR_CODES];
+        int errorCodeCount;
+        int otherErrorCount;
+        // plays包括热启动，不包括无缝切换
+        int plays;
+        int warmPlays;
+        int gaplessPlays;
+
+        SourceStats(String source, int stateCount) {
+            this.source = source;
+            stateMs = new long[stateCount];
+        }
+
+        void addPlay(int startType) {
+            if (PlaybackSession.START_GAPLESS == startType) {
+                gaplessPlays++;
+                return;
+            }
+            plays++;
+            if (PlaybackSession.START_WARM == startType) {
+                warmPlays++;
+            }
+        }
+
+        void addError(int what, int extra) {
+            long code = ((long) what << 32) | (extra & 0xFFFFFFFFL);
+            for (int i = 0; i < errorCodeCount; i++) {
+                if (errorCodes[i] == code) {
+                    errorCounts[i]++;
+                    return;
+                }
+            }
+            if (errorCodeCount < MAX_ERROR_CODES) {
+                errorCodes[errorCodeCount] = code;
+                errorCounts[errorCodeCount] = 1;
+                errorCodeCount++;
+            } else {
+                otherErrorCount++;
+            }
+        }
+
+        void reset() {
+            firstFrameMs.reset();
+            warmFirstFrameMs.reset();
+            prepareMs.reset();
+            seekMs.reset();
+            bufferingMs.reset();
+            for (int i = 0; i < stateMs.length; i++) {
+                stateMs[i] = 0;
+            }
+            errorCodeCount = 0;
+            otherErrorCount = 0;
+            plays = 0;
+            warmPlays = 0;
+            gaplessPlays = 0;
+        }
+    }
+
+    /**
+     * 一个直方图的摘要，单位毫秒
+     */
+    public static class Summary {
+        public final long count;
+        public final long mean;
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long max;
+
+        Summary(Histogram histogram) {
+            synchronized (histogram) {
+                count = histogram.getTotalCount();
+                mean = histogram.getMean();
+                p50 = histogram.getPercentile(50);
+                p90 = histogram.getPercentile(90);
+                p99 = histogram.getPercentile(99);
+                max = histogram.getMax();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + " mean=" + mean + " p50=" + p50 + " p90=" + p90 + " p99=" + p99 + " max=" + max;
+        }
+    }
+
+    /**
+     * 某个视频源在某一时刻的统计，创建后不再变化
+     */
+    public static class Snapshot {
+        public final String source;
+        public final int plays;
+        // plays里播放器池命中的次数
+        public final int warmPlays;
+        public final int gaplessPlays;
+        // 冷启动的首帧时间
+        public final Summary firstFrame;
+        public final Summary warmFirstFrame;
+        public final Summary prepare;
+        public final Summary seek;
+        // count是卡顿次数
+        public final Summary buffering;
+        // 下标是状态
+        public final long[] stateMs;
+        // 错误码{what, extra}和对应的次数
+        public final int[][] errors;
+        public final int[] errorCounts;
+        public final int otherErrorCount;
+
+        Snapshot(SourceStats stats) {
+            source = stats.source;
+            plays = stats.plays;
+            warmPlays = stats.warmPlays;
+            gaplessPlays = stats.gaplessPlays;
+            firstFrame = new Summary(stats.firstFrameMs);
+            warmFirstFrame = new Summary(stats.warmFirstFrameMs);
+            prepare = new Summary(stats.prepareMs);
+            seek = new Summary(stats.seekMs);
+            buffering = new Summary(stats.bufferingMs);
+            stateMs = stats.stateMs.clone();
+            errors = new int[stats.errorCodeCount][];
+            errorCounts = new int[stats.errorCodeCount];
+            for (int i = 0; i < stats.errorCodeCount; i++) {
+                errors[i] = new int[]{(int) (stats.errorCodes[i] >> 32), (int) stats.errorCodes[i]};
+                errorCounts[i] = stats.errorCounts[i];
+            }
+            otherErrorCount = stats.otherErrorCount;
+        }
+
+        public int getErrorCount() {
+            int count = otherErrorCount;
+            for (int c : errorCounts) {
+                count += c;
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(source).append(" plays=").append(plays)
+                    .append(" warm=").append(warmPlays)
+                    .append(" gapless=").append(gaplessPlays)
+                    .append(" firstFrame(").append(firstFrame).append(')')
+                    .append(" warmFirstFrame(").append(warmFirstFrame).append(')')
+                    .append(" prepare(").append(prepare).append(')')
+                    .append(" seek(").append(seek).append(')')
+                    .append(" buffering(").append(buffering).append(')')
+                    .append(" stateMs=[");
+            for (int i = 0; i < stateMs.length; i++) {
+                builder.append(i > 0 ? "," : "").append(stateMs[i]);
+            }
+            builder.append("] errors=[");
+            for (int i = 0; i < errors.length; i++) {
+                builder.append(i > 0 ? "," : "").append(errors[i][0]).append('/').append(errors[i][1])
+                        .append('x').append(errorCounts[i]);
+            }
+            return builder.append("] otherErrors=").append(otherErrorCount).toString();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package wk.com.videodemo.player;
+
+/**
+ * 一个播放器的播放过程：记下各个事件的开始时间，事件结束时把耗时写进PlaybackMetrics。
+ *
+ * 时间都由调用者传进来（毫秒，比如SystemClock.elapsedRealtime()），不依赖Android的类。
+ * 不是线程安全的，所有方法都要在播放线程里调用
+ */
+public class PlaybackSession {
+    // 普通的播放：需要prepare，用户等的是prepare加上首帧
+    public static final int START_COLD = 0;
+    // 播放器池命中，player已经prepare好了，没有prepare耗时，首帧时间单独统计
+    public static final int START_WARM = 1;
+    // 上一个视频播完后无缝接上的下一个（setNextMediaPlayer），用户没有等待，不算prepare和首帧，也不算一次播放请求
+    public static final int START_GAPLESS = 2;
+
+    private final PlaybackMetrics mMetrics;
+    private String mSource;
+    private int mStartType;
+    // 各事件的开始时间，-1表示没有在进行中的
+    private long mRequestMs = -1;
+    private long mPrepareStartMs = -1;
+    private long mSeekStartMs = -1;
+    private long mBufferingStartMs = -1;
+    private int mState = -1;
+    private long mStateStartMs;
+
+    public PlaybackSession(PlaybackMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    public String getSource() {
+        return mSource;
+    }
+
+    /**
+     * 切换到一个新的视频源，之前的视频源没结束的事件到此为止
+     *
+     * @param requestMs 调用play()等方法的时间，首帧时间从这里开始算
+     * @param startType START_COLD、START_WARM或START_GAPLESS
+     */
+    public void begin(String source, long requestMs, long nowMs, int startType) {
+        finish(nowMs);
+        mSource = source;
+        mStartType = startType;
+        mRequestMs = START_GAPLESS == startType ? -1 : requestMs;
+        mPrepareStartMs = START_COLD == startType ? nowMs : -1;
+        mStateStartMs = nowMs;
+        mMetrics.recordPlay(source, startType);
+    }
+
+    // 播放器释放时调用，把当前状态的时间记完
+    public void end(long nowMs) {
+        finish(nowMs);
+        mSource = null;
+    }
+
+    public void onPrepared(long nowMs) {
+        if (null != mSource && mPrepareStartMs >= 0) {
+            mMetrics.recordPrepare(mSource, nowMs - mPrepareStartMs);
+            mPrepareStartMs = -1;
+        }
+    }
+
+    // MediaPlayer.MEDIA_INFO_VIDEO_RENDERING_START
+    public void onFirstFrame(long nowMs) {
+        if (null != mSource && mRequestMs >= 0) {
+            mMetrics.recordFirstFrame(mSource, nowMs - mRequestMs, START_WARM == mStartType);
+            mRequestMs = -1;
+        }
+    }
+
+    // 上一个seek还没完成时又seek，从第一个开始算，用户是从那时开始等的
+    public void onSeekStarted(long nowMs) {
+        if (mSeekStartMs < 0) {
+            mSeekStartMs = nowMs;
+        }
+    }
+
+    public void onSeekCompleted(long nowMs) {
+        if (null != mSource && mSeekStartMs >= 0) {
+            mMetrics.recordSeek(mSource, nowMs - mSeekStartMs);
+        }
+        mSeekStartMs = -1;
+    }
+
+    // MediaPlayer.MEDIA_INFO_BUFFERING_START
+    public void onBufferingStarted(long nowMs) {
+        if (mBufferingStartMs < 0) {
+            mBufferingStartMs = nowMs;
+        }
+    }
+
+    // MediaPlayer.MEDIA_INFO_BUFFERING_END
+    public void onBufferingEnded(long nowMs) {
+        if (null != mSource && mBufferingStartMs >= 0) {
+            mMetrics.recordBuffering(mSource, nowMs - mBufferingStartMs);
+        }
+        mBufferingStartMs = -1;
+    }
+
+    public void onError(int what, int extra) {
+        if (null != mSource) {
+            mMetrics.recordError(mSource, what, extra);
+        }
+    }
+
+    public void onStateChanged(int state, long nowMs) {
+        if (null != mSource && mState >= 0) {
+            mMetrics.recordStateTime(mSource, mState, nowMs - mStateStartMs);
+        }
+        mState = state;
+        mStateStartMs = nowMs;
+    }
+
+    private void finish(long nowMs) {
+        if (null == mSource) {
+            return;
+        }
+        if (mBufferingStartMs >= 0) {
+            onBufferingEnded(nowMs);
+        }
+        if (mState >= 0) {
+            mMetrics.recordStateTime(mSource, mState, nowMs - mStateStartMs);
+        }
+        mStateStartMs = nowMs;
+        mRequestMs = -1;
+        mPrepareStartMs = -1;
+        mSeekStartMs = -1;
+    }
+}
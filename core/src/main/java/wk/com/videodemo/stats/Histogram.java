@@ -0,0 +1,155 @@
+package wk.com.videodemo.stats;
+
+import java.util.Arrays;
+
+/**
+ * 固定桶数的直方图，用来统计帧耗时、延迟等数据。
+ *
+ * 桶的上界在创建时确定，记录时只是二分查找后计数加一，不分配内存；超过最后一个上界的值记在溢出桶里。
+ * 百分位数取所在桶的上界，是一个偏保守的近似值。方法都加了锁，可以一个线程写、其它线程读
+ */
+public class Histogram {
+    private final long[] mUpperBounds;
+    // 最后一个是溢出桶
+    private final long[] mCounts;
+    private long mTotalCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = Long.MIN_VALUE;
+
+    public Histogram(long[] upperBounds) {
+        mUpperBounds = upperBounds.clone();
+        Arrays.sort(mUpperBounds);
+        mCounts = new long[mUpperBounds.length + 1];
+    }
+
+    /**
+     * 桶上界按等比数列增长：first, first * factor, first * factor^2 ...，适合跨越几个数量级的耗时数据
+     */
+    public static Histogram exponential(long first, double factor, int bucketCount) {
+        long[] bounds = new long[bucketCount];
+        double bound = first;
+        for (int i = 0; i < bucketCount; i++) {
+            bounds[i] = (long) bound;
+            bound = Math.max(bound * factor, bounds[i] + 1);
+        }
+        return new Histogram(bounds);
+    }
+
+    public static Histogram linear(long step, int bucketCount) {
+        long[] bounds = new long[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            bounds[i] = step * (i + 1);
+        }
+        return new Histogram(bounds);
+    }
+
+    public synchronized void record(long value) {
+        int i = Arrays.binarySearch(mUpperBounds, value);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        mCounts[i]++;
+        mTotalCount++;
+        mSum += value;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = Long.MIN_VALUE;
+    }
+
+    public synchronized long getTotalCount() {
+        return mTotalCount;
+    }
+
+    public synchronized long getMean() {
+        return mTotalCount == 0 ? 0 : mSum / mTotalCount;
+    }
+
+    public synchronized long getMin() {
+        return mTotalCount == 0 ? 0 : mMin;
+    }
+
+    public synchronized long getMax() {
+        return mTotalCount == 0 ? 0 : mMax;
+    }
+
+    // 大于threshold的记录数（按桶统计，threshold会落到它所在桶的上界）
+    public synchronized long getCountAbove(long threshold) {
+        int i = Arrays.binarySearch(mUpperBounds, threshold);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        long count = 0;
+        for (int j = i + 1; j < mCounts.length; j++) {
+            count += mCounts[j];
+        }
+        return count;
+    }
+
+    /**
+     * 百分位数，percentile取0~100。落在溢出桶时返回记录到的最大值
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(mTotalCount * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank && mCounts[i] > 0) {
+                return i < mUpperBounds.length ? Math.min(mUpperBounds[i], mMax) : mMax;
+            }
+        }
+        return mMax;
+    }
+
+    public long[] getUpperBounds() {
+        return mUpperBounds.clone();
+    }
+
+    public synchronized long[] getCounts() {
+        return mCounts.clone();
+    }
+
+    // 把另一个桶结构相同的直方图合并进来
+    public void merge(Histogram other) {
+        long[] counts;
+        long total;
+        long sum;
+        long min;
+        long max;
+        synchronized (other) {
+            counts = other.mCounts.clone();
+            total = other.mTotalCount;
+            sum = other.mSum;
+            min = other.mMin;
+            max = other.mMax;
+        }
+        synchronized (this) {
+            if (counts.length != mCounts.length) {
+                throw new IllegalArgumentException("bucket layout mismatch");
+            }
+            for (int i = 0; i < counts.length; i++) {
+                mCounts[i] += counts[i];
+            }
+            mTotalCount += total;
+            mSum += sum;
+            mMin = Math.min(mMin, min);
+            mMax = Math.max(mMax, max);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + mTotalCount + " mean=" + getMean() + " p50=" + getPercentile(50) + " p90=" + getPercentile(90)
+                + " p99=" + getPercentile(99) + " max=" + getMax();
+    }
+}
@@ -0,0 +1,176 @@
+package wk.com.videodemo.stats;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+/**
+ * 轻量的耗时追踪：每种阶段（span）用一个int编号，begin()和end()可以在不同线程调用。
+ *
+ * 时间戳用System.nanoTime()，不受系统时间调整影响。最近的若干条记录存在固定大小的环形数组里，
+ * 每个阶段还有一个直方图（单位微秒）用来算百分位数，记录时不分配内存。
+ * 方法都加了锁，Sink的回调也在锁外面调用
+ */
+public class SpanTracer {
+    // 直方图从100us开始按1.5倍增长，最后一个桶大约10s
+    private static final long HISTOGRAM_FIRST_US = 100;
+    private static final double HISTOGRAM_FACTOR = 1.5;
+    private static final int HISTOGRAM_BUCKETS = 30;
+
+    /**
+     * 阶段开始、结束时的回调，比如把阶段输出到systrace
+     */
+    public interface Sink {
+        void onBegin(int span);
+
+        void onEnd(int span, long durationNs);
+    }
+
+    private final String[] mNames;
+    private final long[] mOpenStartNs;
+    private final Histogram[] mHistograms;
+
+    // 环形数组，保存最近的记录
+    private final int[] mEventSpans;
+    private final long[] mEventStartNs;
+    private final long[] mEventEndNs;
+    private int mEventNext;
+    private long mEventTotal;
+
+    private volatile Sink mSink;
+
+    public SpanTracer(String[] spanNames, int capacity) {
+        mNames = spanNames.clone();
+        mOpenStartNs = new long[mNames.length];
+        mHistograms = new Histogram[mNames.length];
+        for (int i = 0; i < mNames.length; i++) {
+            mHistograms[i] = Histogram.exponential(HISTOGRAM_FIRST_US, HISTOGRAM_FACTOR, HISTOGRAM_BUCKETS);
+        }
+        mEventSpans = new int[capacity];
+        mEventStartNs = new long[capacity];
+        mEventEndNs = new long[capacity];
+    }
+
+    public void setSink(Sink sink) {
+        mSink = sink;
+    }
+
+    public String getName(int span) {
+        return mNames[span];
+    }
+
+    public int getSpanCount() {
+        return mNames.length;
+    }
+
+    // 开始一个阶段，同一个阶段还没结束时会重新计时
+    public void begin(int span) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            mOpenStartNs[span] = now;
+        }
+        Sink sink = mSink;
+        if (null != sink) {
+            sink.onBegin(span);
+        }
+    }
+
+    // 结束一个阶段，没有begin()过时忽略
+    public void end(int span) {
+        long now = System.nanoTime();
+        long start;
+        synchronized (this) {
+            start = mOpenStartNs[span];
+            if (start == 0) {
+                return;
+            }
+            mOpenStartNs[span] = 0;
+            add(span, start, now);
+        }
+        Sink sink = mSink;
+        if (null != sink) {
+            sink.onEnd(span, now - start);
+        }
+    }
+
+    // 放弃一个进行中的阶段，比如打开camera失败
+    public synchronized void cancel(int span) {
+        mOpenStartNs[span] = 0;
+    }
+
+    public synchronized boolean isOpen(int span) {
+        return mOpenStartNs[span] != 0;
+    }
+
+    // 直接记录一个已知起止时间的阶段，时间戳要来自System.nanoTime()
+    public void record(int span, long startNs, long endNs) {
+        synchronized (this) {
+            add(span, startNs, endNs);
+        }
+        Sink sink = mSink;
+        if (null != sink) {
+            sink.onEnd(span, endNs - startNs);
+        }
+    }
+
+    private void add(int span, long startNs, long endNs) {
+        mHistograms[span].record((endNs - startNs) / 1000);
+        int i = mEventNext;
+        mEventSpans[i] = span;
+        mEventStartNs[i] = startNs;
+        mEventEndNs[i] = endNs;
+        mEventNext = (i + 1) % mEventSpans.length;
+        mEventTotal++;
+    }
+
+    // 阶段耗时的直方图，单位微秒
+    public Histogram getHistogram(int span) {
+        return mHistograms[span];
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < mNames.length; i++) {
+            mOpenStartNs[i] = 0;
+            mHistograms[i].reset();
+        }
+        mEventNext = 0;
+        mEventTotal = 0;
+    }
+
+    /**
+     * 导出统计：每个阶段的次数和百分位数（毫秒），然后是最近的记录（相对第一条记录的开始时间，毫秒）
+     */
+    public synchronized void dump(Writer out) throws IOException {
+        out.write("span,count,p50_ms,p90_ms,p99_ms,max_ms\n");
+        for (int i = 0; i < mNames.length; i++) {
+            Histogram h = mHistograms[i];
+            out.write(mNames[i] + "," + h.getTotalCount() + "," + ms(h.getPercentile(50)) + "," + ms(h.getPercentile(90))
+                    + "," + ms(h.getPercentile(99)) + "," + ms(h.getMax()) + "\n");
+        }
+        int capacity = mEventSpans.length;
+        int count = (int) Math.min(mEventTotal, capacity);
+        int first = (mEventNext - count + capacity) % capacity;
+        long base = count > 0 ? mEventStartNs[first] : 0;
+        out.write("\nspan,start_ms,duration_ms\n");
+        for (int n = 0; n < count; n++) {
+            int i = (first + n) % capacity;
+            out.write(mNames[mEventSpans[i]] + "," + ms((mEventStartNs[i] - base) / 1000) + ","
+                    + ms((mEventEndNs[i] - mEventStartNs[i]) / 1000) + "\n");
+        }
+    }
+
+    public String dump() {
+        StringWriter out = new StringWriter();
+        try {
+            dump(out);
+        } catch (IOException e) {
+            // StringWriter不会抛异常
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static String ms(long us) {
+        return String.valueOf(us / 1000.0);
+    }
+}
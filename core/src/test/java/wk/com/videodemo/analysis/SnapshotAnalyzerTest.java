@@ -0,0 +1,69 @@
+package wk.com.videodemo.analysis;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SnapshotAnalyzerTest {
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 2;
+
+    // 灰度帧，像素(x, y)的亮度是10 + 20 * x + 100 * y
+    private static Frame frame(long timestampNs) {
+        Frame frame = new Frame();
+        frame.configure(WIDTH, HEIGHT, WIDTH, WIDTH / 2, 1, timestampNs);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                frame.getY()[y * WIDTH + x] = (byte) (10 + 20 * x + 100 * y);
+            }
+        }
+        Arrays.fill(frame.getU(), (byte) 128);
+        Arrays.fill(frame.getV(), (byte) 128);
+        return frame;
+    }
+
+    private static int gray(int luma) {
+        return 0xFF000000 | luma << 16 | luma << 8 | luma;
+    }
+
+    @Test
+    public void rotatesSnapshotUpright() {
+        SnapshotAnalyzer analyzer = new SnapshotAnalyzer(90, 0, 0);
+        int[] out = new int[WIDTH * HEIGHT];
+        assertNull(analyzer.copySnapshot(out));
+
+        analyzer.analyze(frame(1000));
+
+        // 顺时针转90度：宽高对调，第一行是原来的第一列从下往上
+        assertArrayEquals(new int[]{HEIGHT, WIDTH}, analyzer.copySnapshot(out));
+        assertEquals(gray(110), out[0]);
+        assertEquals(gray(10), out[1]);
+        assertEquals(gray(130), out[2]);
+        assertEquals(1000, analyzer.getTimestampNs());
+    }
+
+    @Test
+    public void skipsFramesWithinInterval() {
+        SnapshotAnalyzer analyzer = new SnapshotAnalyzer(0, 0, 500);
+        analyzer.analyze(frame(1000));
+        analyzer.analyze(frame(1400));
+        assertEquals(1000, analyzer.getTimestampNs());
+
+        analyzer.setRotation(180);
+        analyzer.analyze(frame(1500));
+        assertEquals(1500, analyzer.getTimestampNs());
+        int[] out = new int[WIDTH * HEIGHT];
+        assertArrayEquals(new int[]{WIDTH, HEIGHT}, analyzer.copySnapshot(out));
+        // 转180度：左上角是原来的右下角
+        assertEquals(gray(170), out[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddRotation() {
+        new SnapshotAnalyzer(45, 0, 0);
+    }
+}
@@ -0,0 +1,52 @@
+package wk.com.videodemo.camera2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CameraGeometryTest {
+    private static final float DELTA = 0.001f;
+
+    @Test
+    public void orientationHintFollowsSensorOrientation() {
+        assertEquals(90, CameraGeometry.getOrientationHint(90, CameraGeometry.ROTATION_0));
+        assertEquals(0, CameraGeometry.getOrientationHint(90, CameraGeometry.ROTATION_90));
+        assertEquals(270, CameraGeometry.getOrientationHint(270, CameraGeometry.ROTATION_0));
+        assertEquals(0, CameraGeometry.getOrientationHint(270, CameraGeometry.ROTATION_270));
+    }
+
+    @Test
+    public void orientationHintRejectsUnknownValues() {
+        assertEquals(-1, CameraGeometry.getOrientationHint(0, CameraGeometry.ROTATION_0));
+        assertEquals(-1, CameraGeometry.getOrientationHint(90, 4));
+    }
+
+    @Test
+    public void portraitPreviewIsNotTransformed() {
+        float[] identity = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+        assertArrayEquals(identity,
+                CameraGeometry.getPreviewTransform(1080, 1920, 1920, 1080, CameraGeometry.ROTATION_0), DELTA);
+        assertArrayEquals(identity,
+                CameraGeometry.getPreviewTransform(0, 0, 1920, 1080, CameraGeometry.ROTATION_90), DELTA);
+    }
+
+    @Test
+    public void landscapePreviewRotatesAroundViewCenter() {
+        float[] m = CameraGeometry.getPreviewTransform(1920, 1080, 1920, 1080, CameraGeometry.ROTATION_90);
+        // 中心点不动
+        assertEquals(960, m[0] * 960 + m[1] * 540 + m[2], DELTA);
+        assertEquals(540, m[3] * 960 + m[4] * 540 + m[5], DELTA);
+        // 左上角转到左下角
+        assertEquals(0, m[2], DELTA);
+        assertEquals(1080, m[5], DELTA);
+    }
+
+    @Test
+    public void previewTransformReusesOutput() {
+        float[] out = new float[9];
+        CameraGeometry.getPreviewTransform(1920, 1080, 1920, 1080, CameraGeometry.ROTATION_270, out);
+        assertArrayEquals(CameraGeometry.getPreviewTransform(1920, 1080, 1920, 1080, CameraGeometry.ROTATION_270),
+                out, DELTA);
+    }
+}
@@ -0,0 +1,70 @@
+package wk.com.videodemo.camera2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StreamConfigNegotiatorTest {
+    private static final int[] PREVIEW_SIZES = {1920, 1080, 1280, 720, 960, 720, 640, 480};
+    private static final int[] RECORD_SIZES = {3840, 2160, 1920, 1080, 1280, 720, 640, 480};
+
+    @Test
+    public void previewAndVideoShareAspectRatio() {
+        StreamConfigNegotiator.StreamConfig config = StreamConfigNegotiator.compute(PREVIEW_SIZES, RECORD_SIZES,
+                1080, 1920, StreamConfigNegotiator.QUALITY_MEDIUM, 30);
+        assertEquals(1280, config.videoWidth);
+        assertEquals(720, config.videoHeight);
+        assertEquals(1280, config.previewWidth);
+        assertEquals(720, config.previewHeight);
+        assertEquals(30, config.frameRate);
+    }
+
+    @Test
+    public void qualityCapsVideoLongEdge() {
+        StreamConfigNegotiator.StreamConfig high = StreamConfigNegotiator.compute(PREVIEW_SIZES, RECORD_SIZES,
+                1080, 1920, StreamConfigNegotiator.QUALITY_HIGH, 30);
+        assertEquals(1920, high.videoWidth);
+        StreamConfigNegotiator.StreamConfig low = StreamConfigNegotiator.compute(PREVIEW_SIZES, RECORD_SIZES,
+                1080, 1920, StreamConfigNegotiator.QUALITY_LOW, 30);
+        assertEquals(640, low.videoWidth);
+        assertEquals(480, low.videoHeight);
+    }
+
+    @Test
+    public void frameRateIsLimitedByCamera() {
+        StreamConfigNegotiator.StreamConfig config = StreamConfigNegotiator.compute(PREVIEW_SIZES, RECORD_SIZES,
+                1080, 1920, StreamConfigNegotiator.QUALITY_MEDIUM, 24);
+        assertEquals(24, config.frameRate);
+    }
+
+    @Test
+    public void noMatchingAspectReturnsNull() {
+        assertNull(StreamConfigNegotiator.compute(new int[]{1000, 1000}, RECORD_SIZES, 1080, 1920,
+                StreamConfigNegotiator.QUALITY_MEDIUM, 30));
+        assertNull(StreamConfigNegotiator.compute(null, RECORD_SIZES, 1080, 1920,
+                StreamConfigNegotiator.QUALITY_MEDIUM, 30));
+    }
+
+    @Test
+    public void negotiateCachesPerCamera() {
+        StreamConfigNegotiator negotiator = new StreamConfigNegotiator();
+        StreamConfigNegotiator.StreamConfig first = negotiator.negotiate("0", PREVIEW_SIZES, RECORD_SIZES,
+                1080, 1920, StreamConfigNegotiator.QUALITY_MEDIUM, 30);
+        assertSame(first, negotiator.negotiate("0", PREVIEW_SIZES, RECORD_SIZES,
+                1080, 1920, StreamConfigNegotiator.QUALITY_MEDIUM, 30));
+    }
+
+    @Test
+    public void largestSizePrefersMatchingAspect() {
+        int[] sizes = {4000, 3000, 1920, 1080, 1440, 1080, 640, 360};
+        assertArrayEquals(new int[]{1920, 1080}, StreamConfigNegotiator.chooseLargestSize(sizes, 1280, 720, 1920));
+        assertArrayEquals(new int[]{640, 360}, StreamConfigNegotiator.chooseLargestSize(sizes, 1280, 720, 1000));
+        assertArrayEquals(new int[]{1440, 1080}, StreamConfigNegotiator.chooseLargestSize(sizes, 4, 3, 1920));
+        // 没有同宽高比的就取最大的
+        assertArrayEquals(new int[]{1920, 1080}, StreamConfigNegotiator.chooseLargestSize(sizes, 1, 1, 1920));
+        assertNull(StreamConfigNegotiator.chooseLargestSize(sizes, 1280, 720, 100));
+    }
+}
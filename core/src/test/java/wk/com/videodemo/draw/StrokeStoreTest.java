@@ -0,0 +1,122 @@
+package wk.com.videodemo.draw;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StrokeStoreTest {
+
+    // 三条笔画：坐标有负数、往回走，第三条的时间比前一条早（时间差也是负的）
+    private static StrokeStore threeStrokes() {
+        StrokeStore store = new StrokeStore(0);
+        store.beginStroke(10.125f, 20.5f, 1000);
+        store.addPoint(-3.25f, 40f, 1016);
+        store.addPoint(-50.875f, -7.5f, 1033);
+        store.addPoint(100f, 0.375f, 1040);
+        store.endStroke();
+        store.beginStroke(300f, 200f, 5000);
+        store.addPoint(290.5f, 180.25f, 5016);
+        store.endStroke();
+        store.beginStroke(-1f, -1f, 4000);
+        store.addPoint(2048.125f, -999.875f, 3990);
+        store.addPoint(0f, 5f, 100000);
+        store.endStroke();
+        return store;
+    }
+
+    @Test
+    public void encodeDecodeRoundTrip() throws IOException {
+        StrokeStore store = threeStrokes();
+        assertEquals(9, store.getPointCount());
+
+        StrokeStore decoded = StrokeStore.decode(new ByteArrayInputStream(store.encode()), 0);
+
+        assertEquals(3, decoded.getStrokeCount());
+        assertEquals(store.getPointCount(), decoded.getPointCount());
+        for (int s = 0; s < 3; s++) {
+            assertEquals(store.getStrokeStart(s), decoded.getStrokeStart(s));
+            assertEquals(store.getStrokeEnd(s), decoded.getStrokeEnd(s));
+        }
+        for (int i = 0; i < store.getPointCount(); i++) {
+            // 坐标都是1/8像素的整数倍，量化后没有误差
+            assertEquals(store.getX(i), decoded.getX(i), 0f);
+            assertEquals(store.getY(i), decoded.getY(i), 0f);
+            assertEquals(store.getTime(i), decoded.getTime(i));
+        }
+        assertFalse(decoded.isStrokeOpen());
+    }
+
+    @Test
+    public void truncatedInputThrows() throws IOException {
+        byte[] data = threeStrokes().encode();
+        for (int length = 0; length < data.length; length++) {
+            try {
+                StrokeStore.decode(new ByteArrayInputStream(Arrays.copyOf(data, length)), 0);
+                fail("decoded " + length + " of " + data.length + " bytes");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void rejectsWrongMagic() {
+        try {
+            StrokeStore.decode(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 0}), 0);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void simplifiedStrokeStaysWithinTolerance() {
+        float tolerance = 1.5f;
+        StrokeStore store = new StrokeStore(tolerance);
+        // 带抖动的正弦曲线
+        Random random = new Random(42);
+        int count = 2000;
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = i * 0.5f;
+            ys[i] = (float) (100 * Math.sin(i / 80.0)) + random.nextFloat() * 0.8f;
+            if (i == 0) {
+                store.beginStroke(xs[i], ys[i], i);
+            } else {
+                store.addPoint(xs[i], ys[i], i * 8);
+            }
+        }
+        store.endStroke();
+
+        assertEquals(count, store.getRawPointCount());
+        assertTrue("kept " + store.getPointCount(), store.getPointCount() < count / 4);
+        // 首尾点一定保留
+        assertEquals(xs[0], store.getX(0), 0f);
+        assertEquals(xs[count - 1], store.getX(store.getPointCount() - 1), 0f);
+        for (int i = 0; i < count; i++) {
+            float distance = distanceToPolyline(store, xs[i], ys[i]);
+            assertTrue("point " + i + " is " + distance + " away", distance <= tolerance + 1e-3f);
+        }
+    }
+
+    private static float distanceToPolyline(StrokeStore store, float px, float py) {
+        double best = Double.MAX_VALUE;
+        for (int i = 1; i < store.getPointCount(); i++) {
+            double ax = store.getX(i - 1);
+            double ay = store.getY(i - 1);
+            double dx = store.getX(i) - ax;
+            double dy = store.getY(i) - ay;
+            double len2 = dx * dx + dy * dy;
+            double t = len2 == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / len2));
+            best = Math.min(best, Math.hypot(ax + t * dx - px, ay + t * dy - py));
+        }
+        return (float) best;
+    }
+}
@@ -0,0 +1,116 @@
+package wk.com.videodemo.draw;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TouchSampleQueueTest {
+
+    // 把取出的采样点按顺序记下来
+    private static class Recorder implements TouchSampleQueue.Consumer {
+        final List<Long> mTimes = new ArrayList<>();
+        float mLastX;
+        int mLastAction = -1;
+
+        @Override
+        public void onSample(float x, float y, long timeMs, int action) {
+            mTimes.add(timeMs);
+            mLastX = x;
+            mLastAction = action;
+        }
+    }
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(8, new TouchSampleQueue(5).getCapacity());
+        assertEquals(8, new TouchSampleQueue(8).getCapacity());
+        assertEquals(2, new TouchSampleQueue(0).getCapacity());
+    }
+
+    @Test
+    public void wrapsAroundKeepingOrder() {
+        TouchSampleQueue queue = new TouchSampleQueue(4);
+        Recorder recorder = new Recorder();
+        long next = 0;
+        // 每轮写3个读3个，下标会多次绕回数组开头
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.offer(next, 0, next, TouchSampleQueue.ACTION_MOVE));
+                next++;
+            }
+            assertEquals(3, queue.drain(recorder, Integer.MAX_VALUE));
+            assertTrue(queue.isEmpty());
+        }
+        assertEquals(30, recorder.mTimes.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i, (long) recorder.mTimes.get(i));
+        }
+        assertEquals(29f, recorder.mLastX, 0f);
+    }
+
+    @Test
+    public void dropsNewSamplesWhenFull() {
+        TouchSampleQueue queue = new TouchSampleQueue(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(0, 0, i, TouchSampleQueue.ACTION_MOVE));
+        }
+        assertFalse(queue.offer(0, 0, 4, TouchSampleQueue.ACTION_UP));
+        assertFalse(queue.offer(0, 0, 5, TouchSampleQueue.ACTION_UP));
+        assertEquals(2, queue.getDroppedCount());
+
+        // 已经入队的不受影响，腾出位置后又能写了
+        Recorder recorder = new Recorder();
+        assertEquals(2, queue.drain(recorder, 2));
+        assertTrue(queue.offer(0, 0, 6, TouchSampleQueue.ACTION_UP));
+        assertEquals(3, queue.drain(recorder, Integer.MAX_VALUE));
+        assertEquals(5, recorder.mTimes.size());
+        assertEquals(6, (long) recorder.mTimes.get(4));
+        assertEquals(TouchSampleQueue.ACTION_UP, recorder.mLastAction);
+        assertEquals(2, queue.getDroppedCount());
+    }
+
+    @Test
+    public void producerAndConsumerThreadsKeepOrder() throws InterruptedException {
+        final TouchSampleQueue queue = new TouchSampleQueue(64);
+        final int total = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // 满了就重试，不丢点，这样消费者应该看到完整的0..total-1
+                for (int i = 0; i < total; i++) {
+                    while (!queue.offer(i, -i, i, TouchSampleQueue.ACTION_MOVE)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        final long[] expected = new long[1];
+        final boolean[] ordered = {true};
+        TouchSampleQueue.Consumer checker = new TouchSampleQueue.Consumer() {
+            @Override
+            public void onSample(float x, float y, long timeMs, int action) {
+                // 数据和下标一起发布，x、y、时间必须是同一个点的
+                if (timeMs != expected[0] || x != timeMs || y != -timeMs) {
+                    ordered[0] = false;
+                }
+                expected[0]++;
+            }
+        };
+        producer.start();
+        long deadline = System.currentTimeMillis() + 30000;
+        while (expected[0] < total && System.currentTimeMillis() < deadline) {
+            if (0 == queue.drain(checker, 16)) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        assertTrue(ordered[0]);
+        assertEquals(total, expected[0]);
+        assertTrue(queue.isEmpty());
+    }
+}
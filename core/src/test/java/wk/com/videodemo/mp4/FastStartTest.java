@@ -0,0 +1,225 @@
+package wk.com.videodemo.mp4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_CO64;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MDIA;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MINF;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MOOV;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_STBL;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_STCO;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_TRAK;
+import static wk.com.videodemo.mp4.Mp4IndexReader.boxEnd;
+import static wk.com.videodemo.mp4.Mp4IndexReader.findChild;
+import static wk.com.videodemo.mp4.Mp4IndexReader.fourcc;
+import static wk.com.videodemo.mp4.Mp4IndexReader.payloadStart;
+
+public class FastStartTest {
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("faststart", ".mp4");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void movesMoovBeforeMdatAndKeepsSamples() throws IOException {
+        SyntheticMp4.Track video = SyntheticMp4.video(40);
+        SyntheticMp4.Track audio = SyntheticMp4.audio(55);
+        SyntheticMp4.write(mFile, false, video, audio);
+        long length = mFile.length();
+        Mp4Index before = Mp4IndexReader.read(mFile);
+        assertTrue(before.getMoovOffset() > 0);
+
+        assertTrue(FastStart.process(mFile));
+
+        assertEquals(length, mFile.length());
+        Mp4Index after = Mp4IndexReader.read(mFile);
+        // moov紧跟在ftyp后面
+        assertEquals(SyntheticMp4.ftyp().length, after.getMoovOffset());
+        assertEquals(before.getMoovSize(), after.getMoovSize());
+        assertSamples(after.getTracks().get(0), video);
+        assertSamples(after.getTracks().get(1), audio);
+    }
+
+    @Test
+    public void leavesFastStartFileUnchanged() throws IOException {
+        SyntheticMp4.write(mFile, true, SyntheticMp4.video(20), SyntheticMp4.audio(30));
+        byte[] before = Files.readAllBytes(mFile.toPath());
+
+        assertFalse(FastStart.process(mFile));
+
+        assertArrayEquals(before, Files.readAllBytes(mFile.toPath()));
+        assertFalse(new File(mFile.getPath() + ".faststart.tmp").exists());
+    }
+
+    @Test
+    public void ignoresNonMp4() throws IOException {
+        byte[] data = new byte[256];
+        Arrays.fill(data, (byte) 0x7F);
+        Files.write(mFile.toPath(), data);
+
+        assertFalse(FastStart.process(mFile));
+
+        assertArrayEquals(data, Files.readAllBytes(mFile.toPath()));
+    }
+
+    /**
+     * 4G以上的偏移只改写moov，不生成几个G的文件：mdat声明成超过4G大小，最后一个chunk挨着4G边界，
+     * moov挪到前面以后偏移放不进32位，stco要升级成co64
+     */
+    @Test
+    public void upgradesStcoToCo64WhenOffsetsPass4G() throws IOException {
+        SyntheticMp4.Track video = SyntheticMp4.video(10);
+        long ftypSize = SyntheticMp4.ftyp().length;
+        long mdatStart = ftypSize;
+        long mdatSize = 0x100000000L + 1024;
+        long[] offsets = {mdatStart + 8, 0xFFFFFF00L};
+        ByteBuffer moov = ByteBuffer.wrap(SyntheticMp4.moov(new SyntheticMp4.Track[]{video}, new long[][]{offsets}));
+        assertEquals(TYPE_STCO, moov.getInt(chunkOffsetBox(moov) + 4));
+
+        long[] ftypBox = {0, ftypSize, fourcc("ftyp")};
+        long[] mdatBox = {mdatStart, mdatSize, fourcc("mdat")};
+        long[] moovBox = {mdatStart + mdatSize, moov.limit(), TYPE_MOOV};
+        List<long[]> order = new ArrayList<>();
+        order.add(ftypBox);
+        order.add(moovBox);
+        order.add(mdatBox);
+
+        ByteBuffer out = FastStart.relocate(moov, order, moovBox);
+
+        // 两个表项各多4字节
+        assertEquals(moov.limit() + 8, out.limit());
+        assertEquals(out.limit(), out.getInt(0));
+        int co64 = chunkOffsetBox(out);
+        assertEquals(TYPE_CO64, out.getInt(co64 + 4));
+        int payload = payloadStart(out, co64);
+        assertEquals(2, out.getInt(payload + 4));
+        long shift = out.limit();
+        assertEquals(offsets[0] + shift, out.getLong(payload + 8));
+        assertEquals(offsets[1] + shift, out.getLong(payload + 16));
+        assertTrue(out.getLong(payload + 16) > 0xFFFFFFFFL);
+    }
+
+    @Test
+    public void keepsStcoWhenOffsetsFit() throws IOException {
+        SyntheticMp4.Track video = SyntheticMp4.video(10);
+        long ftypSize = SyntheticMp4.ftyp().length;
+        long[] offsets = {ftypSize + 8, ftypSize + 508};
+        ByteBuffer moov = ByteBuffer.wrap(SyntheticMp4.moov(new SyntheticMp4.Track[]{video}, new long[][]{offsets}));
+        long[] ftypBox = {0, ftypSize, fourcc("ftyp")};
+        long[] mdatBox = {ftypSize, 1008, fourcc("mdat")};
+        long[] moovBox = {ftypSize + 1008, moov.limit(), TYPE_MOOV};
+        List<long[]> order = new ArrayList<>();
+        order.add(ftypBox);
+        order.add(moovBox);
+        order.add(mdatBox);
+
+        ByteBuffer out = FastStart.relocate(moov, order, moovBox);
+
+        assertEquals(moov.limit(), out.limit());
+        int stco = chunkOffsetBox(out);
+        assertEquals(TYPE_STCO, out.getInt(stco + 4));
+        int payload = payloadStart(out, stco);
+        assertEquals(offsets[0] + moov.limit(), out.getInt(payload + 8) & 0xFFFFFFFFL);
+        assertEquals(offsets[1] + moov.limit(), out.getInt(payload + 12) & 0xFFFFFFFFL);
+    }
+
+    @Test
+    public void compactsPaddedStcoAndShiftsBySizeWritten() throws IOException {
+        SyntheticMp4.Track video = SyntheticMp4.video(10);
+        long ftypSize = SyntheticMp4.ftyp().length;
+        long[] offsets = {ftypSize + 8, ftypSize + 508};
+        // stco后面多出4字节的填充，改写时按表项重新算大小，填充会被去掉
+        ByteBuffer moov = padChunkOffsetBox(
+                SyntheticMp4.moov(new SyntheticMp4.Track[]{video}, new long[][]{offsets}), 4);
+        long[] ftypBox = {0, ftypSize, fourcc("ftyp")};
+        long[] mdatBox = {ftypSize, 1008, fourcc("mdat")};
+        long[] moovBox = {ftypSize + 1008, moov.limit(), TYPE_MOOV};
+        List<long[]> order = new ArrayList<>();
+        order.add(ftypBox);
+        order.add(moovBox);
+        order.add(mdatBox);
+
+        ByteBuffer out = FastStart.relocate(moov, order, moovBox);
+
+        assertEquals(moov.limit() - 4, out.limit());
+        assertEquals(out.limit(), out.getInt(0));
+        int stco = chunkOffsetBox(out);
+        assertEquals(8 + 8 + 2 * 4, out.getInt(stco));
+        int payload = payloadStart(out, stco);
+        // mdat往后挪的距离是实际写出的moov大小
+        assertEquals(offsets[0] + out.limit(), out.getInt(payload + 8) & 0xFFFFFFFFL);
+        assertEquals(offsets[1] + out.limit(), out.getInt(payload + 12) & 0xFFFFFFFFL);
+    }
+
+    // 在第一个track的stco末尾插入padding个0字节，外面各层box的大小跟着加上
+    private static ByteBuffer padChunkOffsetBox(byte[] moov, int padding) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(moov);
+        int trak = findChild(buf, 8, buf.limit(), TYPE_TRAK);
+        int mdia = findChild(buf, payloadStart(buf, trak), boxEnd(buf, trak), TYPE_MDIA);
+        int minf = findChild(buf, payloadStart(buf, mdia), boxEnd(buf, mdia), TYPE_MINF);
+        int stbl = findChild(buf, payloadStart(buf, minf), boxEnd(buf, minf), TYPE_STBL);
+        int stco = chunkOffsetBox(buf);
+        int insertAt = boxEnd(buf, stco);
+        ByteBuffer out = ByteBuffer.allocate(moov.length + padding);
+        out.put(moov, 0, insertAt);
+        out.put(new byte[padding]);
+        out.put(moov, insertAt, moov.length - insertAt);
+        for (int box : new int[]{0, trak, mdia, minf, stbl, stco}) {
+            out.putInt(box, out.getInt(box) + padding);
+        }
+        out.clear();
+        return out;
+    }
+
+    // 第一个track的stco或co64
+    private static int chunkOffsetBox(ByteBuffer moov) throws IOException {
+        int trak = findChild(moov, 8, moov.limit(), TYPE_TRAK);
+        int mdia = findChild(moov, payloadStart(moov, trak), boxEnd(moov, trak), TYPE_MDIA);
+        int minf = findChild(moov, payloadStart(moov, mdia), boxEnd(moov, mdia), TYPE_MINF);
+        int stbl = findChild(moov, payloadStart(moov, minf), boxEnd(moov, minf), TYPE_STBL);
+        int box = findChild(moov, payloadStart(moov, stbl), boxEnd(moov, stbl), TYPE_STCO);
+        if (box < 0) {
+            box = findChild(moov, payloadStart(moov, stbl), boxEnd(moov, stbl), TYPE_CO64);
+        }
+        return box;
+    }
+
+    private void assertSamples(TrackIndex track, SyntheticMp4.Track expected) throws IOException {
+        assertEquals(expected.sizes.length, track.getSampleCount());
+        RandomAccessFile raf = new RandomAccessFile(mFile, "r");
+        try {
+            for (int i = 0; i < track.getSampleCount(); i++) {
+                byte[] sample = new byte[track.getSampleSize(i)];
+                raf.seek(track.getSampleOffset(i));
+                raf.readFully(sample);
+                byte[] want = new byte[expected.sizes[i]];
+                Arrays.fill(want, expected.sampleByte(i));
+                assertArrayEquals("sample " + i, want, sample);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
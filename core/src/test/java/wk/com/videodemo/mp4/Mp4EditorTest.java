@@ -0,0 +1,201 @@
+package wk.com.videodemo.mp4;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_CTTS;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_EDTS;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_ELST;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MDIA;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_MINF;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_STBL;
+import static wk.com.videodemo.mp4.Mp4IndexReader.TYPE_TRAK;
+import static wk.com.videodemo.mp4.Mp4IndexReader.boxEnd;
+import static wk.com.videodemo.mp4.Mp4IndexReader.findChild;
+import static wk.com.videodemo.mp4.Mp4IndexReader.payloadStart;
+
+public class Mp4EditorTest {
+    private final List<File> mFiles = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void trimStartsOnKeyframeAndEndsOnPresentationTime() throws IOException {
+        SyntheticMp4.Track video = SyntheticMp4.video(90);
+        SyntheticMp4.Track audio = SyntheticMp4.audio(130);
+        File src = write(false, video, audio);
+        File dst = newFile();
+
+        // 1.2s之前的关键帧在1.0s（第30帧），2.0s之前的最后一帧是第59帧
+        Mp4Editor.trim(src, 1200000, 2000000, dst);
+
+        Mp4Index index = Mp4IndexReader.read(dst);
+        assertEquals(SyntheticMp4.ftyp().length, index.getMoovOffset());
+        TrackIndex outVideo = index.getTracks().get(0);
+        assertEquals(30, outVideo.getSampleCount());
+        assertTrue(outVideo.isSyncSample(0));
+        assertEquals(0, outVideo.getPresentationTimeUs(0));
+        assertSample(dst, outVideo, 0, video, 30);
+        assertSample(dst, outVideo, 29, video, 59);
+
+        TrackIndex outAudio = index.getTracks().get(1);
+        // 音频从1.0s之后的第一帧开始：1000000 * 44100 / 1024 / 1000000向上取整是44
+        assertSample(dst, outAudio, 0, audio, 44);
+        int last = outAudio.getSampleCount() - 1;
+        assertTrue((44L + last) * 1024 * 1000000 / 44100 < 2000000);
+        assertTrue((45L + last) * 1024 * 1000000 / 44100 >= 2000000);
+    }
+
+    @Test
+    public void keepsCttsVersionAndWritesEditList() throws IOException {
+        SyntheticMp4.Track video = SyntheticMp4.video(60);
+        // version 1：I帧0，P帧往后两帧，两个B帧往前一帧
+        video.cttsVersion = 1;
+        video.compositionOffsets = new int[60];
+        for (int i = 0; i < 60; i++) {
+            int[] pattern = {0, 2000, -1000, -1000};
+            video.compositionOffsets[i] = pattern[i % 4];
+        }
+        File src = write(true, video);
+        File dst = newFile();
+
+        Mp4Editor.trim(src, 0, Long.MAX_VALUE, dst);
+
+        ByteBuffer moov = readMoov(dst);
+        int stbl = stbl(moov);
+        int ctts = findChild(moov, payloadStart(moov, stbl), boxEnd(moov, stbl), TYPE_CTTS);
+        assertEquals(1, moov.get(payloadStart(moov, ctts)) & 0xFF);
+        TrackIndex track = Mp4IndexReader.read(dst).getTracks().get(0);
+        assertEquals(-1000, track.getCompositionOffset(2));
+        assertEquals(1000000 / 30, track.getPresentationTimeUs(2));
+        assertTrue(hasEditList(moov));
+    }
+
+    @Test
+    public void editListStartsFirstFrameAtZero() throws IOException {
+        SyntheticMp4.Track video = SyntheticMp4.video(45);
+        // version 0：所有偏移都不小于0，第一帧的显示时间是1000，要靠elst的media_time移回0
+        video.compositionOffsets = new int[45];
+        for (int i = 0; i < 45; i++) {
+            int[] pattern = {1000, 3000, 0, 0};
+            video.compositionOffsets[i] = pattern[i % 4];
+        }
+        File src = write(true, video);
+        File dst = newFile();
+
+        Mp4Editor.trim(src, 0, Long.MAX_VALUE, dst);
+
+        TrackIndex track = Mp4IndexReader.read(dst).getTracks().get(0);
+        assertEquals(0, track.getPresentationTime(0));
+        assertEquals(1000, track.getPresentationTime(2));
+        assertTrue(hasEditList(readMoov(dst)));
+    }
+
+    @Test
+    public void concatStartsEverySegmentTogether() throws IOException {
+        // 视频正好1s，音频40帧只有约0.929s，不补齐的话每接一段音频就提前约71ms
+        List<File> sources = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            SyntheticMp4.Track video = SyntheticMp4.video(30);
+            SyntheticMp4.Track audio = SyntheticMp4.audio(40);
+            video.dataSeed = i * 30;
+            sources.add(write(false, video, audio));
+        }
+        File dst = newFile();
+
+        Mp4Editor.concat(sources, dst);
+
+        Mp4Index index = Mp4IndexReader.read(dst);
+        TrackIndex video = index.getTracks().get(0);
+        TrackIndex audio = index.getTracks().get(1);
+        assertEquals(90, video.getSampleCount());
+        assertEquals(120, audio.getSampleCount());
+        for (int segment = 1; segment < 3; segment++) {
+            long videoStart = video.getPresentationTimeUs(segment * 30);
+            long audioStart = audio.getPresentationTimeUs(segment * 40);
+            assertEquals(segment * 1000000L, videoStart);
+            // 误差不超过一个音频采样点
+            assertTrue("segment " + segment + " audio starts at " + audioStart,
+                    Math.abs(audioStart - videoStart) <= 1000000 / 44100 + 1);
+            assertTrue(video.isSyncSample(segment * 30));
+        }
+        // 第二段的数据来自第二个文件
+        RandomAccessFile raf = new RandomAccessFile(dst, "r");
+        try {
+            raf.seek(video.getSampleOffset(30));
+            assertEquals(30, raf.read());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private File newFile() throws IOException {
+        File file = File.createTempFile("editor", ".mp4");
+        mFiles.add(file);
+        return file;
+    }
+
+    private File write(boolean moovFirst, SyntheticMp4.Track... tracks) throws IOException {
+        File file = newFile();
+        SyntheticMp4.write(file, moovFirst, tracks);
+        return file;
+    }
+
+    private static void assertSample(File file, TrackIndex track, int sample, SyntheticMp4.Track source,
+                                     int sourceSample) throws IOException {
+        byte[] data = new byte[track.getSampleSize(sample)];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(track.getSampleOffset(sample));
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        byte[] want = new byte[source.sizes[sourceSample]];
+        Arrays.fill(want, source.sampleByte(sourceSample));
+        assertArrayEquals(want, data);
+    }
+
+    private static ByteBuffer readMoov(File file) throws IOException {
+        Mp4Index index = Mp4IndexReader.read(file);
+        byte[] moov = new byte[(int) index.getMoovSize()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(index.getMoovOffset());
+            raf.readFully(moov);
+        } finally {
+            raf.close();
+        }
+        return ByteBuffer.wrap(moov);
+    }
+
+    // 第一个track的stbl
+    private static int stbl(ByteBuffer moov) throws IOException {
+        int trak = findChild(moov, 8, moov.limit(), TYPE_TRAK);
+        int mdia = findChild(moov, payloadStart(moov, trak), boxEnd(moov, trak), TYPE_MDIA);
+        int minf = findChild(moov, payloadStart(moov, mdia), boxEnd(moov, mdia), TYPE_MINF);
+        return findChild(moov, payloadStart(moov, minf), boxEnd(moov, minf), TYPE_STBL);
+    }
+
+    private static boolean hasEditList(ByteBuffer moov) throws IOException {
+        int trak = findChild(moov, 8, moov.limit(), TYPE_TRAK);
+        int edts = findChild(moov, payloadStart(moov, trak), boxEnd(moov, trak), TYPE_EDTS);
+        return edts >= 0 && findChild(moov, payloadStart(moov, edts), boxEnd(moov, edts), TYPE_ELST) >= 0;
+    }
+}
@@ -0,0 +1,357 @@
+package wk.com.videodemo.mp4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 测试和benchmark共用的mp4：只有解析和剪辑用得到的box，采样数据是可以校验的字节（每个采样填满sampleByte()的值）
+ */
+final class SyntheticMp4 {
+    static final int MOVIE_TIMESCALE = 1000;
+
+    private SyntheticMp4() {
+    }
+
+    static class Track {
+        final String handler;
+        final int timescale;
+        final int[] sizes;
+        final int[] deltas;
+        final int samplesPerChunk;
+        // 下面几项可选
+        int[] compositionOffsets;
+        int cttsVersion;
+        // stss，采样号从0开始；为null时不写stss（每一帧都是关键帧）
+        int[] syncSamples;
+        // elst：开头的空白编辑（mvhd的timescale），第一段正常编辑的media_time，为-1时不写elst
+        long editEmptyDuration;
+        long editMediaTime = -1;
+        // 采样数据的第一个字节，用来区分track和文件
+        int dataSeed;
+
+        Track(String handler, int timescale, int sampleCount, int sampleSize, int delta, int samplesPerChunk) {
+            this.handler = handler;
+            this.timescale = timescale;
+            this.sizes = new int[sampleCount];
+            this.deltas = new int[sampleCount];
+            Arrays.fill(sizes, sampleSize);
+            Arrays.fill(deltas, delta);
+            this.samplesPerChunk = samplesPerChunk;
+        }
+
+        int chunkCount() {
+            return (sizes.length + samplesPerChunk - 1) / samplesPerChunk;
+        }
+
+        long duration() {
+            long duration = 0;
+            for (int delta : deltas) {
+                duration += delta;
+            }
+            return duration;
+        }
+
+        byte sampleByte(int sample) {
+            return (byte) (dataSeed + sample);
+        }
+    }
+
+    // 30fps的视频，每15帧一个关键帧，每个chunk 5帧
+    static Track video(int sampleCount) {
+        Track track = new Track(TrackIndex.HANDLER_VIDEO, 30000, sampleCount, 100, 1000, 5);
+        track.syncSamples = new int[(sampleCount + 14) / 15];
+        for (int i = 0; i < track.syncSamples.length; i++) {
+            track.syncSamples[i] = i * 15;
+        }
+        return track;
+    }
+
+    // 44.1kHz的AAC，每帧1024个采样，每个chunk 10帧
+    static Track audio(int sampleCount) {
+        Track track = new Track(TrackIndex.HANDLER_AUDIO, 44100, sampleCount, 20, 1024, 10);
+        track.dataSeed = 0x80;
+        return track;
+    }
+
+    /**
+     * 和MediaRecorder录出来的布局一样，给benchmark用：30fps视频（90kHz，每秒一个关键帧，关键帧更大）+ AAC音频，
+     * 采样大小各不相同，mdat在前moov在后
+     */
+    static void writeRecording(File file, int videoFrames) throws IOException {
+        Track video = new Track(TrackIndex.HANDLER_VIDEO, 90000, videoFrames, 0, 3000, 5);
+        video.syncSamples = new int[(videoFrames + 29) / 30];
+        for (int i = 0; i < video.syncSamples.length; i++) {
+            video.syncSamples[i] = i * 30;
+        }
+        for (int i = 0; i < videoFrames; i++) {
+            video.sizes[i] = 2000 + (i * 37) % 900 + (i % 30 == 0 ? 5000 : 0);
+        }
+        int audioFrames = (int) ((long) videoFrames * 3000 * 44100 / 90000 / 1024);
+        Track audio = new Track(TrackIndex.HANDLER_AUDIO, 44100, audioFrames, 0, 1024, 7);
+        audio.dataSeed = 0x80;
+        for (int i = 0; i < audioFrames; i++) {
+            audio.sizes[i] = 300 + (i * 13) % 50;
+        }
+        write(file, false, video, audio);
+    }
+
+    /**
+     * 写出ftyp、mdat、moov。各个track的chunk轮流写进mdat，保持音视频交错
+     *
+     * @param moovFirst true时moov在mdat前面（faststart）
+     */
+    static void write(File file, boolean moovFirst, Track... tracks) throws IOException {
+        byte[] ftyp = ftyp();
+        long[][] offsets = new long[tracks.length][];
+        for (int t = 0; t < tracks.length; t++) {
+            offsets[t] = new long[tracks[t].chunkCount()];
+        }
+        // moov的大小和偏移的值无关，先用全0的偏移算出大小
+        int moovSize = moov(tracks, offsets).length;
+        long dataStart = ftyp.length + (moovFirst ? moovSize : 0) + 8;
+
+        ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+        int maxChunks = 0;
+        for (Track track : tracks) {
+            maxChunks = Math.max(maxChunks, track.chunkCount());
+        }
+        for (int c = 0; c < maxChunks; c++) {
+            for (int t = 0; t < tracks.length; t++) {
+                Track track = tracks[t];
+                if (c >= track.chunkCount()) {
+                    continue;
+                }
+                offsets[t][c] = dataStart + mdat.size();
+                int end = Math.min(track.sizes.length, (c + 1) * track.samplesPerChunk);
+                for (int i = c * track.samplesPerChunk; i < end; i++) {
+                    byte[] sample = new byte[track.sizes[i]];
+                    Arrays.fill(sample, track.sampleByte(i));
+                    mdat.write(sample);
+                }
+            }
+        }
+        byte[] moov = moov(tracks, offsets);
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.write(ftyp);
+            if (moovFirst) {
+                out.write(moov);
+            }
+            out.writeInt(mdat.size() + 8);
+            out.writeBytes("mdat");
+            mdat.writeTo(out);
+            if (!moovFirst) {
+                out.write(moov);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static byte[] ftyp() throws IOException {
+        Box ftyp = new Box("ftyp");
+        ftyp.out.writeBytes("isom");
+        ftyp.out.writeInt(0);
+        ftyp.out.writeBytes("isommp42");
+        return ftyp.toByteArray();
+    }
+
+    /**
+     * @param chunkOffsets 每个track的chunk偏移，有超过4G的就写co64
+     */
+    static byte[] moov(Track[] tracks, long[][] chunkOffsets) throws IOException {
+        long movieDuration = 0;
+        for (Track track : tracks) {
+            movieDuration = Math.max(movieDuration, track.duration() * MOVIE_TIMESCALE / track.timescale);
+        }
+        Box moov = new Box("moov");
+        Box mvhd = new Box("mvhd");
+        mvhd.out.writeInt(0);
+        mvhd.out.writeInt(0);
+        mvhd.out.writeInt(0);
+        mvhd.out.writeInt(MOVIE_TIMESCALE);
+        mvhd.out.writeInt((int) movieDuration);
+        mvhd.out.writeInt(0x00010000);
+        mvhd.out.writeShort(0x0100);
+        mvhd.out.write(new byte[10 + 36 + 24]);
+        mvhd.out.writeInt(tracks.length + 1);
+        moov.add(mvhd);
+        for (int t = 0; t < tracks.length; t++) {
+            moov.add(trak(tracks[t], t + 1, chunkOffsets[t]));
+        }
+        return moov.toByteArray();
+    }
+
+    private static Box trak(Track track, int trackId, long[] chunkOffsets) throws IOException {
+        Box trak = new Box("trak");
+        Box tkhd = new Box("tkhd");
+        tkhd.out.writeInt(7);
+        tkhd.out.writeInt(0);
+        tkhd.out.writeInt(0);
+        tkhd.out.writeInt(trackId);
+        tkhd.out.writeInt(0);
+        tkhd.out.writeInt((int) (track.duration() * MOVIE_TIMESCALE / track.timescale));
+        tkhd.out.write(new byte[60]);
+        trak.add(tkhd);
+
+        if (track.editMediaTime >= 0) {
+            Box edts = new Box("edts");
+            Box elst = new Box("elst");
+            elst.out.writeInt(0);
+            elst.out.writeInt(track.editEmptyDuration > 0 ? 2 : 1);
+            if (track.editEmptyDuration > 0) {
+                elst.out.writeInt((int) track.editEmptyDuration);
+                elst.out.writeInt(-1);
+                elst.out.writeInt(0x00010000);
+            }
+            elst.out.writeInt((int) ((track.duration() - track.editMediaTime) * MOVIE_TIMESCALE / track.timescale));
+            elst.out.writeInt((int) track.editMediaTime);
+            elst.out.writeInt(0x00010000);
+            edts.add(elst);
+            trak.add(edts);
+        }
+
+        Box mdia = new Box("mdia");
+        Box mdhd = new Box("mdhd");
+        mdhd.out.writeInt(0);
+        mdhd.out.writeInt(0);
+        mdhd.out.writeInt(0);
+        mdhd.out.writeInt(track.timescale);
+        mdhd.out.writeInt((int) track.duration());
+        mdhd.out.writeInt(0x55C40000);
+        mdia.add(mdhd);
+        Box hdlr = new Box("hdlr");
+        hdlr.out.writeInt(0);
+        hdlr.out.writeInt(0);
+        hdlr.out.writeBytes(track.handler);
+        hdlr.out.write(new byte[13]);
+        mdia.add(hdlr);
+        Box minf = new Box("minf");
+        minf.add(stbl(track, chunkOffsets));
+        mdia.add(minf);
+        trak.add(mdia);
+        return trak;
+    }
+
+    private static Box stbl(Track track, long[] chunkOffsets) throws IOException {
+        Box stbl = new Box("stbl");
+        Box stsd = new Box("stsd");
+        stsd.out.writeInt(0);
+        stsd.out.writeInt(1);
+        stsd.out.writeInt(16);
+        stsd.out.writeBytes(TrackIndex.HANDLER_VIDEO.equals(track.handler) ? "avc1" : "mp4a");
+        stsd.out.writeLong(track.timescale);
+        stbl.add(stsd);
+
+        // stts和ctts都把连续相同的值合并成一项，和真实的muxer一样
+        Box stts = new Box("stts");
+        stts.out.writeInt(0);
+        writeRuns(stts, track.deltas);
+        stbl.add(stts);
+
+        if (null != track.compositionOffsets) {
+            Box ctts = new Box("ctts");
+            ctts.out.writeInt(track.cttsVersion << 24);
+            writeRuns(ctts, track.compositionOffsets);
+            stbl.add(ctts);
+        }
+
+        if (null != track.syncSamples) {
+            Box stss = new Box("stss");
+            stss.out.writeInt(0);
+            stss.out.writeInt(track.syncSamples.length);
+            for (int sample : track.syncSamples) {
+                stss.out.writeInt(sample + 1);
+            }
+            stbl.add(stss);
+        }
+
+        Box stsz = new Box("stsz");
+        stsz.out.writeInt(0);
+        stsz.out.writeInt(0);
+        stsz.out.writeInt(track.sizes.length);
+        for (int size : track.sizes) {
+            stsz.out.writeInt(size);
+        }
+        stbl.add(stsz);
+
+        Box stsc = new Box("stsc");
+        stsc.out.writeInt(0);
+        int last = track.sizes.length - (track.chunkCount() - 1) * track.samplesPerChunk;
+        boolean partial = last != track.samplesPerChunk && track.chunkCount() > 1;
+        stsc.out.writeInt(partial ? 2 : 1);
+        stsc.out.writeInt(1);
+        stsc.out.writeInt(track.chunkCount() > 1 ? track.samplesPerChunk : last);
+        stsc.out.writeInt(1);
+        if (partial) {
+            stsc.out.writeInt(track.chunkCount());
+            stsc.out.writeInt(last);
+            stsc.out.writeInt(1);
+        }
+        stbl.add(stsc);
+
+        boolean wide = false;
+        for (long offset : chunkOffsets) {
+            wide |= offset > 0xFFFFFFFFL;
+        }
+        Box stco = new Box(wide ? "co64" : "stco");
+        stco.out.writeInt(0);
+        stco.out.writeInt(chunkOffsets.length);
+        for (long offset : chunkOffsets) {
+            if (wide) {
+                stco.out.writeLong(offset);
+            } else {
+                stco.out.writeInt((int) offset);
+            }
+        }
+        stbl.add(stco);
+        return stbl;
+    }
+
+    // entry_count加上(sample_count, value)游程
+    private static void writeRuns(Box box, int[] values) throws IOException {
+        int runs = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1]) {
+                runs++;
+            }
+        }
+        box.out.writeInt(runs);
+        int start = 0;
+        for (int i = 1; i <= values.length; i++) {
+            if (i == values.length || values[i] != values[start]) {
+                box.out.writeInt(i - start);
+                box.out.writeInt(values[start]);
+                start = i;
+            }
+        }
+    }
+
+    private static class Box {
+        final String type;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        Box(String type) {
+            this.type = type;
+        }
+
+        void add(Box child) throws IOException {
+            out.write(child.toByteArray());
+        }
+
+        byte[] toByteArray() throws IOException {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(result);
+            header.writeInt(bytes.size() + 8);
+            header.writeBytes(type);
+            bytes.writeTo(result);
+            return result.toByteArray();
+        }
+    }
+}
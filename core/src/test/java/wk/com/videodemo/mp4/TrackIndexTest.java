@@ -0,0 +1,145 @@
+package wk.com.videodemo.mp4;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TrackIndexTest {
+    private final List<File> mFiles = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles) {
+            file.delete();
+        }
+    }
+
+    // 60帧的视频，ctts按{1000, 3000, 0, 0}重复，开头空白500ms，第一段从media_time 1000开始
+    private TrackIndex shiftedVideo() throws IOException {
+        SyntheticMp4.Track video = SyntheticMp4.video(60);
+        video.compositionOffsets = new int[60];
+        for (int i = 0; i < 60; i++) {
+            int[] pattern = {1000, 3000, 0, 0};
+            video.compositionOffsets[i] = pattern[i % 4];
+        }
+        video.editEmptyDuration = 500;
+        video.editMediaTime = 1000;
+        return Mp4IndexReader.read(write(video)).getTracks().get(0);
+    }
+
+    @Test
+    public void presentationTimeAddsCttsAndEditList() throws IOException {
+        TrackIndex track = shiftedVideo();
+        // 平移 = 500ms的空白（15000） - media_time（1000） = 14000
+        assertEquals(1000 + 14000, track.getPresentationTime(0));
+        assertEquals(1000 + 3000 + 14000, track.getPresentationTime(1));
+        assertEquals(2000 + 14000, track.getPresentationTime(2));
+        assertEquals(500000, track.getPresentationTimeUs(0));
+        assertEquals(2000, track.getSampleTime(2));
+        assertEquals(3000, track.getCompositionOffset(1));
+    }
+
+    @Test
+    public void syncSampleSearchUsesPresentationTime() throws IOException {
+        TrackIndex track = shiftedVideo();
+        // 关键帧0、15、30、45的显示时间：15000、29000、44000、62000
+        assertEquals(0, track.getSyncSampleAtOrBefore(0));
+        assertEquals(0, track.getSyncSampleAtOrBefore(900000));
+        assertEquals(15, track.getSyncSampleAtOrBefore(1000000));
+        assertEquals(15, track.getSyncSampleAtOrBefore(1400000));
+        assertEquals(30, track.getSyncSampleAtOrBefore(1466667));
+        assertEquals(45, track.getSyncSampleAtOrBefore(10000000));
+        assertEquals(track.getPresentationTimeUs(15), track.getSyncTimeAtOrBeforeUs(1000000));
+    }
+
+    @Test
+    public void syncSampleSearchWithoutStssUsesEditList() throws IOException {
+        SyntheticMp4.Track audio = SyntheticMp4.audio(100);
+        // 开头空白100ms，也就是4410
+        audio.editEmptyDuration = 100;
+        audio.editMediaTime = 0;
+        TrackIndex track = Mp4IndexReader.read(write(audio)).getTracks().get(0);
+        assertEquals(0, track.getSyncSampleAtOrBefore(0));
+        assertEquals(0, track.getSyncSampleAtOrBefore(100000));
+        // 4410 + 1024 * 10 + 5
+        assertEquals(10, track.getSyncSampleAtOrBefore(14655L * 1000000 / 44100 + 1));
+        assertEquals(99, track.getSyncSampleAtOrBefore(100000000));
+    }
+
+    @Test
+    public void rejectsSttsShorterThanStsz() throws IOException {
+        File file = write(SyntheticMp4.video(30));
+        // stts的entry_count改成0，stss还在
+        patch(file, "stts", 12, 0);
+        assertMalformed(file);
+    }
+
+    @Test
+    public void rejectsSyncSampleZero() throws IOException {
+        SyntheticMp4.Track video = SyntheticMp4.video(30);
+        // 写进stss的是采样号+1，也就是0
+        video.syncSamples = new int[]{-1, 15};
+        assertMalformed(write(video));
+    }
+
+    @Test
+    public void rejectsSyncSampleBeyondEnd() throws IOException {
+        SyntheticMp4.Track video = SyntheticMp4.video(30);
+        video.syncSamples = new int[]{0, 30};
+        assertMalformed(write(video));
+    }
+
+    @Test
+    public void rejectsZeroSamplesPerChunk() throws IOException {
+        File file = write(SyntheticMp4.video(30));
+        // 第一条stsc记录的samples_per_chunk
+        patch(file, "stsc", 20, 0);
+        assertMalformed(file);
+    }
+
+    @Test
+    public void rejectsFirstChunkBeyondChunkOffsets() throws IOException {
+        // 32帧最后一个chunk不满，stsc有两条记录，第二条的first_chunk是7
+        File file = write(SyntheticMp4.video(32));
+        patch(file, "stsc", 28, 8);
+        assertMalformed(file);
+    }
+
+    private File write(SyntheticMp4.Track... tracks) throws IOException {
+        File file = File.createTempFile("index", ".mp4");
+        mFiles.add(file);
+        SyntheticMp4.write(file, true, tracks);
+        return file;
+    }
+
+    private static void assertMalformed(File file) {
+        try {
+            Mp4IndexReader.read(file);
+            fail("malformed sample table was accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    // 改写第一个type类型的box里，从box开头算offset处的32位整数
+    private static void patch(File file, String type, int offset, int value) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            String text = new String(data, "ISO-8859-1");
+            int box = text.indexOf(type) - 4;
+            raf.seek(box + offset);
+            raf.writeInt(value);
+        } finally {
+            raf.close();
+        }
+    }
+}
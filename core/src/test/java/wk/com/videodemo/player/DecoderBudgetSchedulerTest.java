@@ -0,0 +1,93 @@
+package wk.com.videodemo.player;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecoderBudgetSchedulerTest {
+    private int mAcquireCount;
+
+    private final DecoderBudgetScheduler.Listener mListener = new DecoderBudgetScheduler.Listener() {
+        @Override
+        public void onStateChanged(int tileId, int oldState, int newState) {
+            if (DecoderBudgetScheduler.STATE_RELEASED == oldState) {
+                mAcquireCount++;
+            }
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mAcquireCount = 0;
+    }
+
+    private DecoderBudgetScheduler create(int budget, long recoverIntervalMs, int tileCount) {
+        DecoderBudgetScheduler scheduler = new DecoderBudgetScheduler(budget, recoverIntervalMs, mListener);
+        for (int i = 0; i < tileCount; i++) {
+            scheduler.addTile(i, 0);
+            scheduler.setVisible(i, true);
+        }
+        scheduler.schedule();
+        return scheduler;
+    }
+
+    @Test
+    public void visibleTilesPlayWithinBudget() {
+        DecoderBudgetScheduler scheduler = create(2, Long.MAX_VALUE, 3);
+        assertEquals(DecoderBudgetScheduler.STATE_PLAYING, scheduler.getState(0));
+        assertEquals(DecoderBudgetScheduler.STATE_PLAYING, scheduler.getState(1));
+        assertEquals(DecoderBudgetScheduler.STATE_RELEASED, scheduler.getState(2));
+        assertEquals(2, scheduler.getHoldingCount());
+    }
+
+    @Test
+    public void allocationFailureShrinksBudget() {
+        DecoderBudgetScheduler scheduler = create(3, Long.MAX_VALUE, 3);
+        scheduler.onDecoderFailed(2, true);
+        assertEquals(2, scheduler.getBudget());
+        assertFalse(scheduler.isParked(2));
+        assertEquals(DecoderBudgetScheduler.STATE_RELEASED, scheduler.getState(2));
+    }
+
+    @Test
+    public void sourceFailureParksTileWithoutShrinkingBudget() {
+        DecoderBudgetScheduler scheduler = create(2, Long.MAX_VALUE, 3);
+        scheduler.setPriority(0, 1);
+        scheduler.onDecoderFailed(0, false);
+        assertEquals(2, scheduler.getBudget());
+        assertTrue(scheduler.isParked(0));
+        // 搁置的格子不再申请解码器，预算让给其它格子
+        int acquired = mAcquireCount;
+        scheduler.schedule();
+        scheduler.schedule();
+        assertEquals(acquired, mAcquireCount);
+        assertEquals(DecoderBudgetScheduler.STATE_RELEASED, scheduler.getState(0));
+        assertEquals(DecoderBudgetScheduler.STATE_PLAYING, scheduler.getState(2));
+
+        scheduler.resumeTile(0);
+        scheduler.schedule();
+        assertEquals(DecoderBudgetScheduler.STATE_PLAYING, scheduler.getState(0));
+    }
+
+    @Test
+    public void failureWithNothingElseHoldingIsNotAllocation() {
+        DecoderBudgetScheduler scheduler = create(2, Long.MAX_VALUE, 1);
+        scheduler.onDecoderFailed(0, true);
+        assertEquals(2, scheduler.getBudget());
+        assertTrue(scheduler.isParked(0));
+    }
+
+    @Test
+    public void budgetRecoversOverTime() {
+        DecoderBudgetScheduler scheduler = create(3, 0, 3);
+        scheduler.onDecoderFailed(2, true);
+        // 恢复间隔为0，onDecoderFailed()里的schedule()就会加回1个
+        assertEquals(3, scheduler.getBudget());
+        scheduler.schedule();
+        assertEquals(3, scheduler.getBudget());
+        assertEquals(3, scheduler.getHoldingCount());
+    }
+}
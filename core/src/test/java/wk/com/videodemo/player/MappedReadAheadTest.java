@@ -0,0 +1,85 @@
+package wk.com.videodemo.player;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedReadAheadTest {
+    private static final long REGION = 16 * 1024 * 1024;
+    private static final int REGION_COUNT = MappedReadAhead.MAX_MAPPED_REGIONS * 2 + 1;
+
+    // 预读直接在调用线程里执行
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("readahead", ".bin");
+        // 稀疏文件，每一段的开头写一个标记字节
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(REGION * REGION_COUNT);
+            for (int i = 0; i < REGION_COUNT; i++) {
+                raf.seek(i * REGION);
+                raf.write(i + 1);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void sequentialReadKeepsMappedRegionsBounded() throws IOException {
+        MappedReadAhead reader = new MappedReadAhead(mFile, DIRECT);
+        byte[] buffer = new byte[1024 * 1024];
+        try {
+            for (long position = 0; position < mFile.length(); position += buffer.length) {
+                assertEquals(buffer.length, reader.read(position, buffer, 0, buffer.length));
+                if (position % REGION == 0) {
+                    assertEquals((int) (position / REGION) + 1, buffer[0]);
+                }
+                assertTrue(reader.getMappedRegionCount() <= MappedReadAhead.MAX_MAPPED_REGIONS);
+            }
+            assertEquals(-1, reader.read(mFile.length(), buffer, 0, 1));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void seekBackRemapsDroppedRegion() throws IOException {
+        MappedReadAhead reader = new MappedReadAhead(mFile, DIRECT);
+        byte[] buffer = new byte[16];
+        try {
+            for (int i = 0; i < REGION_COUNT; i++) {
+                reader.read(i * REGION, buffer, 0, buffer.length);
+                assertEquals(i + 1, buffer[0]);
+            }
+            // 第一段早就丢掉了，回头读时重新映射
+            reader.read(0, buffer, 0, buffer.length);
+            assertEquals(1, buffer[0]);
+            assertTrue(reader.getMappedRegionCount() <= MappedReadAhead.MAX_MAPPED_REGIONS);
+        } finally {
+            reader.close();
+        }
+    }
+}
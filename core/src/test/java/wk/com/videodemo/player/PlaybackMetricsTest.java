@@ -0,0 +1,88 @@
+package wk.com.videodemo.player;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PlaybackMetricsTest {
+
+    @Test
+    public void evictsLeastRecentlyUsedSource() {
+        PlaybackMetrics metrics = new PlaybackMetrics(2, 1);
+        metrics.recordPlay("a", PlaybackSession.START_COLD);
+        metrics.recordPlay("b", PlaybackSession.START_COLD);
+        // a又用了一次，b变成最久没用的
+        metrics.recordPrepare("a", 100);
+        metrics.recordPlay("c", PlaybackSession.START_COLD);
+
+        assertNull(metrics.snapshot("b"));
+        assertNotNull(metrics.snapshot("a"));
+        List<PlaybackMetrics.Snapshot> snapshots = metrics.snapshot();
+        assertEquals(2, snapshots.size());
+        assertEquals("a", snapshots.get(0).source);
+        assertEquals("c", snapshots.get(1).source);
+        // 总计里还有被淘汰的b
+        assertEquals(3, metrics.snapshotTotal().plays);
+    }
+
+    @Test
+    public void snapshotDoesNotChangeLruOrder() {
+        PlaybackMetrics metrics = new PlaybackMetrics(2, 1);
+        metrics.recordPlay("a", PlaybackSession.START_COLD);
+        metrics.recordPlay("b", PlaybackSession.START_COLD);
+        metrics.snapshot("a");
+        metrics.recordPlay("c", PlaybackSession.START_COLD);
+
+        assertNull(metrics.snapshot("a"));
+        assertNotNull(metrics.snapshot("b"));
+    }
+
+    @Test
+    public void countsOnlyNewDataAsUpdates() {
+        PlaybackMetrics metrics = new PlaybackMetrics(4, 2);
+        long before = metrics.getUpdateCount();
+        // 越界的状态和0时长不算数据
+        metrics.recordStateTime("a", 5, 100);
+        metrics.recordStateTime("a", 0, 0);
+        assertEquals(before, metrics.getUpdateCount());
+        assertNull(metrics.snapshot("a"));
+
+        metrics.recordStateTime("a", 1, 100);
+        assertTrue(metrics.getUpdateCount() > before);
+        assertEquals(100, metrics.snapshot("a").stateMs[1]);
+    }
+
+    @Test
+    public void groupsExtraErrorCodesAsOther() {
+        PlaybackMetrics metrics = new PlaybackMetrics(4, 1);
+        for (int i = 0; i < PlaybackMetrics.MAX_ERROR_CODES + 3; i++) {
+            metrics.recordError("a", 1, i);
+        }
+        metrics.recordError("a", 1, 0);
+
+        PlaybackMetrics.Snapshot a = metrics.snapshot("a");
+        assertEquals(PlaybackMetrics.MAX_ERROR_CODES, a.errors.length);
+        assertEquals(2, a.errorCounts[0]);
+        assertEquals(3, a.otherErrorCount);
+        assertEquals(PlaybackMetrics.MAX_ERROR_CODES + 4, a.getErrorCount());
+    }
+
+    @Test
+    public void resetClearsSourcesAndTotal() {
+        PlaybackMetrics metrics = new PlaybackMetrics(4, 1);
+        metrics.recordPlay("a", PlaybackSession.START_WARM);
+        metrics.recordFirstFrame("a", 50, true);
+        metrics.reset();
+
+        assertTrue(metrics.snapshot().isEmpty());
+        PlaybackMetrics.Snapshot total = metrics.snapshotTotal();
+        assertEquals(0, total.plays);
+        assertEquals(0, total.warmPlays);
+        assertEquals(0, total.warmFirstFrame.count);
+    }
+}
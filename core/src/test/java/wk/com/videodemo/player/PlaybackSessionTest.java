@@ -0,0 +1,108 @@
+package wk.com.videodemo.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PlaybackSessionTest {
+    private static final int PREPARING = 0;
+    private static final int PLAYING = 1;
+
+    private final PlaybackMetrics mMetrics = new PlaybackMetrics(8, 2);
+    private final PlaybackSession mSession = new PlaybackSession(mMetrics);
+
+    @Test
+    public void coldStartRecordsPrepareAndFirstFrame() {
+        mSession.begin("a", 900, 1000, PlaybackSession.START_COLD);
+        mSession.onStateChanged(PREPARING, 1000);
+        mSession.onPrepared(1300);
+        mSession.onStateChanged(PLAYING, 1300);
+        mSession.onFirstFrame(1500);
+        // 重复的回调不再记录
+        mSession.onPrepared(1600);
+        mSession.onFirstFrame(1600);
+        mSession.end(2500);
+
+        PlaybackMetrics.Snapshot a = mMetrics.snapshot("a");
+        assertEquals(1, a.plays);
+        assertEquals(0, a.warmPlays);
+        assertEquals(1, a.prepare.count);
+        assertEquals(300, a.prepare.max);
+        assertEquals(1, a.firstFrame.count);
+        assertEquals(600, a.firstFrame.max);
+        assertEquals(0, a.warmFirstFrame.count);
+        assertArrayEquals(new long[]{300, 1200}, a.stateMs);
+    }
+
+    @Test
+    public void warmStartSkipsPrepare() {
+        mSession.begin("a", 1000, 1000, PlaybackSession.START_WARM);
+        mSession.onPrepared(1001);
+        mSession.onFirstFrame(1080);
+
+        PlaybackMetrics.Snapshot a = mMetrics.snapshot("a");
+        assertEquals(1, a.plays);
+        assertEquals(1, a.warmPlays);
+        assertEquals(0, a.prepare.count);
+        assertEquals(0, a.firstFrame.count);
+        assertEquals(80, a.warmFirstFrame.max);
+    }
+
+    @Test
+    public void gaplessStartIsNotAPlay() {
+        mSession.begin("a", 1000, 1000, PlaybackSession.START_COLD);
+        mSession.onStateChanged(PLAYING, 1000);
+        mSession.begin("b", 5000, 5000, PlaybackSession.START_GAPLESS);
+        mSession.onPrepared(5000);
+        mSession.onFirstFrame(5040);
+        mSession.onStateChanged(PLAYING, 5000);
+        mSession.end(8000);
+
+        PlaybackMetrics.Snapshot b = mMetrics.snapshot("b");
+        assertEquals(0, b.plays);
+        assertEquals(1, b.gaplessPlays);
+        assertEquals(0, b.prepare.count);
+        assertEquals(0, b.firstFrame.count + b.warmFirstFrame.count);
+        assertEquals(3000, b.stateMs[PLAYING]);
+        // 切换时上一个视频的状态时间记完
+        assertEquals(4000, mMetrics.snapshot("a").stateMs[PLAYING]);
+        assertEquals(1, mMetrics.snapshotTotal().plays);
+    }
+
+    @Test
+    public void beginFinishesPendingEventsOfPreviousSource() {
+        mSession.begin("a", 1000, 1000, PlaybackSession.START_COLD);
+        mSession.onBufferingStarted(1200);
+        mSession.onSeekStarted(1300);
+        // prepare还没完成就切到了b
+        mSession.begin("b", 2000, 2000, PlaybackSession.START_COLD);
+        mSession.onSeekCompleted(2100);
+        mSession.onPrepared(2200);
+
+        PlaybackMetrics.Snapshot a = mMetrics.snapshot("a");
+        assertEquals(0, a.prepare.count);
+        assertEquals(0, a.seek.count);
+        assertEquals(1, a.buffering.count);
+        assertEquals(800, a.buffering.max);
+        PlaybackMetrics.Snapshot b = mMetrics.snapshot("b");
+        assertEquals(0, b.seek.count);
+        assertEquals(200, b.prepare.max);
+    }
+
+    @Test
+    public void seekIsTimedFromFirstRequest() {
+        mSession.begin("a", 0, 0, PlaybackSession.START_COLD);
+        mSession.onSeekStarted(100);
+        mSession.onSeekStarted(150);
+        mSession.onSeekCompleted(400);
+        mSession.onError(1, -1004);
+        mSession.onError(1, -1004);
+
+        PlaybackMetrics.Snapshot a = mMetrics.snapshot("a");
+        assertEquals(1, a.seek.count);
+        assertEquals(300, a.seek.max);
+        assertEquals(2, a.getErrorCount());
+        assertArrayEquals(new int[]{1, -1004}, a.errors[0]);
+    }
+}